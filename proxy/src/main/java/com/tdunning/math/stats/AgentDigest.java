@@ -418,7 +418,11 @@ public class AgentDigest extends AbstractTDigest {
    */
   private static final int PER_CENTROID_SIZE = 8;
 
-  private int encodedSize() {
+  /**
+   * Size of this AgentDigest in its serialized form (see {@link AgentDigestMarshaller}), in bytes
+   * (does compress if necessary).
+   */
+  public int encodedSize() {
     return FIXED_SIZE + centroidCount() * PER_CENTROID_SIZE;
   }
 
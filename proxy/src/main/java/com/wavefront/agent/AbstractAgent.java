@@ -278,7 +278,9 @@ public abstract class AbstractAgent {
       if (proxyConfig.getExportQueueOutputFile() != null &&
           proxyConfig.getExportQueuePorts() != null) {
         TaskQueueFactory tqFactory = new TaskQueueFactoryImpl(proxyConfig.getBufferFile(), false,
-            false, proxyConfig.getBufferShardSize());
+            false, proxyConfig.getBufferShardSize(), new TaskQueueFactoryImpl.Options().
+                memoryMapped(proxyConfig.isBufferMemoryMapped()).
+                precompressPayloads(proxyConfig.isBufferPrecompressedPayloads()));
         EntityPropertiesFactory epFactory = new EntityPropertiesFactoryImpl(proxyConfig);
         QueueExporter queueExporter = new QueueExporter(proxyConfig.getBufferFile(),
             proxyConfig.getExportQueuePorts(), proxyConfig.getExportQueueOutputFile(),
@@ -13,6 +13,7 @@ import com.wavefront.agent.auth.TokenValidationMethod;
 import com.wavefront.agent.config.Configuration;
 import com.wavefront.agent.config.ReportableConfig;
 import com.wavefront.agent.data.TaskQueueLevel;
+import com.wavefront.agent.queueing.SyncPolicy;
 import com.wavefront.common.TimeProvider;
 import org.apache.commons.lang3.ObjectUtils;
 
@@ -34,6 +35,10 @@ import static com.wavefront.agent.data.EntityProperties.DEFAULT_BATCH_SIZE_SPAN_
 import static com.wavefront.agent.data.EntityProperties.DEFAULT_FLUSH_INTERVAL;
 import static com.wavefront.agent.data.EntityProperties.DEFAULT_FLUSH_THREADS_EVENTS;
 import static com.wavefront.agent.data.EntityProperties.DEFAULT_FLUSH_THREADS_SOURCE_TAGS;
+import static com.wavefront.agent.data.EntityProperties.DEFAULT_ADAPTIVE_BATCH_LATENCY_TARGET_MILLIS;
+import static com.wavefront.agent.data.EntityProperties.DEFAULT_BACKLOG_COMPACTION;
+import static com.wavefront.agent.data.EntityProperties.DEFAULT_MAX_IN_FLIGHT_BATCHES;
+import static com.wavefront.agent.data.EntityProperties.DEFAULT_MAX_IN_FLIGHT_REPLAY_TASKS;
 import static com.wavefront.agent.data.EntityProperties.DEFAULT_MIN_SPLIT_BATCH_SIZE;
 import static com.wavefront.agent.data.EntityProperties.DEFAULT_RETRY_BACKOFF_BASE_SECONDS;
 import static com.wavefront.agent.data.EntityProperties.DEFAULT_SPLIT_PUSH_WHEN_RATE_LIMITED;
@@ -87,7 +92,9 @@ public class ProxyConfig extends Configuration {
   String server = "http://localhost:8080/api/";
 
   @Parameter(names = {"--buffer"}, description = "File name prefix to use for buffering " +
-      "transmissions to be retried. Defaults to /var/spool/wavefront-proxy/buffer.", order = 7)
+      "transmissions to be retried. Accepts a comma-separated list of prefixes (e.g. one per " +
+      "device) to spread buffer I/O: each queue is placed in one of them, round-robin. " +
+      "Defaults to /var/spool/wavefront-proxy/buffer.", order = 7)
   String bufferFile = "/var/spool/wavefront-proxy/buffer";
 
   @Parameter(names = {"--bufferShardSize"}, description = "Buffer file partition size, in MB. " +
@@ -100,6 +107,72 @@ public class ProxyConfig extends Configuration {
       "(legacy functionality). Default: false", arity = 1)
   boolean disableBufferSharding = false;
 
+  @Parameter(names = {"--bufferMemoryMapped"}, description = "Use memory-mapped append-only " +
+      "segment files for the disk buffer instead of the default queue files. Segment size is " +
+      "controlled by bufferShardSize. Existing buffer files are not converted, so make sure " +
+      "the buffer is empty before switching. Default: false", arity = 1)
+  boolean bufferMemoryMapped = false;
+
+  @Parameter(names = {"--bufferBinaryEncoding"}, description = "Store tasks in the disk buffer " +
+      "in a compact binary format instead of JSON. Tasks stored in either format are always " +
+      "readable, but proxy versions that don't support this setting can't read binary tasks. " +
+      "Default: false", arity = 1)
+  boolean bufferBinaryEncoding = false;
+
+  @Parameter(names = {"--bufferPrecompressedPayloads"}, description = "Store line-delimited " +
+      "data in the disk buffer as ready-to-send gzip-compressed request bodies, so replaying " +
+      "the backlog doesn't require decoding and re-compressing it. Data replayed from the " +
+      "buffer is always sent compressed. Default: false", arity = 1)
+  boolean bufferPrecompressedPayloads = false;
+
+  @Parameter(names = {"--bufferGroupCommit"}, description = "Stage tasks written to the disk " +
+      "buffer in memory and write them out in batches on a background thread, so that threads " +
+      "adding tasks to the buffer don't stall on disk I/O. Default: false", arity = 1)
+  boolean bufferGroupCommit = false;
+
+  @Parameter(names = {"--bufferSyncPolicy"}, converter = SyncPolicyConverter.class,
+      description = "When to flush changes written to the disk buffer with group commit to " +
+          "durable storage. Allowed values: NONE (leave it to the OS), INTERVAL (every " +
+          "bufferSyncIntervalMillis), BYTES (every bufferSyncBytes written). Only applies when " +
+          "bufferGroupCommit is enabled. Default: INTERVAL")
+  SyncPolicy bufferSyncPolicy = SyncPolicy.INTERVAL;
+
+  @Parameter(names = {"--bufferSyncIntervalMillis"}, description = "Milliseconds between " +
+      "disk buffer flushes for the INTERVAL sync policy. Default: 1000")
+  int bufferSyncIntervalMillis = 1000;
+
+  @Parameter(names = {"--bufferSyncBytes"}, description = "Number of bytes written to the " +
+      "disk buffer between flushes for the BYTES sync policy. Default: 4194304")
+  int bufferSyncBytes = 4 * 1024 * 1024;
+
+  @Parameter(names = {"--bufferMemoryTierSize"}, description = "Keep up to this many MBytes of " +
+      "tasks per buffer queue in memory, and only spill them to disk once this limit is " +
+      "exceeded, on heap memory pressure or on shutdown. Small backlogs are then replayed " +
+      "without disk I/O. Default: 0 (disabled)")
+  int bufferMemoryTierSize = 0;
+
+  @Parameter(names = {"--bufferQuota"}, description = "Max total size of all buffer files, in " +
+      "MB. Once exceeded, the oldest data is dropped (whole shards at a time), in the order " +
+      "set by bufferEvictionOrder, so that the freshest data can still be buffered. " +
+      "Default: 0 (unlimited)")
+  int bufferQuota = 0;
+
+  @Parameter(names = {"--bufferPortQuota"}, description = "Max total size of buffer files for " +
+      "each entity type and port, in MB. Once exceeded, the oldest data for that port is " +
+      "dropped (whole shards at a time). Default: 0 (unlimited)")
+  int bufferPortQuota = 0;
+
+  @Parameter(names = {"--bufferEvictionOrder"}, description = "Comma-separated list of entity " +
+      "types in the order their data is dropped when the bufferQuota is exceeded, lowest " +
+      "priority first. Default: spanLogs,spans,events,sourceTags,histograms,deltaCounters," +
+      "points")
+  String bufferEvictionOrder = "spanLogs,spans,events,sourceTags,histograms,deltaCounters,points";
+
+  @Parameter(names = {"--bufferReadAhead"}, description = "Number of tasks to read and decode " +
+      "ahead of the consumer on a background thread when replaying buffered data, so that " +
+      "disk reads and decoding don't add to the latency of each task. Default: 0 (disabled)")
+  int bufferReadAhead = 0;
+
   @Parameter(names = {"--sqsBuffer"}, description = "Use AWS SQS Based for buffering transmissions " +
       "to be retried. Defaults to False", arity = 1)
   boolean sqsQueueBuffer = false;
@@ -157,6 +230,31 @@ public class ProxyConfig extends Configuration {
       "Defaults to 1000 ms")
   int pushFlushInterval = DEFAULT_FLUSH_INTERVAL;
 
+  @Parameter(names = {"--pushMaxInFlightBatches"}, description = "Max number of batches that " +
+      "each flush thread can have in flight at the same time. Values greater than 1 enable " +
+      "asynchronous submission, which helps saturate high-latency links without increasing " +
+      "flushThreads. Default: 1 (synchronous)")
+  int pushMaxInFlightBatches = DEFAULT_MAX_IN_FLIGHT_BATCHES;
+
+  @Parameter(names = {"--pushMaxInFlightReplayTasks"}, description = "Max number of buffered " +
+      "tasks that each queue processor can have in flight at the same time when replaying the " +
+      "backlog. Values greater than 1 speed up draining the buffer over high-latency links. " +
+      "Default: 1 (sequential replay)")
+  int pushMaxInFlightReplayTasks = DEFAULT_MAX_IN_FLIGHT_REPLAY_TASKS;
+
+  @Parameter(names = {"--pushBacklogCompaction"}, description = "When replaying the backlog, " +
+      "merge adjacent small buffered tasks (same format and port) into full-size batches " +
+      "(up to pushFlushMax* items), reducing the number of requests needed to drain a buffer " +
+      "filled with partial batches. Default: false", arity = 1)
+  boolean pushBacklogCompaction = DEFAULT_BACKLOG_COMPACTION;
+
+  @Parameter(names = {"--pushAdaptiveBatchLatencyTargetMillis"}, description = "Target p99 " +
+      "latency (in milliseconds) for adaptive batch sizing. When set, the number of items per " +
+      "batch grows while p99 submission latency stays under the target, and is cut in half " +
+      "on pushback (HTTP 406/413/429) or timeouts, never exceeding pushFlushMax* settings. " +
+      "Default: 0 (disabled)")
+  int pushAdaptiveBatchLatencyTargetMillis = DEFAULT_ADAPTIVE_BATCH_LATENCY_TARGET_MILLIS;
+
   @Parameter(names = {"--pushFlushMaxPoints"}, description = "Maximum allowed points " +
       "in a single flush. Defaults: 40000")
   int pushFlushMaxPoints = DEFAULT_BATCH_SIZE;
@@ -273,6 +371,12 @@ public class ProxyConfig extends Configuration {
           "millis (only applicable when memory cache is enabled")
   Long histogramAccumulatorResolveInterval = 5000L;
 
+  @Parameter(names = {"--histogramAccumulatorResolveBudgetMillis"},
+      description = "Max time to spend writing back accumulation changes from memory cache to " +
+          "disk on each resolve, in millis. Changes that don't fit are written on the next " +
+          "resolve. (Default: 1000)")
+  Long histogramAccumulatorResolveBudgetMillis = 1000L;
+
   @Parameter(names = {"--histogramAccumulatorFlushInterval"},
       description = "Interval to check for histograms to send to Wavefront in millis. " +
           "(Default: 10000)")
@@ -283,6 +387,31 @@ public class ProxyConfig extends Configuration {
           "(Default: no limit)")
   Integer histogramAccumulatorFlushMaxBatchSize = -1;
 
+  @Parameter(names = {"--histogramDispatchThreads"},
+      description = "Number of threads to send histograms that are ready to Wavefront with. " +
+          "Histograms are split into as many partitions, which are sent in parallel. " +
+          "(Default: 1)")
+  Integer histogramDispatchThreads = 1;
+
+  @Parameter(names = {"--histogramRollUp"}, arity = 1,
+      description = "Roll up dispatched minute histograms into hour histograms, and hour " +
+          "histograms into day histograms (minute into day if there are no hour ports), " +
+          "instead of accumulating samples for each granularity separately. Hour and day " +
+          "ports still need to be configured to enable those granularities, but only the " +
+          "ports of the finest configured granularity are listened on. Default: false")
+  boolean histogramRollUp = false;
+
+  @Parameter(names = {"--histogramAccumulatorStagingSize"},
+      description = "Max number of samples received on histogram ports to stage per thread " +
+          "before merging them into the accumulator in bulk, to reduce contention on " +
+          "frequently updated histograms. (Default: 0, disabled)")
+  Integer histogramAccumulatorStagingSize = 0;
+
+  @Parameter(names = {"--histogramAccumulatorStagingMillis"},
+      description = "Max time samples can be staged for before they are merged into the " +
+          "accumulator, in millis (only applicable when staging is enabled). (Default: 10)")
+  Long histogramAccumulatorStagingMillis = 10L;
+
   @Parameter(names = {"--histogramMaxReceivedLength"},
       description = "Maximum line length for received histogram data (Default: 65536)")
   Integer histogramMaxReceivedLength = 64 * 1024;
@@ -855,6 +984,54 @@ public class ProxyConfig extends Configuration {
     return disableBufferSharding;
   }
 
+  public boolean isBufferMemoryMapped() {
+    return bufferMemoryMapped;
+  }
+
+  public boolean isBufferBinaryEncoding() {
+    return bufferBinaryEncoding;
+  }
+
+  public boolean isBufferPrecompressedPayloads() {
+    return bufferPrecompressedPayloads;
+  }
+
+  public boolean isBufferGroupCommit() {
+    return bufferGroupCommit;
+  }
+
+  public SyncPolicy getBufferSyncPolicy() {
+    return bufferSyncPolicy;
+  }
+
+  public int getBufferSyncIntervalMillis() {
+    return bufferSyncIntervalMillis;
+  }
+
+  public int getBufferSyncBytes() {
+    return bufferSyncBytes;
+  }
+
+  public int getBufferMemoryTierSize() {
+    return bufferMemoryTierSize;
+  }
+
+  public int getBufferQuota() {
+    return bufferQuota;
+  }
+
+  public int getBufferPortQuota() {
+    return bufferPortQuota;
+  }
+
+  public String getBufferEvictionOrder() {
+    return bufferEvictionOrder;
+  }
+
+  public int getBufferReadAhead() {
+    return bufferReadAhead;
+  }
+
   public boolean isSqsQueueBuffer() {
     return sqsQueueBuffer;
   }
@@ -911,6 +1088,22 @@ public class ProxyConfig extends Configuration {
     return pushFlushInterval;
   }
 
+  public int getPushMaxInFlightBatches() {
+    return pushMaxInFlightBatches;
+  }
+
+  public int getPushMaxInFlightReplayTasks() {
+    return pushMaxInFlightReplayTasks;
+  }
+
+  public boolean isPushBacklogCompaction() {
+    return pushBacklogCompaction;
+  }
+
+  public int getPushAdaptiveBatchLatencyTarget() {
+    return pushAdaptiveBatchLatencyTargetMillis;
+  }
+
   public int getPushFlushMaxPoints() {
     return pushFlushMaxPoints;
   }
@@ -1023,6 +1216,10 @@ public class ProxyConfig extends Configuration {
     return histogramAccumulatorResolveInterval;
   }
 
+  public Long getHistogramAccumulatorResolveBudgetMillis() {
+    return histogramAccumulatorResolveBudgetMillis;
+  }
+
   public Long getHistogramAccumulatorFlushInterval() {
     return histogramAccumulatorFlushInterval;
   }
@@ -1031,6 +1228,22 @@ public class ProxyConfig extends Configuration {
     return histogramAccumulatorFlushMaxBatchSize;
   }
 
+  public Integer getHistogramDispatchThreads() {
+    return histogramDispatchThreads;
+  }
+
+  public boolean isHistogramRollUp() {
+    return histogramRollUp;
+  }
+
+  public Integer getHistogramAccumulatorStagingSize() {
+    return histogramAccumulatorStagingSize;
+  }
+
+  public Long getHistogramAccumulatorStagingMillis() {
+    return histogramAccumulatorStagingMillis;
+  }
+
   public Integer getHistogramMaxReceivedLength() {
     return histogramMaxReceivedLength;
   }
@@ -1614,11 +1827,20 @@ public class ProxyConfig extends Configuration {
           histogramStateDirectory);
       histogramAccumulatorResolveInterval = config.getLong("histogramAccumulatorResolveInterval",
           histogramAccumulatorResolveInterval);
+      histogramAccumulatorResolveBudgetMillis = Math.max(config.getLong(
+          "histogramAccumulatorResolveBudgetMillis", histogramAccumulatorResolveBudgetMillis), 1L);
       histogramAccumulatorFlushInterval = config.getLong("histogramAccumulatorFlushInterval",
           histogramAccumulatorFlushInterval);
       histogramAccumulatorFlushMaxBatchSize =
           config.getInteger("histogramAccumulatorFlushMaxBatchSize",
               histogramAccumulatorFlushMaxBatchSize);
+      histogramDispatchThreads = Math.max(config.getInteger("histogramDispatchThreads",
+          histogramDispatchThreads), 1);
+      histogramRollUp = config.getBoolean("histogramRollUp", histogramRollUp);
+      histogramAccumulatorStagingSize = Math.max(config.getInteger(
+          "histogramAccumulatorStagingSize", histogramAccumulatorStagingSize), 0);
+      histogramAccumulatorStagingMillis = Math.max(config.getLong(
+          "histogramAccumulatorStagingMillis", histogramAccumulatorStagingMillis), 1L);
       histogramMaxReceivedLength = config.getInteger("histogramMaxReceivedLength",
           histogramMaxReceivedLength);
       histogramHttpBufferSize = config.getInteger("histogramHttpBufferSize",
@@ -1825,6 +2047,27 @@ public class ProxyConfig extends Configuration {
       bufferFile = config.getString("buffer", bufferFile);
       bufferShardSize = config.getInteger("bufferShardSize", bufferShardSize);
       disableBufferSharding = config.getBoolean("disableBufferSharding", disableBufferSharding);
+      bufferMemoryMapped = config.getBoolean("bufferMemoryMapped", bufferMemoryMapped);
+      bufferBinaryEncoding = config.getBoolean("bufferBinaryEncoding", bufferBinaryEncoding);
+      bufferPrecompressedPayloads = config.getBoolean("bufferPrecompressedPayloads",
+          bufferPrecompressedPayloads);
+      bufferGroupCommit = config.getBoolean("bufferGroupCommit", bufferGroupCommit);
+      SyncPolicy syncPolicy = SyncPolicy.fromString(config.getString("bufferSyncPolicy",
+          bufferSyncPolicy.toString()));
+      if (syncPolicy != null) {
+        bufferSyncPolicy = syncPolicy;
+      } else {
+        logger.warning("Unknown bufferSyncPolicy value, using " + bufferSyncPolicy);
+      }
+      bufferSyncIntervalMillis = Math.max(config.getInteger("bufferSyncIntervalMillis",
+          bufferSyncIntervalMillis), 1);
+      bufferSyncBytes = Math.max(config.getInteger("bufferSyncBytes", bufferSyncBytes), 1);
+      bufferMemoryTierSize = Math.max(config.getInteger("bufferMemoryTierSize",
+          bufferMemoryTierSize), 0);
+      bufferQuota = Math.max(config.getInteger("bufferQuota", bufferQuota), 0);
+      bufferPortQuota = Math.max(config.getInteger("bufferPortQuota", bufferPortQuota), 0);
+      bufferEvictionOrder = config.getString("bufferEvictionOrder", bufferEvictionOrder);
+      bufferReadAhead = Math.max(config.getInteger("bufferReadAhead", bufferReadAhead), 0);
       taskQueueLevel = TaskQueueLevel.fromString(config.getString("taskQueueStrategy",
           taskQueueLevel.toString()));
       purgeBuffer = config.getBoolean("purgeBuffer", purgeBuffer);
@@ -1927,6 +2170,13 @@ public class ProxyConfig extends Configuration {
           pushMemoryBufferLimit), pushFlushMaxPoints);
       logger.fine("Configured pushMemoryBufferLimit: " + pushMemoryBufferLimit);
       pushFlushInterval = config.getInteger("pushFlushInterval", pushFlushInterval);
+      pushMaxInFlightBatches = Math.max(config.getInteger("pushMaxInFlightBatches",
+          pushMaxInFlightBatches), 1);
+      pushMaxInFlightReplayTasks = Math.max(config.getInteger("pushMaxInFlightReplayTasks",
+          pushMaxInFlightReplayTasks), 1);
+      pushBacklogCompaction = config.getBoolean("pushBacklogCompaction", pushBacklogCompaction);
+      pushAdaptiveBatchLatencyTargetMillis = Math.max(config.getInteger(
+          "pushAdaptiveBatchLatencyTargetMillis", pushAdaptiveBatchLatencyTargetMillis), 0);
       retryBackoffBaseSeconds = Math.max(Math.min(config.getDouble("retryBackoffBaseSeconds",
           retryBackoffBaseSeconds), MAX_RETRY_BACKOFF_BASE_SECONDS), 1.0);
     } catch (Throwable exception) {
@@ -1982,6 +2232,17 @@ public class ProxyConfig extends Configuration {
     }
   }
 
+  public static class SyncPolicyConverter implements IStringConverter<SyncPolicy> {
+    @Override
+    public SyncPolicy convert(String value) {
+      SyncPolicy convertedValue = SyncPolicy.fromString(value);
+      if (convertedValue == null) {
+        throw new ParameterException("Unknown sync policy: " + value);
+      }
+      return convertedValue;
+    }
+  }
+
   public static class TaskQueueLevelConverter implements IStringConverter<TaskQueueLevel> {
     @Override
     public TaskQueueLevel convert(String value) {
@@ -2,6 +2,7 @@ package com.wavefront.agent;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.RecyclableRateLimiter;
@@ -41,6 +42,7 @@ import com.wavefront.agent.histogram.PointHandlerDispatcher;
 import com.wavefront.agent.histogram.accumulator.AccumulationCache;
 import com.wavefront.agent.histogram.accumulator.Accumulator;
 import com.wavefront.agent.histogram.accumulator.AgentDigestFactory;
+import com.wavefront.agent.histogram.accumulator.StagingAccumulator;
 import com.wavefront.agent.listeners.AdminPortUnificationHandler;
 import com.wavefront.agent.listeners.ChannelByteArrayHandler;
 import com.wavefront.agent.listeners.DataDogPortUnificationHandler;
@@ -66,6 +68,7 @@ import com.wavefront.agent.preprocessor.SpanSanitizeTransformer;
 import com.wavefront.agent.queueing.QueueingFactory;
 import com.wavefront.agent.queueing.QueueingFactoryImpl;
 import com.wavefront.agent.queueing.SQSQueueFactoryImpl;
+import com.wavefront.agent.queueing.SyncPolicy;
 import com.wavefront.agent.queueing.TaskQueueFactory;
 import com.wavefront.agent.queueing.TaskQueueFactoryImpl;
 import com.wavefront.agent.sampler.SpanSampler;
@@ -123,7 +126,9 @@ import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -159,6 +164,8 @@ public class PushAgent extends AbstractAgent {
       new IdentityHashMap<>();
   protected ScheduledExecutorService histogramExecutor;
   protected ScheduledExecutorService histogramFlushExecutor;
+  @Nullable
+  protected ExecutorService histogramDispatchExecutor;
   @VisibleForTesting
   protected List<Runnable> histogramFlushRunnables = new ArrayList<>();
   protected final Counter bindErrors = Metrics.newCounter(
@@ -198,8 +205,13 @@ public class PushAgent extends AbstractAgent {
   protected void setupMemoryGuard() {
     if (proxyConfig.getMemGuardFlushThreshold() > 0) {
       float threshold = ((float) proxyConfig.getMemGuardFlushThreshold() / 100);
-      new ProxyMemoryGuard(() ->
-          senderTaskFactory.drainBuffersToQueue(QueueingReason.MEMORY_PRESSURE), threshold);
+      new ProxyMemoryGuard(() -> {
+        senderTaskFactory.drainBuffersToQueue(QueueingReason.MEMORY_PRESSURE);
+        // tasks kept in buffer memory tiers count towards heap usage as well
+        if (taskQueueFactory instanceof TaskQueueFactoryImpl) {
+          ((TaskQueueFactoryImpl) taskQueueFactory).spillMemoryTiers();
+        }
+      }, threshold);
     }
   }
 
@@ -222,9 +234,28 @@ public class PushAgent extends AbstractAgent {
           proxyConfig.getSqsQueueIdentifier(),
           proxyConfig.isPurgeBuffer());
     } else {
-      taskQueueFactory = new TaskQueueFactoryImpl(proxyConfig.getBufferFile(),
-          proxyConfig.isPurgeBuffer(), proxyConfig.isDisableBufferSharding(),
-          proxyConfig.getBufferShardSize());
+      TaskQueueFactoryImpl fileTaskQueueFactory = new TaskQueueFactoryImpl(
+          proxyConfig.getBufferFile(), proxyConfig.isPurgeBuffer(),
+          proxyConfig.isDisableBufferSharding(), proxyConfig.getBufferShardSize(),
+          new TaskQueueFactoryImpl.Options().
+              memoryMapped(proxyConfig.isBufferMemoryMapped()).
+              binaryEncoding(proxyConfig.isBufferBinaryEncoding()).
+              precompressPayloads(proxyConfig.isBufferPrecompressedPayloads()).
+              groupCommit(proxyConfig.isBufferGroupCommit(), proxyConfig.getBufferSyncPolicy(),
+                  proxyConfig.getBufferSyncPolicy() == SyncPolicy.BYTES ?
+                      proxyConfig.getBufferSyncBytes() :
+                      proxyConfig.getBufferSyncIntervalMillis()).
+              memoryTierBytes(proxyConfig.getBufferMemoryTierSize() * 1024L * 1024L).
+              readAheadTasks(proxyConfig.getBufferReadAhead()));
+      // load existing backlogs in parallel before any listeners are started
+      fileTaskQueueFactory.openExistingQueues(entityProps);
+      fileTaskQueueFactory.enforceQuotas(proxyConfig.getBufferQuota() * 1024L * 1024L,
+          proxyConfig.getBufferPortQuota() * 1024L * 1024L,
+          Splitter.on(',').trimResults().omitEmptyStrings().
+              splitToList(proxyConfig.getBufferEvictionOrder()).stream().
+              map(ReportableEntityType::fromString).filter(Objects::nonNull).
+              collect(Collectors.toList()));
+      taskQueueFactory = fileTaskQueueFactory;
     }
 
     remoteHostAnnotator = new SharedGraphiteHostAnnotator(proxyConfig.getCustomSourceTags(),
@@ -248,6 +279,11 @@ public class PushAgent extends AbstractAgent {
 
     shutdownTasks.add(() -> senderTaskFactory.shutdown());
     shutdownTasks.add(() -> senderTaskFactory.drainBuffersToQueue(null));
+    if (taskQueueFactory instanceof TaskQueueFactoryImpl) {
+      shutdownTasks.add(((TaskQueueFactoryImpl) taskQueueFactory)::shutdown);
+    } else if (taskQueueFactory instanceof SQSQueueFactoryImpl) {
+      shutdownTasks.add(((SQSQueueFactoryImpl) taskQueueFactory)::shutdown);
+    }
 
     // sampler for spans
     rateSampler.setSamplingRate(entityProps.getGlobalProperties().getTraceSamplingRate());
@@ -293,6 +329,12 @@ public class PushAgent extends AbstractAgent {
             new NamedThreadFactory("histogram-flush"));
         managedExecutors.add(histogramExecutor);
         managedExecutors.add(histogramFlushExecutor);
+        if (proxyConfig.getHistogramDispatchThreads() > 1) {
+          histogramDispatchExecutor = Executors.newFixedThreadPool(
+              proxyConfig.getHistogramDispatchThreads(),
+              new NamedThreadFactory("histogram-dispatch"));
+          managedExecutors.add(histogramDispatchExecutor);
+        }
 
         File baseDirectory = new File(proxyConfig.getHistogramStateDirectory());
 
@@ -300,6 +342,28 @@ public class PushAgent extends AbstractAgent {
         ReportableEntityHandler<ReportPoint, String> pointHandler = handlerFactory.getHandler(
             HandlerKey.of(ReportableEntityType.HISTOGRAM, "histogram_ports"));
 
+        // coarser granularities are started first, so finer ones can be rolled up into them.
+        // when rolling up, only the finest granularity accepts samples, as they'd be counted
+        // twice otherwise.
+        boolean rollUp = proxyConfig.isHistogramRollUp();
+        Accumulator dayAccumulator = startHistogramListeners(histDayPorts, pointHandler,
+            remoteHostAnnotator, Granularity.DAY, proxyConfig.getHistogramDayFlushSecs(),
+            proxyConfig.isHistogramDayMemoryCache(), baseDirectory,
+            proxyConfig.getHistogramDayAccumulatorSize(),
+            proxyConfig.getHistogramDayAvgKeyBytes(),
+            proxyConfig.getHistogramDayAvgDigestBytes(),
+            proxyConfig.getHistogramDayCompression(),
+            proxyConfig.isHistogramDayAccumulatorPersisted(), spanSampler, null, null,
+            !rollUp || (histHourPorts.isEmpty() && histMinPorts.isEmpty()));
+        Accumulator hourAccumulator = startHistogramListeners(histHourPorts, pointHandler,
+            remoteHostAnnotator, Granularity.HOUR, proxyConfig.getHistogramHourFlushSecs(),
+            proxyConfig.isHistogramHourMemoryCache(), baseDirectory,
+            proxyConfig.getHistogramHourAccumulatorSize(),
+            proxyConfig.getHistogramHourAvgKeyBytes(),
+            proxyConfig.getHistogramHourAvgDigestBytes(),
+            proxyConfig.getHistogramHourCompression(),
+            proxyConfig.isHistogramHourAccumulatorPersisted(), spanSampler,
+            rollUp ? dayAccumulator : null, Granularity.DAY, !rollUp || histMinPorts.isEmpty());
         startHistogramListeners(histMinPorts, pointHandler, remoteHostAnnotator,
             Granularity.MINUTE, proxyConfig.getHistogramMinuteFlushSecs(),
             proxyConfig.isHistogramMinuteMemoryCache(), baseDirectory,
@@ -307,29 +371,15 @@ public class PushAgent extends AbstractAgent {
             proxyConfig.getHistogramMinuteAvgKeyBytes(),
             proxyConfig.getHistogramMinuteAvgDigestBytes(),
             proxyConfig.getHistogramMinuteCompression(),
-            proxyConfig.isHistogramMinuteAccumulatorPersisted(), spanSampler);
-        startHistogramListeners(histHourPorts, pointHandler, remoteHostAnnotator,
-            Granularity.HOUR, proxyConfig.getHistogramHourFlushSecs(),
-            proxyConfig.isHistogramHourMemoryCache(), baseDirectory,
-            proxyConfig.getHistogramHourAccumulatorSize(),
-            proxyConfig.getHistogramHourAvgKeyBytes(),
-            proxyConfig.getHistogramHourAvgDigestBytes(),
-            proxyConfig.getHistogramHourCompression(),
-            proxyConfig.isHistogramHourAccumulatorPersisted(), spanSampler);
-        startHistogramListeners(histDayPorts, pointHandler, remoteHostAnnotator,
-            Granularity.DAY, proxyConfig.getHistogramDayFlushSecs(),
-            proxyConfig.isHistogramDayMemoryCache(), baseDirectory,
-            proxyConfig.getHistogramDayAccumulatorSize(),
-            proxyConfig.getHistogramDayAvgKeyBytes(),
-            proxyConfig.getHistogramDayAvgDigestBytes(),
-            proxyConfig.getHistogramDayCompression(),
-            proxyConfig.isHistogramDayAccumulatorPersisted(), spanSampler);
+            proxyConfig.isHistogramMinuteAccumulatorPersisted(), spanSampler,
+            !rollUp ? null : hourAccumulator != null ? hourAccumulator : dayAccumulator,
+            hourAccumulator != null ? Granularity.HOUR : Granularity.DAY, true);
         startHistogramListeners(histDistPorts, pointHandler, remoteHostAnnotator,
             null, proxyConfig.getHistogramDistFlushSecs(), proxyConfig.isHistogramDistMemoryCache(),
             baseDirectory, proxyConfig.getHistogramDistAccumulatorSize(),
             proxyConfig.getHistogramDistAvgKeyBytes(), proxyConfig.getHistogramDistAvgDigestBytes(),
             proxyConfig.getHistogramDistCompression(),
-            proxyConfig.isHistogramDistAccumulatorPersisted(), spanSampler);
+            proxyConfig.isHistogramDistAccumulatorPersisted(), spanSampler, null, null, true);
       }
     }
 
@@ -974,16 +1024,22 @@ public class PushAgent extends AbstractAgent {
     logger.info("Health check port enabled: " + port);
   }
 
-  protected void startHistogramListeners(List<String> ports,
-                                         ReportableEntityHandler<ReportPoint, String> pointHandler,
-                                         SharedGraphiteHostAnnotator hostAnnotator,
-                                         @Nullable Granularity granularity,
-                                         int flushSecs, boolean memoryCacheEnabled,
-                                         File baseDirectory, Long accumulatorSize, int avgKeyBytes,
-                                         int avgDigestBytes, short compression, boolean persist,
-                                         SpanSampler sampler)
-      throws Exception {
-    if (ports.size() == 0) return;
+  /**
+   * Starts histogram listeners and the accumulator for a granularity. Dispatched digests are
+   * rolled up into {@code rollUpAccumulator}, if specified. If {@code acceptSamples} is false,
+   * only the accumulator is started (it's populated by rolling up finer granularities).
+   *
+   * @return the accumulator, or null if there are no ports for the granularity.
+   */
+  @Nullable
+  protected Accumulator startHistogramListeners(
+      List<String> ports, ReportableEntityHandler<ReportPoint, String> pointHandler,
+      SharedGraphiteHostAnnotator hostAnnotator, @Nullable Granularity granularity,
+      int flushSecs, boolean memoryCacheEnabled, File baseDirectory, Long accumulatorSize,
+      int avgKeyBytes, int avgDigestBytes, short compression, boolean persist,
+      SpanSampler sampler, @Nullable Accumulator rollUpAccumulator,
+      @Nullable Granularity rollUpGranularity, boolean acceptSamples) throws Exception {
+    if (ports.size() == 0) return null;
     String listenerBinType = HistogramUtils.granularityToString(granularity);
     // Accumulator
     if (persist) {
@@ -1033,13 +1089,26 @@ public class PushAgent extends AbstractAgent {
     AgentDigestFactory agentDigestFactory = new AgentDigestFactory(() -> (short) Math.min(
         compression, entityProps.getGlobalProperties().getHistogramStorageAccuracy()),
         TimeUnit.SECONDS.toMillis(flushSecs), proxyConfig.getTimeProvider());
-    Accumulator cachedAccumulator = new AccumulationCache(accumulator, agentDigestFactory,
-        (memoryCacheEnabled ? accumulatorSize : 0),
-        "histogram.accumulator." + HistogramUtils.granularityToString(granularity), null);
+    String metricPrefix = "histogram.accumulator." +
+        HistogramUtils.granularityToString(granularity);
+    Accumulator accumulationCache = new AccumulationCache(accumulator, agentDigestFactory,
+        (memoryCacheEnabled ? accumulatorSize : 0), metricPrefix, null);
+    // optionally, stage samples per thread and merge them into the cache in bulk
+    StagingAccumulator stagingAccumulator = proxyConfig.getHistogramAccumulatorStagingSize() > 0 ?
+        new StagingAccumulator(accumulationCache, proxyConfig.getHistogramAccumulatorStagingSize(),
+            proxyConfig.getHistogramAccumulatorStagingMillis(), metricPrefix,
+            System::currentTimeMillis) : null;
+    Accumulator cachedAccumulator = stagingAccumulator == null ? accumulationCache :
+        stagingAccumulator;
+    if (stagingAccumulator != null) {
+      histogramExecutor.scheduleWithFixedDelay(stagingAccumulator::flushStaged,
+          proxyConfig.getHistogramAccumulatorStagingMillis(),
+          proxyConfig.getHistogramAccumulatorStagingMillis(), TimeUnit.MILLISECONDS);
+    }
 
     // Schedule write-backs
     histogramExecutor.scheduleWithFixedDelay(
-        cachedAccumulator::flush,
+        () -> cachedAccumulator.resolve(proxyConfig.getHistogramAccumulatorResolveBudgetMillis()),
         proxyConfig.getHistogramAccumulatorResolveInterval(),
         proxyConfig.getHistogramAccumulatorResolveInterval(),
         TimeUnit.MILLISECONDS);
@@ -1049,7 +1118,9 @@ public class PushAgent extends AbstractAgent {
         proxyConfig.getTimeProvider(),
         () -> entityProps.get(ReportableEntityType.HISTOGRAM).isFeatureDisabled(),
         proxyConfig.getHistogramAccumulatorFlushMaxBatchSize() < 0 ? null :
-            proxyConfig.getHistogramAccumulatorFlushMaxBatchSize(), granularity);
+            proxyConfig.getHistogramAccumulatorFlushMaxBatchSize(), granularity,
+        histogramDispatchExecutor == null ? 1 : proxyConfig.getHistogramDispatchThreads(),
+        histogramDispatchExecutor, rollUpAccumulator, rollUpGranularity);
 
     histogramExecutor.scheduleWithFixedDelay(dispatcher,
         proxyConfig.getHistogramAccumulatorFlushInterval(),
@@ -1069,6 +1140,17 @@ public class PushAgent extends AbstractAgent {
       }
     });
 
+    if (rollUpAccumulator != null) {
+      logger.info("Rolling up " + listenerBinType + " histograms into " +
+          HistogramUtils.granularityToString(rollUpGranularity) + " histograms");
+    }
+    if (!acceptSamples) {
+      logger.warning("Not listening on port(s) " + String.join(",", ports) + " for " +
+          listenerBinType + " histogram samples: " + listenerBinType + " histograms are " +
+          "rolled up from finer granularities, send samples to the finest granularity ports only");
+      return cachedAccumulator;
+    }
+
     ReportableEntityHandlerFactory histogramHandlerFactory = new ReportableEntityHandlerFactory() {
       private final Map<HandlerKey, ReportableEntityHandler<?, ?>> handlers =
           new ConcurrentHashMap<>();
@@ -1112,7 +1194,7 @@ public class PushAgent extends AbstractAgent {
       logger.info("listening on port: " + port + " for histogram samples, accumulating to the " +
           listenerBinType);
     });
-
+    return cachedAccumulator;
   }
 
   private void registerTimestampFilter(String strPort) {
@@ -0,0 +1,129 @@
+package com.wavefront.agent;
+
+import com.wavefront.common.NamedThreadFactory;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Proxy-wide scheduler for short periodic and one-off housekeeping tasks (stats output, queue
+ * controllers, delta counter flushes), so pipeline components don't have to
+ * own a dedicated timer thread each. Tasks are expected to be short: a task that blocks holds up
+ * one of a small number of shared threads.
+ *
+ * Periodic buffer I/O (segment commits, syncs) blocks on the disk, so it runs on a separate
+ * instance with its own threads, see {@link #getIoInstance()}.
+ *
+ * Scheduling queue depth and lag (how late tasks start compared to their scheduled time) are
+ * reported as {@code scheduler.queue-size} and {@code scheduler.lag-ms} metrics
+ * ({@code scheduler.io.queue-size} and {@code scheduler.io.lag-ms} for the I/O instance).
+ */
+public class SharedScheduler {
+  private static final Logger logger = Logger.getLogger(SharedScheduler.class.getCanonicalName());
+
+  private static final SharedScheduler INSTANCE = new SharedScheduler("pipeline-scheduler",
+      "scheduler", Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+  private static final SharedScheduler IO_INSTANCE = new SharedScheduler("buffer-io",
+      "scheduler.io", Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+
+  private final ScheduledThreadPoolExecutor executor;
+
+  private SharedScheduler(String threadNamePrefix, String metricGroup, int threads) {
+    Histogram lag = Metrics.newHistogram(new MetricName(metricGroup, "", "lag-ms"));
+    this.executor = new ScheduledThreadPoolExecutor(threads,
+        new NamedThreadFactory(threadNamePrefix)) {
+      @Override
+      protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if (r instanceof Delayed) {
+          // delay is negative when the task is started later than it was scheduled for
+          lag.update(Math.max(0, -((Delayed) r).getDelay(TimeUnit.MILLISECONDS)));
+        }
+      }
+    };
+    this.executor.setRemoveOnCancelPolicy(true);
+    Metrics.newGauge(new MetricName(metricGroup, "", "queue-size"), new Gauge<Integer>() {
+      @Override
+      public Integer value() {
+        return executor.getQueue().size();
+      }
+    });
+  }
+
+  public static SharedScheduler getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the scheduler for periodic tasks that block on buffer I/O (segment commits, syncs),
+   * so that they don't hold up the housekeeping tasks on {@link #getInstance()}.
+   *
+   * @return the I/O scheduler.
+   */
+  public static SharedScheduler getIoInstance() {
+    return IO_INSTANCE;
+  }
+
+  /**
+   * Schedule a periodic task at fixed rate. Unlike {@link ScheduledThreadPoolExecutor}, an
+   * exception thrown by the task is logged and doesn't suppress subsequent executions.
+   *
+   * @param name         task name, used for logging.
+   * @param task         task to run.
+   * @param initialDelay delay before the first execution.
+   * @param period       period between successive executions.
+   * @param unit         time unit for {@code initialDelay} and {@code period}.
+   * @return future that can be used to cancel the task.
+   */
+  public ScheduledFuture<?> scheduleAtFixedRate(String name, Runnable task, long initialDelay,
+                                                long period, TimeUnit unit) {
+    return executor.scheduleAtFixedRate(guarded(name, task), initialDelay, period, unit);
+  }
+
+  /**
+   * Schedule a periodic task with fixed delay between the end of one execution and the start of
+   * the next one. An exception thrown by the task is logged and doesn't suppress subsequent
+   * executions.
+   *
+   * @param name         task name, used for logging.
+   * @param task         task to run.
+   * @param initialDelay delay before the first execution.
+   * @param delay        delay between successive executions.
+   * @param unit         time unit for {@code initialDelay} and {@code delay}.
+   * @return future that can be used to cancel the task.
+   */
+  public ScheduledFuture<?> scheduleWithFixedDelay(String name, Runnable task, long initialDelay,
+                                                   long delay, TimeUnit unit) {
+    return executor.scheduleWithFixedDelay(guarded(name, task), initialDelay, delay, unit);
+  }
+
+  /**
+   * Run a one-off task as soon as possible.
+   *
+   * @param name task name, used for logging.
+   * @param task task to run.
+   */
+  public void execute(String name, Runnable task) {
+    executor.execute(guarded(name, task));
+  }
+
+  @Nonnull
+  private static Runnable guarded(String name, Runnable task) {
+    return () -> {
+      try {
+        task.run();
+      } catch (Throwable t) {
+        logger.log(Level.SEVERE, "Uncaught exception in scheduled task " + name, t);
+      }
+    };
+  }
+}
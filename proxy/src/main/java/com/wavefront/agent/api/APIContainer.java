@@ -56,7 +56,7 @@ public class APIContainer {
     this.resteasyProviderFactory = createProviderFactory();
     this.clientHttpEngine = createHttpEngine();
     this.discardData = discardData;
-    this.proxyV2API = createService(proxyConfig.getServer(), ProxyV2API.class);
+    this.proxyV2API = createService(proxyConfig.getServer(), ProxyV2StreamingAPI.class);
     this.sourceTagAPI = createService(proxyConfig.getServer(), SourceTagAPI.class);
     this.eventAPI = createService(proxyConfig.getServer(), EventAPI.class);
     if (discardData) {
@@ -121,7 +121,7 @@ public class APIContainer {
     if (proxyConfig == null) {
       throw new IllegalStateException("Can't invoke updateServerEndpointURL with this constructor");
     }
-    this.proxyV2API = createService(serverEndpointUrl, ProxyV2API.class);
+    this.proxyV2API = createService(serverEndpointUrl, ProxyV2StreamingAPI.class);
     this.sourceTagAPI = createService(serverEndpointUrl, SourceTagAPI.class);
     this.eventAPI = createService(serverEndpointUrl, EventAPI.class);
     if (discardData) {
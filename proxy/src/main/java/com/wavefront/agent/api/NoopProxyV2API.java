@@ -1,6 +1,7 @@
 package com.wavefront.agent.api;
 
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.util.UUID;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -13,7 +14,7 @@ import com.wavefront.api.agent.AgentConfiguration;
  *
  * @author vasily@wavefront.com
  */
-public class NoopProxyV2API implements ProxyV2API {
+public class NoopProxyV2API implements ProxyV2StreamingAPI {
   private final ProxyV2API wrapped;
 
   public NoopProxyV2API(ProxyV2API wrapped) {
@@ -33,6 +34,11 @@ public class NoopProxyV2API implements ProxyV2API {
     return Response.ok().build();
   }
 
+  @Override
+  public Response proxyReportStream(UUID uuid, String s, StreamingOutput streamingOutput) {
+    return Response.ok().build();
+  }
+
   @Override
   public void proxyConfigProcessed(UUID uuid) {
     wrapped.proxyConfigProcessed(uuid);
@@ -0,0 +1,26 @@
+package com.wavefront.agent.api;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Request body that is already gzip-compressed. Passed to
+ * {@link ProxyV2StreamingAPI#proxyReportStream} as-is: GZIP writer interceptors recognize it and
+ * send the bytes without compressing them again, keeping the "Content-Encoding: gzip" header.
+ */
+public class PrecompressedPayload implements StreamingOutput {
+  private final byte[] gzippedBody;
+
+  /**
+   * @param gzippedBody gzip-compressed request body.
+   */
+  public PrecompressedPayload(byte[] gzippedBody) {
+    this.gzippedBody = gzippedBody;
+  }
+
+  @Override
+  public void write(OutputStream output) throws IOException {
+    output.write(gzippedBody);
+  }
+}
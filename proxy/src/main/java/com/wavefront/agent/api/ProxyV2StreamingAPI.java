@@ -0,0 +1,39 @@
+package com.wavefront.agent.api;
+
+import com.wavefront.api.ProxyV2API;
+import org.jboss.resteasy.annotations.GZIP;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.UUID;
+
+/**
+ * {@link ProxyV2API} extension that allows writing newline-delimited payloads straight into the
+ * (compressed) request body, instead of passing the entire payload as a single string.
+ */
+@Path("/")
+public interface ProxyV2StreamingAPI extends ProxyV2API {
+
+  /**
+   * Report batched data (metrics, histograms, spans, etc) to Wavefront. Same as
+   * {@link ProxyV2API#proxyReport(UUID, String, String)}, but the payload is written directly
+   * into the request's output stream.
+   *
+   * @param proxyId  Proxy Id reporting the result.
+   * @param format   The format of the data (wavefront, histogram, trace, spanLogs)
+   * @param pushData Writer for the newline-delimited payload.
+   * @return response
+   */
+  @POST
+  @Consumes(MediaType.TEXT_PLAIN)
+  @Path("v2/wfproxy/report")
+  Response proxyReportStream(@HeaderParam("X-WF-PROXY-ID") final UUID proxyId,
+                             @QueryParam("format") final String format,
+                             @GZIP final StreamingOutput pushData);
+}
@@ -1,5 +1,7 @@
 package com.wavefront.agent.channel;
 
+import com.wavefront.agent.api.PrecompressedPayload;
+
 import java.io.IOException;
 import java.util.logging.Logger;
 
@@ -12,6 +14,7 @@ import javax.ws.rs.ext.WriterInterceptorContext;
  * Content-Encoding header.
  * RESTEasy always adds "Content-Encoding: gzip" header when it encounters @GZIP annotation, but if the request body
  * is actually sent uncompressed, it violates section 3.1.2.2 of RFC7231.
+ * The header is retained for {@link PrecompressedPayload} bodies, which are always compressed.
  *
  * Created by vasily@wavefront.com on 6/9/17.
  */
@@ -24,7 +27,8 @@ public class DisableGZIPEncodingInterceptor implements WriterInterceptor {
   public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
     logger.fine("Interceptor : " + this.getClass().getName() + ",  Method : aroundWriteTo");
     Object encoding = context.getHeaders().getFirst("Content-Encoding");
-    if (encoding != null && encoding.toString().equalsIgnoreCase("gzip")) {
+    if (encoding != null && encoding.toString().equalsIgnoreCase("gzip") &&
+        !(context.getEntity() instanceof PrecompressedPayload)) {
       context.getHeaders().remove("Content-Encoding");
     }
     context.proceed();
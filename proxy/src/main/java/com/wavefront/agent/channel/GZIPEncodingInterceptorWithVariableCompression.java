@@ -1,5 +1,6 @@
 package com.wavefront.agent.channel;
 
+import com.wavefront.agent.api.PrecompressedPayload;
 import org.jboss.resteasy.util.CommitHeaderOutputStream;
 
 import javax.ws.rs.WebApplicationException;
@@ -68,7 +69,8 @@ public class GZIPEncodingInterceptorWithVariableCompression implements WriterInt
   public void aroundWriteTo(WriterInterceptorContext context)
       throws IOException, WebApplicationException {
     Object encoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
-    if (encoding != null && encoding.toString().equalsIgnoreCase("gzip")) {
+    if (encoding != null && encoding.toString().equalsIgnoreCase("gzip") &&
+        !(context.getEntity() instanceof PrecompressedPayload)) {
       OutputStream old = context.getOutputStream();
       CommittedGZIPOutputStream gzipOutputStream = new CommittedGZIPOutputStream(old, level);
       context.getHeaders().remove("Content-Length");
@@ -1,5 +1,6 @@
 package com.wavefront.agent.data;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -18,6 +19,8 @@ import javax.annotation.Nullable;
 import javax.net.ssl.SSLHandshakeException;
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.core.Response;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
@@ -63,6 +66,7 @@ abstract class AbstractDataSubmissionTask<T extends DataSubmissionTask<T>>
   protected transient Supplier<Long> timeProvider;
   protected transient EntityProperties properties;
   protected transient TaskQueue<T> backlog;
+  protected transient boolean pushedBack = false;
 
   AbstractDataSubmissionTask() {
   }
@@ -96,6 +100,44 @@ abstract class AbstractDataSubmissionTask<T extends DataSubmissionTask<T>>
     return entityType;
   }
 
+  @JsonIgnore
+  @Override
+  public boolean isPushedBack() {
+    return pushedBack;
+  }
+
+  /**
+   * Write fields shared by all task types in {@link BinaryTaskCodec} format.
+   *
+   * @param out stream to write to.
+   * @throws IOException if unable to write.
+   */
+  void writeCommonFields(DataOutputStream out) throws IOException {
+    out.writeLong(enqueuedTimeMillis);
+    out.writeInt(attempts);
+    out.writeInt(serverErrors);
+    BinaryTaskCodec.writeString(out, handle);
+    BinaryTaskCodec.writeString(out, entityType == null ? null : entityType.name());
+    out.writeByte(limitRetries == null ? -1 : limitRetries ? 1 : 0);
+  }
+
+  /**
+   * Read fields shared by all task types in {@link BinaryTaskCodec} format.
+   *
+   * @param in stream to read from.
+   * @throws IOException if unable to read.
+   */
+  void readCommonFields(DataInputStream in) throws IOException {
+    enqueuedTimeMillis = in.readLong();
+    attempts = in.readInt();
+    serverErrors = in.readInt();
+    handle = BinaryTaskCodec.readString(in);
+    String entityTypeName = BinaryTaskCodec.readString(in);
+    entityType = entityTypeName == null ? null : ReportableEntityType.valueOf(entityTypeName);
+    byte limitRetriesFlag = in.readByte();
+    limitRetries = limitRetriesFlag < 0 ? null : limitRetriesFlag > 0;
+  }
+
   abstract Response doExecute() throws DataSubmissionException;
 
   public TaskResult execute() {
@@ -107,6 +149,7 @@ abstract class AbstractDataSubmissionTask<T extends DataSubmissionTask<T>>
       timeSpentInQueue.update(timeProvider.get() - enqueuedTimeMillis);
     }
     attempts += 1;
+    pushedBack = false;
     TimerContext timer = Metrics.newTimer(new MetricName("push." + handle, "", "duration"),
         TimeUnit.MILLISECONDS, TimeUnit.MINUTES).time();
     try (Response response = doExecute()) {
@@ -120,6 +163,7 @@ abstract class AbstractDataSubmissionTask<T extends DataSubmissionTask<T>>
       switch (response.getStatus()) {
         case 406:
         case 429:
+          pushedBack = true;
           if (enqueuedTimeMillis == Long.MAX_VALUE) {
             if (properties.getTaskQueueLevel().isLessThan(TaskQueueLevel.PUSHBACK)) {
               return TaskResult.RETRY_LATER;
@@ -153,6 +197,7 @@ abstract class AbstractDataSubmissionTask<T extends DataSubmissionTask<T>>
           }
           return checkStatusAndQueue(QueueingReason.RETRY, false);
         case 413:
+          pushedBack = true;
           splitTask(1, properties.getItemsPerBatch()).
               forEach(x -> x.enqueue(enqueuedTimeMillis == Long.MAX_VALUE ?
                   QueueingReason.SPLIT : null));
@@ -184,6 +229,7 @@ abstract class AbstractDataSubmissionTask<T extends DataSubmissionTask<T>>
             rootCause.getMessage() + ", please check your network!");
       } else if (rootCause instanceof ConnectException ||
           rootCause instanceof SocketTimeoutException) {
+        pushedBack = rootCause instanceof SocketTimeoutException;
         log.warning("[" + handle + "] Error sending data to Wavefront: " + rootCause.getMessage() +
             ", please verify your network/HTTP proxy settings!");
       } else if (ex.getCause() instanceof SSLHandshakeException) {
@@ -0,0 +1,243 @@
+package com.wavefront.agent.data;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact schema-fixed binary encoding for {@link DataSubmissionTask} objects, used for storing
+ * tasks in the disk buffer instead of default-typed JSON. Record layout:
+ * <pre>
+ *   version (1 byte) | task type (1 byte) | common task fields | task-specific fields
+ * </pre>
+ * Strings are stored as a 4-byte length prefix (-1 for null) followed by UTF-8 bytes,
+ * collections as a 4-byte element count (-1 for null) followed by elements.
+ * Enums are stored by name. Line-delimited tasks can optionally store their payload as
+ * a ready-to-send gzip-compressed request body, so that replaying them doesn't require decoding
+ * and re-compressing the data.
+ */
+public final class BinaryTaskCodec {
+  // version 1 stored source tag enums as ordinals
+  static final byte VERSION_ORDINAL_ENUMS = 1;
+  static final byte VERSION = 2;
+  static final byte TYPE_LINE_DELIMITED = 1;
+  static final byte TYPE_EVENT = 2;
+  static final byte TYPE_SOURCE_TAG = 3;
+  static final byte TYPE_LINE_DELIMITED_PRECOMPRESSED = 4;
+
+  private BinaryTaskCodec() {
+  }
+
+  /**
+   * Check whether the task can be stored in binary format without loss of information.
+   *
+   * @param task task to check.
+   * @return true if the task type is supported by the codec.
+   */
+  public static boolean isSupported(@Nonnull DataSubmissionTask<?> task) {
+    if (task.getClass() == LineDelimitedDataSubmissionTask.class) {
+      return true;
+    } else if (task.getClass() == EventDataSubmissionTask.class) {
+      return ((EventDataSubmissionTask) task).isBinaryEncodable();
+    } else if (task.getClass() == SourceTagSubmissionTask.class) {
+      return ((SourceTagSubmissionTask) task).isBinaryEncodable();
+    }
+    return false;
+  }
+
+  /**
+   * Check whether the task's payload can be stored as a ready-to-send compressed request body.
+   *
+   * @param task task to check.
+   * @return true if the task supports precompressed payloads.
+   */
+  public static boolean isPrecompressible(@Nonnull DataSubmissionTask<?> task) {
+    return task.getClass() == LineDelimitedDataSubmissionTask.class;
+  }
+
+  /**
+   * Serialize a task. Caller must check {@link #isSupported} first.
+   *
+   * @param task   task to serialize.
+   * @param output stream to write to.
+   * @throws IOException if unable to write the task.
+   */
+  public static void encode(@Nonnull DataSubmissionTask<?> task, @Nonnull OutputStream output)
+      throws IOException {
+    encode(task, output, false);
+  }
+
+  /**
+   * Serialize a task. Caller must check {@link #isSupported} first.
+   *
+   * @param task          task to serialize.
+   * @param output        stream to write to.
+   * @param precompressed store the payload as a ready-to-send gzip-compressed request body,
+   *                      if supported by the task (see {@link #isPrecompressible}).
+   * @throws IOException if unable to write the task.
+   */
+  public static void encode(@Nonnull DataSubmissionTask<?> task, @Nonnull OutputStream output,
+                            boolean precompressed) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+    out.writeByte(VERSION);
+    if (precompressed && isPrecompressible(task)) {
+      out.writeByte(TYPE_LINE_DELIMITED_PRECOMPRESSED);
+      ((LineDelimitedDataSubmissionTask) task).writeBinaryPrecompressed(out);
+    } else if (task instanceof LineDelimitedDataSubmissionTask) {
+      out.writeByte(TYPE_LINE_DELIMITED);
+      ((LineDelimitedDataSubmissionTask) task).writeBinary(out);
+    } else if (task instanceof EventDataSubmissionTask) {
+      out.writeByte(TYPE_EVENT);
+      ((EventDataSubmissionTask) task).writeBinary(out);
+    } else if (task instanceof SourceTagSubmissionTask) {
+      out.writeByte(TYPE_SOURCE_TAG);
+      ((SourceTagSubmissionTask) task).writeBinary(out);
+    } else {
+      throw new IllegalArgumentException("Unsupported task type: " + task.getClass().getName());
+    }
+    out.flush();
+  }
+
+  /**
+   * Deserialize a task.
+   *
+   * @param input stream to read from.
+   * @return deserialized task.
+   * @throws IOException if the data is corrupted or has an unsupported version/type.
+   */
+  public static DataSubmissionTask<?> decode(@Nonnull InputStream input) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+    byte version = in.readByte();
+    if (version != VERSION && version != VERSION_ORDINAL_ENUMS) {
+      throw new IOException("Unsupported binary task version: " + version);
+    }
+    byte type = in.readByte();
+    switch (type) {
+      case TYPE_LINE_DELIMITED:
+        return LineDelimitedDataSubmissionTask.readBinary(in);
+      case TYPE_EVENT:
+        return EventDataSubmissionTask.readBinary(in);
+      case TYPE_SOURCE_TAG:
+        return SourceTagSubmissionTask.readBinary(in, version);
+      case TYPE_LINE_DELIMITED_PRECOMPRESSED:
+        return LineDelimitedDataSubmissionTask.readBinaryPrecompressed(in);
+      default:
+        throw new IOException("Unsupported binary task type: " + type);
+    }
+  }
+
+  static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static void writeEnum(DataOutputStream out, Enum<?> value) throws IOException {
+    writeString(out, value.name());
+  }
+
+  static <E extends Enum<E>> E readEnum(DataInputStream in, Class<E> enumClass)
+      throws IOException {
+    String name = readString(in);
+    try {
+      return Enum.valueOf(enumClass, name);
+    } catch (IllegalArgumentException | NullPointerException e) {
+      throw new IOException("Unknown " + enumClass.getSimpleName() + " value: " + name);
+    }
+  }
+
+  @Nullable
+  static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) return null;
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void writeStrings(DataOutputStream out, @Nullable List<String> values)
+      throws IOException {
+    if (values == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(values.size());
+    for (String value : values) {
+      writeString(out, value);
+    }
+  }
+
+  @Nullable
+  static List<String> readStrings(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    if (size < 0) return null;
+    List<String> values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(readString(in));
+    }
+    return values;
+  }
+
+  static void writeStringMap(DataOutputStream out, @Nullable Map<String, String> values)
+      throws IOException {
+    if (values == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(values.size());
+    for (Map.Entry<String, String> entry : values.entrySet()) {
+      writeString(out, entry.getKey());
+      writeString(out, entry.getValue());
+    }
+  }
+
+  @Nullable
+  static Map<String, String> readStringMap(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    if (size < 0) return null;
+    Map<String, String> values = new HashMap<>(size * 2);
+    for (int i = 0; i < size; i++) {
+      values.put(readString(in), readString(in));
+    }
+    return values;
+  }
+
+  static void writeStringListMap(DataOutputStream out, @Nullable Map<String, List<String>> values)
+      throws IOException {
+    if (values == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(values.size());
+    for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+      writeString(out, entry.getKey());
+      writeStrings(out, entry.getValue());
+    }
+  }
+
+  @Nullable
+  static Map<String, List<String>> readStringListMap(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    if (size < 0) return null;
+    Map<String, List<String>> values = new HashMap<>(size * 2);
+    for (int i = 0; i < size; i++) {
+      values.put(readString(in), readStrings(in));
+    }
+    return values;
+  }
+}
@@ -1,5 +1,6 @@
 package com.wavefront.agent.data;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.wavefront.data.ReportableEntityType;
 
@@ -38,6 +39,15 @@ public interface DataSubmissionTask<T extends DataSubmissionTask<T>> extends Ser
    */
   TaskResult execute();
 
+  /**
+   * Whether the last execution attempt was pushed back by the server (HTTP 406, 413 or 429)
+   * or timed out, i.e. whether the sender should back off and try smaller batches.
+   *
+   * @return true if the last attempt was pushed back
+   */
+  @JsonIgnore
+  boolean isPushedBack();
+
   /**
    * Persist task in the queue
    *
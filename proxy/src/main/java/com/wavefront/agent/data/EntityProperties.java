@@ -27,6 +27,10 @@ public interface EntityProperties {
   int DEFAULT_MIN_SPLIT_BATCH_SIZE = 100;
   int DEFAULT_FLUSH_THREADS_SOURCE_TAGS = 2;
   int DEFAULT_FLUSH_THREADS_EVENTS = 2;
+  int DEFAULT_MAX_IN_FLIGHT_BATCHES = 1;
+  int DEFAULT_MAX_IN_FLIGHT_REPLAY_TASKS = 1;
+  boolean DEFAULT_BACKLOG_COMPACTION = false;
+  int DEFAULT_ADAPTIVE_BATCH_LATENCY_TARGET_MILLIS = 0;
 
   /**
    * Get initially configured batch size.
@@ -70,6 +74,39 @@ public interface EntityProperties {
    */
   int getFlushThreads();
 
+  /**
+   * Get the max number of batches that each worker thread can have in flight at the same time.
+   * 1 means batches are submitted synchronously.
+   *
+   * @return max number of batches in flight per thread
+   */
+  int getMaxInFlightBatches();
+
+  /**
+   * Get the max number of buffered tasks that each queue processor can have in flight at the same
+   * time when replaying the backlog. 1 means tasks are replayed one at a time.
+   *
+   * @return max number of replayed tasks in flight per queue processor
+   */
+  int getMaxInFlightReplayTasks();
+
+  /**
+   * Whether adjacent small buffered tasks should be merged into full-size batches (up to
+   * {@link #getItemsPerBatch()} items) when replaying the backlog.
+   *
+   * @return true if backlog compaction is enabled
+   */
+  boolean isBacklogCompactionEnabled();
+
+  /**
+   * Get the target p99 submission latency for adaptive batch sizing (in milliseconds). When set,
+   * the batch size grows while p99 latency stays under the target, and is cut in half when
+   * the server pushes back or the request times out. 0 disables adaptive batch sizing.
+   *
+   * @return target latency in milliseconds
+   */
+  int getAdaptiveBatchLatencyTarget();
+
   /**
    * Get interval between batches (in milliseconds)
    *
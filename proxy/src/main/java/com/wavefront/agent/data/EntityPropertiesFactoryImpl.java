@@ -108,6 +108,26 @@ public class EntityPropertiesFactoryImpl implements EntityPropertiesFactory {
       return wrapped.getFlushThreads();
     }
 
+    @Override
+    public int getMaxInFlightBatches() {
+      return wrapped.getPushMaxInFlightBatches();
+    }
+
+    @Override
+    public int getMaxInFlightReplayTasks() {
+      return wrapped.getPushMaxInFlightReplayTasks();
+    }
+
+    @Override
+    public boolean isBacklogCompactionEnabled() {
+      return wrapped.isPushBacklogCompaction();
+    }
+
+    @Override
+    public int getAdaptiveBatchLatencyTarget() {
+      return wrapped.getPushAdaptiveBatchLatencyTarget();
+    }
+
     @Override
     public int getPushFlushInterval() {
       return wrapped.getPushFlushInterval();
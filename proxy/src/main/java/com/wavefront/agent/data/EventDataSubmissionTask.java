@@ -8,10 +8,14 @@ import com.wavefront.agent.queueing.TaskQueue;
 import com.wavefront.api.EventAPI;
 import com.wavefront.data.ReportableEntityType;
 import com.wavefront.dto.Event;
+import wavefront.report.ReportEvent;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.ws.rs.core.Response;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -83,6 +87,51 @@ public class EventDataSubmissionTask extends AbstractDataSubmissionTask<EventDat
     return events.size();
   }
 
+  /**
+   * Events restored from JSON may be missing required fields, which can't be represented
+   * in {@link BinaryTaskCodec} format.
+   */
+  boolean isBinaryEncodable() {
+    if (events == null) return false;
+    for (Event event : events) {
+      if (event.getEndTime() == null || event.getAnnotations() == null ||
+          event.getHosts() == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  void writeBinary(DataOutputStream out) throws IOException {
+    writeCommonFields(out);
+    out.writeInt(events.size());
+    for (Event event : events) {
+      BinaryTaskCodec.writeString(out, event.getName());
+      out.writeLong(event.getStartTime());
+      out.writeLong(event.getEndTime());
+      BinaryTaskCodec.writeStringMap(out, event.getAnnotations());
+      BinaryTaskCodec.writeStrings(out, event.getHosts());
+      BinaryTaskCodec.writeStrings(out, event.getTags());
+      BinaryTaskCodec.writeStringListMap(out, event.getDimensions());
+    }
+  }
+
+  static EventDataSubmissionTask readBinary(DataInputStream in) throws IOException {
+    EventDataSubmissionTask task = new EventDataSubmissionTask();
+    task.readCommonFields(in);
+    int size = in.readInt();
+    task.events = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      String name = BinaryTaskCodec.readString(in);
+      long startTime = in.readLong();
+      long endTime = in.readLong();
+      task.events.add(new Event(new ReportEvent(name, startTime, endTime,
+          BinaryTaskCodec.readStringMap(in), BinaryTaskCodec.readStrings(in),
+          BinaryTaskCodec.readStrings(in), BinaryTaskCodec.readStringListMap(in))));
+    }
+    return task;
+  }
+
   public void injectMembers(EventAPI api, UUID proxyId, EntityProperties properties,
                             TaskQueue<EventDataSubmissionTask> backlog) {
     this.api = api;
@@ -5,18 +5,32 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.wavefront.agent.api.PrecompressedPayload;
+import com.wavefront.agent.api.ProxyV2StreamingAPI;
 import com.wavefront.agent.handlers.LineDelimitedUtils;
 import com.wavefront.agent.queueing.TaskQueue;
 import com.wavefront.api.ProxyV2API;
 import com.wavefront.data.ReportableEntityType;
+import org.apache.commons.io.IOUtils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A {@link DataSubmissionTask} that handles plaintext payloads in the newline-delimited format.
@@ -37,6 +51,12 @@ public class LineDelimitedDataSubmissionTask
   @JsonProperty
   protected List<String> payload;
 
+  // ready-to-send gzip-compressed request body, when restored from a buffer that stores them.
+  // the payload is only decoded when needed (i.e. when the task has to be split).
+  @Nullable
+  private transient byte[] compressedPayload;
+  private transient int compressedWeight;
+
   @SuppressWarnings("unused")
   LineDelimitedDataSubmissionTask() {
   }
@@ -66,16 +86,26 @@ public class LineDelimitedDataSubmissionTask
 
   @Override
   Response doExecute() {
-    return api.proxyReport(proxyId, format, LineDelimitedUtils.joinPushData(payload));
+    if (api instanceof ProxyV2StreamingAPI) {
+      if (compressedPayload != null) {
+        return ((ProxyV2StreamingAPI) api).proxyReportStream(proxyId, format,
+            new PrecompressedPayload(compressedPayload));
+      }
+      return ((ProxyV2StreamingAPI) api).proxyReportStream(proxyId, format,
+          out -> LineDelimitedUtils.writePushData(payload, out));
+    }
+    return api.proxyReport(proxyId, format, LineDelimitedUtils.joinPushData(payload()));
   }
 
   @Override
   public int weight() {
-    return this.payload.size();
+    return this.payload == null && compressedPayload != null ?
+        compressedWeight : this.payload.size();
   }
 
   @Override
   public List<LineDelimitedDataSubmissionTask> splitTask(int minSplitSize, int maxSplitSize) {
+    List<String> payload = payload();
     if (payload.size() > Math.max(1, minSplitSize)) {
       List<LineDelimitedDataSubmissionTask> result = new ArrayList<>();
       int stride = Math.min(maxSplitSize, (int) Math.ceil((float) payload.size() / 2.0));
@@ -91,10 +121,117 @@ public class LineDelimitedDataSubmissionTask
     return ImmutableList.of(this);
   }
 
+  /**
+   * Checks whether this task can be sent together with another one in a single request, i.e.
+   * both tasks carry data in the same format, for the same entity type and handle.
+   *
+   * @param other task to check.
+   * @return true if payloads of both tasks can be merged
+   */
+  public boolean isMergeableWith(LineDelimitedDataSubmissionTask other) {
+    return Objects.equals(format, other.format) && getEntityType() == other.getEntityType() &&
+        Objects.equals(handle, other.handle);
+  }
+
+  /**
+   * Merges payloads of compatible tasks into a single task. The merged task inherits queueing
+   * metadata (time enqueued, retry counters) from the oldest task in the list.
+   *
+   * @param tasks tasks to merge, in queue order. All tasks must be mergeable with each other.
+   * @return merged task
+   */
+  public static LineDelimitedDataSubmissionTask merge(
+      List<LineDelimitedDataSubmissionTask> tasks) {
+    LineDelimitedDataSubmissionTask first = tasks.get(0);
+    List<String> payload = new ArrayList<>(tasks.stream().
+        mapToInt(LineDelimitedDataSubmissionTask::weight).sum());
+    int attempts = 0;
+    int serverErrors = 0;
+    for (LineDelimitedDataSubmissionTask task : tasks) {
+      payload.addAll(task.payload());
+      attempts = Math.max(attempts, task.attempts);
+      serverErrors = Math.max(serverErrors, task.serverErrors);
+    }
+    LineDelimitedDataSubmissionTask merged = new LineDelimitedDataSubmissionTask(first.api,
+        first.proxyId, first.properties, first.backlog, first.format, first.getEntityType(),
+        first.handle, ImmutableList.of(), first.timeProvider);
+    merged.payload = payload;
+    merged.enqueuedTimeMillis = first.enqueuedTimeMillis;
+    merged.attempts = attempts;
+    merged.serverErrors = serverErrors;
+    merged.limitRetries = first.limitRetries;
+    return merged;
+  }
+
+  // serialized through the accessor, so that a restored task that only holds the compressed
+  // body doesn't get buffered without its payload
+  @JsonProperty("payload")
   public List<String> payload() {
+    if (payload == null && compressedPayload != null) {
+      payload = decompress(compressedPayload, compressedWeight);
+    }
     return payload;
   }
 
+  void writeBinary(DataOutputStream out) throws IOException {
+    writeCommonFields(out);
+    BinaryTaskCodec.writeString(out, format);
+    BinaryTaskCodec.writeStrings(out, payload());
+  }
+
+  void writeBinaryPrecompressed(DataOutputStream out) throws IOException {
+    writeCommonFields(out);
+    BinaryTaskCodec.writeString(out, format);
+    byte[] body = compressedPayload;
+    if (body == null) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+        LineDelimitedUtils.writePushData(payload, gzip);
+      }
+      body = bytes.toByteArray();
+    }
+    out.writeInt(weight());
+    out.writeInt(body.length);
+    out.write(body);
+  }
+
+  static LineDelimitedDataSubmissionTask readBinary(DataInputStream in) throws IOException {
+    LineDelimitedDataSubmissionTask task = new LineDelimitedDataSubmissionTask();
+    task.readCommonFields(in);
+    task.format = BinaryTaskCodec.readString(in);
+    task.payload = BinaryTaskCodec.readStrings(in);
+    return task;
+  }
+
+  static LineDelimitedDataSubmissionTask readBinaryPrecompressed(DataInputStream in)
+      throws IOException {
+    LineDelimitedDataSubmissionTask task = new LineDelimitedDataSubmissionTask();
+    task.readCommonFields(in);
+    task.format = BinaryTaskCodec.readString(in);
+    task.compressedWeight = in.readInt();
+    task.compressedPayload = new byte[in.readInt()];
+    in.readFully(task.compressedPayload);
+    return task;
+  }
+
+  private static List<String> decompress(byte[] body, int weight) {
+    List<String> lines = new ArrayList<>(weight);
+    if (weight == 0) return lines;
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+      String pushData = new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+      int start = 0;
+      int end;
+      while ((end = pushData.indexOf('\n', start)) >= 0) {
+        lines.add(pushData.substring(start, end));
+        start = end + 1;
+      }
+      lines.add(pushData.substring(start));
+      return lines;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   public void injectMembers(ProxyV2API api, UUID proxyId, EntityProperties properties,
                             TaskQueue<LineDelimitedDataSubmissionTask> backlog) {
     this.api = api;
@@ -8,10 +8,16 @@ import com.wavefront.agent.queueing.TaskQueue;
 import com.wavefront.api.SourceTagAPI;
 import com.wavefront.data.ReportableEntityType;
 import com.wavefront.dto.SourceTag;
+import wavefront.report.ReportSourceTag;
+import wavefront.report.SourceOperationType;
+import wavefront.report.SourceTagAction;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.ws.rs.core.Response;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.List;
 import java.util.function.Supplier;
 
@@ -104,6 +110,41 @@ public class SourceTagSubmissionTask extends AbstractDataSubmissionTask<SourceTa
     return ImmutableList.of(this);
   }
 
+  /**
+   * Source tags restored from JSON may be missing required fields, which can't be represented
+   * in {@link BinaryTaskCodec} format.
+   */
+  boolean isBinaryEncodable() {
+    return sourceTag != null && sourceTag.getOperation() != null &&
+        sourceTag.getAction() != null && sourceTag.getAnnotations() != null;
+  }
+
+  void writeBinary(DataOutputStream out) throws IOException {
+    writeCommonFields(out);
+    BinaryTaskCodec.writeEnum(out, sourceTag.getOperation());
+    BinaryTaskCodec.writeEnum(out, sourceTag.getAction());
+    BinaryTaskCodec.writeString(out, sourceTag.getSource());
+    BinaryTaskCodec.writeStrings(out, sourceTag.getAnnotations());
+  }
+
+  static SourceTagSubmissionTask readBinary(DataInputStream in, byte version)
+      throws IOException {
+    SourceTagSubmissionTask task = new SourceTagSubmissionTask();
+    task.readCommonFields(in);
+    SourceOperationType operation;
+    SourceTagAction action;
+    if (version == BinaryTaskCodec.VERSION_ORDINAL_ENUMS) {
+      operation = SourceOperationType.values()[in.readByte()];
+      action = SourceTagAction.values()[in.readByte()];
+    } else {
+      operation = BinaryTaskCodec.readEnum(in, SourceOperationType.class);
+      action = BinaryTaskCodec.readEnum(in, SourceTagAction.class);
+    }
+    task.sourceTag = new SourceTag(new ReportSourceTag(operation, action,
+        BinaryTaskCodec.readString(in), BinaryTaskCodec.readStrings(in)));
+    return task;
+  }
+
   public void injectMembers(SourceTagAPI api, EntityProperties properties,
                             TaskQueue<SourceTagSubmissionTask> backlog) {
     this.api = api;
@@ -1,6 +1,7 @@
 package com.wavefront.agent.handlers;
 
 import com.google.common.util.concurrent.RateLimiter;
+import com.wavefront.agent.SharedScheduler;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.BurstRateTrackingCounter;
 import com.yammer.metrics.core.Counter;
@@ -13,9 +14,9 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Level;
@@ -53,8 +54,8 @@ abstract class AbstractReportableEntityHandler<T, U> implements ReportableEntity
   final BurstRateTrackingCounter receivedStats;
   final BurstRateTrackingCounter deliveredStats;
 
-  private final Timer timer;
-  private final AtomicLong roundRobinCounter = new AtomicLong();
+  private final List<ScheduledFuture<?>> scheduledTasks = new ArrayList<>();
+  private final ThreadLocal<int[]> roundRobinIndex;
   @SuppressWarnings("UnstableApiUsage")
   private final RateLimiter noDataStatsRateLimiter = RateLimiter.create(1.0d / 60);
 
@@ -82,6 +83,9 @@ abstract class AbstractReportableEntityHandler<T, U> implements ReportableEntity
         RateLimiter.create(blockedItemsPerBatch / 10d);
     this.serializer = serializer;
     this.senderTasks = senderTasks == null ? new ArrayList<>() : new ArrayList<>(senderTasks);
+    // each thread starts its round-robin sequence at a random position
+    this.roundRobinIndex = ThreadLocal.withInitial(() -> new int[] {
+        ThreadLocalRandom.current().nextInt(Math.max(1, this.senderTasks.size()))});
     this.reportReceivedStats = reportReceivedStats;
     this.rateUnit = handlerKey.getEntityType().getRateUnit();
     this.blockedItemsLogger = blockedItemsLogger;
@@ -102,28 +106,16 @@ abstract class AbstractReportableEntityHandler<T, U> implements ReportableEntity
         return receivedStats.getMaxBurstRateAndClear();
       }
     });
-    timer = new Timer("stats-output-" + handlerKey);
+    SharedScheduler scheduler = SharedScheduler.getInstance();
     if (receivedRateSink != null) {
-      timer.scheduleAtFixedRate(new TimerTask() {
-        @Override
-        public void run() {
-          receivedRateSink.accept(receivedStats.getCurrentRate());
-        }
-      }, 1000, 1000);
+      scheduledTasks.add(scheduler.scheduleAtFixedRate("received-rate-" + handlerKey,
+          () -> receivedRateSink.accept(receivedStats.getCurrentRate()), 1, 1, TimeUnit.SECONDS));
     }
-    timer.scheduleAtFixedRate(new TimerTask() {
-      @Override
-      public void run() {
-        printStats();
-      }
-    }, 10_000, 10_000);
+    scheduledTasks.add(scheduler.scheduleAtFixedRate("stats-output-" + handlerKey,
+        this::printStats, 10, 10, TimeUnit.SECONDS));
     if (reportReceivedStats) {
-      timer.scheduleAtFixedRate(new TimerTask() {
-        @Override
-        public void run() {
-          printTotal();
-        }
-      }, 60_000, 60_000);
+      scheduledTasks.add(scheduler.scheduleAtFixedRate("total-output-" + handlerKey,
+          this::printTotal, 60, 60, TimeUnit.SECONDS));
     }
   }
 
@@ -182,9 +174,36 @@ abstract class AbstractReportableEntityHandler<T, U> implements ReportableEntity
     }
   }
 
+  /**
+   * Validate and convert a batch of objects, then hand all accepted objects over to a single
+   * {@link SenderTask} as one block. Received metrics are updated once per batch.
+   *
+   * @param items     objects to report.
+   * @param converter validates an object and converts it into the form handled by sender tasks.
+   *                  Returns null for objects that should be silently discarded.
+   */
+  void reportBatch(Collection<T> items, Function<T, U> converter) {
+    if (items.isEmpty()) return;
+    List<U> batch = new ArrayList<>(items.size());
+    for (T item : items) {
+      try {
+        U output = converter.apply(item);
+        if (output != null) batch.add(output);
+      } catch (IllegalArgumentException e) {
+        this.reject(item, e.getMessage() + " (" + serializer.apply(item) + ")");
+      } catch (Exception ex) {
+        logger.log(Level.SEVERE, "WF-500 Uncaught exception when handling input (" +
+            serializer.apply(item) + ")", ex);
+      }
+    }
+    if (batch.isEmpty()) return;
+    getTask().addAll(batch);
+    getReceivedCounter().inc(batch.size());
+  }
+
   @Override
   public void shutdown() {
-    if (this.timer != null) timer.cancel();
+    scheduledTasks.forEach(x -> x.cancel(false));
   }
 
   abstract void reportInternal(T item);
@@ -197,21 +216,20 @@ abstract class AbstractReportableEntityHandler<T, U> implements ReportableEntity
     if (senderTasks == null) {
       throw new IllegalStateException("getTask() cannot be called on null senderTasks");
     }
-    // roundrobin all tasks, skipping the worst one (usually with the highest number of points)
-    int nextTaskId = (int)(roundRobinCounter.getAndIncrement() % senderTasks.size());
-    long worstScore = 0L;
-    int worstTaskId = 0;
-    for (int i = 0; i < senderTasks.size(); i++) {
-      long score = senderTasks.get(i).getTaskRelativeScore();
-      if (score > worstScore) {
-        worstScore = score;
-        worstTaskId = i;
-      }
-    }
-    if (nextTaskId == worstTaskId) {
-      nextTaskId = (int)(roundRobinCounter.getAndIncrement() % senderTasks.size());
-    }
-    return senderTasks.get(nextTaskId);
+    int numTasks = senderTasks.size();
+    if (numTasks <= 1) return senderTasks.get(0);
+    // power of two choices: take the next task in this thread's round-robin sequence and
+    // a random different one, and pick whichever has the lower score. No shared state is
+    // modified, so event loop threads don't contend with each other.
+    int[] roundRobin = roundRobinIndex.get();
+    int first = roundRobin[0];
+    roundRobin[0] = first + 1 >= numTasks ? 0 : first + 1;
+    int second = first + 1 + ThreadLocalRandom.current().nextInt(numTasks - 1);
+    if (second >= numTasks) second -= numTasks;
+    SenderTask<U> firstTask = senderTasks.get(first);
+    SenderTask<U> secondTask = senderTasks.get(second);
+    return secondTask.getTaskRelativeScore() < firstTask.getTaskRelativeScore() ?
+        secondTask : firstTask;
   }
 
   protected void printStats() {
@@ -3,26 +3,29 @@ package com.wavefront.agent.handlers;
 import com.google.common.util.concurrent.RateLimiter;
 
 import com.google.common.util.concurrent.RecyclableRateLimiter;
+import com.wavefront.agent.data.DataSubmissionTask;
 import com.wavefront.agent.data.EntityProperties;
 import com.wavefront.agent.data.QueueingReason;
 import com.wavefront.agent.data.TaskResult;
-import com.wavefront.common.NamedThreadFactory;
 import com.wavefront.common.logger.SharedRateLimitingLogger;
+import com.wavefront.common.NamedThreadFactory;
 import com.wavefront.common.TaggedMetricName;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.MetricName;
 
 import javax.annotation.Nullable;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,20 +39,34 @@ import java.util.logging.Logger;
 abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
   private static final Logger logger = Logger.getLogger(AbstractSenderTask.class.getCanonicalName());
 
+  /**
+   * Drains buffers to the queue when they are over the memory limit. Draining blocks on disk I/O,
+   * so it runs on its own threads rather than on the shared scheduler. Idle threads are released.
+   */
+  private static final ThreadPoolExecutor DRAIN_EXECUTOR;
+
+  static {
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    DRAIN_EXECUTOR = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), new NamedThreadFactory("buffer-drain"));
+    DRAIN_EXECUTOR.allowCoreThreadTimeOut(true);
+  }
+
   /**
    * Warn about exceeding the rate limit no more than once every 5 seconds
    */
   protected final Logger throttledLogger;
 
-  List<T> datum = new ArrayList<>();
-  final Object mutex = new Object();
+  final ConcurrentChunkedBuffer<T> datum = new ConcurrentChunkedBuffer<>();
   final ScheduledExecutorService scheduler;
-  private final ExecutorService flushExecutor;
+  @Nullable
+  private final ExecutorService submissionExecutor;
 
   final HandlerKey handlerKey;
   final int threadId;
   final EntityProperties properties;
   final RecyclableRateLimiter rateLimiter;
+  final AdaptiveBatchSizer batchSizer;
 
   final Counter attemptedCounter;
   final Counter blockedCounter;
@@ -58,7 +75,9 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
 
   private final AtomicBoolean isRunning = new AtomicBoolean(false);
   final AtomicBoolean isBuffering = new AtomicBoolean(false);
+  private final AtomicBoolean isDrainScheduled = new AtomicBoolean(false);
   volatile boolean isSending = false;
+  private final AtomicInteger inFlightBatches = new AtomicInteger(0);
 
   /**
    * Attempt to schedule drainBuffersToQueueTask no more than once every 100ms to reduce
@@ -77,15 +96,34 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
    */
   AbstractSenderTask(HandlerKey handlerKey, int threadId, EntityProperties properties,
                      ScheduledExecutorService scheduler) {
+    this(handlerKey, threadId, properties, scheduler, null, null);
+  }
+
+  /**
+   * Base constructor.
+   *
+   * @param handlerKey         pipeline handler key that dictates the data processing flow.
+   * @param threadId           thread number
+   * @param properties         runtime properties container
+   * @param scheduler          executor service for running this task
+   * @param submissionExecutor executor service for async submission of batches, keeping up to
+   *                           {@link EntityProperties#getMaxInFlightBatches()} in flight.
+   *                           if null, batches are submitted synchronously on the scheduler.
+   * @param batchSizer         batch sizer shared by all sender tasks of the pipeline. if null,
+   *                           the task uses its own.
+   */
+  AbstractSenderTask(HandlerKey handlerKey, int threadId, EntityProperties properties,
+                     ScheduledExecutorService scheduler,
+                     @Nullable ExecutorService submissionExecutor,
+                     @Nullable AdaptiveBatchSizer batchSizer) {
     this.handlerKey = handlerKey;
     this.threadId = threadId;
     this.properties = properties;
     this.rateLimiter = properties.getRateLimiter();
+    this.batchSizer = batchSizer == null ? new AdaptiveBatchSizer(properties) : batchSizer;
     this.scheduler = scheduler;
+    this.submissionExecutor = submissionExecutor;
     this.throttledLogger = new SharedRateLimitingLogger(logger, "rateLimit-" + handlerKey, 0.2);
-    this.flushExecutor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.MINUTES,
-        new SynchronousQueue<>(), new NamedThreadFactory("flush-" + handlerKey.toString() +
-        "-" + threadId));
 
     this.attemptedCounter = Metrics.newCounter(new MetricName(handlerKey.toString(), "", "sent"));
     this.blockedCounter = Metrics.newCounter(new MetricName(handlerKey.toString(), "", "blocked"));
@@ -97,39 +135,51 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
 
   abstract TaskResult processSingleBatch(List<T> batch);
 
+  /**
+   * Execute a submission task, feeding its latency and outcome to the adaptive batch sizer.
+   *
+   * @param task task to execute.
+   * @return task result.
+   */
+  TaskResult execute(DataSubmissionTask<?> task) {
+    long startNanos = System.nanoTime();
+    TaskResult result = task.execute();
+    batchSizer.onSubmission(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+        task.isPushedBack());
+    return result;
+  }
+
   @Override
   public void run() {
     if (!isRunning.get()) return;
     long nextRunMillis = properties.getPushFlushInterval();
     isSending = true;
     try {
-      List<T> current = createBatch();
-      int currentBatchSize = current.size();
-      if (currentBatchSize == 0) return;
-      if (rateLimiter == null || rateLimiter.tryAcquire(currentBatchSize)) {
-        TaskResult result = processSingleBatch(current);
-        this.attemptedCounter.inc(currentBatchSize);
-        switch (result) {
-          case DELIVERED:
-            break;
-          case PERSISTED:
-          case PERSISTED_RETRY:
-            if (rateLimiter != null) rateLimiter.recyclePermits(currentBatchSize);
-            break;
-          case RETRY_LATER:
-            undoBatch(current);
-            if (rateLimiter != null) rateLimiter.recyclePermits(currentBatchSize);
-          default:
+      // in async mode, fill up the in-flight window, otherwise send one batch per run
+      int maxInFlight = submissionExecutor == null ? 1 : properties.getMaxInFlightBatches();
+      int batchesToSend = maxInFlight <= 1 ? 1 : maxInFlight - inFlightBatches.get();
+      for (int i = 0; i < batchesToSend; i++) {
+        List<T> current = createBatch(batchSizer.getBatchSize());
+        int currentBatchSize = current.size();
+        if (currentBatchSize == 0) break;
+        if (rateLimiter == null || rateLimiter.tryAcquire(currentBatchSize)) {
+          if (maxInFlight <= 1) {
+            processResult(current, processSingleBatch(current));
+          } else {
+            submitAsync(current);
+          }
+        } else {
+          // if proxy rate limit exceeded, try again in 1/4..1/2 of flush interval
+          // to introduce some degree of fairness.
+          nextRunMillis = nextRunMillis / 4 + (int) (Math.random() * nextRunMillis / 4);
+          final long willRetryIn = nextRunMillis;
+          throttledLogger.log(Level.INFO, () -> "[" + handlerKey.getHandle() + " thread " +
+              threadId + "]: WF-4 Proxy rate limiter active (pending " +
+              handlerKey.getEntityType() + ": " + datum.size() + "), will retry in " +
+              willRetryIn + "ms");
+          undoBatch(current);
+          break;
         }
-      } else {
-        // if proxy rate limit exceeded, try again in 1/4..1/2 of flush interval
-        // to introduce some degree of fairness.
-        nextRunMillis = nextRunMillis / 4 + (int) (Math.random() * nextRunMillis / 4);
-        final long willRetryIn = nextRunMillis;
-        throttledLogger.log(Level.INFO, () -> "[" + handlerKey.getHandle() + " thread " + threadId +
-              "]: WF-4 Proxy rate limiter active (pending " + handlerKey.getEntityType() + ": " +
-              datum.size() + "), will retry in " + willRetryIn + "ms");
-        undoBatch(current);
       }
     } catch (Throwable t) {
       logger.log(Level.SEVERE, "Unexpected error in flush loop", t);
@@ -141,6 +191,54 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
     }
   }
 
+  /**
+   * Submit a batch on the submission executor. Batches that have to be retried are put back
+   * into the buffer as they complete, so with more than one batch in flight they are not
+   * necessarily re-sent in their original order.
+   *
+   * @param batch batch to submit.
+   */
+  private void submitAsync(List<T> batch) {
+    inFlightBatches.incrementAndGet();
+    try {
+      CompletableFuture.supplyAsync(() -> processSingleBatch(batch), submissionExecutor).
+          whenComplete((result, t) -> {
+            inFlightBatches.decrementAndGet();
+            if (t != null) {
+              logger.log(Level.SEVERE, "Unexpected error in flush loop", t);
+            } else {
+              processResult(batch, result);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // executor is shutting down
+      inFlightBatches.decrementAndGet();
+      processResult(batch, TaskResult.RETRY_LATER);
+    }
+  }
+
+  private void processResult(List<T> batch, TaskResult result) {
+    int batchSize = batch.size();
+    this.attemptedCounter.inc(batchSize);
+    switch (result) {
+      case DELIVERED:
+        break;
+      case PERSISTED:
+      case PERSISTED_RETRY:
+        if (rateLimiter != null) rateLimiter.recyclePermits(batchSize);
+        break;
+      case RETRY_LATER:
+        if (isRunning.get()) {
+          undoBatch(batch);
+        } else {
+          // buffers may have already been drained for the last time, queue the batch directly
+          flushSingleBatch(batch, null);
+        }
+        if (rateLimiter != null) rateLimiter.recyclePermits(batchSize);
+      default:
+    }
+  }
+
   @Override
   public void start() {
     if (isRunning.compareAndSet(false, true)) {
@@ -151,34 +249,35 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
   @Override
   public void stop() {
     isRunning.set(false);
-    flushExecutor.shutdown();
   }
 
   @Override
   public void add(T metricString) {
-    synchronized (mutex) {
-      this.datum.add(metricString);
-    }
+    this.datum.add(metricString);
+    scheduleDrainIfFull();
+  }
+
+  @Override
+  public void addAll(Collection<T> items) {
+    if (items.isEmpty()) return;
+    this.datum.addAll(items);
+    scheduleDrainIfFull();
+  }
+
+  private void scheduleDrainIfFull() {
     //noinspection UnstableApiUsage
     if (datum.size() >= properties.getMemoryBufferLimit() && !isBuffering.get() &&
-        drainBuffersRateLimiter.tryAcquire()) {
+        drainBuffersRateLimiter.tryAcquire() && isDrainScheduled.compareAndSet(false, true)) {
       try {
-        flushExecutor.submit(drainBuffersToQueueTask);
+        DRAIN_EXECUTOR.execute(drainBuffersToQueueTask);
       } catch (RejectedExecutionException e) {
-        // ignore - another task is already being executed
+        isDrainScheduled.set(false);
       }
     }
   }
 
-  protected List<T> createBatch() {
-    List<T> current;
-    int blockSize;
-    synchronized (mutex) {
-      blockSize = Math.min(datum.size(), Math.min(properties.getItemsPerBatch(),
-          (int)rateLimiter.getRate()));
-      current = datum.subList(0, blockSize);
-      datum = new ArrayList<>(datum.subList(blockSize, datum.size()));
-    }
+  protected List<T> createBatch(int maxBatchSize) {
+    List<T> current = datum.drain(Math.min(maxBatchSize, (int)rateLimiter.getRate()));
     logger.fine("[" + handlerKey.getHandle() + "] (DETAILED): sending " + current.size() +
         " valid " + handlerKey.getEntityType() + "; in memory: " + this.datum.size() +
         "; total attempted: " + this.attemptedCounter.count() +
@@ -187,14 +286,22 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
   }
 
   protected void undoBatch(List<T> batch) {
-    synchronized (mutex) {
-      datum.addAll(0, batch);
-    }
+    datum.undo(batch);
   }
 
   private final Runnable drainBuffersToQueueTask = new Runnable() {
     @Override
     public void run() {
+      try {
+        drainIfOverLimit();
+      } catch (Throwable t) {
+        logger.log(Level.SEVERE, "Unexpected error while draining buffers to queue", t);
+      } finally {
+        isDrainScheduled.set(false);
+      }
+    }
+
+    private void drainIfOverLimit() {
       if (datum.size() > properties.getMemoryBufferLimit()) {
         // there are going to be too many points to be able to flush w/o the agent blowing up
         // drain the leftovers straight to the retry queue (i.e. to disk)
@@ -222,7 +329,8 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
         // they will be taken care of in the next run
         int toFlush = datum.size();
         while (toFlush > 0) {
-          List<T> batch = createBatch();
+          // batches written to the queue are not subject to adaptive batch sizing
+          List<T> batch = createBatch(properties.getItemsPerBatch());
           int batchSize = batch.size();
           if (batchSize > 0) {
             flushSingleBatch(batch, reason);
@@ -248,6 +356,6 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
   @Override
   public long getTaskRelativeScore() {
     return datum.size() + (isBuffering.get() ? properties.getMemoryBufferLimit() :
-        (isSending ? properties.getItemsPerBatch() / 2 : 0));
+        (isSending || inFlightBatches.get() > 0 ? properties.getItemsPerBatch() / 2 : 0));
   }
 }
@@ -0,0 +1,123 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.wavefront.agent.data.EntityProperties;
+
+import java.util.function.Supplier;
+
+/**
+ * Adjusts the number of items per batch for a pipeline using AIMD (additive increase,
+ * multiplicative decrease): batch size grows by a small step after every successful submission
+ * while p99 submission latency stays under the configured target
+ * ({@link EntityProperties#getAdaptiveBatchLatencyTarget()}), and is cut in half when the server
+ * pushes back (HTTP 406/413/429) or the request times out.
+ * Effective batch size is always between {@link EntityProperties#getMinBatchSplitSize()} and
+ * {@link EntityProperties#getItemsPerBatch()}.
+ *
+ * One instance is shared by all sender tasks of the same {@link HandlerKey}, see
+ * {@link SenderTaskFactoryImpl}.
+ */
+class AdaptiveBatchSizer {
+  private static final int LATENCY_WINDOW_SIZE = 100;
+  private static final double INCREASE_STEP = 0.02; // of max batch size
+  private static final double DECREASE_FACTOR = 0.5;
+  // pushback responses for batches that were in flight at the same time count as one signal
+  private static final long DECREASE_COOLDOWN_MILLIS = 1000;
+
+  private final EntityProperties properties;
+  private final Supplier<Long> timeProvider;
+  // ring buffer of recent latencies, with the number of them that exceed the latency target
+  private final long[] latencies = new long[LATENCY_WINDOW_SIZE];
+  private int latencyCount = 0;
+  private int nextLatency = 0;
+  private int overTargetCount = 0;
+  private int countedTarget = -1;
+  private double batchSize = Double.MAX_VALUE;
+  private long lastDecreaseMillis = 0;
+
+  /**
+   * @param properties entity-specific wrapper for runtime properties.
+   */
+  AdaptiveBatchSizer(EntityProperties properties) {
+    this(properties, System::currentTimeMillis);
+  }
+
+  /**
+   * @param properties   entity-specific wrapper for runtime properties.
+   * @param timeProvider current time provider (in millis).
+   */
+  @VisibleForTesting
+  AdaptiveBatchSizer(EntityProperties properties, Supplier<Long> timeProvider) {
+    this.properties = properties;
+    this.timeProvider = timeProvider;
+  }
+
+  /**
+   * Get the number of items to put into the next batch.
+   *
+   * @return batch size
+   */
+  int getBatchSize() {
+    int maxBatchSize = properties.getItemsPerBatch();
+    if (properties.getAdaptiveBatchLatencyTarget() <= 0) return maxBatchSize;
+    synchronized (this) {
+      return (int) Math.max(Math.min(batchSize, maxBatchSize),
+          Math.min(properties.getMinBatchSplitSize(), maxBatchSize));
+    }
+  }
+
+  /**
+   * Record the outcome of a batch submission.
+   *
+   * @param latencyMillis time it took to submit the batch.
+   * @param pushedBack    whether the server pushed back or the request timed out.
+   */
+  void onSubmission(long latencyMillis, boolean pushedBack) {
+    int latencyTarget = properties.getAdaptiveBatchLatencyTarget();
+    if (latencyTarget <= 0) return;
+    int maxBatchSize = properties.getItemsPerBatch();
+    int minBatchSize = Math.min(properties.getMinBatchSplitSize(), maxBatchSize);
+    synchronized (this) {
+      batchSize = Math.min(batchSize, maxBatchSize);
+      if (pushedBack) {
+        long now = timeProvider.get();
+        if (now - lastDecreaseMillis >= DECREASE_COOLDOWN_MILLIS) {
+          batchSize = Math.max(batchSize * DECREASE_FACTOR, minBatchSize);
+          lastDecreaseMillis = now;
+        }
+        return;
+      }
+      addLatency(latencyMillis, latencyTarget);
+      if (isP99LatencyWithinTarget()) {
+        batchSize = Math.min(batchSize + Math.max(maxBatchSize * INCREASE_STEP, 1), maxBatchSize);
+      }
+    }
+  }
+
+  private void addLatency(long latencyMillis, int latencyTarget) {
+    if (latencyTarget != countedTarget) {
+      // latency target has changed, recount the window
+      overTargetCount = 0;
+      for (int i = 0; i < latencyCount; i++) {
+        if (latencies[i] > latencyTarget) overTargetCount++;
+      }
+      countedTarget = latencyTarget;
+    }
+    if (latencyCount == LATENCY_WINDOW_SIZE) {
+      if (latencies[nextLatency] > latencyTarget) overTargetCount--;
+    } else {
+      latencyCount++;
+    }
+    latencies[nextLatency] = latencyMillis;
+    if (latencyMillis > latencyTarget) overTargetCount++;
+    nextLatency = (nextLatency + 1) % LATENCY_WINDOW_SIZE;
+  }
+
+  /**
+   * p99 of the window is within target when no more than 1% of latencies exceed it, which
+   * takes a constant time instead of sorting the window.
+   */
+  private boolean isP99LatencyWithinTarget() {
+    return overTargetCount <= latencyCount - (int) Math.ceil(latencyCount * 0.99);
+  }
+}
@@ -0,0 +1,103 @@
+package com.wavefront.agent.handlers;
+
+import com.wavefront.common.Utils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Wraps a {@link ReportableEntityHandler} and collects all reported objects, so they can be
+ * handed over to the underlying handler with a single
+ * {@link ReportableEntityHandler#reportAll(Collection)} call once the whole request has been
+ * processed. Blocked and rejected objects are passed through immediately.
+ *
+ * Not thread-safe: a new instance is supposed to be created for every incoming request.
+ *
+ * @param <T> the type of input objects handled.
+ * @param <U> the type of the output object as handled by {@link SenderTask<U>}
+ */
+public class BatchingReportableEntityHandler<T, U> implements ReportableEntityHandler<T, U> {
+  private final ReportableEntityHandler<T, U> delegate;
+  private List<T> batch = new ArrayList<>();
+
+  /**
+   * @param delegate handler to pass the collected objects to.
+   */
+  public BatchingReportableEntityHandler(@Nonnull ReportableEntityHandler<T, U> delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Creates a supplier that wraps the handler the first time it's requested. Wrappers are
+   * registered with {@code batches}, so all handlers that were actually used during the request
+   * can be flushed together, while the underlying handlers are still created only on demand.
+   *
+   * @param handlerSupplier supplier for the underlying handler.
+   * @param batches         list to register created wrappers with.
+   * @return supplier for the wrapper, returns null if the underlying handler is null.
+   */
+  public static <T, U> Supplier<ReportableEntityHandler<T, U>> lazyBatch(
+      Supplier<ReportableEntityHandler<T, U>> handlerSupplier,
+      List<BatchingReportableEntityHandler<?, ?>> batches) {
+    return Utils.lazySupplier(() -> {
+      ReportableEntityHandler<T, U> handler = handlerSupplier.get();
+      if (handler == null) return null;
+      BatchingReportableEntityHandler<T, U> batchingHandler =
+          new BatchingReportableEntityHandler<>(handler);
+      batches.add(batchingHandler);
+      return batchingHandler;
+    });
+  }
+
+  @Override
+  public void report(T t) {
+    batch.add(t);
+  }
+
+  @Override
+  public void reportAll(Collection<T> items) {
+    batch.addAll(items);
+  }
+
+  @Override
+  public void block(T t) {
+    delegate.block(t);
+  }
+
+  @Override
+  public void block(@Nullable T t, @Nullable String message) {
+    delegate.block(t, message);
+  }
+
+  @Override
+  public void reject(@Nullable T t, @Nullable String message) {
+    delegate.reject(t, message);
+  }
+
+  @Override
+  public void reject(@Nonnull String t, @Nullable String message) {
+    delegate.reject(t, message);
+  }
+
+  /**
+   * Pass all objects collected so far to the underlying handler.
+   */
+  public void flush() {
+    if (batch.isEmpty()) return;
+    List<T> items = batch;
+    batch = new ArrayList<>();
+    delegate.reportAll(items);
+  }
+
+  /**
+   * Flushes collected objects. Doesn't shut down the underlying handler.
+   */
+  @Override
+  public void shutdown() {
+    flush();
+  }
+}
@@ -0,0 +1,179 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Unbounded multi-producer/single-consumer buffer for {@link SenderTask} memory buffers, built
+ * from linked fixed-size chunks. Producers claim a slot with a single atomic increment and never
+ * take a lock, so {@link #add} doesn't block event loop threads. The consumer side (batch
+ * creation and draining to the queue) is serialized internally and takes items out in
+ * O(batch size), regardless of how many items are buffered.
+ *
+ * @param <T> the type of buffered items.
+ */
+class ConcurrentChunkedBuffer<T> {
+  private static final int DEFAULT_CHUNK_SIZE = 1024;
+
+  private final int chunkSize;
+  private final AtomicReference<Chunk<T>> tail;
+  private final Object consumerLock = new Object();
+
+  // consumer-side state, guarded by consumerLock
+  private Chunk<T> head;
+  private int headIndex = 0;
+  private final Deque<T> returned = new ArrayDeque<>();
+
+  // written under consumerLock only, read without synchronization by size()
+  private volatile long consumed = 0;
+  private volatile int returnedSize = 0;
+
+  ConcurrentChunkedBuffer() {
+    this(DEFAULT_CHUNK_SIZE);
+  }
+
+  @VisibleForTesting
+  ConcurrentChunkedBuffer(int chunkSize) {
+    this.chunkSize = chunkSize;
+    this.head = new Chunk<>(0, chunkSize);
+    this.tail = new AtomicReference<>(head);
+  }
+
+  /**
+   * Add an item to the buffer. Safe to call from any number of threads concurrently.
+   *
+   * @param item item to add.
+   */
+  void add(@Nonnull T item) {
+    while (true) {
+      Chunk<T> chunk = tail.get();
+      int index = chunk.writeIndex.getAndIncrement();
+      if (index < chunkSize) {
+        chunk.slots.set(index, item);
+        return;
+      }
+      advanceTail(chunk);
+    }
+  }
+
+  /**
+   * Add a block of items to the buffer. Slots for the block are claimed with one atomic
+   * operation per chunk, so items stay contiguous unless the block crosses a chunk boundary.
+   * Safe to call from any number of threads concurrently.
+   *
+   * @param items items to add, in order.
+   */
+  void addAll(@Nonnull Collection<T> items) {
+    Iterator<T> iterator = items.iterator();
+    int remaining = items.size();
+    while (remaining > 0) {
+      Chunk<T> chunk = tail.get();
+      if (chunk.writeIndex.get() < chunkSize) {
+        int count = Math.min(remaining, chunkSize);
+        int index = chunk.writeIndex.getAndAdd(count);
+        if (index < chunkSize) {
+          int end = Math.min(index + count, chunkSize);
+          for (int i = index; i < end; i++) {
+            chunk.slots.set(i, iterator.next());
+          }
+          remaining -= end - index;
+          continue;
+        }
+      }
+      advanceTail(chunk);
+    }
+  }
+
+  /**
+   * Current chunk is full: link a new one (or help whoever got there first).
+   */
+  private void advanceTail(Chunk<T> chunk) {
+    Chunk<T> next = chunk.next.get();
+    if (next == null) {
+      Chunk<T> candidate = new Chunk<>(chunk.sequence + 1, chunkSize);
+      next = chunk.next.compareAndSet(null, candidate) ? candidate : chunk.next.get();
+    }
+    tail.compareAndSet(chunk, next);
+  }
+
+  /**
+   * Take up to {@code maxItems} items from the head of the buffer.
+   *
+   * @param maxItems max number of items to take.
+   * @return list of items, in the order they were added.
+   */
+  List<T> drain(int maxItems) {
+    synchronized (consumerLock) {
+      List<T> result = new ArrayList<>(Math.max(0, Math.min(maxItems, size())));
+      while (result.size() < maxItems && !returned.isEmpty()) {
+        result.add(returned.pollFirst());
+      }
+      returnedSize = returned.size();
+      long taken = 0;
+      while (result.size() < maxItems) {
+        if (headIndex == chunkSize) {
+          Chunk<T> next = head.next.get();
+          if (next == null) break;
+          head = next;
+          headIndex = 0;
+        }
+        // null means the slot is either not claimed yet, or claimed, but not yet published
+        T item = head.slots.get(headIndex);
+        if (item == null) break;
+        head.slots.lazySet(headIndex, null);
+        headIndex++;
+        taken++;
+        result.add(item);
+      }
+      consumed += taken;
+      return result;
+    }
+  }
+
+  /**
+   * Return previously drained items back to the head of the buffer, preserving their order.
+   *
+   * @param items items to return.
+   */
+  void undo(List<T> items) {
+    synchronized (consumerLock) {
+      for (int i = items.size() - 1; i >= 0; i--) {
+        returned.addFirst(items.get(i));
+      }
+      returnedSize = returned.size();
+    }
+  }
+
+  /**
+   * Approximate number of items in the buffer. Doesn't block and runs in constant time.
+   *
+   * @return number of buffered items.
+   */
+  int size() {
+    Chunk<T> chunk = tail.get();
+    long produced = chunk.sequence * chunkSize + Math.min(chunk.writeIndex.get(), chunkSize);
+    return (int) Math.max(0, produced - consumed + returnedSize);
+  }
+
+  private static final class Chunk<T> {
+    final long sequence;
+    final AtomicInteger writeIndex = new AtomicInteger();
+    final AtomicReferenceArray<T> slots;
+    final AtomicReference<Chunk<T>> next = new AtomicReference<>();
+
+    Chunk(long sequence, int size) {
+      this.sequence = sequence;
+      this.slots = new AtomicReferenceArray<>(size);
+    }
+  }
+}
@@ -5,6 +5,7 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.RemovalListener;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.AtomicDouble;
+import com.wavefront.agent.SharedScheduler;
 import com.wavefront.api.agent.ValidationConfiguration;
 import com.wavefront.common.Clock;
 import com.wavefront.common.HostMetricTagsPair;
@@ -24,10 +25,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Objects;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -53,8 +51,9 @@ public class DeltaCounterAccumulationHandlerImpl
   private final BurstRateTrackingCounter reportedStats;
   private final Supplier<Counter> discardedCounterSupplier;
   private final Cache<HostMetricTagsPair, AtomicDouble> aggregatedDeltas;
-  private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
-  private final Timer receivedRateTimer;
+  private final ScheduledFuture<?> reporter;
+  @Nullable
+  private final ScheduledFuture<?> receivedRateReporter;
 
     /**
    * @param handlerKey                 metrics pipeline key.
@@ -87,8 +86,9 @@ public class DeltaCounterAccumulationHandlerImpl
     this.receivedPointLag = Metrics.newHistogram(new MetricName("points." + handlerKey.getHandle() +
         ".received", "", "lag"), false);
 
-    reporter.scheduleWithFixedDelay(this::flushDeltaCounters, aggregationIntervalSeconds,
-        aggregationIntervalSeconds, TimeUnit.SECONDS);
+    this.reporter = SharedScheduler.getInstance().scheduleWithFixedDelay(
+        "delta-counter-flush-" + handlerKey.getHandle(), this::flushDeltaCounters,
+        aggregationIntervalSeconds, aggregationIntervalSeconds, TimeUnit.SECONDS);
 
     String metricPrefix = handlerKey.toString();
     this.reportedStats = new BurstRateTrackingCounter(new MetricName(metricPrefix, "", "sent"),
@@ -101,17 +101,10 @@ public class DeltaCounterAccumulationHandlerImpl
         return aggregatedDeltas.estimatedSize();
       }
     });
-    if (receivedRateSink == null) {
-      this.receivedRateTimer = null;
-    } else {
-      this.receivedRateTimer = new Timer("delta-counter-timer-" + handlerKey.getHandle());
-      this.receivedRateTimer.scheduleAtFixedRate(new TimerTask() {
-        @Override
-        public void run() {
-          receivedRateSink.accept(reportedStats.getCurrentRate());
-        }
-      }, 1000, 1000);
-    }
+    this.receivedRateReporter = receivedRateSink == null ? null :
+        SharedScheduler.getInstance().scheduleAtFixedRate(
+            "delta-counter-received-rate-" + handlerKey.getHandle(),
+            () -> receivedRateSink.accept(reportedStats.getCurrentRate()), 1, 1, TimeUnit.SECONDS);
   }
 
   @VisibleForTesting
@@ -159,9 +152,9 @@ public class DeltaCounterAccumulationHandlerImpl
   @Override
   public void shutdown() {
     super.shutdown();
-    reporter.shutdown();
-    if (receivedRateTimer != null) {
-      receivedRateTimer.cancel();
+    reporter.cancel(false);
+    if (receivedRateReporter != null) {
+      receivedRateReporter.cancel(false);
     }
   }
 }
@@ -44,16 +44,25 @@ public class EventHandlerImpl extends AbstractReportableEntityHandler<ReportEven
     this.validItemsLogger = validEventsLogger;
   }
 
+  @Override
+  public void reportAll(Collection<ReportEvent> events) {
+    reportBatch(events, this::validateAndConvert);
+  }
+
   @Override
   protected void reportInternal(ReportEvent event) {
+    getTask().add(validateAndConvert(event));
+    getReceivedCounter().inc();
+  }
+
+  private Event validateAndConvert(ReportEvent event) {
     if (!annotationKeysAreValid(event)) {
       throw new IllegalArgumentException("WF-401: Event annotation key has illegal characters.");
     }
-    getTask().add(new Event(event));
-    getReceivedCounter().inc();
     if (validItemsLogger != null && validItemsLogger.isLoggable(Level.FINEST)) {
       validItemsLogger.info(EVENT_SERIALIZER.apply(event));
     }
+    return new Event(event);
   }
 
   @VisibleForTesting
@@ -11,6 +11,7 @@ import com.wavefront.dto.Event;
 import javax.annotation.Nullable;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
 /**
@@ -26,18 +27,22 @@ class EventSenderTask extends AbstractSenderTask<Event> {
   private final TaskQueue<EventDataSubmissionTask> backlog;
 
   /**
-   * @param handlerKey   handler key, that serves as an identifier of the metrics pipeline.
-   * @param proxyAPI     handles interaction with Wavefront servers as well as queueing.
-   * @param proxyId      id of the proxy.
-   * @param threadId     thread number.
-   * @param properties   container for mutable proxy settings.
-   * @param scheduler    executor service for running this task
-   * @param backlog      backing queue
+   * @param handlerKey         handler key, that serves as an identifier of the metrics pipeline.
+   * @param proxyAPI           handles interaction with Wavefront servers as well as queueing.
+   * @param proxyId            id of the proxy.
+   * @param threadId           thread number.
+   * @param properties         container for mutable proxy settings.
+   * @param scheduler          executor service for running this task
+   * @param backlog            backing queue
+   * @param submissionExecutor optional executor service for async submission.
+   * @param batchSizer         optional batch sizer shared by the pipeline's sender tasks.
    */
   EventSenderTask(HandlerKey handlerKey, EventAPI proxyAPI, UUID proxyId, int threadId,
                   EntityProperties properties, ScheduledExecutorService scheduler,
-                  TaskQueue<EventDataSubmissionTask> backlog) {
-    super(handlerKey, threadId, properties, scheduler);
+                  TaskQueue<EventDataSubmissionTask> backlog,
+                  @Nullable ExecutorService submissionExecutor,
+                  @Nullable AdaptiveBatchSizer batchSizer) {
+    super(handlerKey, threadId, properties, scheduler, submissionExecutor, batchSizer);
     this.proxyAPI = proxyAPI;
     this.proxyId = proxyId;
     this.backlog = backlog;
@@ -47,7 +52,7 @@ class EventSenderTask extends AbstractSenderTask<Event> {
   TaskResult processSingleBatch(List<Event> batch) {
     EventDataSubmissionTask task = new EventDataSubmissionTask(proxyAPI, proxyId, properties,
         backlog, handlerKey.getHandle(), batch, null);
-    return task.execute();
+    return execute(task);
   }
 
   @Override
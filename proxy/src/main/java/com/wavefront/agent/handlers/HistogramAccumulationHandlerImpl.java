@@ -13,6 +13,7 @@ import wavefront.report.ReportPoint;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -79,6 +80,15 @@ public class HistogramAccumulationHandlerImpl extends ReportPointHandlerImpl {
         Metrics.newHistogram(new MetricName(metricNamespace, "", "histogram_samples")));
   }
 
+  /**
+   * Points are accumulated one at a time and never go to sender tasks directly, so batches
+   * are handled point by point.
+   */
+  @Override
+  public void reportAll(Collection<ReportPoint> points) {
+    points.forEach(this::report);
+  }
+
   @Override
   protected void reportInternal(ReportPoint point) {
     validatePoint(point, validationConfig);
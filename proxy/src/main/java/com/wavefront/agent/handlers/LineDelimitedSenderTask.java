@@ -11,6 +11,7 @@ import com.wavefront.api.ProxyV2API;
 import javax.annotation.Nullable;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
 /**
@@ -27,23 +28,27 @@ class LineDelimitedSenderTask extends AbstractSenderTask<String> {
   private final TaskQueue<LineDelimitedDataSubmissionTask> backlog;
 
   /**
-   * @param handlerKey        pipeline handler key
-   * @param pushFormat        format parameter passed to the API endpoint.
-   * @param proxyAPI          handles interaction with Wavefront servers as well as queueing.
-   * @param proxyId           proxy ID.
-   * @param properties        container for mutable proxy settings.
-   * @param scheduler         executor service for running this task
-   * @param threadId          thread number.
-   * @param taskSizeEstimator optional task size estimator used to calculate approximate
-   *                          buffer fill rate.
-   * @param backlog           backing queue.
+   * @param handlerKey         pipeline handler key
+   * @param pushFormat         format parameter passed to the API endpoint.
+   * @param proxyAPI           handles interaction with Wavefront servers as well as queueing.
+   * @param proxyId            proxy ID.
+   * @param properties         container for mutable proxy settings.
+   * @param scheduler          executor service for running this task
+   * @param threadId           thread number.
+   * @param taskSizeEstimator  optional task size estimator used to calculate approximate
+   *                           buffer fill rate.
+   * @param backlog            backing queue.
+   * @param submissionExecutor optional executor service for async submission.
+   * @param batchSizer         optional batch sizer shared by the pipeline's sender tasks.
    */
   LineDelimitedSenderTask(HandlerKey handlerKey, String pushFormat, ProxyV2API proxyAPI,
                           UUID proxyId, final EntityProperties properties,
                           ScheduledExecutorService scheduler, int threadId,
                           @Nullable final TaskSizeEstimator taskSizeEstimator,
-                          TaskQueue<LineDelimitedDataSubmissionTask> backlog) {
-    super(handlerKey, threadId, properties, scheduler);
+                          TaskQueue<LineDelimitedDataSubmissionTask> backlog,
+                          @Nullable ExecutorService submissionExecutor,
+                          @Nullable AdaptiveBatchSizer batchSizer) {
+    super(handlerKey, threadId, properties, scheduler, submissionExecutor, batchSizer);
     this.pushFormat = pushFormat;
     this.proxyId = proxyId;
     this.proxyAPI = proxyAPI;
@@ -57,7 +62,7 @@ class LineDelimitedSenderTask extends AbstractSenderTask<String> {
         proxyId, properties, backlog, pushFormat, handlerKey.getEntityType(),
         handlerKey.getHandle(), batch, null);
     if (taskSizeEstimator != null) taskSizeEstimator.scheduleTaskForSizing(task);
-    return task.execute();
+    return execute(task);
   }
 
   @Override
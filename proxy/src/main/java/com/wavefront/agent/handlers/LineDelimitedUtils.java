@@ -2,6 +2,9 @@ package com.wavefront.agent.handlers;
 
 import org.apache.commons.lang.StringUtils;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 
 /**
@@ -11,6 +14,9 @@ import java.util.Collection;
  */
 public abstract class LineDelimitedUtils {
   static final String PUSH_DATA_DELIMITER = "\n";
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final ThreadLocal<byte[]> WRITE_BUFFER =
+      ThreadLocal.withInitial(() -> new byte[WRITE_BUFFER_SIZE]);
 
   private LineDelimitedUtils() {
   }
@@ -35,4 +41,49 @@ public abstract class LineDelimitedUtils {
   public static String joinPushData(Collection<String> pushData) {
     return StringUtils.join(pushData, PUSH_DATA_DELIMITER);
   }
+
+  /**
+   * Write a batch of strings into the output stream as a UTF-8 encoded newline-delimited
+   * payload. Produces the same byte sequence as encoding {@link #joinPushData(Collection)},
+   * but without building the entire payload as a string first: lines are encoded into
+   * a reusable per-thread buffer that gets flushed into the output stream when full.
+   *
+   * @param pushData collection of strings.
+   * @param out      stream to write the payload to.
+   * @throws IOException if the underlying stream throws.
+   */
+  public static void writePushData(Collection<String> pushData, OutputStream out)
+      throws IOException {
+    byte[] buf = WRITE_BUFFER.get();
+    int pos = 0;
+    boolean first = true;
+    for (String line : pushData) {
+      if (!first) {
+        if (pos == buf.length) {
+          out.write(buf, 0, pos);
+          pos = 0;
+        }
+        buf[pos++] = '\n';
+      }
+      first = false;
+      if (line == null) continue;
+      int length = line.length();
+      for (int i = 0; i < length; i++) {
+        char c = line.charAt(i);
+        if (c >= 0x80) {
+          // non-ASCII characters are rare, let the JDK encoder deal with the rest of the line
+          out.write(buf, 0, pos);
+          pos = 0;
+          out.write(line.substring(i).getBytes(StandardCharsets.UTF_8));
+          break;
+        }
+        if (pos == buf.length) {
+          out.write(buf, 0, pos);
+          pos = 0;
+        }
+        buf[pos++] = (byte) c;
+      }
+    }
+    if (pos > 0) out.write(buf, 0, pos);
+  }
 }
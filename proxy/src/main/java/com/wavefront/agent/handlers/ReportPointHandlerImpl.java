@@ -74,14 +74,27 @@ class ReportPointHandlerImpl extends AbstractReportableEntityHandler<ReportPoint
         Metrics.newCounter(new MetricName(handlerKey.toString(), "", "discarded")));
   }
 
+  @Override
+  public void reportAll(Collection<ReportPoint> points) {
+    reportBatch(points, this::validateAndSerialize);
+  }
+
   @Override
   void reportInternal(ReportPoint point) {
+    String strPoint = validateAndSerialize(point);
+    if (strPoint == null) return;
+    getTask().add(strPoint);
+    getReceivedCounter().inc();
+  }
+
+  @Nullable
+  private String validateAndSerialize(ReportPoint point) {
     receivedTagCount.update(point.getAnnotations().size());
     try {
       validatePoint(point, validationConfig);
     } catch (DeltaCounterValueException e) {
       discardedCounterSupplier.get().inc();
-      return;
+      return null;
     }
     receivedPointLag.update(Clock.now() - point.getTimestamp());
     if (point.getValue() instanceof Histogram && recompressor != null) {
@@ -89,8 +102,7 @@ class ReportPointHandlerImpl extends AbstractReportableEntityHandler<ReportPoint
       point.setValue(recompressor.apply(histogram));
     }
     final String strPoint = serializer.apply(point);
-    getTask().add(strPoint);
-    getReceivedCounter().inc();
     if (validItemsLogger != null) validItemsLogger.info(strPoint);
+    return strPoint;
   }
 }
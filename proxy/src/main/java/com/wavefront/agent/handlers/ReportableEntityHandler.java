@@ -2,6 +2,7 @@ package com.wavefront.agent.handlers;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 
 /**
  * Handler that processes incoming objects of a single entity type, validates them and
@@ -20,6 +21,17 @@ public interface ReportableEntityHandler<T, U> {
    */
   void report(T t);
 
+  /**
+   * Validate and accept a batch of input objects. Handlers that support batching update
+   * their metrics once per batch and hand all accepted objects over to a single
+   * {@link SenderTask}.
+   *
+   * @param items objects to accept.
+   */
+  default void reportAll(Collection<T> items) {
+    items.forEach(this::report);
+  }
+
   /**
    * Handle the input object as blocked. Blocked objects are otherwise valid objects
    * that are rejected based on user-defined criteria.
@@ -4,6 +4,7 @@ import com.wavefront.agent.data.QueueingReason;
 import com.wavefront.common.Managed;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
 
 /**
  * Batch and ship valid items to Wavefront servers
@@ -21,6 +22,15 @@ public interface SenderTask<T> extends Managed {
    */
   void add(T item);
 
+  /**
+   * Add a batch of valid items to the send queue (memory buffers).
+   *
+   * @param items items to add to the send queue.
+   */
+  default void addAll(Collection<T> items) {
+    items.forEach(this::add);
+  }
+
   /**
    * Calculate a numeric score (the lower the better) that is intended to help the
    * {@link ReportableEntityHandler} choose the best SenderTask to handle over data to.
@@ -14,6 +14,7 @@ import com.wavefront.common.TaggedMetricName;
 import com.wavefront.data.ReportableEntityType;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -22,9 +23,11 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
@@ -41,11 +44,20 @@ import static com.wavefront.api.agent.Constants.PUSH_FORMAT_WAVEFRONT;
  * @author vasily@wavefront.com
  */
 public class SenderTaskFactoryImpl implements SenderTaskFactory {
+  private static final Logger log =
+      Logger.getLogger(SenderTaskFactoryImpl.class.getCanonicalName());
+
+  /**
+   * Max time to wait for in-flight batches to complete on shutdown.
+   */
+  private static final long SUBMISSION_SHUTDOWN_TIMEOUT_MILLIS = 30_000;
 
   private final Map<String, List<ReportableEntityType>> entityTypes = new ConcurrentHashMap<>();
   private final Map<HandlerKey, ScheduledExecutorService> executors = new ConcurrentHashMap<>();
+  private final Map<HandlerKey, ExecutorService> submissionExecutors = new ConcurrentHashMap<>();
   private final Map<HandlerKey, List<SenderTask<?>>> managedTasks = new ConcurrentHashMap<>();
   private final Map<HandlerKey, Managed> managedServices = new ConcurrentHashMap<>();
+  private final Map<HandlerKey, AdaptiveBatchSizer> batchSizers = new ConcurrentHashMap<>();
 
   /**
    * Keep track of all {@link TaskSizeEstimator} instances to calculate global buffer fill rate.
@@ -101,6 +113,24 @@ public class SenderTaskFactoryImpl implements SenderTaskFactory {
     ScheduledExecutorService scheduler = executors.computeIfAbsent(handlerKey, x ->
         Executors.newScheduledThreadPool(numThreads, new NamedThreadFactory("submitter-" +
             handlerKey.getEntityType() + "-" + handlerKey.getHandle())));
+    // batches are submitted asynchronously only when more than one batch is allowed in flight
+    ExecutorService submissionExecutor = entityType == ReportableEntityType.SOURCE_TAG ||
+        entityPropsFactory.get(entityType).getMaxInFlightBatches() <= 1 ? null :
+        submissionExecutors.computeIfAbsent(handlerKey, x -> Executors.newFixedThreadPool(
+            numThreads * entityPropsFactory.get(entityType).getMaxInFlightBatches(),
+            new DaemonThreadFactory("submitter-async-" + handlerKey.getEntityType() + "-" +
+                handlerKey.getHandle())));
+
+    AdaptiveBatchSizer batchSizer = batchSizers.computeIfAbsent(handlerKey, x -> {
+      AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(entityPropsFactory.get(entityType));
+      Metrics.newGauge(getBatchSizeMetricName(handlerKey), new Gauge<Integer>() {
+        @Override
+        public Integer value() {
+          return sizer.getBatchSize();
+        }
+      });
+      return sizer;
+    });
 
     for (int threadNo = 0; threadNo < numThreads; threadNo++) {
       SenderTask<?> senderTask;
@@ -109,12 +139,14 @@ public class SenderTaskFactoryImpl implements SenderTaskFactory {
         case DELTA_COUNTER:
           senderTask = new LineDelimitedSenderTask(handlerKey, PUSH_FORMAT_WAVEFRONT,
               apiContainer.getProxyV2API(), proxyId, entityPropsFactory.get(entityType), scheduler,
-              threadNo, taskSizeEstimator, taskQueueFactory.getTaskQueue(handlerKey, threadNo));
+              threadNo, taskSizeEstimator, taskQueueFactory.getTaskQueue(handlerKey, threadNo),
+              submissionExecutor, batchSizer);
           break;
         case HISTOGRAM:
           senderTask = new LineDelimitedSenderTask(handlerKey, PUSH_FORMAT_HISTOGRAM,
               apiContainer.getProxyV2API(), proxyId, entityPropsFactory.get(entityType), scheduler,
-              threadNo, taskSizeEstimator, taskQueueFactory.getTaskQueue(handlerKey, threadNo));
+              threadNo, taskSizeEstimator, taskQueueFactory.getTaskQueue(handlerKey, threadNo),
+              submissionExecutor, batchSizer);
           break;
         case SOURCE_TAG:
           senderTask = new SourceTagSenderTask(handlerKey, apiContainer.getSourceTagAPI(),
@@ -124,17 +156,19 @@ public class SenderTaskFactoryImpl implements SenderTaskFactory {
         case TRACE:
           senderTask = new LineDelimitedSenderTask(handlerKey, PUSH_FORMAT_TRACING,
               apiContainer.getProxyV2API(), proxyId, entityPropsFactory.get(entityType), scheduler,
-              threadNo, taskSizeEstimator, taskQueueFactory.getTaskQueue(handlerKey, threadNo));
+              threadNo, taskSizeEstimator, taskQueueFactory.getTaskQueue(handlerKey, threadNo),
+              submissionExecutor, batchSizer);
           break;
         case TRACE_SPAN_LOGS:
           senderTask = new LineDelimitedSenderTask(handlerKey, PUSH_FORMAT_TRACING_SPAN_LOGS,
               apiContainer.getProxyV2API(), proxyId, entityPropsFactory.get(entityType), scheduler,
-              threadNo, taskSizeEstimator, taskQueueFactory.getTaskQueue(handlerKey, threadNo));
+              threadNo, taskSizeEstimator, taskQueueFactory.getTaskQueue(handlerKey, threadNo),
+              submissionExecutor, batchSizer);
           break;
         case EVENT:
           senderTask = new EventSenderTask(handlerKey, apiContainer.getEventAPI(), proxyId,
               threadNo, entityPropsFactory.get(entityType), scheduler,
-              taskQueueFactory.getTaskQueue(handlerKey, threadNo));
+              taskQueueFactory.getTaskQueue(handlerKey, threadNo), submissionExecutor, batchSizer);
           break;
         default:
           throw new IllegalArgumentException("Unexpected entity type " +
@@ -167,6 +201,8 @@ public class SenderTaskFactoryImpl implements SenderTaskFactory {
         // ignore
       }
     });
+    // let in-flight batches complete before buffers are drained to the queue
+    submissionExecutors.values().forEach(SenderTaskFactoryImpl::awaitSubmissions);
   }
 
   @Override
@@ -176,22 +212,65 @@ public class SenderTaskFactoryImpl implements SenderTaskFactory {
     try {
       types.forEach(x -> taskSizeEstimators.remove(HandlerKey.of(x, handle)).shutdown());
       types.forEach(x -> managedServices.remove(HandlerKey.of(x, handle)).stop());
-      types.forEach(x -> managedTasks.remove(HandlerKey.of(x, handle)).forEach(t -> {
-        t.stop();
-        t.drainBuffersToQueue(null);
-      }));
+      types.forEach(x -> {
+        HandlerKey handlerKey = HandlerKey.of(x, handle);
+        List<SenderTask<?>> tasks = managedTasks.remove(handlerKey);
+        tasks.forEach(Managed::stop);
+        ExecutorService submissionExecutor = submissionExecutors.remove(handlerKey);
+        if (submissionExecutor != null) awaitSubmissions(submissionExecutor);
+        tasks.forEach(t -> t.drainBuffersToQueue(null));
+      });
       types.forEach(x -> executors.remove(HandlerKey.of(x, handle)).shutdown());
+      types.forEach(x -> {
+        HandlerKey handlerKey = HandlerKey.of(x, handle);
+        if (batchSizers.remove(handlerKey) != null) {
+          Metrics.defaultRegistry().removeMetric(getBatchSizeMetricName(handlerKey));
+        }
+      });
     } finally {
       entityTypes.remove(handle);
     }
   }
 
+  private static MetricName getBatchSizeMetricName(HandlerKey handlerKey) {
+    return new MetricName(handlerKey.toString(), "", "effective-batch-size");
+  }
+
+  private static void awaitSubmissions(ExecutorService submissionExecutor) {
+    try {
+      submissionExecutor.shutdown();
+      if (!submissionExecutor.awaitTermination(SUBMISSION_SHUTDOWN_TIMEOUT_MILLIS,
+          TimeUnit.MILLISECONDS)) {
+        log.warning("In-flight batches did not complete in " +
+            SUBMISSION_SHUTDOWN_TIMEOUT_MILLIS + "ms, pending data may be lost");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   @Override
   public void drainBuffersToQueue(QueueingReason reason) {
     managedTasks.values().stream().flatMap(Collection::stream).
         forEach(x -> x.drainBuffersToQueue(reason));
   }
 
+  /**
+   * Creates named daemon threads, so that submission threads never hold up JVM exit.
+   */
+  private static class DaemonThreadFactory extends NamedThreadFactory {
+    DaemonThreadFactory(String threadNamePrefix) {
+      super(threadNamePrefix);
+    }
+
+    @Override
+    public Thread newThread(@Nonnull Runnable r) {
+      Thread thread = super.newThread(r);
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
   @VisibleForTesting
   public void flushNow(@Nonnull HandlerKey handlerKey) {
     managedTasks.get(handlerKey).forEach(task -> {
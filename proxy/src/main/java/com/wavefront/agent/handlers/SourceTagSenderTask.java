@@ -60,7 +60,7 @@ class SourceTagSenderTask extends AbstractSenderTask<SourceTag> {
     long nextRunMillis = properties.getPushFlushInterval();
     isSending = true;
     try {
-      List<SourceTag> current = createBatch();
+      List<SourceTag> current = createBatch(properties.getItemsPerBatch());
       if (current.size() == 0) return;
       Iterator<SourceTag> iterator = current.iterator();
       while (iterator.hasNext()) {
@@ -71,14 +71,27 @@ public class SpanHandlerImpl extends AbstractReportableEntityHandler<Span, Strin
         "sampler.policy.saved"));
   }
 
+  @Override
+  public void reportAll(Collection<Span> spans) {
+    reportBatch(spans, this::validateAndSerialize);
+  }
+
   @Override
   protected void reportInternal(Span span) {
+    String strSpan = validateAndSerialize(span);
+    if (strSpan == null) return;
+    getTask().add(strSpan);
+    getReceivedCounter().inc();
+  }
+
+  @Nullable
+  private String validateAndSerialize(Span span) {
     receivedTagCount.update(span.getAnnotations().size());
     Integer maxSpanDelay = dropSpansDelayedMinutes.get();
     if (maxSpanDelay != null && span.getStartMillis() + span.getDuration() <
         Clock.now() - TimeUnit.MINUTES.toMillis(maxSpanDelay)) {
       this.reject(span, "span is older than acceptable delay of " + maxSpanDelay + " minutes");
-      return;
+      return null;
     }
     validateSpan(span, validationConfig, spanLogsHandler.get()::report);
     if (span.getAnnotations() != null && AnnotationUtils.getValue(span.getAnnotations(),
@@ -86,8 +99,7 @@ public class SpanHandlerImpl extends AbstractReportableEntityHandler<Span, Strin
       this.policySampledSpanCounter.inc();
     }
     final String strSpan = serializer.apply(span);
-    getTask().add(strSpan);
-    getReceivedCounter().inc();
     if (validItemsLogger != null) validItemsLogger.info(strSpan);
+    return strSpan;
   }
 }
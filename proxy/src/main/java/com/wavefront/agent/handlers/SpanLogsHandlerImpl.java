@@ -39,13 +39,24 @@ public class SpanLogsHandlerImpl extends AbstractReportableEntityHandler<SpanLog
     this.validItemsLogger = validItemsLogger;
   }
 
+  @Override
+  public void reportAll(Collection<SpanLogs> spanLogs) {
+    reportBatch(spanLogs, this::serializeAndLog);
+  }
+
   @Override
   protected void reportInternal(SpanLogs spanLogs) {
-    String strSpanLogs = serializer.apply(spanLogs);
+    String strSpanLogs = serializeAndLog(spanLogs);
     if (strSpanLogs != null) {
       getTask().add(strSpanLogs);
       getReceivedCounter().inc();
-      if (validItemsLogger != null) validItemsLogger.info(strSpanLogs);
     }
   }
+
+  @Nullable
+  private String serializeAndLog(SpanLogs spanLogs) {
+    String strSpanLogs = serializer.apply(spanLogs);
+    if (strSpanLogs != null && validItemsLogger != null) validItemsLogger.info(strSpanLogs);
+    return strSpanLogs;
+  }
 }
@@ -3,13 +3,14 @@ package com.wavefront.agent.handlers;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.RecyclableRateLimiter;
+import com.wavefront.agent.SharedScheduler;
 import com.wavefront.agent.data.EntityProperties;
 import com.wavefront.agent.data.EntityPropertiesFactory;
 import com.wavefront.common.EvictingRingBuffer;
@@ -23,7 +24,7 @@ import com.wavefront.data.ReportableEntityType;
  *
  * @author vasily@wavefront.com.
  */
-public class TrafficShapingRateLimitAdjuster extends TimerTask implements Managed {
+public class TrafficShapingRateLimitAdjuster implements Runnable, Managed {
   private static final Logger log =
       Logger.getLogger(TrafficShapingRateLimitAdjuster.class.getCanonicalName());
   private static final int MIN_RATE_LIMIT = 10; // 10 pps
@@ -33,7 +34,7 @@ public class TrafficShapingRateLimitAdjuster extends TimerTask implements Manage
   private final double headroom;
   private final Map<ReportableEntityType, EvictingRingBuffer<Long>> perEntityStats =
       new EnumMap<>(ReportableEntityType.class);
-  private final Timer timer;
+  private ScheduledFuture<?> scheduledFuture;
   private final int windowSeconds;
 
   /**
@@ -48,7 +49,6 @@ public class TrafficShapingRateLimitAdjuster extends TimerTask implements Manage
     Preconditions.checkArgument(windowSeconds > 0, "windowSeconds needs to be > 0!");
     this.entityProps = entityProps;
     this.headroom = headroom;
-    this.timer = new Timer("traffic-shaping-adjuster-timer");
   }
 
   @Override
@@ -70,12 +70,13 @@ public class TrafficShapingRateLimitAdjuster extends TimerTask implements Manage
 
   @Override
   public void start() {
-    timer.scheduleAtFixedRate(this, 1000, 1000);
+    scheduledFuture = SharedScheduler.getInstance().scheduleAtFixedRate(
+        "traffic-shaping-adjuster", this, 1, 1, TimeUnit.SECONDS);
   }
 
   @Override
   public void stop() {
-    timer.cancel();
+    if (scheduledFuture != null) scheduledFuture.cancel(false);
   }
 
   @VisibleForTesting
@@ -60,6 +60,25 @@ public final class HistogramUtils {
     );
   }
 
+  /**
+   * Generates a {@link HistogramKey} for the bin of a coarser {@link Granularity} that the bin
+   * of an existing key falls into.
+   *
+   * @param key         the key to roll up
+   * @param granularity coarser granularity
+   * @return the key for the same metric, source and annotations at the specified granularity
+   */
+  public static HistogramKey rollUpKey(HistogramKey key, Granularity granularity) {
+    Preconditions.checkNotNull(granularity);
+    return new HistogramKey(
+        (byte) granularity.ordinal(),
+        granularity.getBinId(key.getBinTimeMillis()),
+        key.getMetric(),
+        key.getSource(),
+        key.getTags()
+    );
+  }
+
   /**
    * Creates a {@link ReportPoint} from a {@link HistogramKey} - {@link AgentDigest} pair
    *
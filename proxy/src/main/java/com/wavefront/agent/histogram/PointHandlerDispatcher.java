@@ -4,13 +4,17 @@ import com.wavefront.common.logger.MessageDedupingLogger;
 import com.wavefront.common.TimeProvider;
 import com.wavefront.agent.handlers.ReportableEntityHandler;
 import com.wavefront.agent.histogram.accumulator.Accumulator;
+import com.wavefront.common.TaggedMetricName;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.MetricName;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -23,6 +27,14 @@ import wavefront.report.ReportPoint;
 /**
  * Dispatch task for marshalling "ripe" digests for shipment to the agent to a point handler.
  *
+ * The key space can be split into partitions (by key hash), which are dispatched in parallel
+ * on a worker pool: ripe keys are collected from the index in a single pass and handed out to
+ * the partitions. The dispatch limit applies to all partitions combined.
+ *
+ * Dispatched digests can also be rolled up into the accumulator of a coarser granularity
+ * (e.g. minute digests into the hour accumulator), so that samples don't have to be accumulated
+ * separately for each granularity.
+ *
  * @author Tim Schmidt (tim@wavefront.com).
  */
 public class PointHandlerDispatcher implements Runnable {
@@ -33,6 +45,9 @@ public class PointHandlerDispatcher implements Runnable {
   private final Counter dispatchCounter;
   private final Counter dispatchErrorCounter;
   private final Counter dispatchProcessTime;
+  private final Counter rolledUpCounter;
+  @Nullable
+  private final Counter[] partitionProcessTime;
 
   private final Accumulator digests;
   private final AtomicLong digestsSize = new AtomicLong(0);
@@ -40,6 +55,13 @@ public class PointHandlerDispatcher implements Runnable {
   private final TimeProvider clock;
   private final Supplier<Boolean> histogramDisabled;
   private final Integer dispatchLimit;
+  private final int partitions;
+  @Nullable
+  private final ExecutorService dispatchExecutor;
+  @Nullable
+  private final Accumulator rollUpAccumulator;
+  @Nullable
+  private final Granularity rollUpGranularity;
 
   public PointHandlerDispatcher(Accumulator digests,
                                 ReportableEntityHandler<ReportPoint, String> output,
@@ -47,11 +69,61 @@ public class PointHandlerDispatcher implements Runnable {
                                 Supplier<Boolean> histogramDisabled,
                                 @Nullable Integer dispatchLimit,
                                 @Nullable Granularity granularity) {
+    this(digests, output, clock, histogramDisabled, dispatchLimit, granularity, 1, null);
+  }
+
+  public PointHandlerDispatcher(Accumulator digests,
+                                ReportableEntityHandler<ReportPoint, String> output,
+                                TimeProvider clock,
+                                Supplier<Boolean> histogramDisabled,
+                                @Nullable Integer dispatchLimit,
+                                @Nullable Granularity granularity,
+                                int partitions,
+                                @Nullable ExecutorService dispatchExecutor) {
+    this(digests, output, clock, histogramDisabled, dispatchLimit, granularity, partitions,
+        dispatchExecutor, null, null);
+  }
+
+  /**
+   * @param digests           accumulator to dispatch ripe digests from.
+   * @param output            handler to report dispatched histograms to.
+   * @param clock             a millisecond-precision epoch time source.
+   * @param histogramDisabled whether the histogram feature is disabled on the server.
+   * @param dispatchLimit     max number of digests to dispatch per run (null means no limit).
+   * @param granularity       granularity of the accumulator.
+   * @param partitions        number of partitions to dispatch in parallel.
+   * @param dispatchExecutor  worker pool to dispatch partitions on (required if there is more
+   *                          than one partition).
+   * @param rollUpAccumulator accumulator of a coarser granularity to roll dispatched digests up
+   *                          into (null means no roll-up).
+   * @param rollUpGranularity granularity of {@code rollUpAccumulator}.
+   */
+  public PointHandlerDispatcher(Accumulator digests,
+                                ReportableEntityHandler<ReportPoint, String> output,
+                                TimeProvider clock,
+                                Supplier<Boolean> histogramDisabled,
+                                @Nullable Integer dispatchLimit,
+                                @Nullable Granularity granularity,
+                                int partitions,
+                                @Nullable ExecutorService dispatchExecutor,
+                                @Nullable Accumulator rollUpAccumulator,
+                                @Nullable Granularity rollUpGranularity) {
+    if (partitions > 1 && dispatchExecutor == null) {
+      throw new IllegalArgumentException("dispatchExecutor is required for multiple partitions");
+    }
+    if (rollUpAccumulator != null && (rollUpGranularity == null || granularity == null ||
+        rollUpGranularity.compareTo(granularity) <= 0)) {
+      throw new IllegalArgumentException("Can only roll up into a coarser granularity");
+    }
     this.digests = digests;
     this.output = output;
     this.clock = clock;
     this.histogramDisabled = histogramDisabled;
     this.dispatchLimit = dispatchLimit;
+    this.partitions = Math.max(partitions, 1);
+    this.dispatchExecutor = dispatchExecutor;
+    this.rollUpAccumulator = rollUpAccumulator;
+    this.rollUpGranularity = rollUpGranularity;
 
     String prefix = "histogram.accumulator." + HistogramUtils.granularityToString(granularity);
     this.dispatchCounter = Metrics.newCounter(new MetricName(prefix, "", "dispatched"));
@@ -64,45 +136,110 @@ public class PointHandlerDispatcher implements Runnable {
     });
     this.dispatchProcessTime = Metrics.newCounter(new MetricName(prefix, "",
         "dispatch_process_millis"));
+    this.rolledUpCounter = Metrics.newCounter(new MetricName(prefix, "", "rolled_up"));
+    if (this.partitions > 1) {
+      this.partitionProcessTime = new Counter[this.partitions];
+      for (int i = 0; i < this.partitions; i++) {
+        this.partitionProcessTime[i] = Metrics.newCounter(new TaggedMetricName(prefix,
+            "dispatch_process_millis", "partition", String.valueOf(i)));
+      }
+    } else {
+      this.partitionProcessTime = null;
+    }
   }
 
   @Override
   public void run() {
     try {
-      AtomicInteger dispatchedCount = new AtomicInteger(0);
-
       long startMillis = System.currentTimeMillis();
       digestsSize.set(digests.size()); // update size before flushing, so we show a higher value
       Iterator<HistogramKey> index = digests.getRipeDigestsIterator(this.clock);
-      while (index.hasNext()) {
-        digests.compute(index.next(), (k, v) -> {
-          if (v == null) {
-            index.remove();
-            return null;
-          }
-          if (histogramDisabled.get()) {
-            featureDisabledLogger.info("Histogram feature is not enabled on the server!");
-            dispatchErrorCounter.inc();
-          } else {
-            try {
-              ReportPoint out = HistogramUtils.pointFromKeyAndDigest(k, v);
-              output.report(out);
-              dispatchCounter.inc();
-            } catch (Exception e) {
-              dispatchErrorCounter.inc();
-              logger.log(Level.SEVERE, "Failed dispatching entry " + k, e);
-            }
-          }
+      if (partitions == 1) {
+        int dispatchedCount = 0;
+        while (index.hasNext() && (dispatchLimit == null || dispatchedCount < dispatchLimit)) {
+          if (dispatch(index.next(), index::remove)) dispatchedCount++;
+        }
+      } else {
+        // walk the index once, handing ripe keys out to partitions by key hash. keys are
+        // removed from the index before they are dispatched, so that a digest created for
+        // the same key concurrently after it's been dispatched stays indexed.
+        List<List<HistogramKey>> partitionKeys = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+          partitionKeys.add(new ArrayList<>());
+        }
+        int keyCount = 0;
+        while (index.hasNext() && (dispatchLimit == null || keyCount < dispatchLimit)) {
+          HistogramKey key = index.next();
           index.remove();
-          dispatchedCount.incrementAndGet();
-          return null;
-        });
-        if (dispatchLimit != null && dispatchedCount.get() >= dispatchLimit)
-          break;
+          partitionKeys.get(Math.floorMod(key.hashCode(), partitions)).add(key);
+          keyCount++;
+        }
+        List<Future<?>> futures = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+          final int partition = i;
+          if (partitionKeys.get(partition).isEmpty()) continue;
+          futures.add(dispatchExecutor.submit(() -> dispatchPartition(partition,
+              partitionKeys.get(partition))));
+        }
+        for (Future<?> future : futures) {
+          future.get();
+        }
       }
       dispatchProcessTime.inc(System.currentTimeMillis() - startMillis);
     } catch (Exception e) {
       logger.log(Level.SEVERE, "PointHandlerDispatcher error", e);
     }
   }
+
+  /**
+   * Dispatch digests for keys in a partition.
+   *
+   * @param partition partition number.
+   * @param keys      ripe keys in the partition, already removed from the index.
+   */
+  private void dispatchPartition(int partition, List<HistogramKey> keys) {
+    long startMillis = System.currentTimeMillis();
+    for (HistogramKey key : keys) {
+      dispatch(key, null);
+    }
+    if (partitionProcessTime != null) {
+      partitionProcessTime[partition].inc(System.currentTimeMillis() - startMillis);
+    }
+  }
+
+  /**
+   * Dispatch the digest for a ripe key and remove it from the accumulator.
+   *
+   * @param key             ripe key.
+   * @param removeFromIndex removes the key from the index while the digest is being removed,
+   *                        null if it has already been removed from the index.
+   * @return true if there was a digest to dispatch.
+   */
+  private boolean dispatch(HistogramKey key, @Nullable Runnable removeFromIndex) {
+    boolean[] dispatched = new boolean[1];
+    digests.compute(key, (k, v) -> {
+      if (removeFromIndex != null) removeFromIndex.run();
+      if (v == null) return null;
+      dispatched[0] = true;
+      if (histogramDisabled.get()) {
+        featureDisabledLogger.info("Histogram feature is not enabled on the server!");
+        dispatchErrorCounter.inc();
+      } else {
+        try {
+          ReportPoint out = HistogramUtils.pointFromKeyAndDigest(k, v);
+          output.report(out);
+          dispatchCounter.inc();
+        } catch (Exception e) {
+          dispatchErrorCounter.inc();
+          logger.log(Level.SEVERE, "Failed dispatching entry " + k, e);
+        }
+      }
+      if (rollUpAccumulator != null) {
+        rollUpAccumulator.rollUp(HistogramUtils.rollUpKey(k, rollUpGranularity), v);
+        rolledUpCounter.inc();
+      }
+      return null;
+    });
+    return dispatched[0];
+  }
 }
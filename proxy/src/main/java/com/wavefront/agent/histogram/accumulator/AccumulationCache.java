@@ -16,11 +16,18 @@ import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.MetricName;
 
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ExternalMapQueryContext;
+import net.openhft.chronicle.map.MapEntry;
+
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
@@ -34,29 +41,53 @@ import static com.wavefront.agent.histogram.HistogramUtils.mergeHistogram;
 /**
  * Expose a local cache of limited size along with a task to flush that cache to the backing store.
  *
+ * Cached entries are written back to the backing store when evicted, and periodically by
+ * {@link #resolve(long)}, which only writes entries modified since the last resolve and keeps
+ * them in the cache. Once an entry has been written back, it holds the complete digest for its
+ * key, so subsequent write-backs replace the stored value instead of merging into it.
+ *
  * @author Tim Schmidt (tim@wavefront.com).
  */
 public class AccumulationCache implements Accumulator {
   private static final Logger logger = Logger.getLogger(AccumulationCache.class.getCanonicalName());
   private static final MetricsRegistry sharedRegistry = SharedMetricsRegistry.getInstance();
 
+  /**
+   * Width of dispatch time index slots, should be close to the dispatch interval.
+   */
+  private static final long DISPATCH_SLOT_MILLIS = 1000;
+
   private final Counter binCreatedCounter;
   private final Counter binMergedCounter;
   private final Counter cacheBinCreatedCounter;
   private final Counter cacheBinMergedCounter;
   private final Counter flushedCounter;
+  private final com.yammer.metrics.core.Histogram bytesMarshalledHistogram;
   private final Counter cacheOverflowCounter = Metrics.newCounter(
       new MetricName("histogram.accumulator.cache", "", "size_exceeded"));
   private final boolean cacheEnabled;
   private final Cache<HistogramKey, AgentDigest> cache;
   private final ConcurrentMap<HistogramKey, AgentDigest> backingStore;
   private final AgentDigestFactory agentDigestFactory;
+  private final Runnable failureHandler;
+
+  /**
+   * Keys of cached entries modified since they have last been written to the backing store.
+   */
+  private final Set<HistogramKey> dirtyKeys = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Keys of cached entries that have been written to the backing store, i.e. hold the complete
+   * digest for the key.
+   */
+  private final Set<HistogramKey> persistedKeys = ConcurrentHashMap.newKeySet();
 
   /**
    * In-memory index for dispatch timestamps to avoid iterating the backing store map, which is an
-   * expensive operation, as it requires value objects to be de-serialized first.
+   * expensive operation, as it requires value objects to be de-serialized first. Keys are
+   * bucketed by dispatch time, so that finding ripe digests doesn't require scanning all keys.
    */
-  private final ConcurrentMap<HistogramKey, Long> keyIndex;
+  private final DispatchTimeWheel keyIndex;
 
   /**
    * Constructs a new AccumulationCache instance around {@code backingStore} and builds an in-memory
@@ -112,8 +143,10 @@ public class AccumulationCache implements Accumulator {
         "", "bin_merged"));
     this.flushedCounter = Metrics.newCounter(new MetricName(metricPrefix + ".cache", "",
         "flushed"));
-    this.keyIndex = new ConcurrentHashMap<>(backingStore.size());
-    final Runnable failureHandler = onFailure == null ? new AccumulationCacheMonitor() : onFailure;
+    this.bytesMarshalledHistogram = metricsRegistry.newHistogram(new MetricName(
+        metricPrefix + ".cache", "", "bytes_marshalled"), false);
+    this.keyIndex = new DispatchTimeWheel(DISPATCH_SLOT_MILLIS, backingStore.size());
+    this.failureHandler = onFailure == null ? new AccumulationCacheMonitor() : onFailure;
     if (backingStore.size() > 0) {
       logger.info("Started: Indexing histogram accumulator");
       for (Map.Entry<HistogramKey, AgentDigest> entry : this.backingStore.entrySet()) {
@@ -136,36 +169,85 @@ public class AccumulationCache implements Accumulator {
             if (value == null) {
               return;
             }
-            flushedCounter.inc();
             if (cause == RemovalCause.SIZE && cacheEnabled) cacheOverflowCounter.inc();
-            try {
-              // flush out to backing store
-              AgentDigest merged = backingStore.merge(key, value, (digestA, digestB) -> {
-                // Merge both digests
-                if (digestA.centroidCount() >= digestB.centroidCount()) {
-                  digestA.add(digestB);
-                  return digestA;
-                } else {
-                  digestB.add(digestA);
-                  return digestB;
-                }
-              });
-              if (merged == value) {
-                binCreatedCounter.inc();
-              } else {
-                binMergedCounter.inc();
-              }
-            } catch (IllegalStateException e) {
-              if (e.getMessage().contains("Attempt to allocate")) {
-                failureHandler.run();
-              } else {
-                throw e;
-              }
+            boolean dirty = dirtyKeys.remove(key);
+            boolean persisted = persistedKeys.remove(key);
+            if (persisted && !dirty) {
+              // already in the backing store
+              return;
             }
+            flushedCounter.inc();
+            writeBack(key, value, persisted);
           }
         }).build();
   }
 
+  /**
+   * Write a cached digest to the backing store.
+   *
+   * @param key       histogram key
+   * @param value     cached digest
+   * @param persisted whether the digest has been written back before (so it holds the complete
+   *                  digest for the key and replaces the stored one), otherwise it's merged
+   *                  into the stored digest.
+   * @return the digest now stored for the key, or null if the backing store is full.
+   */
+  @Nullable
+  private AgentDigest writeBack(HistogramKey key, AgentDigest value, boolean persisted) {
+    try {
+      if (persisted) {
+        replaceInBackingStore(key, value);
+        binMergedCounter.inc();
+        return value;
+      }
+      AgentDigest merged = backingStore.merge(key, value, (digestA, digestB) -> {
+        // Merge both digests
+        if (digestA.centroidCount() >= digestB.centroidCount()) {
+          digestA.add(digestB);
+          return digestA;
+        } else {
+          digestB.add(digestA);
+          return digestB;
+        }
+      });
+      if (merged == value) {
+        binCreatedCounter.inc();
+      } else {
+        binMergedCounter.inc();
+      }
+      return merged;
+    } catch (IllegalStateException e) {
+      if (e.getMessage().contains("Attempt to allocate")) {
+        failureHandler.run();
+        return null;
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Store a digest without reading back the previously stored one (which {@code put()} does
+   * for ChronicleMap).
+   */
+  private void replaceInBackingStore(HistogramKey key, AgentDigest value) {
+    if (!(backingStore instanceof ChronicleMap)) {
+      backingStore.put(key, value);
+      return;
+    }
+    ChronicleMap<HistogramKey, AgentDigest> map =
+        (ChronicleMap<HistogramKey, AgentDigest>) backingStore;
+    try (ExternalMapQueryContext<HistogramKey, AgentDigest, ?> context = map.queryContext(key)) {
+      context.updateLock().lock();
+      MapEntry<HistogramKey, AgentDigest> entry = context.entry();
+      if (entry != null) {
+        context.replaceValue(entry, context.wrapValueAsData(value));
+      } else {
+        context.insert(context.absentEntry(), context.wrapValueAsData(value));
+      }
+    }
+  }
+
   @VisibleForTesting
   Cache<HistogramKey, AgentDigest> getCache() {
     return cache;
@@ -180,20 +262,33 @@ public class AccumulationCache implements Accumulator {
   @Override
   public void put(HistogramKey key, @Nonnull AgentDigest value) {
     cache.asMap().compute(key, (k, v) -> {
+      markDirty(key);
       if (v == null) {
         if (cacheEnabled) cacheBinCreatedCounter.inc();
         keyIndex.put(key, value.getDispatchTimeMillis());
         return value;
       } else {
         if (cacheEnabled) cacheBinMergedCounter.inc();
-        keyIndex.compute(key, (k1, v1) -> (
-            v1 != null && v1 < v.getDispatchTimeMillis() ? v1 : v.getDispatchTimeMillis()));
+        keyIndex.putIfEarlier(key, v.getDispatchTimeMillis());
         v.add(value);
         return v;
       }
     });
   }
 
+  /**
+   * Merge an {@link AgentDigest} of a finer granularity into the {@code AgentDigest} in the
+   * cache. If such {@code AgentDigest} does not exist for the specified key, it will be created
+   * using {@link AgentDigestFactory}.
+   *
+   * @param key   histogram key
+   * @param value {@code AgentDigest} to be merged
+   */
+  @Override
+  public void rollUp(HistogramKey key, @Nonnull AgentDigest value) {
+    merge(key, digest -> digest.add(value));
+  }
+
   /**
    * Update {@link AgentDigest} in the cache with a double value. If such {@code AgentDigest} does
    * not exist for the specified key, it will be created using {@link AgentDigestFactory}
@@ -203,22 +298,23 @@ public class AccumulationCache implements Accumulator {
    */
   @Override
   public void put(HistogramKey key, double value) {
-    cache.asMap().compute(key, (k, v) -> {
-      if (v == null) {
-        if (cacheEnabled) cacheBinCreatedCounter.inc();
-        AgentDigest t = agentDigestFactory.newDigest();
-        keyIndex.compute(key, (k1, v1) -> (
-            v1 != null && v1 < t.getDispatchTimeMillis() ? v1 : t.getDispatchTimeMillis()
-        ));
-        t.add(value);
-        return t;
-      } else {
-        if (cacheEnabled) cacheBinMergedCounter.inc();
-        keyIndex.compute(key, (k1, v1) -> (
-            v1 != null && v1 < v.getDispatchTimeMillis() ? v1 : v.getDispatchTimeMillis()
-        ));
-        v.add(value);
-        return v;
+    merge(key, digest -> digest.add(value));
+  }
+
+  /**
+   * Update {@link AgentDigest} in the cache with multiple double values at once, at the cost of
+   * a single cache update. If such {@code AgentDigest} does not exist for the specified key, it
+   * will be created using {@link AgentDigestFactory}.
+   *
+   * @param key    histogram key
+   * @param values values to be merged into the {@code AgentDigest}
+   * @param count  number of values to use from the {@code values} array
+   */
+  @Override
+  public void put(HistogramKey key, double[] values, int count) {
+    merge(key, digest -> {
+      for (int i = 0; i < count; i++) {
+        digest.add(values[i]);
       }
     });
   }
@@ -233,63 +329,50 @@ public class AccumulationCache implements Accumulator {
    */
   @Override
   public void put(HistogramKey key, Histogram value) {
+    merge(key, digest -> mergeHistogram(digest, value));
+  }
+
+  private void merge(HistogramKey key, Consumer<AgentDigest> update) {
     cache.asMap().compute(key, (k, v) -> {
+      markDirty(key);
       if (v == null) {
         if (cacheEnabled) cacheBinCreatedCounter.inc();
         AgentDigest t = agentDigestFactory.newDigest();
-        keyIndex.compute(key, (k1, v1) -> (
-            v1 != null && v1 < t.getDispatchTimeMillis() ? v1 : t.getDispatchTimeMillis()));
-        mergeHistogram(t, value);
+        keyIndex.putIfEarlier(key, t.getDispatchTimeMillis());
+        update.accept(t);
         return t;
       } else {
         if (cacheEnabled) cacheBinMergedCounter.inc();
-        keyIndex.compute(key, (k1, v1) -> (
-            v1 != null && v1 < v.getDispatchTimeMillis() ? v1 : v.getDispatchTimeMillis()));
-        mergeHistogram(v, value);
+        keyIndex.putIfEarlier(key, v.getDispatchTimeMillis());
+        update.accept(v);
         return v;
       }
     });
   }
 
+  private void markDirty(HistogramKey key) {
+    // cheaper than add() for keys that are already dirty
+    if (!dirtyKeys.contains(key)) {
+      dirtyKeys.add(key);
+    }
+  }
+
   /**
-   * Returns an iterator over "ripe" digests ready to be shipped
+   * Returns an iterator over "ripe" digests ready to be shipped. Only keys in dispatch time
+   * slots that are due are visited.
 
    * @param clock a millisecond-precision epoch time source
    * @return an iterator over "ripe" digests ready to be shipped
    */
   @Override
   public Iterator<HistogramKey> getRipeDigestsIterator(TimeProvider clock) {
-    return new Iterator<HistogramKey>() {
-      private final Iterator<Map.Entry<HistogramKey, Long>> indexIterator = keyIndex.entrySet().iterator();
-      private HistogramKey nextHistogramKey;
-
-      @Override
-      public boolean hasNext() {
-        while (indexIterator.hasNext()) {
-          Map.Entry<HistogramKey, Long> entry = indexIterator.next();
-          if (entry.getValue() < clock.currentTimeMillis()) {
-            nextHistogramKey = entry.getKey();
-            return true;
-          }
-        }
-        return false;
-      }
-
-      @Override
-      public HistogramKey next() {
-        return nextHistogramKey;
-      }
-
-      @Override
-      public void remove() {
-        indexIterator.remove();
-      }
-    };
+    return keyIndex.ripeKeys(clock.currentTimeMillis());
   }
 
   /**
    * Attempts to compute a mapping for the specified key and its current mapped value
-   * (or null if there is no current mapping).
+   * (or null if there is no current mapping). The cached entry for the key, if any, is written
+   * to the backing store first and removed from the cache.
    *
    * @param key               key with which the specified value is to be associated
    * @param remappingFunction the function to compute a value
@@ -298,7 +381,20 @@ public class AccumulationCache implements Accumulator {
   @Override
   public AgentDigest compute(HistogramKey key, BiFunction<? super HistogramKey,? super AgentDigest,
       ? extends AgentDigest> remappingFunction) {
-    return backingStore.compute(key, remappingFunction);
+    AgentDigest[] result = new AgentDigest[1];
+    cache.asMap().compute(key, (k, v) -> {
+      if (v != null) {
+        boolean persisted = persistedKeys.contains(k);
+        if (dirtyKeys.remove(k) || !persisted) {
+          writeBack(k, v, persisted);
+        }
+        // nothing left to write back when the entry is removed
+        persistedKeys.add(k);
+      }
+      result[0] = backingStore.compute(k, remappingFunction);
+      return null;
+    });
+    return result[0];
   }
 
   /**
@@ -311,6 +407,35 @@ public class AccumulationCache implements Accumulator {
     return backingStore.size();
   }
 
+  /**
+   * Write cached entries modified since the last resolve to the backing store. Entries are kept
+   * in the cache, so that hot keys don't have to be re-created.
+   *
+   * @param timeBudgetMillis max time to spend writing entries, remaining entries are written by
+   *                         the next resolve.
+   */
+  @Override
+  public void resolve(long timeBudgetMillis) {
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+    long[] bytesMarshalled = new long[1];
+    for (HistogramKey key : dirtyKeys) {
+      if (System.nanoTime() >= deadlineNanos) break;
+      cache.asMap().compute(key, (k, v) -> {
+        if (!dirtyKeys.remove(k) || v == null) return v;
+        AgentDigest stored = writeBack(k, v, persistedKeys.contains(k));
+        if (stored == null) {
+          // retry on the next resolve
+          dirtyKeys.add(k);
+          return v;
+        }
+        persistedKeys.add(k);
+        bytesMarshalled[0] += stored.encodedSize();
+        return stored;
+      });
+    }
+    bytesMarshalledHistogram.update(bytesMarshalled[0]);
+  }
+
   /**
    * Merge the contents of this cache with the corresponding backing store.
    */
@@ -26,6 +26,17 @@ public interface Accumulator {
    */
   void put(HistogramKey key, @Nonnull AgentDigest value);
 
+  /**
+   * Merge an {@link AgentDigest} of a finer granularity into the {@code AgentDigest} in the
+   * cache. Unlike {@link #put(HistogramKey, AgentDigest)}, the digest is never stored as is: if
+   * such {@code AgentDigest} does not exist for the specified key, it will be created using
+   * {@link AgentDigestFactory}, so that it's dispatched according to this accumulator's settings.
+   *
+   * @param key   histogram key
+   * @param value {@code AgentDigest} to be merged
+   */
+  void rollUp(HistogramKey key, @Nonnull AgentDigest value);
+
   /**
    * Update {@link AgentDigest} in the cache with a double value. If such {@code AgentDigest} does
    * not exist for the specified key, it will be created using {@link AgentDigestFactory}
@@ -35,6 +46,21 @@ public interface Accumulator {
    */
   void put(HistogramKey key, double value);
 
+  /**
+   * Update {@link AgentDigest} in the cache with multiple double values at once. If such
+   * {@code AgentDigest} does not exist for the specified key, it will be created using
+   * {@link AgentDigestFactory}.
+   *
+   * @param key    histogram key
+   * @param values values to be merged into the {@code AgentDigest}
+   * @param count  number of values to use from the {@code values} array
+   */
+  default void put(HistogramKey key, double[] values, int count) {
+    for (int i = 0; i < count; i++) {
+      put(key, values[i]);
+    }
+  }
+
   /**
    * Update {@link AgentDigest} in the cache with a {@code Histogram} value. If such
    * {@code AgentDigest} does not exist for the specified key, it will be created
@@ -71,6 +97,15 @@ public interface Accumulator {
    */
   long size();
 
+  /**
+   * Write changes made since the last resolve to the backing store, keeping cached entries in
+   * memory. Entries that could not be written within the time budget are written by the next
+   * resolve.
+   *
+   * @param timeBudgetMillis max time to spend writing changes.
+   */
+  void resolve(long timeBudgetMillis);
+
   /**
    * Merge the contents of this cache with the corresponding backing store.
    */
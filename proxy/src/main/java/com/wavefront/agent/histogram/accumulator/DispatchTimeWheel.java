@@ -0,0 +1,213 @@
+package com.wavefront.agent.histogram.accumulator;
+
+import com.wavefront.agent.histogram.HistogramKey;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Index of dispatch times for histogram keys, bucketed by dispatch time into fixed-width slots
+ * (a time wheel), so that finding keys that are ready to be dispatched only touches keys in
+ * slots that are due, instead of scanning all keys.
+ *
+ * All changes for a key (including moving it between slots) are performed atomically with
+ * respect to that key.
+ */
+final class DispatchTimeWheel {
+  private final long slotMillis;
+  private final ConcurrentMap<HistogramKey, Long> dispatchTimes;
+  private final ConcurrentNavigableMap<Long, Set<HistogramKey>> slots =
+      new ConcurrentSkipListMap<>();
+
+  /**
+   * @param slotMillis   slot width in milliseconds.
+   * @param expectedSize expected number of keys.
+   */
+  DispatchTimeWheel(long slotMillis, int expectedSize) {
+    this.slotMillis = slotMillis;
+    this.dispatchTimes = new ConcurrentHashMap<>(expectedSize);
+  }
+
+  /**
+   * Set the dispatch time for a key.
+   *
+   * @param key                histogram key.
+   * @param dispatchTimeMillis dispatch time.
+   */
+  void put(HistogramKey key, long dispatchTimeMillis) {
+    dispatchTimes.compute(key, (k, v) -> {
+      if (v != null) {
+        if (slotOf(v) == slotOf(dispatchTimeMillis)) return dispatchTimeMillis;
+        removeFromSlot(k, v);
+      }
+      addToSlot(k, dispatchTimeMillis);
+      return dispatchTimeMillis;
+    });
+  }
+
+  /**
+   * Set the dispatch time for a key, unless it's already scheduled to be dispatched earlier.
+   *
+   * @param key                histogram key.
+   * @param dispatchTimeMillis dispatch time.
+   */
+  void putIfEarlier(HistogramKey key, long dispatchTimeMillis) {
+    dispatchTimes.compute(key, (k, v) -> {
+      if (v != null && v < dispatchTimeMillis) return v;
+      if (v != null) {
+        if (slotOf(v) == slotOf(dispatchTimeMillis)) return dispatchTimeMillis;
+        removeFromSlot(k, v);
+      }
+      addToSlot(k, dispatchTimeMillis);
+      return dispatchTimeMillis;
+    });
+  }
+
+  /**
+   * Remove a key from the index.
+   *
+   * @param key histogram key.
+   */
+  void remove(HistogramKey key) {
+    dispatchTimes.computeIfPresent(key, (k, v) -> {
+      removeFromSlot(k, v);
+      return null;
+    });
+  }
+
+  /**
+   * Returns the dispatch time for a key.
+   *
+   * @param key histogram key.
+   * @return dispatch time or null if the key is not in the index.
+   */
+  @Nullable
+  Long get(HistogramKey key) {
+    return dispatchTimes.get(key);
+  }
+
+  /**
+   * Returns the number of keys in the index.
+   *
+   * @return number of keys.
+   */
+  int size() {
+    return dispatchTimes.size();
+  }
+
+  /**
+   * Returns an iterator over keys with a dispatch time before {@code nowMillis}. Only slots
+   * up to and including the one {@code nowMillis} falls into are visited. Keys removed with
+   * {@link Iterator#remove()} are removed from the index.
+   *
+   * @param nowMillis current time.
+   * @return iterator over ripe keys.
+   */
+  Iterator<HistogramKey> ripeKeys(long nowMillis) {
+    long currentSlot = slotOf(nowMillis);
+    Iterator<Map.Entry<Long, Set<HistogramKey>>> slotIterator =
+        slots.headMap(currentSlot, true).entrySet().iterator();
+    return new Iterator<HistogramKey>() {
+      private Map.Entry<Long, Set<HistogramKey>> slot = null;
+      private Iterator<HistogramKey> keyIterator = Collections.emptyIterator();
+      private HistogramKey nextKey = null;
+      private HistogramKey lastKey = null;
+
+      @Override
+      public boolean hasNext() {
+        while (nextKey == null) {
+          while (!keyIterator.hasNext()) {
+            if (slot != null && slot.getKey() < currentSlot) {
+              removeIfEmpty(slot.getKey(), slot.getValue());
+            }
+            if (!slotIterator.hasNext()) return false;
+            slot = slotIterator.next();
+            keyIterator = slot.getValue().iterator();
+          }
+          HistogramKey key = keyIterator.next();
+          Long dispatchTime = dispatchTimes.get(key);
+          if (dispatchTime == null || slotOf(dispatchTime) != slot.getKey()) {
+            removeStale(key, slot.getKey(), slot.getValue());
+          } else if (dispatchTime < nowMillis) {
+            nextKey = key;
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public HistogramKey next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        lastKey = nextKey;
+        nextKey = null;
+        return lastKey;
+      }
+
+      @Override
+      public void remove() {
+        if (lastKey == null) throw new IllegalStateException();
+        DispatchTimeWheel.this.remove(lastKey);
+        lastKey = null;
+      }
+    };
+  }
+
+  private long slotOf(long timeMillis) {
+    return Math.floorDiv(timeMillis, slotMillis);
+  }
+
+  private void addToSlot(HistogramKey key, long dispatchTimeMillis) {
+    long slot = slotOf(dispatchTimeMillis);
+    Set<HistogramKey> keys;
+    do {
+      keys = slots.computeIfAbsent(slot, x -> ConcurrentHashMap.newKeySet());
+      keys.add(key);
+      // retry if the slot has been removed as empty concurrently
+    } while (slots.get(slot) != keys);
+  }
+
+  private void removeFromSlot(HistogramKey key, long dispatchTimeMillis) {
+    Set<HistogramKey> keys = slots.get(slotOf(dispatchTimeMillis));
+    if (keys != null) {
+      keys.remove(key);
+    }
+  }
+
+  /**
+   * Remove a key from a slot it's no longer scheduled for (left behind by a concurrent
+   * change).
+   */
+  private void removeStale(HistogramKey key, long slot, Set<HistogramKey> keys) {
+    dispatchTimes.compute(key, (k, v) -> {
+      if (v == null || slotOf(v) != slot) {
+        keys.remove(k);
+      }
+      return v;
+    });
+  }
+
+  /**
+   * Remove an empty slot. Keys that have been concurrently added to the slot after it's been
+   * found to be empty are added back.
+   */
+  private void removeIfEmpty(long slot, Set<HistogramKey> keys) {
+    if (!keys.isEmpty() || !slots.remove(slot, keys)) return;
+    for (HistogramKey key : keys) {
+      dispatchTimes.computeIfPresent(key, (k, v) -> {
+        if (slotOf(v) == slot) {
+          addToSlot(k, v);
+        }
+        return v;
+      });
+    }
+  }
+}
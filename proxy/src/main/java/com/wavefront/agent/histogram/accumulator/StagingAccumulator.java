@@ -0,0 +1,205 @@
+package com.wavefront.agent.histogram.accumulator;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.tdunning.math.stats.AgentDigest;
+import com.wavefront.agent.histogram.HistogramKey;
+import com.wavefront.common.TimeProvider;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+
+import javax.annotation.Nonnull;
+
+import wavefront.report.Histogram;
+
+/**
+ * An {@link Accumulator} that stages individual samples in per-thread buffers and merges them
+ * into the delegate accumulator in bulk (one update per histogram key), so that threads
+ * reporting samples for the same hot key don't contend on the same cache entry for every
+ * sample.
+ *
+ * Each thread's staged samples are merged into the delegate once the thread has staged
+ * {@code maxSamples} samples, or by {@link #flushStaged()} once they are older than
+ * {@code maxDelayMillis} (it has to be called periodically, since threads may go idle).
+ * Digests and histograms are not staged.
+ */
+public class StagingAccumulator implements Accumulator {
+  private static final int INITIAL_VALUES_CAPACITY = 8;
+
+  private final Accumulator delegate;
+  private final int maxSamples;
+  private final long maxDelayMillis;
+  private final TimeProvider clock;
+  private final List<Stripe> stripes = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<Stripe> stripe = ThreadLocal.withInitial(() -> {
+    Stripe stripe = new Stripe();
+    stripes.add(stripe);
+    return stripe;
+  });
+  private final Counter samplesStagedCounter;
+  private final Counter stagedMergesCounter;
+
+  /**
+   * @param delegate       accumulator to merge staged samples into.
+   * @param maxSamples     max number of samples staged per thread.
+   * @param maxDelayMillis max time samples can be staged for.
+   * @param metricPrefix   prefix for metric names.
+   * @param clock          a millisecond-precision time source.
+   */
+  public StagingAccumulator(Accumulator delegate, int maxSamples, long maxDelayMillis,
+                            String metricPrefix, TimeProvider clock) {
+    this.delegate = delegate;
+    this.maxSamples = maxSamples;
+    this.maxDelayMillis = maxDelayMillis;
+    this.clock = clock;
+    this.samplesStagedCounter = Metrics.newCounter(new MetricName(metricPrefix + ".staging", "",
+        "samples"));
+    this.stagedMergesCounter = Metrics.newCounter(new MetricName(metricPrefix + ".staging", "",
+        "merges"));
+  }
+
+  @Override
+  public void put(HistogramKey key, @Nonnull AgentDigest value) {
+    delegate.put(key, value);
+  }
+
+  @Override
+  public void rollUp(HistogramKey key, @Nonnull AgentDigest value) {
+    delegate.rollUp(key, value);
+  }
+
+  @Override
+  public void put(HistogramKey key, double value) {
+    stripe.get().add(key, value);
+  }
+
+  @Override
+  public void put(HistogramKey key, double[] values, int count) {
+    delegate.put(key, values, count);
+  }
+
+  @Override
+  public void put(HistogramKey key, Histogram value) {
+    delegate.put(key, value);
+  }
+
+  @Override
+  public AgentDigest compute(HistogramKey key, BiFunction<? super HistogramKey,
+      ? super AgentDigest, ? extends AgentDigest> remappingFunction) {
+    return delegate.compute(key, remappingFunction);
+  }
+
+  @Override
+  public Iterator<HistogramKey> getRipeDigestsIterator(TimeProvider clock) {
+    return delegate.getRipeDigestsIterator(clock);
+  }
+
+  @Override
+  public long size() {
+    return delegate.size();
+  }
+
+  /**
+   * Merge all staged samples into the delegate accumulator, then resolve the delegate.
+   */
+  @Override
+  public void resolve(long timeBudgetMillis) {
+    for (Stripe stripe : stripes) {
+      stripe.merge();
+    }
+    delegate.resolve(timeBudgetMillis);
+  }
+
+  /**
+   * Merge all staged samples into the delegate accumulator, then flush the delegate.
+   */
+  @Override
+  public void flush() {
+    for (Stripe stripe : stripes) {
+      stripe.merge();
+    }
+    delegate.flush();
+  }
+
+  /**
+   * Merge samples that have been staged for longer than {@code maxDelayMillis} into the
+   * delegate accumulator.
+   */
+  public void flushStaged() {
+    long now = clock.currentTimeMillis();
+    for (Stripe stripe : stripes) {
+      if (stripe.isExpired(now)) {
+        stripe.merge();
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int getStagedSamples() {
+    return stripes.stream().mapToInt(x -> x.samples).sum();
+  }
+
+  /**
+   * Samples staged by a single thread. Only contended when staged samples are merged by
+   * another thread.
+   */
+  private final class Stripe {
+    private final Map<HistogramKey, StagedValues> staged = new HashMap<>();
+    private volatile int samples = 0;
+    private volatile long firstSampleMillis = 0;
+
+    synchronized void add(HistogramKey key, double value) {
+      if (samples == 0) {
+        firstSampleMillis = clock.currentTimeMillis();
+      }
+      staged.computeIfAbsent(key, k -> new StagedValues()).add(value);
+      samples++;
+      if (samples >= maxSamples) {
+        merge();
+      }
+    }
+
+    boolean isExpired(long now) {
+      return samples > 0 && now - firstSampleMillis >= maxDelayMillis;
+    }
+
+    synchronized void merge() {
+      if (samples == 0) return;
+      int merges = 0;
+      for (Map.Entry<HistogramKey, StagedValues> entry : staged.entrySet()) {
+        StagedValues values = entry.getValue();
+        if (values.count == 0) continue;
+        delegate.put(entry.getKey(), values.values, values.count);
+        values.count = 0;
+        merges++;
+      }
+      samplesStagedCounter.inc(samples);
+      stagedMergesCounter.inc(merges);
+      // buffers are reused for hot keys, unless there are too many keys to keep around
+      if (staged.size() > maxSamples) {
+        staged.clear();
+      }
+      samples = 0;
+    }
+  }
+
+  private static final class StagedValues {
+    private double[] values = new double[INITIAL_VALUES_CAPACITY];
+    private int count = 0;
+
+    void add(double value) {
+      if (count == values.length) {
+        values = Arrays.copyOf(values, count * 2);
+      }
+      values[count++] = value;
+    }
+  }
+}
@@ -47,9 +47,8 @@ public abstract class AbstractLineDelimitedHandler extends AbstractPortUnificati
     HttpResponseStatus status;
     try {
       DataFormat format = getFormat(request);
-      Splitter.on('\n').trimResults().omitEmptyStrings().
-          split(request.content().toString(CharsetUtil.UTF_8)).
-          forEach(line -> processLine(ctx, line, format));
+      processLines(ctx, Splitter.on('\n').trimResults().omitEmptyStrings().
+          split(request.content().toString(CharsetUtil.UTF_8)), format);
       status = HttpResponseStatus.ACCEPTED;
     } catch (Exception e) {
       status = HttpResponseStatus.BAD_REQUEST;
@@ -80,6 +79,21 @@ public abstract class AbstractLineDelimitedHandler extends AbstractPortUnificati
   @Nullable
   protected abstract DataFormat getFormat(FullHttpRequest httpRequest);
 
+  /**
+   * Process all lines received in a single HTTP request. By default simply passes every line to
+   * {@link #processLine(ChannelHandlerContext, String, DataFormat)}. Handlers can override this
+   * to report everything parsed from the request as a batch.
+   *
+   * @param ctx    Channel handler context.
+   * @param lines  Lines to process.
+   * @param format Data format, if known
+   */
+  protected void processLines(final ChannelHandlerContext ctx,
+                              @Nonnull final Iterable<String> lines,
+                              @Nullable DataFormat format) {
+    lines.forEach(line -> processLine(ctx, line, format));
+  }
+
   /**
    * Process a single line for a line-based stream.
    *
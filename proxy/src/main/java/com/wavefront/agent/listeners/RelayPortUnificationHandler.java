@@ -10,6 +10,7 @@ import com.wavefront.agent.auth.TokenAuthenticator;
 import com.wavefront.agent.channel.HealthCheckManager;
 import com.wavefront.agent.channel.SharedGraphiteHostAnnotator;
 import com.wavefront.agent.formatter.DataFormat;
+import com.wavefront.agent.handlers.BatchingReportableEntityHandler;
 import com.wavefront.agent.handlers.HandlerKey;
 import com.wavefront.agent.handlers.ReportableEntityHandler;
 import com.wavefront.agent.handlers.ReportableEntityHandlerFactory;
@@ -181,6 +182,12 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
       case Constants.PUSH_FORMAT_WAVEFRONT:
       case Constants.PUSH_FORMAT_GRAPHITE_V2:
         AtomicBoolean hasSuccessfulPoints = new AtomicBoolean(false);
+        List<BatchingReportableEntityHandler<?, ?>> batches = new ArrayList<>();
+        BatchingReportableEntityHandler<ReportPoint, String> pointBatch =
+            new BatchingReportableEntityHandler<>(wavefrontHandler);
+        batches.add(pointBatch);
+        Supplier<ReportableEntityHandler<ReportPoint, String>> histogramBatch =
+            BatchingReportableEntityHandler.lazyBatch(histogramHandlerSupplier, batches);
         try {
           //noinspection unchecked
           ReportableEntityDecoder<String, ReportPoint> histogramDecoder =
@@ -203,7 +210,7 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
                     discardedHistograms.get(), output)) {
                   break;
                 }
-                preprocessAndHandlePoint(message, histogramDecoder, histogramHandlerSupplier.get(),
+                preprocessAndHandlePoint(message, histogramDecoder, histogramBatch.get(),
                     preprocessorSupplier, ctx, "histogram");
                 hasSuccessfulPoints.set(true);
                 break;
@@ -211,7 +218,7 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
                 // only apply annotator if point received on the DDI endpoint
                 message = annotator != null && isDirectIngestion ?
                     annotator.apply(ctx, message) : message;
-                preprocessAndHandlePoint(message, wavefrontDecoder, wavefrontHandler,
+                preprocessAndHandlePoint(message, wavefrontDecoder, pointBatch,
                     preprocessorSupplier, ctx, "metric");
                 hasSuccessfulPoints.set(true);
                 break;
@@ -222,6 +229,8 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
           status = HttpResponseStatus.BAD_REQUEST;
           output.append(errorMessageWithRootCause(e));
           logWarning("WF-300: Failed to handle HTTP POST", e, ctx);
+        } finally {
+          batches.forEach(BatchingReportableEntityHandler::flush);
         }
         break;
       case Constants.PUSH_FORMAT_TRACING:
@@ -246,7 +255,7 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
             spanHandler.reject(line, formatErrorMessage(line, e, ctx));
           }
         });
-        spans.forEach(spanHandler::report);
+        spanHandler.reportAll(spans);
         status = okStatus;
         break;
       case Constants.PUSH_FORMAT_TRACING_SPAN_LOGS:
@@ -269,7 +278,7 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
             spanLogsHandler.reject(line, formatErrorMessage(line, e, ctx));
           }
         });
-        spanLogs.forEach(spanLogsHandler::report);
+        spanLogsHandler.reportAll(spanLogs);
         status = okStatus;
         break;
       default:
@@ -7,6 +7,7 @@ import com.wavefront.agent.auth.TokenAuthenticator;
 import com.wavefront.agent.channel.HealthCheckManager;
 import com.wavefront.agent.channel.SharedGraphiteHostAnnotator;
 import com.wavefront.agent.formatter.DataFormat;
+import com.wavefront.agent.handlers.BatchingReportableEntityHandler;
 import com.wavefront.agent.handlers.HandlerKey;
 import com.wavefront.agent.handlers.ReportableEntityHandler;
 import com.wavefront.agent.handlers.ReportableEntityHandlerFactory;
@@ -188,6 +189,33 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
     super.handleHttpMessage(ctx, request);
   }
 
+  /**
+   * Points, histograms, spans and span logs parsed from the request are collected and handed
+   * over to their respective handlers as batches once all lines have been processed.
+   */
+  @Override
+  protected void processLines(final ChannelHandlerContext ctx,
+                              @Nonnull final Iterable<String> lines,
+                              @Nullable DataFormat format) {
+    List<BatchingReportableEntityHandler<?, ?>> batches = new ArrayList<>();
+    BatchingReportableEntityHandler<ReportPoint, String> pointBatch =
+        new BatchingReportableEntityHandler<>(wavefrontHandler);
+    batches.add(pointBatch);
+    Supplier<ReportableEntityHandler<ReportPoint, String>> histogramBatch =
+        BatchingReportableEntityHandler.lazyBatch(histogramHandlerSupplier, batches);
+    Supplier<ReportableEntityHandler<Span, String>> spanBatch =
+        BatchingReportableEntityHandler.lazyBatch(spanHandlerSupplier, batches);
+    Supplier<ReportableEntityHandler<SpanLogs, String>> spanLogsBatch =
+        BatchingReportableEntityHandler.lazyBatch(spanLogsHandlerSupplier, batches);
+    try {
+      for (String line : lines) {
+        processLine(ctx, line, format, pointBatch, histogramBatch, spanBatch, spanLogsBatch);
+      }
+    } finally {
+      batches.forEach(BatchingReportableEntityHandler::flush);
+    }
+  }
+
   /**
    *
    * @param ctx      ChannelHandler context (to retrieve remote client's IP in case of errors)
@@ -196,6 +224,16 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
   @Override
   protected void processLine(final ChannelHandlerContext ctx, @Nonnull String message,
                              @Nullable DataFormat format) {
+    processLine(ctx, message, format, wavefrontHandler, histogramHandlerSupplier,
+        spanHandlerSupplier, spanLogsHandlerSupplier);
+  }
+
+  private void processLine(final ChannelHandlerContext ctx, @Nonnull String message,
+                           @Nullable DataFormat format,
+                           ReportableEntityHandler<ReportPoint, String> pointHandler,
+                           Supplier<ReportableEntityHandler<ReportPoint, String>> histogramHandlers,
+                           Supplier<ReportableEntityHandler<Span, String>> spanHandlers,
+                           Supplier<ReportableEntityHandler<SpanLogs, String>> spanLogsHandlers) {
     DataFormat dataFormat = format == null ? DataFormat.autodetect(message) : format;
     switch (dataFormat) {
       case SOURCE_TAG:
@@ -235,7 +273,7 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
         }
         return;
       case SPAN:
-        ReportableEntityHandler<Span, String> spanHandler = spanHandlerSupplier.get();
+        ReportableEntityHandler<Span, String> spanHandler = spanHandlers.get();
         if (spanHandler == null || spanDecoder == null) {
           wavefrontHandler.reject(message, "Port is not configured to accept " +
               "tracing data (spans)!");
@@ -248,7 +286,7 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
         return;
       case SPAN_LOG:
         if (isFeatureDisabled(spanLogsDisabled, SPANLOGS_DISABLED, discardedSpanLogs.get())) return;
-        ReportableEntityHandler<SpanLogs, String> spanLogsHandler = spanLogsHandlerSupplier.get();
+        ReportableEntityHandler<SpanLogs, String> spanLogsHandler = spanLogsHandlers.get();
         if (spanLogsHandler == null || spanLogsDecoder == null || spanDecoder == null) {
           wavefrontHandler.reject(message, "Port is not configured to accept " +
               "tracing data (span logs)!");
@@ -259,7 +297,7 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
         return;
       case HISTOGRAM:
         if (isFeatureDisabled(histogramDisabled, HISTO_DISABLED, discardedHistograms.get())) return;
-        ReportableEntityHandler<ReportPoint, String> histogramHandler = histogramHandlerSupplier.get();
+        ReportableEntityHandler<ReportPoint, String> histogramHandler = histogramHandlers.get();
         if (histogramHandler == null || histogramDecoder == null) {
           wavefrontHandler.reject(message, "Port is not configured to accept " +
               "histogram-formatted data!");
@@ -271,7 +309,7 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
         return;
       default:
         message = annotator == null ? message : annotator.apply(ctx, message);
-        preprocessAndHandlePoint(message, wavefrontDecoder, wavefrontHandler, preprocessorSupplier,
+        preprocessAndHandlePoint(message, wavefrontDecoder, pointHandler, preprocessorSupplier,
             ctx, "metric");
     }
   }
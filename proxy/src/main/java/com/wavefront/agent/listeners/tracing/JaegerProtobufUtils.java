@@ -3,6 +3,7 @@ package com.wavefront.agent.listeners.tracing;
 import com.google.common.collect.ImmutableSet;
 import com.google.protobuf.ByteString;
 
+import com.wavefront.agent.handlers.BatchingReportableEntityHandler;
 import com.wavefront.agent.handlers.ReportableEntityHandler;
 import com.wavefront.agent.preprocessor.ReportableEntityPreprocessor;
 import com.wavefront.agent.sampler.SpanSampler;
@@ -140,11 +141,21 @@ public abstract class JaegerProtobufUtils {
       return;
     }
     receivedSpansTotal.inc(batch.getSpansCount());
-    for (Model.Span span : batch.getSpansList()) {
-      processSpan(span, serviceName, sourceName, applicationName, cluster, shard, processAnnotations,
-          spanHandler, spanLogsHandler, wfInternalReporter, spanLogsDisabled,
-          preprocessorSupplier, sampler, traceDerivedCustomTagKeys,
-          discardedSpansBySampler, discoveredHeartbeatMetrics);
+    // spans and span logs from the same batch are handed over to the handlers in one go
+    BatchingReportableEntityHandler<Span, String> spanBatch =
+        new BatchingReportableEntityHandler<>(spanHandler);
+    BatchingReportableEntityHandler<SpanLogs, String> spanLogsBatch =
+        new BatchingReportableEntityHandler<>(spanLogsHandler);
+    try {
+      for (Model.Span span : batch.getSpansList()) {
+        processSpan(span, serviceName, sourceName, applicationName, cluster, shard,
+            processAnnotations, spanBatch, spanLogsBatch, wfInternalReporter, spanLogsDisabled,
+            preprocessorSupplier, sampler, traceDerivedCustomTagKeys,
+            discardedSpansBySampler, discoveredHeartbeatMetrics);
+      }
+    } finally {
+      spanBatch.flush();
+      spanLogsBatch.flush();
     }
   }
 
@@ -2,6 +2,7 @@ package com.wavefront.agent.listeners.tracing;
 
 import com.google.common.collect.ImmutableSet;
 
+import com.wavefront.agent.handlers.BatchingReportableEntityHandler;
 import com.wavefront.agent.handlers.ReportableEntityHandler;
 import com.wavefront.agent.preprocessor.ReportableEntityPreprocessor;
 import com.wavefront.agent.sampler.SpanSampler;
@@ -134,11 +135,21 @@ public abstract class JaegerThriftUtils {
       return;
     }
     receivedSpansTotal.inc(batch.getSpansSize());
-    for (io.jaegertracing.thriftjava.Span span : batch.getSpans()) {
-      processSpan(span, serviceName, sourceName, applicationName, cluster, shard, processAnnotations,
-          spanHandler, spanLogsHandler, wfInternalReporter, spanLogsDisabled,
-          preprocessorSupplier, sampler, traceDerivedCustomTagKeys, discardedSpansBySampler,
-          discoveredHeartbeatMetrics);
+    // spans and span logs from the same batch are handed over to the handlers in one go
+    BatchingReportableEntityHandler<Span, String> spanBatch =
+        new BatchingReportableEntityHandler<>(spanHandler);
+    BatchingReportableEntityHandler<SpanLogs, String> spanLogsBatch =
+        new BatchingReportableEntityHandler<>(spanLogsHandler);
+    try {
+      for (io.jaegertracing.thriftjava.Span span : batch.getSpans()) {
+        processSpan(span, serviceName, sourceName, applicationName, cluster, shard,
+            processAnnotations, spanBatch, spanLogsBatch, wfInternalReporter, spanLogsDisabled,
+            preprocessorSupplier, sampler, traceDerivedCustomTagKeys, discardedSpansBySampler,
+            discoveredHeartbeatMetrics);
+      }
+    } finally {
+      spanBatch.flush();
+      spanLogsBatch.flush();
     }
   }
 
@@ -8,6 +8,7 @@ import com.google.common.collect.Sets;
 
 import com.wavefront.agent.auth.TokenAuthenticatorBuilder;
 import com.wavefront.agent.channel.HealthCheckManager;
+import com.wavefront.agent.handlers.BatchingReportableEntityHandler;
 import com.wavefront.agent.handlers.HandlerKey;
 import com.wavefront.agent.handlers.ReportableEntityHandler;
 import com.wavefront.agent.handlers.ReportableEntityHandlerFactory;
@@ -240,12 +241,24 @@ public class ZipkinPortUnificationHandler extends AbstractHttpOnlyHandler
   }
 
   private void processZipkinSpans(List<zipkin2.Span> zipkinSpans) {
-    for (zipkin2.Span zipkinSpan : zipkinSpans) {
-      processZipkinSpan(zipkinSpan);
+    // spans and span logs from the same request are handed over to the handlers in one go
+    BatchingReportableEntityHandler<Span, String> spanBatch =
+        new BatchingReportableEntityHandler<>(spanHandler);
+    BatchingReportableEntityHandler<SpanLogs, String> spanLogsBatch =
+        new BatchingReportableEntityHandler<>(spanLogsHandler);
+    try {
+      for (zipkin2.Span zipkinSpan : zipkinSpans) {
+        processZipkinSpan(zipkinSpan, spanBatch, spanLogsBatch);
+      }
+    } finally {
+      spanBatch.flush();
+      spanLogsBatch.flush();
     }
   }
 
-  private void processZipkinSpan(zipkin2.Span zipkinSpan) {
+  private void processZipkinSpan(zipkin2.Span zipkinSpan,
+                                 ReportableEntityHandler<Span, String> spanHandler,
+                                 ReportableEntityHandler<SpanLogs, String> spanLogsHandler) {
     if (ZIPKIN_DATA_LOGGER.isLoggable(Level.FINEST)) {
       ZIPKIN_DATA_LOGGER.info("Inbound Zipkin span: " + zipkinSpan.toString());
     }
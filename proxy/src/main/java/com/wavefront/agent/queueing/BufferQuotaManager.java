@@ -0,0 +1,170 @@
+package com.wavefront.agent.queueing;
+
+import com.wavefront.agent.handlers.HandlerKey;
+import com.wavefront.common.TaggedMetricName;
+import com.wavefront.data.ReportableEntityType;
+import com.yammer.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps disk buffer usage within configured quotas by dropping the oldest data: when a quota
+ * is exceeded, whole shards of the oldest tasks are deleted, so that new data can still be
+ * buffered and the freshest data is retained after an outage.
+ *
+ * Two quotas are supported: a quota for each entity type/port (applies to all queues for the
+ * same {@link HandlerKey} combined), and a total quota for all queues. When over the total
+ * quota, data is dropped from entity types in the configured eviction order (e.g. span logs
+ * before points), starting with the largest queue.
+ *
+ * Quotas are checked periodically, and also every time a certain amount of data has been added
+ * to the queues (see {@link #onTaskAdded(int)}), so that a burst of writes can't overshoot the
+ * quota by much before the next periodic check.
+ */
+public class BufferQuotaManager implements Runnable {
+  private static final Logger logger =
+      Logger.getLogger(BufferQuotaManager.class.getCanonicalName());
+
+  private final Map<HandlerKey, Map<Integer, TaskQueue<?>>> taskQueues;
+  private final long totalQuotaBytes;
+  private final long portQuotaBytes;
+  private final List<ReportableEntityType> evictionOrder;
+  private final long checkIntervalBytes;
+  private final AtomicLong bytesAdded = new AtomicLong();
+  private boolean overQuota = false;
+
+  /**
+   * @param taskQueues      queues to manage, by handler key and thread number.
+   * @param totalQuotaBytes max total storage size of all queues. 0 means unlimited.
+   * @param portQuotaBytes  max total storage size of queues for each entity type/port.
+   *                        0 means unlimited.
+   * @param evictionOrder   entity types in the order they are dropped in when over the total
+   *                        quota. Entity types not in the list are dropped first.
+   */
+  public BufferQuotaManager(Map<HandlerKey, Map<Integer, TaskQueue<?>>> taskQueues,
+                            long totalQuotaBytes, long portQuotaBytes,
+                            List<ReportableEntityType> evictionOrder) {
+    this(taskQueues, totalQuotaBytes, portQuotaBytes, evictionOrder, 0);
+  }
+
+  /**
+   * @param taskQueues         queues to manage, by handler key and thread number.
+   * @param totalQuotaBytes    max total storage size of all queues. 0 means unlimited.
+   * @param portQuotaBytes     max total storage size of queues for each entity type/port.
+   *                           0 means unlimited.
+   * @param evictionOrder      entity types in the order they are dropped in when over the
+   *                           total quota. Entity types not in the list are dropped first.
+   * @param checkIntervalBytes check quotas every time this many bytes have been added to the
+   *                           queues. 0 to only check periodically.
+   */
+  public BufferQuotaManager(Map<HandlerKey, Map<Integer, TaskQueue<?>>> taskQueues,
+                            long totalQuotaBytes, long portQuotaBytes,
+                            List<ReportableEntityType> evictionOrder, long checkIntervalBytes) {
+    this.taskQueues = taskQueues;
+    this.totalQuotaBytes = totalQuotaBytes;
+    this.portQuotaBytes = portQuotaBytes;
+    this.evictionOrder = evictionOrder;
+    this.checkIntervalBytes = checkIntervalBytes;
+  }
+
+  /**
+   * Enforce quotas right away if enough data has been added to the queues since the last check.
+   *
+   * @param taskBytes serialized size of the added task.
+   */
+  public void onTaskAdded(int taskBytes) {
+    if (checkIntervalBytes <= 0 || bytesAdded.addAndGet(taskBytes) < checkIntervalBytes) return;
+    run();
+  }
+
+  @Override
+  public synchronized void run() {
+    bytesAdded.set(0);
+    List<QueueUsage> queues = new ArrayList<>();
+    taskQueues.forEach((key, queueMap) -> queueMap.values().forEach(queue -> {
+      Long storageBytes = queue.getStorageBytes();
+      if (storageBytes != null) {
+        queues.add(new QueueUsage(key, queue, storageBytes));
+      }
+    }));
+    boolean enforced = true;
+    if (portQuotaBytes > 0) {
+      for (List<QueueUsage> portQueues : queues.stream().
+          collect(Collectors.groupingBy(x -> x.key)).values()) {
+        enforced &= enforce(portQueues, portQuotaBytes,
+            Comparator.comparingLong(x -> -x.storageBytes));
+      }
+    }
+    if (totalQuotaBytes > 0) {
+      enforced &= enforce(queues, totalQuotaBytes, Comparator.
+          <QueueUsage>comparingInt(x -> evictionOrder.indexOf(x.key.getEntityType())).
+          thenComparingLong(x -> -x.storageBytes));
+    }
+    if (!enforced && !overQuota) {
+      logger.warning("Buffer is over quota, but there is no more data that can be dropped. " +
+          "Consider using a smaller bufferShardSize.");
+    }
+    overQuota = !enforced;
+  }
+
+  /**
+   * Drop the oldest data from queues, in the specified order, until they fit into the quota.
+   *
+   * @return true if queues fit into the quota
+   */
+  private boolean enforce(List<QueueUsage> queues, long quotaBytes,
+                          Comparator<QueueUsage> dropOrder) {
+    long usedBytes = queues.stream().mapToLong(x -> x.storageBytes).sum();
+    while (usedBytes > quotaBytes) {
+      QueueUsage victim = queues.stream().filter(x -> x.droppable).min(dropOrder).orElse(null);
+      if (victim == null) return false;
+      usedBytes -= drop(victim);
+    }
+    return true;
+  }
+
+  private long drop(QueueUsage usage) {
+    try {
+      Long weight = usage.queue.dropOldestTasks();
+      Long storageBytes = usage.queue.getStorageBytes();
+      long droppedBytes = storageBytes == null ? 0 : usage.storageBytes - storageBytes;
+      if (weight == null || droppedBytes <= 0) {
+        usage.droppable = false;
+        return 0;
+      }
+      usage.storageBytes = storageBytes;
+      String entityName = usage.key.getEntityType().toString();
+      Metrics.newCounter(new TaggedMetricName("buffer", entityName + "-dropped",
+          "port", usage.key.getHandle())).inc(weight);
+      Metrics.newCounter(new TaggedMetricName("buffer", entityName + "-bytes-dropped",
+          "port", usage.key.getHandle())).inc(droppedBytes);
+      logger.info("[" + usage.key.getHandle() + "] Buffer quota exceeded, dropped " +
+          droppedBytes + " bytes (" + weight + " " + entityName + ") of the oldest data");
+      return droppedBytes;
+    } catch (IOException | IllegalStateException e) {
+      logger.warning("[" + usage.key.getHandle() + "] Unable to drop data from the buffer: " + e);
+      usage.droppable = false;
+      return 0;
+    }
+  }
+
+  private static final class QueueUsage {
+    final HandlerKey key;
+    final TaskQueue<?> queue;
+    long storageBytes;
+    boolean droppable = true;
+
+    QueueUsage(HandlerKey key, TaskQueue<?> queue, long storageBytes) {
+      this.key = key;
+      this.queue = queue;
+      this.storageBytes = storageBytes;
+    }
+  }
+}
@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
@@ -35,6 +36,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * instead of one large file. This also improves concurrency - when we have more than one file,
  * we can add and remove tasks at the same time without mutually exclusive locking.
  *
+ * Totals across all shards (number of tasks, storage and used bytes) are kept up to date as
+ * tasks are added and removed and shards are deleted, so that querying them is cheap and never
+ * requires opening shard files, no matter how many shards there are.
+ *
  * @author vasily@wavefront.com
  */
 public class ConcurrentShardedQueueFile implements QueueFile {
@@ -55,6 +60,9 @@ public class ConcurrentShardedQueueFile implements QueueFile {
   private volatile boolean closed = false;
   private volatile byte[] head;
   private final AtomicLong modCount = new AtomicLong();
+  private final AtomicInteger totalTasks = new AtomicInteger();
+  private final AtomicLong totalStorageBytes = new AtomicLong();
+  private final AtomicLong totalUsedBytes = new AtomicLong();
 
   /**
    * @param fileNamePrefix   path + file name prefix for shard files
@@ -90,7 +98,7 @@ public class ConcurrentShardedQueueFile implements QueueFile {
     try {
       if (this.head == null) {
         globalLock.lock();
-        Shard shard = shards.getFirst().updateStats();
+        Shard shard = shards.getFirst().open();
         if (shards.size() > 1) {
           globalLock.unlock();
         }
@@ -123,7 +131,7 @@ public class ConcurrentShardedQueueFile implements QueueFile {
         shard = new Shard(newFileName);
         shards.addLast(shard);
       }
-      shard.updateStats();
+      shard.open();
       modCount.incrementAndGet();
       if (shards.size() > 2) {
         globalLock.unlock();
@@ -144,7 +152,7 @@ public class ConcurrentShardedQueueFile implements QueueFile {
     headLock.lock();
     try {
       this.head = null;
-      Shard shard = shards.getFirst().updateStats();
+      Shard shard = shards.getFirst().open();
       if (shards.size() == 1) {
         globalLock.lock();
       }
@@ -153,9 +161,8 @@ public class ConcurrentShardedQueueFile implements QueueFile {
       shard.updateStats();
       // check whether we have removed the last task in a shard
       if (shards.size() > 1 && shard.numTasks == 0) {
-        shard.close();
         shards.removeFirst();
-        new File(shard.shardFileName).delete();
+        shard.delete();
       }
     } finally {
       headLock.unlock();
@@ -165,19 +172,48 @@ public class ConcurrentShardedQueueFile implements QueueFile {
     }
   }
 
+  @Override
+  public int dropOldestShard(int headTasks) throws IOException {
+    checkForClosedState();
+    headLock.lock();
+    tailLock.lock();
+    try {
+      // the first shard is being read from and the last one is being written to
+      if (shards.size() <= 2) return 0;
+      Iterator<Shard> iterator = shards.iterator();
+      int tasksBefore = iterator.next().numTasks;
+      for (int i = 1; i < shards.size() - 1; i++) {
+        Shard shard = iterator.next();
+        // stats of a shard that is not at either end of the queue don't change
+        int numTasks = shard.numTasks;
+        if (tasksBefore >= headTasks) {
+          iterator.remove();
+          modCount.incrementAndGet();
+          shard.delete();
+          return numTasks;
+        }
+        tasksBefore += numTasks;
+      }
+      return 0;
+    } finally {
+      tailLock.unlock();
+      headLock.unlock();
+    }
+  }
+
   @Override
   public int size() {
-    return shards.stream().mapToInt(shard -> shard.numTasks).sum();
+    return totalTasks.get();
   }
 
   @Override
   public long storageBytes() {
-    return shards.stream().mapToLong(shard -> shard.fileLength).sum();
+    return totalStorageBytes.get();
   }
 
   @Override
   public long usedBytes() {
-    return shards.stream().mapToLong(shard -> shard.usedBytes).sum();
+    return totalUsedBytes.get();
   }
 
   @Override
@@ -201,8 +237,7 @@ public class ConcurrentShardedQueueFile implements QueueFile {
     try {
       this.head = null;
       for (Shard shard : shards) {
-        shard.close();
-        new File(shard.shardFileName).delete();
+        shard.delete();
       }
       shards.clear();
       shards.add(new Shard(getInitialFilename()));
@@ -245,7 +280,12 @@ public class ConcurrentShardedQueueFile implements QueueFile {
           if (!shardIterator.hasNext()) {
             return false;
           }
-          currentShard = shardIterator.next().updateStats();
+          // don't keep shards in the middle of the queue open once we are done with them
+          if (currentShard != null && currentShard != shards.peekFirst() &&
+              currentShard != shards.peekLast()) {
+            currentShard.close();
+          }
+          currentShard = shardIterator.next().open();
           currentIterator = Objects.requireNonNull(currentShard.queueFile).iterator();
         }
       } catch (IOException e) {
@@ -285,7 +325,7 @@ public class ConcurrentShardedQueueFile implements QueueFile {
     private final String shardFileName;
     @Nullable private QueueFile queueFile;
     private long fileLength;
-    private Long usedBytes;
+    private long usedBytes;
     private int numTasks;
 
     private Shard(String shardFileName) throws IOException {
@@ -294,18 +334,49 @@ public class ConcurrentShardedQueueFile implements QueueFile {
     }
 
     @CanIgnoreReturnValue
-    private Shard updateStats() throws IOException {
+    private Shard open() throws IOException {
       if (this.queueFile == null) {
         this.queueFile = queueFileFactory.get(this.shardFileName);
       }
+      return this;
+    }
+
+    /**
+     * Refresh shard stats after the shard has been changed, and apply the difference to the
+     * totals for the whole queue.
+     */
+    @CanIgnoreReturnValue
+    private Shard updateStats() throws IOException {
+      open();
       if (this.queueFile != null) {
-        this.fileLength = this.queueFile.storageBytes();
-        this.numTasks = this.queueFile.size();
-        this.usedBytes = this.queueFile.usedBytes();
+        long fileLength = this.queueFile.storageBytes();
+        int numTasks = this.queueFile.size();
+        long usedBytes = this.queueFile.usedBytes();
+        totalStorageBytes.addAndGet(fileLength - this.fileLength);
+        totalTasks.addAndGet(numTasks - this.numTasks);
+        totalUsedBytes.addAndGet(usedBytes - this.usedBytes);
+        this.fileLength = fileLength;
+        this.numTasks = numTasks;
+        this.usedBytes = usedBytes;
       }
       return this;
     }
 
+    /**
+     * Close and delete the shard file, and exclude its stats from the totals.
+     */
+    private void delete() throws IOException {
+      close();
+      totalStorageBytes.addAndGet(-this.fileLength);
+      totalTasks.addAndGet(-this.numTasks);
+      totalUsedBytes.addAndGet(-this.usedBytes);
+      this.fileLength = 0;
+      this.numTasks = 0;
+      this.usedBytes = 0;
+      //noinspection ResultOfMethodCallIgnored
+      new File(this.shardFileName).delete();
+    }
+
     private void close() throws IOException {
       if (this.queueFile != null) {
         this.queueFile.close();
@@ -1,18 +1,41 @@
 package com.wavefront.agent.queueing;
 
+import com.wavefront.agent.SharedScheduler;
 import com.wavefront.agent.data.DataSubmissionTask;
+import com.wavefront.common.NamedThreadFactory;
 import com.wavefront.common.Utils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 
 /**
  * Implements proxy-specific {@link TaskQueue<T>} interface as a wrapper over {@link QueueFile}.
  *
+ * Optionally, tasks can be read and decoded ahead of the consumer on a background thread
+ * (read-ahead), so that reading, decompressing and deserializing the next task doesn't add to
+ * the latency of replaying the backlog. Decoded tasks are kept in a bounded window that always
+ * starts at the head of the queue; the window is discarded whenever tasks are removed other
+ * than from the head (e.g. {@link #clear()}).
+ * Read-ahead keeps its position in the queue file between runs, so that every task is only read
+ * once, and reads tasks without holding the queue lock if the queue file supports iterating
+ * concurrently with changes (see {@link QueueFile#supportsConcurrentIteration()}).
+ *
  * @param <T> type of objects stored.
  *
  * @author vasily@wavefront.com
@@ -20,29 +43,213 @@ import java.util.logging.Logger;
 public class FileBasedTaskQueue<T extends DataSubmissionTask<T>> implements TaskQueue<T> {
   private static final Logger log = Logger.getLogger(FileBasedTaskQueue.class.getCanonicalName());
 
-  private final DirectByteArrayOutputStream bytes = new DirectByteArrayOutputStream();
+  private static final long CHECKPOINT_INTERVAL_MILLIS = 5000;
+
+  private static final ExecutorService readAheadExecutor =
+      Executors.newCachedThreadPool(new NamedThreadFactory("buffer-read-ahead"));
+
+  // tasks are serialized on the calling thread, outside of the queue lock
+  private static final ThreadLocal<DirectByteArrayOutputStream> serializationBuffer =
+      ThreadLocal.withInitial(DirectByteArrayOutputStream::new);
 
   private volatile T head;
+  private volatile int headBytes;
+  // checksum of the head's serialized form, for checkpoints (only tracked with a checkpoint file)
+  private volatile long headChecksum;
 
   private final AtomicLong currentWeight = new AtomicLong();
   private final QueueFile queueFile;
   private final TaskConverter<T> taskConverter;
+  @Nullable
+  private final File checkpointFile;
+  private final AtomicBoolean checkpointDirty = new AtomicBoolean(false);
+  @Nullable
+  private final ScheduledFuture<?> checkpointFuture;
+  @Nullable
+  private final BiConsumer<Integer, Integer> removalListener;
+  @Nullable
+  private final BiConsumer<Integer, Integer> additionListener;
+
+  private final int readAheadTasks;
+  @Nullable
+  private final BiConsumer<Boolean, Long> decodeListener;
+  // decoded tasks, starting at the head of the queue file. guarded by this
+  private final Deque<DecodedTask<T>> readAhead = new ArrayDeque<>();
+  // total number of tasks removed from the head. guarded by this
+  private long removedTasks = 0;
+  // changes every time the read-ahead window is discarded. guarded by this
+  private long readAheadGeneration = 0;
+  // iterator used by read-ahead, kept between runs so that tasks are only read once, and the
+  // position of the next task it returns (counting tasks removed from the head). guarded by this
+  @Nullable
+  private Iterator<byte[]> readAheadIterator = null;
+  private long readAheadIteratorPosition = 0;
+  private final AtomicBoolean readAheadScheduled = new AtomicBoolean(false);
+  // number of tasks at the head that have been peeked and not removed yet. guarded by this
+  private int peekedTasks = 0;
 
   /**
    * @param queueFile     file backing the queue
    * @param taskConverter task converter
    */
   public FileBasedTaskQueue(QueueFile queueFile, TaskConverter<T> taskConverter) {
+    this(queueFile, taskConverter, null);
+  }
+
+  /**
+   * @param queueFile      file backing the queue
+   * @param taskConverter  task converter
+   * @param checkpointFile sidecar file for persisting the queue's weight, so that it doesn't
+   *                       have to be enumerated on startup (see {@link TaskQueueCheckpoint}).
+   *                       null to always enumerate.
+   */
+  public FileBasedTaskQueue(QueueFile queueFile, TaskConverter<T> taskConverter,
+                            @Nullable String checkpointFile) {
+    this(queueFile, taskConverter, checkpointFile, null);
+  }
+
+  /**
+   * @param queueFile       file backing the queue
+   * @param taskConverter   task converter
+   * @param checkpointFile  sidecar file for persisting the queue's weight (null to always
+   *                        enumerate).
+   * @param removalListener invoked with the task's weight and serialized size in bytes every
+   *                        time a task is removed from the queue. Optional.
+   */
+  public FileBasedTaskQueue(QueueFile queueFile, TaskConverter<T> taskConverter,
+                            @Nullable String checkpointFile,
+                            @Nullable BiConsumer<Integer, Integer> removalListener) {
+    this(queueFile, taskConverter, checkpointFile, removalListener, 0, null);
+  }
+
+  /**
+   * @param queueFile       file backing the queue
+   * @param taskConverter   task converter
+   * @param checkpointFile  sidecar file for persisting the queue's weight (null to always
+   *                        enumerate).
+   * @param removalListener invoked with the task's weight and serialized size in bytes every
+   *                        time a task is removed from the queue. Optional.
+   * @param readAheadTasks  number of tasks to decode ahead of the consumer on a background
+   *                        thread. 0 to disable.
+   * @param decodeListener  invoked every time a new task becomes the head of the queue, with
+   *                        whether it had already been decoded by read-ahead and the time it
+   *                        took to decode it in microseconds. Optional.
+   */
+  public FileBasedTaskQueue(QueueFile queueFile, TaskConverter<T> taskConverter,
+                            @Nullable String checkpointFile,
+                            @Nullable BiConsumer<Integer, Integer> removalListener,
+                            int readAheadTasks,
+                            @Nullable BiConsumer<Boolean, Long> decodeListener) {
+    this(queueFile, taskConverter, checkpointFile, removalListener, readAheadTasks,
+        decodeListener, null);
+  }
+
+  /**
+   * @param queueFile        file backing the queue
+   * @param taskConverter    task converter
+   * @param checkpointFile   sidecar file for persisting the queue's weight (null to always
+   *                         enumerate).
+   * @param removalListener  invoked with the task's weight and serialized size in bytes every
+   *                         time a task is removed from the queue. Optional.
+   * @param readAheadTasks   number of tasks to decode ahead of the consumer on a background
+   *                         thread. 0 to disable.
+   * @param decodeListener   invoked every time a new task becomes the head of the queue, with
+   *                         whether it had already been decoded by read-ahead and the time it
+   *                         took to decode it in microseconds. Optional.
+   * @param additionListener invoked with the task's weight and serialized size in bytes every
+   *                         time a task is added to the queue, outside of the queue lock.
+   *                         Optional.
+   */
+  public FileBasedTaskQueue(QueueFile queueFile, TaskConverter<T> taskConverter,
+                            @Nullable String checkpointFile,
+                            @Nullable BiConsumer<Integer, Integer> removalListener,
+                            int readAheadTasks,
+                            @Nullable BiConsumer<Boolean, Long> decodeListener,
+                            @Nullable BiConsumer<Integer, Integer> additionListener) {
     this.queueFile = queueFile;
     this.taskConverter = taskConverter;
-    log.fine("Enumerating queue");
-    this.queueFile.iterator().forEachRemaining(task -> {
-      Integer weight = taskConverter.getWeight(task);
-      if (weight != null) {
-        currentWeight.addAndGet(weight);
+    this.removalListener = removalListener;
+    this.additionListener = additionListener;
+    this.readAheadTasks = readAheadTasks;
+    this.decodeListener = decodeListener;
+    this.checkpointFile = checkpointFile == null ? null : new File(checkpointFile);
+    TaskQueueCheckpoint checkpoint = this.checkpointFile == null ? null :
+        TaskQueueCheckpoint.read(this.checkpointFile);
+    if (checkpoint != null && checkpointMatches(checkpoint)) {
+      currentWeight.set(checkpoint.weight);
+      log.fine("Restored from checkpoint: " + currentWeight.get() + " items in " +
+          queueFile.size() + " tasks");
+    } else {
+      log.fine("Enumerating queue");
+      this.queueFile.iterator().forEachRemaining(task -> {
+        Integer weight = taskConverter.getWeight(task);
+        if (weight != null) {
+          currentWeight.addAndGet(weight);
+        }
+      });
+      log.fine("Enumerated: " + currentWeight.get() + " items in " + queueFile.size() + " tasks");
+      checkpointDirty.set(true);
+    }
+    this.checkpointFuture = this.checkpointFile == null ? null :
+        SharedScheduler.getIoInstance().scheduleWithFixedDelay("buffer-checkpoint",
+            this::checkpoint, CHECKPOINT_INTERVAL_MILLIS, CHECKPOINT_INTERVAL_MILLIS,
+            TimeUnit.MILLISECONDS);
+  }
+
+  private boolean checkpointMatches(TaskQueueCheckpoint checkpoint) {
+    try {
+      return checkpoint.matches(queueFile);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Persist the queue's current weight to the checkpoint file, if it has changed since the last
+   * checkpoint. The head task's checksum is taken from the decoded head or the read-ahead
+   * window, if the head isn't decoded yet, the checkpoint is retried on the next run.
+   */
+  void checkpoint() {
+    checkpoint(false);
+  }
+
+  /**
+   * @param readHead read the head task from the queue file if it isn't decoded yet.
+   */
+  private void checkpoint(boolean readHead) {
+    if (checkpointFile == null || !checkpointDirty.getAndSet(false)) return;
+    TaskQueueCheckpoint checkpoint;
+    try {
+      // capture a consistent snapshot: mutations are synchronized as well
+      synchronized (this) {
+        Long checksum = cachedHeadChecksum();
+        if (checksum != null) {
+          checkpoint = new TaskQueueCheckpoint(currentWeight.get(), queueFile.size(),
+              queueFile.usedBytes(), checksum);
+        } else if (readHead) {
+          checkpoint = TaskQueueCheckpoint.of(queueFile, currentWeight.get());
+        } else {
+          checkpointDirty.set(true);
+          return;
+        }
       }
-    });
-    log.fine("Enumerated: " + currentWeight.get() + " items in " +  queueFile.size() + " tasks");
+      checkpoint.write(checkpointFile);
+    } catch (IOException | IllegalStateException e) {
+      log.warning("Unable to write buffer checkpoint " + checkpointFile + ": " + e);
+      checkpointDirty.set(true);
+    }
+  }
+
+  /**
+   * Returns the checksum of the head task without reading it from the queue file, or null if
+   * the head hasn't been decoded yet. Must be called while holding the lock.
+   */
+  @Nullable
+  private Long cachedHeadChecksum() {
+    if (queueFile.size() == 0) return TaskQueueCheckpoint.checksum(null);
+    if (this.head != null) return headChecksum;
+    DecodedTask<T> decoded = readAhead.peekFirst();
+    return decoded == null ? null : decoded.checksum;
   }
 
   @Override
@@ -51,42 +258,247 @@ public class FileBasedTaskQueue<T extends DataSubmissionTask<T>> implements Task
       if (this.head != null) {
         return this.head;
       }
+      if (readAheadTasks > 0) {
+        synchronized (this) {
+          DecodedTask<T> decoded = readAhead.peekFirst();
+          if (decoded != null) {
+            this.headChecksum = decoded.checksum;
+            this.head = decoded.task;
+            this.headBytes = decoded.bytes;
+            if (decodeListener != null) {
+              decodeListener.accept(true, decoded.decodeMicros);
+            }
+            scheduleReadAhead();
+            return this.head;
+          }
+        }
+      }
       byte[] task = queueFile.peek();
       if (task == null) return null;
-      this.head = taskConverter.fromBytes(task);
-      return this.head;
+      long startNanos = System.nanoTime();
+      T head = taskConverter.fromBytes(task);
+      long decodeMicros = (System.nanoTime() - startNanos) / 1000;
+      long checksum = checksum(task);
+      this.headChecksum = checksum;
+      this.head = head;
+      this.headBytes = task.length;
+      if (decodeListener != null) {
+        decodeListener.accept(false, decodeMicros);
+      }
+      if (readAheadTasks > 0 && head != null) {
+        synchronized (this) {
+          // start the window with the head, so that it doesn't get decoded twice
+          if (readAhead.isEmpty() && this.head == head) {
+            readAhead.addLast(new DecodedTask<>(head, task.length, decodeMicros, checksum));
+          }
+          scheduleReadAhead();
+        }
+      }
+      return head;
+    } catch (IOException ex) {
+      throw Utils.<Error>throwAny(ex);
+    }
+  }
+
+  /**
+   * Schedule decoding of the tasks following the ones already in the read-ahead window,
+   * unless the window is full or read-ahead is already in progress. Must be called while
+   * holding the lock.
+   */
+  private void scheduleReadAhead() {
+    if (readAhead.size() <= readAheadTasks && queueFile.size() > readAhead.size() &&
+        readAheadScheduled.compareAndSet(false, true)) {
+      readAheadExecutor.execute(this::readAhead);
+    }
+  }
+
+  private void readAhead() {
+    try {
+      long generation;
+      long firstPosition;
+      int count;
+      Iterator<byte[]> iterator;
+      long position;
+      List<byte[]> tasks = new ArrayList<>();
+      // most queue files don't support iterating concurrently with any changes, so their tasks
+      // are read while holding the lock. decoding is always done outside of the lock.
+      boolean readOutsideLock = queueFile.supportsConcurrentIteration();
+      synchronized (this) {
+        generation = readAheadGeneration;
+        firstPosition = removedTasks + readAhead.size();
+        count = readAheadTasks + 1 - readAhead.size();
+        iterator = readAheadIterator;
+        position = readAheadIteratorPosition;
+        // the iterator is put back once read-ahead succeeds. an iterator that has fallen
+        // behind the head is replaced, as the tasks it is about to return are gone
+        readAheadIterator = null;
+        if (iterator == null || position < removedTasks || position > firstPosition) {
+          iterator = queueFile.iterator();
+          position = removedTasks;
+          // pin the iterator to the current head
+          iterator.hasNext();
+        }
+        if (!readOutsideLock) {
+          position = readTasks(iterator, position, firstPosition, count, tasks);
+        }
+      }
+      if (readOutsideLock) {
+        position = readTasks(iterator, position, firstPosition, count, tasks);
+      }
+      List<DecodedTask<T>> decoded = new ArrayList<>(tasks.size());
+      for (byte[] bytes : tasks) {
+        long startNanos = System.nanoTime();
+        T task = taskConverter.fromBytes(bytes);
+        // stop at a corrupted task, it will be dealt with once it reaches the head of the queue
+        if (task == null) break;
+        decoded.add(new DecodedTask<>(task, bytes.length,
+            (System.nanoTime() - startNanos) / 1000, checksum(bytes)));
+      }
+      synchronized (this) {
+        if (generation != readAheadGeneration) return;
+        readAheadIterator = iterator;
+        readAheadIteratorPosition = position;
+        // skip tasks that have been removed while we were decoding them
+        long skip = removedTasks + readAhead.size() - firstPosition;
+        for (long i = Math.max(skip, 0); i < decoded.size(); i++) {
+          readAhead.addLast(decoded.get((int) i));
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      // the consumer will read the task itself
+      log.fine("Unable to read ahead: " + e);
+    } finally {
+      readAheadScheduled.set(false);
+    }
+  }
+
+  private long checksum(byte[] task) {
+    return checkpointFile == null ? 0 : TaskQueueCheckpoint.checksum(task);
+  }
+
+  /**
+   * Advance the read-ahead iterator to {@code firstPosition} and read up to {@code count} tasks
+   * from there.
+   *
+   * @return position of the next task the iterator returns.
+   */
+  private static long readTasks(Iterator<byte[]> iterator, long position, long firstPosition,
+                                int count, List<byte[]> tasks) {
+    while (position < firstPosition && iterator.hasNext()) {
+      iterator.next();
+      position++;
+    }
+    while (position >= firstPosition && tasks.size() < count && iterator.hasNext()) {
+      tasks.add(iterator.next());
+      position++;
+    }
+    return position;
+  }
+
+  /**
+   * Discard the read-ahead window. Must be called while holding the lock.
+   */
+  private void resetReadAhead() {
+    readAhead.clear();
+    readAheadIterator = null;
+    readAheadGeneration++;
+  }
+
+  @Nonnull
+  @Override
+  public synchronized List<T> peek(int count) {
+    T first = peek();
+    if (first == null) return Collections.emptyList();
+    if (count <= 1) {
+      peekedTasks = Math.max(peekedTasks, 1);
+      return Collections.singletonList(first);
+    }
+    List<T> tasks = new ArrayList<>(count);
+    tasks.add(first);
+    // tasks that have already been decoded by read-ahead
+    Iterator<DecodedTask<T>> decoded = readAhead.iterator();
+    if (decoded.hasNext()) decoded.next(); // skip the head
+    while (tasks.size() < count && decoded.hasNext()) {
+      tasks.add(decoded.next().task);
+    }
+    try {
+      Iterator<byte[]> iterator = queueFile.iterator();
+      // skip the tasks that are already deserialized
+      for (int i = 0; i < tasks.size() && iterator.hasNext(); i++) {
+        iterator.next();
+      }
+      while (tasks.size() < count && iterator.hasNext()) {
+        T task = taskConverter.fromBytes(iterator.next());
+        // stop at a corrupted task, it will be dealt with once it reaches the head of the queue
+        if (task == null) break;
+        tasks.add(task);
+      }
     } catch (IOException ex) {
       throw Utils.<Error>throwAny(ex);
     }
+    // the consumer may remove these tasks later without peeking them again
+    peekedTasks = Math.max(peekedTasks, tasks.size());
+    return tasks;
   }
 
   @Override
   public void add(@Nonnull T entry) throws IOException {
+    DirectByteArrayOutputStream bytes = serializationBuffer.get();
     bytes.reset();
     taskConverter.serializeToStream(entry, bytes);
-    queueFile.add(bytes.getArray(), 0, bytes.size());
-    currentWeight.addAndGet(entry.weight());
+    synchronized (this) {
+      queueFile.add(bytes.getArray(), 0, bytes.size());
+      currentWeight.addAndGet(entry.weight());
+      checkpointDirty.set(true);
+    }
+    if (additionListener != null) {
+      additionListener.accept(entry.weight(), bytes.size());
+    }
   }
 
   @Override
-  public void clear() throws IOException {
+  public synchronized void clear() throws IOException {
     queueFile.clear();
     this.head = null;
+    resetReadAhead();
+    peekedTasks = 0;
     this.currentWeight.set(0);
+    checkpointDirty.set(true);
   }
 
   @Override
-  public void remove() throws IOException {
-    if (this.head == null) {
+  public synchronized void remove() throws IOException {
+    int weight;
+    int taskBytes;
+    DecodedTask<T> decoded = readAhead.peekFirst();
+    if (this.head == null && decoded != null) {
+      weight = decoded.task.weight();
+      taskBytes = decoded.bytes;
+    } else if (this.head == null) {
+      // no need to deserialize the whole task, the weight is all we need
       byte[] task = queueFile.peek();
       if (task == null) return;
-      this.head = taskConverter.fromBytes(task);
+      Integer taskWeight = taskConverter.getWeight(task);
+      weight = taskWeight == null ? 0 : taskWeight;
+      taskBytes = task.length;
+    } else {
+      weight = this.head.weight();
+      taskBytes = this.headBytes;
     }
     queueFile.remove();
-    if(this.head != null) {
-      int weight = this.head.weight();
+    this.head = null;
+    readAhead.pollFirst();
+    removedTasks++;
+    if (peekedTasks > 0) peekedTasks--;
+    if (readAheadTasks > 0) {
+      scheduleReadAhead();
+    }
+    if (weight > 0) {
       currentWeight.getAndUpdate(x -> x > weight ? x - weight : 0);
-      this.head = null;
+    }
+    checkpointDirty.set(true);
+    if (removalListener != null) {
+      removalListener.accept(weight, taskBytes);
     }
   }
 
@@ -97,6 +509,12 @@ public class FileBasedTaskQueue<T extends DataSubmissionTask<T>> implements Task
 
   @Override
   public void close() throws IOException {
+    if (checkpointFuture != null) {
+      checkpointFuture.cancel(false);
+      // make sure tasks staged in memory are written out before taking the final checkpoint
+      queueFile.flush();
+      checkpoint(true);
+    }
     queueFile.close();
   }
 
@@ -112,6 +530,29 @@ public class FileBasedTaskQueue<T extends DataSubmissionTask<T>> implements Task
     return queueFile.storageBytes() - queueFile.usedBytes();
   }
 
+  @Nullable
+  @Override
+  public Long getStorageBytes() {
+    return queueFile.storageBytes();
+  }
+
+  @Nullable
+  @Override
+  public synchronized Long dropOldestTasks() throws IOException {
+    int sizeBefore = queueFile.size();
+    // tasks handed out by peek(int) may be removed later without being peeked again, so the
+    // shards they are in are kept
+    int tasks = queueFile.dropOldestShard(Math.max(peekedTasks, 1));
+    if (tasks <= 0) return null;
+    resetReadAhead();
+    // dropped tasks are not read back, so their weight is estimated from the average task weight
+    long weight = Math.min(currentWeight.get(),
+        Math.round((double) currentWeight.get() * tasks / Math.max(sizeBefore, tasks)));
+    currentWeight.addAndGet(-weight);
+    checkpointDirty.set(true);
+    return weight;
+  }
+
   @Nonnull
   @Override
   public Iterator<T> iterator() {
@@ -135,8 +576,25 @@ public class FileBasedTaskQueue<T extends DataSubmissionTask<T>> implements Task
 
       @Override
       public void remove() {
-        iterator.remove();
+        synchronized (FileBasedTaskQueue.this) {
+          iterator.remove();
+          resetReadAhead();
+        }
       }
     };
   }
+
+  private static final class DecodedTask<T> {
+    final T task;
+    final int bytes;
+    final long decodeMicros;
+    final long checksum;
+
+    DecodedTask(T task, int bytes, long decodeMicros, long checksum) {
+      this.task = task;
+      this.bytes = bytes;
+      this.decodeMicros = decodeMicros;
+      this.checksum = checksum;
+    }
+  }
 }
@@ -0,0 +1,272 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.wavefront.agent.SharedScheduler;
+import com.wavefront.common.NamedThreadFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+/**
+ * A write-behind {@link QueueFile} wrapper that coalesces tasks added by multiple threads into
+ * a single sequential write (group commit). {@code add()} only stages a copy of the task in
+ * memory and returns; staged tasks are written to the underlying queue file in batches on a
+ * background thread, and flushed to durable storage according to the {@link SyncPolicy}.
+ * If more than {@code maxPendingBytes} are staged (i.e. the disk can't keep up), the calling
+ * thread writes the batch itself.
+ *
+ * Staged tasks count towards {@link #size()}, and are written out before they can be read,
+ * so from the consumer's perspective staging is transparent. The size is tracked separately
+ * from the underlying queue file, so that it stays consistent while tasks are being written.
+ */
+public class GroupCommitQueueFile implements QueueFile {
+  private static final Logger log =
+      Logger.getLogger(GroupCommitQueueFile.class.getCanonicalName());
+
+  private static final ExecutorService writer =
+      Executors.newCachedThreadPool(new NamedThreadFactory("buffer-writer"));
+
+  private final QueueFile delegate;
+  private final long syncBytes;
+  private final long maxPendingBytes;
+  @Nullable
+  private final BiConsumer<Integer, Long> commitStatsConsumer;
+
+  private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+  // staged and written tasks. tasks are counted before they are staged and uncounted after they
+  // are removed, so the count doesn't change while they are moved to the underlying queue file
+  private final AtomicInteger size;
+  private final AtomicLong pendingBytes = new AtomicLong();
+  private final AtomicBoolean commitScheduled = new AtomicBoolean(false);
+  private final Object commitLock = new Object();
+  private long bytesSinceSync = 0;
+  private volatile boolean dirty = false;
+  @Nullable
+  private final ScheduledFuture<?> syncTask;
+
+  /**
+   * @param delegate            queue file to write to.
+   * @param syncPolicy          when to flush changes to durable storage.
+   * @param syncThreshold       flush interval in milliseconds for {@link SyncPolicy#INTERVAL},
+   *                            number of bytes between flushes for {@link SyncPolicy#BYTES}.
+   * @param maxPendingBytes     max number of bytes staged in memory before {@code add()} starts
+   *                            writing synchronously.
+   * @param commitStatsConsumer consumer for statistics on commits (number of tasks written and
+   *                            millis taken).
+   */
+  public GroupCommitQueueFile(QueueFile delegate, SyncPolicy syncPolicy, long syncThreshold,
+                              long maxPendingBytes,
+                              @Nullable BiConsumer<Integer, Long> commitStatsConsumer) {
+    this.delegate = delegate;
+    this.syncBytes = syncPolicy == SyncPolicy.BYTES ? syncThreshold : Long.MAX_VALUE;
+    this.maxPendingBytes = maxPendingBytes;
+    this.commitStatsConsumer = commitStatsConsumer;
+    this.size = new AtomicInteger(delegate.size());
+    this.syncTask = syncPolicy == SyncPolicy.INTERVAL ?
+        SharedScheduler.getIoInstance().scheduleWithFixedDelay("buffer-sync", this::syncIfDirty,
+            syncThreshold, syncThreshold, TimeUnit.MILLISECONDS) :
+        null;
+  }
+
+  @Override
+  public void add(byte[] data, int offset, int count) throws IOException {
+    size.incrementAndGet();
+    pending.add(Arrays.copyOfRange(data, offset, offset + count));
+    if (pendingBytes.addAndGet(count) > maxPendingBytes) {
+      // apply backpressure
+      commit();
+    } else if (commitScheduled.compareAndSet(false, true)) {
+      writer.execute(() -> {
+        commitScheduled.set(false);
+        try {
+          commit();
+        } catch (IOException e) {
+          log.severe("CRITICAL (Losing data): WF-1: Error writing tasks to the buffer: " +
+              e.getMessage());
+        }
+      });
+    }
+  }
+
+  /**
+   * Write all staged tasks to the underlying queue file as a single batch.
+   *
+   * @throws IOException if unable to write tasks.
+   */
+  @VisibleForTesting
+  void commit() throws IOException {
+    synchronized (commitLock) {
+      if (pending.isEmpty()) return;
+      long startTime = System.currentTimeMillis();
+      int tasks = 0;
+      byte[] task;
+      while ((task = pending.poll()) != null) {
+        try {
+          delegate.add(task);
+        } catch (IOException | RuntimeException e) {
+          // the task is lost
+          size.decrementAndGet();
+          throw e;
+        } finally {
+          pendingBytes.addAndGet(-task.length);
+        }
+        tasks++;
+        bytesSinceSync += task.length;
+      }
+      dirty = true;
+      if (bytesSinceSync >= syncBytes) {
+        sync();
+      }
+      if (commitStatsConsumer != null) {
+        commitStatsConsumer.accept(tasks, System.currentTimeMillis() - startTime);
+      }
+    }
+  }
+
+  private void sync() throws IOException {
+    bytesSinceSync = 0;
+    dirty = false;
+    delegate.flush();
+  }
+
+  private void syncIfDirty() {
+    if (!dirty) return;
+    try {
+      synchronized (commitLock) {
+        sync();
+      }
+    } catch (IOException | IllegalStateException e) {
+      log.warning("Unable to flush buffer changes to disk: " + e);
+    }
+  }
+
+  @Nullable
+  @Override
+  public byte[] peek() throws IOException {
+    byte[] head = delegate.peek();
+    if (head == null && !pending.isEmpty()) {
+      commit();
+      head = delegate.peek();
+    }
+    return head;
+  }
+
+  @Override
+  public void remove() throws IOException {
+    if (delegate.isEmpty()) {
+      commit();
+    }
+    delegate.remove();
+    size.decrementAndGet();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    synchronized (commitLock) {
+      commit();
+      sync();
+    }
+  }
+
+  @Override
+  public boolean supportsConcurrentIteration() {
+    return delegate.supportsConcurrentIteration();
+  }
+
+  @Override
+  public int dropOldestShard(int headTasks) throws IOException {
+    int tasks = delegate.dropOldestShard(headTasks);
+    if (tasks > 0) {
+      size.addAndGet(-tasks);
+    }
+    return tasks;
+  }
+
+  @Override
+  public void clear() throws IOException {
+    synchronized (commitLock) {
+      // only uncount the tasks that are actually cleared, tasks staged concurrently stay
+      int tasks = delegate.size();
+      byte[] task;
+      while ((task = pending.poll()) != null) {
+        pendingBytes.addAndGet(-task.length);
+        tasks++;
+      }
+      delegate.clear();
+      size.addAndGet(-tasks);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size.get();
+  }
+
+  @Override
+  public long storageBytes() {
+    return delegate.storageBytes();
+  }
+
+  @Override
+  public long usedBytes() {
+    return delegate.usedBytes();
+  }
+
+  @Override
+  public long availableBytes() {
+    return delegate.availableBytes();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (syncTask != null) {
+      syncTask.cancel(false);
+    }
+    synchronized (commitLock) {
+      commit();
+      delegate.close();
+    }
+  }
+
+  @Nonnull
+  @Override
+  public Iterator<byte[]> iterator() {
+    try {
+      commit();
+    } catch (IOException e) {
+      log.severe("CRITICAL (Losing data): WF-1: Error writing tasks to the buffer: " +
+          e.getMessage());
+    }
+    Iterator<byte[]> iterator = delegate.iterator();
+    return new Iterator<byte[]>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public byte[] next() {
+        return iterator.next();
+      }
+
+      @Override
+      public void remove() {
+        iterator.remove();
+        size.decrementAndGet();
+      }
+    };
+  }
+}
@@ -10,8 +10,11 @@ import com.yammer.metrics.core.Counter;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
 import static org.apache.commons.lang3.ObjectUtils.firstNonNull;
@@ -29,6 +32,7 @@ public class InstrumentedTaskQueueDelegate<T extends DataSubmissionTask<T>> impl
 
   private final TaskQueue<T> delegate;
   private volatile T head;
+  private final ConcurrentLinkedQueue<T> lookahead = new ConcurrentLinkedQueue<>();
 
   private final String prefix;
   private final Map<String, String> tags;
@@ -79,6 +83,31 @@ public class InstrumentedTaskQueueDelegate<T extends DataSubmissionTask<T>> impl
     }
   }
 
+  @Nonnull
+  @Override
+  public List<T> peek(int count) {
+    try {
+      List<T> tasks = delegate.peek(count);
+      lookahead.clear();
+      this.head = tasks.isEmpty() ? null : tasks.get(0);
+      if (tasks.size() > 1) {
+        lookahead.addAll(tasks.subList(1, tasks.size()));
+      }
+      return tasks;
+    } catch (Exception e) {
+      //noinspection ConstantConditions
+      if (e instanceof IOException) {
+        Metrics.newCounter(new TaggedMetricName(prefix, "failures", tags)).inc();
+        log.severe("I/O error retrieving data from the queue: " + e.getMessage());
+        this.head = null;
+        lookahead.clear();
+        return Collections.emptyList();
+      } else {
+        throw e;
+      }
+    }
+  }
+
   @Override
   public void add(@Nonnull T t) throws IOException {
     delegate.add(t);
@@ -90,6 +119,7 @@ public class InstrumentedTaskQueueDelegate<T extends DataSubmissionTask<T>> impl
   public void clear() {
     try {
       this.head = null;
+      lookahead.clear();
       delegate.clear();
     } catch (IOException e) {
       Metrics.newCounter(new TaggedMetricName(prefix, "failures", tags)).inc();
@@ -103,7 +133,8 @@ public class InstrumentedTaskQueueDelegate<T extends DataSubmissionTask<T>> impl
       T t = this.head == null ? delegate.peek() : head;
       long size = t == null ? 0 : t.weight();
       delegate.remove();
-      head = null;
+      // tasks previously retrieved with peek(count) are next in line
+      head = lookahead.poll();
       tasksRemovedCounter.inc();
       itemsRemovedCounter.inc(size);
     } catch (IOException e) {
@@ -134,6 +165,20 @@ public class InstrumentedTaskQueueDelegate<T extends DataSubmissionTask<T>> impl
     return delegate.getAvailableBytes();
   }
 
+  @Nullable
+  @Override
+  public Long getStorageBytes() {
+    return delegate.getStorageBytes();
+  }
+
+  @Nullable
+  @Override
+  public Long dropOldestTasks() throws IOException {
+    // tasks retrieved with peek(count) might have been dropped
+    lookahead.clear();
+    return delegate.dropOldestTasks();
+  }
+
   @Nonnull
   @Override
   public Iterator<T> iterator() {
@@ -0,0 +1,626 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.wavefront.agent.SharedScheduler;
+import com.wavefront.common.TimeProvider;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A thread-safe {@link QueueFile} implementation backed by an append-only log of fixed-size,
+ * memory-mapped segment files. Unlike {@link TapeQueueFile}, adding and removing a task does not
+ * require a synchronous write and a header rewrite: tasks are appended to the tail segment in
+ * memory, the consumer position is tracked in a separate small position file, and whole
+ * segments are deleted once they have been fully consumed. Writes are made durable with group
+ * commit: all changes made within a commit interval are flushed to disk together.
+ *
+ * Segment file layout: 8 byte header (magic + version), followed by records, each record is
+ * a 4 byte length prefix followed by the task payload. Length prefix is stored as length + 1,
+ * so unwritten (zero-filled) space marks the end of the segment. Tasks larger than the segment
+ * size get a dedicated segment.
+ *
+ * Only changes that have been committed are durable: the OS may write dirty pages of a mapped
+ * file back in any order, so after a power loss or OS crash records added after the last
+ * commit may be missing or torn. A crash of the proxy process itself does not lose any data,
+ * since the page cache is not affected.
+ */
+public class MappedSegmentQueueFile implements QueueFile {
+  private static final Logger log =
+      Logger.getLogger(MappedSegmentQueueFile.class.getCanonicalName());
+
+  private static final int MAGIC = 0x57465347; // 'WFSG'
+  private static final int VERSION = 1;
+  private static final int SEGMENT_HEADER_SIZE_BYTES = 8;
+  private static final int RECORD_HEADER_SIZE_BYTES = 4;
+  private static final int POSITION_FILE_SIZE_BYTES = 12;
+  private static final String SEGMENT_SUFFIX = ".segment_";
+  private static final String POSITION_SUFFIX = ".segment.pos";
+
+  private final String fileNamePrefix;
+  private final int segmentSizeBytes;
+  private final long commitIntervalMillis;
+  @Nullable
+  private final BiConsumer<Integer, Long> writeStatsConsumer;
+  private final TimeProvider clock;
+
+  @VisibleForTesting
+  final Deque<Segment> segments = new ConcurrentLinkedDeque<>();
+  private final ReentrantLock headLock = new ReentrantLock(true);
+  private final ReentrantLock tailLock = new ReentrantLock(true);
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicLong usedBytes = new AtomicLong();
+  private final MappedByteBuffer position;
+  private final RandomAccessFile positionFile;
+  @Nullable
+  private final ScheduledFuture<?> commitTask;
+  private volatile boolean positionDirty = false;
+  private volatile boolean closed = false;
+
+  /**
+   * @param fileNamePrefix       path + file name prefix for segment files.
+   * @param segmentSizeBytes     segment size in bytes.
+   * @param commitIntervalMillis how often changes are flushed to disk. 0 means every change is
+   *                             flushed to disk immediately, a negative value means changes
+   *                             are only flushed on {@link #flush()} and on close.
+   * @param writeStatsConsumer   consumer for statistics on writes (bytes written and millis
+   *                             taken).
+   * @param clock                time provider (in millis).
+   * @throws IOException if file(s) could not be created or accessed.
+   */
+  public MappedSegmentQueueFile(String fileNamePrefix, int segmentSizeBytes,
+                                long commitIntervalMillis,
+                                @Nullable BiConsumer<Integer, Long> writeStatsConsumer,
+                                @Nullable TimeProvider clock) throws IOException {
+    this.fileNamePrefix = fileNamePrefix;
+    this.segmentSizeBytes = segmentSizeBytes;
+    this.commitIntervalMillis = commitIntervalMillis;
+    this.writeStatsConsumer = writeStatsConsumer;
+    this.clock = clock == null ? System::currentTimeMillis : clock;
+    this.positionFile = new RandomAccessFile(fileNamePrefix + POSITION_SUFFIX, "rw");
+    boolean hasPosition = positionFile.length() >= POSITION_FILE_SIZE_BYTES;
+    this.position = positionFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+        POSITION_FILE_SIZE_BYTES);
+    long headSegmentId = hasPosition ? position.getLong(0) : Long.MIN_VALUE;
+    int headOffset = hasPosition ? position.getInt(8) : SEGMENT_HEADER_SIZE_BYTES;
+    for (long segmentId : listSegments(fileNamePrefix)) {
+      File file = new File(getSegmentFileName(segmentId));
+      if (segmentId < headSegmentId) {
+        // fully consumed, but not deleted before shutdown
+        if (!file.delete()) {
+          log.warning("Unable to delete consumed segment " + file);
+        }
+        continue;
+      }
+      Segment segment = Segment.open(segmentId, file);
+      if (segmentId == headSegmentId) {
+        segment.skipTo(headOffset);
+      }
+      if (!segments.isEmpty()) {
+        segments.getLast().sealed = true;
+      }
+      segments.addLast(segment);
+      size.addAndGet(segment.countTasks());
+      usedBytes.addAndGet(segment.usedBytes());
+    }
+    if (segments.isEmpty()) {
+      segments.add(Segment.create(0, new File(getSegmentFileName(0)), segmentSizeBytes));
+    }
+    this.commitTask = commitIntervalMillis > 0 ?
+        SharedScheduler.getIoInstance().scheduleWithFixedDelay("commit-" + fileNamePrefix,
+            this::commit, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS) :
+        null;
+  }
+
+  @Override
+  public void add(byte[] data, int offset, int count) throws IOException {
+    checkForClosedState();
+    long startTime = clock.currentTimeMillis();
+    tailLock.lock();
+    try {
+      Segment segment = segments.getLast();
+      if (!segment.hasRoomFor(count)) {
+        Segment newSegment = Segment.create(segment.id + 1,
+            new File(getSegmentFileName(segment.id + 1)), Math.max(segmentSizeBytes,
+                SEGMENT_HEADER_SIZE_BYTES + RECORD_HEADER_SIZE_BYTES + count));
+        // the consumer relies on the next segment being present when it sees a sealed segment
+        segments.addLast(newSegment);
+        segment.sealed = true;
+        segment = newSegment;
+      }
+      segment.append(data, offset, count);
+      size.incrementAndGet();
+      usedBytes.addAndGet(RECORD_HEADER_SIZE_BYTES + count);
+      if (commitIntervalMillis == 0) {
+        segment.force();
+      }
+    } finally {
+      tailLock.unlock();
+    }
+    if (writeStatsConsumer != null) {
+      writeStatsConsumer.accept(count, clock.currentTimeMillis() - startTime);
+    }
+  }
+
+  @Nullable
+  @Override
+  public byte[] peek() throws IOException {
+    checkForClosedState();
+    headLock.lock();
+    try {
+      Segment segment = getHeadSegment();
+      return segment == null ? null : segment.read(segment.readOffset);
+    } finally {
+      headLock.unlock();
+    }
+  }
+
+  @Override
+  public void remove() throws IOException {
+    checkForClosedState();
+    headLock.lock();
+    try {
+      Segment segment = getHeadSegment();
+      if (segment == null) throw new NoSuchElementException();
+      int recordSize = segment.recordSize(segment.readOffset);
+      segment.readOffset += recordSize;
+      size.decrementAndGet();
+      usedBytes.addAndGet(-recordSize);
+      position.putLong(0, segment.id);
+      position.putInt(8, segment.readOffset);
+      positionDirty = true;
+      if (segment.readOffset == segment.writeOffset && segment.sealed) {
+        dropHeadSegment();
+      }
+      if (commitIntervalMillis == 0) {
+        position.force();
+      }
+    } finally {
+      headLock.unlock();
+    }
+  }
+
+  @Override
+  public int dropOldestShard(int headTasks) throws IOException {
+    headLock.lock();
+    tailLock.lock();
+    try {
+      checkForClosedState();
+      // the first segment is being read from and the last one is being written to
+      if (segments.size() <= 2) return 0;
+      Iterator<Segment> iterator = segments.iterator();
+      int tasksBefore = iterator.next().countTasks();
+      for (int i = 1; i < segments.size() - 1; i++) {
+        Segment segment = iterator.next();
+        int numTasks = segment.countTasks();
+        if (tasksBefore >= headTasks) {
+          size.addAndGet(-numTasks);
+          usedBytes.addAndGet(-segment.usedBytes());
+          iterator.remove();
+          segment.delete();
+          return numTasks;
+        }
+        tasksBefore += numTasks;
+      }
+      return 0;
+    } finally {
+      tailLock.unlock();
+      headLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean supportsConcurrentIteration() {
+    // records are never overwritten, and segments throw once they have been deleted
+    return true;
+  }
+
+  @Override
+  public int size() {
+    return size.get();
+  }
+
+  @Override
+  public long storageBytes() {
+    return segments.stream().mapToLong(x -> x.capacity).sum();
+  }
+
+  @Override
+  public long usedBytes() {
+    return usedBytes.get();
+  }
+
+  @Override
+  public long availableBytes() {
+    Segment segment = segments.getLast();
+    return segment.capacity - segment.writeOffset;
+  }
+
+  @Override
+  public void clear() throws IOException {
+    headLock.lock();
+    tailLock.lock();
+    try {
+      long nextSegmentId = segments.getLast().id + 1;
+      for (Segment segment : segments) {
+        segment.delete();
+      }
+      segments.clear();
+      segments.add(Segment.create(nextSegmentId, new File(getSegmentFileName(nextSegmentId)),
+          segmentSizeBytes));
+      position.putLong(0, nextSegmentId);
+      position.putInt(8, SEGMENT_HEADER_SIZE_BYTES);
+      position.force();
+      size.set(0);
+      usedBytes.set(0);
+    } finally {
+      tailLock.unlock();
+      headLock.unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    headLock.lock();
+    tailLock.lock();
+    try {
+      if (closed) return;
+      closed = true;
+      if (commitTask != null) commitTask.cancel(false);
+      commit();
+      positionFile.close();
+    } finally {
+      tailLock.unlock();
+      headLock.unlock();
+    }
+  }
+
+  @Nonnull
+  @Override
+  public Iterator<byte[]> iterator() {
+    checkForClosedState();
+    return new SegmentIterator();
+  }
+
+  @Override
+  public void flush() {
+    checkForClosedState();
+    commit();
+  }
+
+  /**
+   * Flush all changes made since the last commit to disk.
+   */
+  @VisibleForTesting
+  void commit() {
+    for (Segment segment : segments) {
+      if (segment.dirty) {
+        segment.force();
+      }
+    }
+    if (positionDirty) {
+      positionDirty = false;
+      position.force();
+    }
+  }
+
+  /**
+   * Returns the segment that contains the head of the queue, deleting fully consumed segments.
+   * Must be called while holding the head lock.
+   *
+   * @return head segment or null if the queue is empty.
+   */
+  @Nullable
+  private Segment getHeadSegment() {
+    while (true) {
+      Segment segment = segments.getFirst();
+      if (segment.readOffset < segment.writeOffset) {
+        return segment;
+      }
+      if (!segment.sealed) {
+        return null;
+      }
+      dropHeadSegment();
+    }
+  }
+
+  private void dropHeadSegment() {
+    Segment segment = segments.removeFirst();
+    Segment next = segments.getFirst();
+    position.putLong(0, next.id);
+    position.putInt(8, next.readOffset);
+    positionDirty = true;
+    segment.delete();
+  }
+
+  private void checkForClosedState() {
+    if (closed) {
+      throw new IllegalStateException("closed");
+    }
+  }
+
+  private String getSegmentFileName(long segmentId) {
+    return fileNamePrefix + SEGMENT_SUFFIX + String.format("%08x", segmentId);
+  }
+
+  /**
+   * Lists segment files of all queues with the specified path prefix.
+   *
+   * @param path path + file name prefix.
+   * @return sorted list of absolute segment file paths, or null if there are none.
+   */
+  @Nullable
+  static List<String> listFiles(String path) {
+    File prefix = new File(path).getAbsoluteFile();
+    Pattern pattern = Pattern.compile("^" + Pattern.quote(prefix.getName()) + ".*" +
+        Pattern.quote(SEGMENT_SUFFIX) + "[0-9a-f]{8}$");
+    File[] files = prefix.getParentFile() == null ? null :
+        prefix.getParentFile().listFiles((dir, name) -> pattern.matcher(name).matches());
+    return (files == null || files.length == 0) ? null :
+        Arrays.stream(files).map(File::getAbsolutePath).sorted().collect(Collectors.toList());
+  }
+
+  @VisibleForTesting
+  static List<Long> listSegments(String fileNamePrefix) {
+    File prefix = new File(fileNamePrefix).getAbsoluteFile();
+    Pattern pattern = Pattern.compile("^" + Pattern.quote(prefix.getName() + SEGMENT_SUFFIX) +
+        "([0-9a-f]{8})$");
+    List<Long> segmentIds = new ArrayList<>();
+    File[] files = prefix.getParentFile().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        Matcher matcher = pattern.matcher(file.getName());
+        if (matcher.matches()) {
+          segmentIds.add(Long.parseLong(matcher.group(1), 16));
+        }
+      }
+    }
+    Collections.sort(segmentIds);
+    return segmentIds;
+  }
+
+  private final class SegmentIterator implements Iterator<byte[]> {
+    private final Iterator<Segment> segmentIterator = segments.iterator();
+    private Segment currentSegment = null;
+    private int nextOffset;
+    private int nextElementIndex = 0;
+
+    @Override
+    public boolean hasNext() {
+      checkForClosedState();
+      while (currentSegment == null || nextOffset >= currentSegment.writeOffset) {
+        if (!segmentIterator.hasNext()) return false;
+        // start at the head of the first segment and at the beginning of every segment after
+        // that, so that records removed concurrently are still returned instead of skipped
+        Segment segment = segmentIterator.next();
+        nextOffset = currentSegment == null ? segment.readOffset : SEGMENT_HEADER_SIZE_BYTES;
+        currentSegment = segment;
+      }
+      return true;
+    }
+
+    @Override
+    public byte[] next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      byte[] data = currentSegment.read(nextOffset);
+      nextOffset += RECORD_HEADER_SIZE_BYTES + data.length;
+      nextElementIndex++;
+      return data;
+    }
+
+    @Override
+    public void remove() {
+      if (nextElementIndex != 1) {
+        throw new UnsupportedOperationException("Removal is only permitted from the head.");
+      }
+      try {
+        MappedSegmentQueueFile.this.remove();
+        nextElementIndex--;
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static final class Segment {
+    private final long id;
+    private final File file;
+    private final int capacity;
+    private final MappedByteBuffer buffer;
+    // written only by the producer (under tail lock), read by consumers
+    private volatile int writeOffset;
+    private volatile boolean sealed = false;
+    private volatile boolean dirty = false;
+    // guarded by this segment's monitor: the buffer must not be used once it has been unmapped
+    private boolean deleted = false;
+    // accessed only by the consumer (under head lock)
+    private int readOffset = SEGMENT_HEADER_SIZE_BYTES;
+
+    private Segment(long id, File file, MappedByteBuffer buffer) {
+      this.id = id;
+      this.file = file;
+      this.capacity = buffer.capacity();
+      this.buffer = buffer;
+    }
+
+    static Segment create(long id, File file, int capacity) throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(capacity);
+        Segment segment = new Segment(id, file,
+            raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.writeOffset = SEGMENT_HEADER_SIZE_BYTES;
+        segment.force();
+        return segment;
+      }
+    }
+
+    static Segment open(long id, File file) throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        int capacity = (int) raf.length();
+        Segment segment = new Segment(id, file,
+            raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        if (capacity < SEGMENT_HEADER_SIZE_BYTES || segment.buffer.getInt(0) != MAGIC ||
+            segment.buffer.getInt(4) != VERSION) {
+          throw new IOException("Not a valid segment file: " + file);
+        }
+        // scan records to find the end of data
+        int offset = SEGMENT_HEADER_SIZE_BYTES;
+        while (offset + RECORD_HEADER_SIZE_BYTES <= capacity) {
+          int length = segment.buffer.getInt(offset) - 1;
+          if (length < 0 || offset + RECORD_HEADER_SIZE_BYTES + length > capacity) break;
+          offset += RECORD_HEADER_SIZE_BYTES + length;
+        }
+        segment.writeOffset = offset;
+        return segment;
+      }
+    }
+
+    boolean hasRoomFor(int count) {
+      return writeOffset + RECORD_HEADER_SIZE_BYTES + count <= capacity;
+    }
+
+    void append(byte[] data, int offset, int count) {
+      ByteBuffer target = buffer.duplicate();
+      target.position(writeOffset + RECORD_HEADER_SIZE_BYTES);
+      target.put(data, offset, count);
+      // length prefix goes last, so a record is never visible to concurrent readers before its
+      // payload has been written. this does not order writes to disk, see class javadoc.
+      buffer.putInt(writeOffset, count + 1);
+      dirty = true;
+      writeOffset += RECORD_HEADER_SIZE_BYTES + count;
+    }
+
+    synchronized byte[] read(int offset) {
+      if (deleted) {
+        throw new ConcurrentModificationException("Segment " + id + " has been deleted");
+      }
+      byte[] data = new byte[buffer.getInt(offset) - 1];
+      ByteBuffer source = buffer.duplicate();
+      source.position(offset + RECORD_HEADER_SIZE_BYTES);
+      source.get(data);
+      return data;
+    }
+
+    int recordSize(int offset) {
+      return RECORD_HEADER_SIZE_BYTES + buffer.getInt(offset) - 1;
+    }
+
+    void skipTo(int offset) {
+      int current = SEGMENT_HEADER_SIZE_BYTES;
+      while (current < offset && current < writeOffset) {
+        current += recordSize(current);
+      }
+      readOffset = current;
+    }
+
+    int countTasks() {
+      int count = 0;
+      for (int offset = readOffset; offset < writeOffset; offset += recordSize(offset)) {
+        count++;
+      }
+      return count;
+    }
+
+    long usedBytes() {
+      return writeOffset - readOffset;
+    }
+
+    synchronized void force() {
+      if (deleted) return;
+      dirty = false;
+      buffer.force();
+    }
+
+    synchronized void delete() {
+      if (deleted) return;
+      deleted = true;
+      // release the mapping right away instead of waiting for the buffer to be garbage
+      // collected, so that the disk space is reclaimed as soon as the file is deleted
+      unmap(buffer);
+      if (!file.delete()) {
+        log.warning("Unable to delete segment " + file);
+      }
+    }
+  }
+
+  @Nullable
+  private static final Consumer<MappedByteBuffer> UNMAPPER = getUnmapper();
+
+  private static void unmap(MappedByteBuffer buffer) {
+    if (UNMAPPER == null) return;
+    try {
+      UNMAPPER.accept(buffer);
+    } catch (Throwable t) {
+      log.log(Level.FINE, "Unable to unmap buffer", t);
+    }
+  }
+
+  /**
+   * Returns a function that releases the mapping of a {@link MappedByteBuffer}, using
+   * {@code sun.misc.Unsafe.invokeCleaner} on Java 9+ and the buffer's cleaner on Java 8.
+   *
+   * @return unmapper, or null if neither is accessible (the mapping is then released when the
+   *         buffer is garbage collected).
+   */
+  @Nullable
+  private static Consumer<MappedByteBuffer> getUnmapper() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      try {
+        Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        Object unsafe = theUnsafe.get(null);
+        return buffer -> invoke(invokeCleaner, unsafe, buffer);
+      } catch (NoSuchMethodException e) {
+        // Java 8
+        Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+        Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+        return buffer -> invoke(clean, invoke(cleaner, buffer));
+      }
+    } catch (Exception e) {
+      log.info("Memory-mapped buffers can't be unmapped explicitly: " + e);
+      return null;
+    }
+  }
+
+  private static Object invoke(Method method, Object target, Object... args) {
+    try {
+      return method.invoke(target, args);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -2,6 +2,7 @@ package com.wavefront.agent.queueing;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.RateLimiter;
+import com.wavefront.agent.SharedScheduler;
 import com.wavefront.common.Managed;
 import com.wavefront.agent.data.DataSubmissionTask;
 import com.wavefront.agent.handlers.HandlerKey;
@@ -13,8 +14,8 @@ import com.yammer.metrics.core.Gauge;
 import javax.annotation.Nullable;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -31,7 +32,7 @@ import java.util.stream.Collectors;
  *
  * @author vasily@wavefront.com
  */
-public class QueueController<T extends DataSubmissionTask<T>> extends TimerTask implements Managed {
+public class QueueController<T extends DataSubmissionTask<T>> implements Runnable, Managed {
   private static final Logger logger =
       Logger.getLogger(QueueController.class.getCanonicalName());
 
@@ -46,7 +47,8 @@ public class QueueController<T extends DataSubmissionTask<T>> extends TimerTask
   @Nullable
   private final Consumer<Integer> backlogSizeSink;
   protected final Supplier<Long> timeProvider;
-  protected final Timer timer;
+  @Nullable
+  private ScheduledFuture<?> scheduledFuture = null;
   @SuppressWarnings("UnstableApiUsage")
   protected final RateLimiter reportRateLimiter = RateLimiter.create(0.1);
 
@@ -79,7 +81,6 @@ public class QueueController<T extends DataSubmissionTask<T>> extends TimerTask
     this.processorTasks = processorTasks;
     this.backlogSizeSink = backlogSizeSink;
     this.timeProvider = timeProvider == null ? System::currentTimeMillis : timeProvider;
-    this.timer = new Timer("timer-queuedservice-" + handlerKey.toString());
 
     Metrics.newGauge(new TaggedMetricName("buffer", "task-count", "port", handlerKey.getHandle(),
             "content", handlerKey.getEntityType().toString()),
@@ -184,7 +185,8 @@ public class QueueController<T extends DataSubmissionTask<T>> extends TimerTask
   @Override
   public void start() {
     if (isRunning.compareAndSet(false, true)) {
-      timer.scheduleAtFixedRate(this, 1000, 1000);
+      scheduledFuture = SharedScheduler.getInstance().scheduleAtFixedRate(
+          "queue-controller-" + handlerKey, this, 1, 1, TimeUnit.SECONDS);
       processorTasks.forEach(QueueProcessor::start);
     }
   }
@@ -192,7 +194,7 @@ public class QueueController<T extends DataSubmissionTask<T>> extends TimerTask
   @Override
   public void stop() {
     if (isRunning.compareAndSet(true, false)) {
-      timer.cancel();
+      if (scheduledFuture != null) scheduledFuture.cancel(false);
       processorTasks.forEach(QueueProcessor::stop);
     }
   }
@@ -69,8 +69,14 @@ public class QueueExporter {
    * Starts data exporting process.
    */
   public void export() {
-    Set<HandlerKey> handlerKeys = getValidHandlerKeys(listFiles(bufferFile, ".spool"),
-        exportQueuePorts);
+    Set<HandlerKey> handlerKeys = new HashSet<>();
+    // buffer files may be striped across multiple locations
+    for (String location : Splitter.on(",").omitEmptyStrings().trimResults().split(bufferFile)) {
+      handlerKeys.addAll(getValidHandlerKeys(listFiles(location, ".spool"), exportQueuePorts));
+      // memory-mapped queues
+      handlerKeys.addAll(getValidHandlerKeys(MappedSegmentQueueFile.listFiles(location),
+          exportQueuePorts));
+    }
     handlerKeys.forEach(this::processHandlerKey);
   }
 
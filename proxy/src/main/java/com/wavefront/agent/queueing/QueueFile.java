@@ -60,6 +60,42 @@ public interface QueueFile extends Closeable, Iterable<byte[]> {
    */
   void remove() throws IOException;
 
+  /**
+   * Flushes all changes made so far to durable storage. Implementations that write through
+   * synchronously don't need to do anything.
+   *
+   * @throws IOException if unable to flush changes.
+   */
+  default void flush() throws IOException {
+  }
+
+  /**
+   * Deletes the oldest shard of tasks that is neither being read from nor written to, to
+   * reclaim disk space without having to read the tasks. Shards that hold any of the first
+   * {@code headTasks} tasks are never dropped, so that tasks the consumer has already peeked
+   * are not lost. Implementations that don't store tasks in separate shards don't drop
+   * anything.
+   *
+   * @param headTasks number of tasks at the head of the queue that have to be kept.
+   * @return number of tasks dropped, 0 if there is no shard that can be dropped.
+   * @throws IOException if unable to delete the shard.
+   */
+  default int dropOldestShard(int headTasks) throws IOException {
+    return 0;
+  }
+
+  /**
+   * Whether iterators over this queue can be used while tasks are being added and removed by
+   * other threads. Such iterators keep returning tasks in queue order, or throw
+   * {@link java.util.ConcurrentModificationException} once the tasks they are about to return
+   * have been dropped.
+   *
+   * @return true if iterators can be used concurrently with changes.
+   */
+  default boolean supportsConcurrentIteration() {
+    return false;
+  }
+
   /**
    * Returns the number of elements in this queue.
    */
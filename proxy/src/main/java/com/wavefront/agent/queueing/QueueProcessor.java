@@ -4,13 +4,23 @@ import com.google.common.base.Suppliers;
 import com.google.common.util.concurrent.RecyclableRateLimiter;
 import com.wavefront.agent.data.EntityProperties;
 import com.wavefront.agent.data.GlobalProperties;
+import com.wavefront.agent.data.LineDelimitedDataSubmissionTask;
 import com.wavefront.common.Managed;
 import com.wavefront.agent.data.DataSubmissionTask;
 import com.wavefront.agent.data.TaskInjector;
 import com.wavefront.agent.data.TaskResult;
 import com.wavefront.agent.handlers.HandlerKey;
+import com.wavefront.common.TaggedMetricName;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -27,6 +37,8 @@ import java.util.logging.Logger;
  */
 public class QueueProcessor<T extends DataSubmissionTask<T>> implements Runnable, Managed {
   protected static final Logger logger = Logger.getLogger(QueueProcessor.class.getCanonicalName());
+  // max number of queued tasks to look ahead at when merging small tasks
+  private static final int MAX_COMPACTION_WINDOW = 100;
 
   protected final HandlerKey handlerKey;
   protected final TaskQueue<T> taskQueue;
@@ -35,11 +47,15 @@ public class QueueProcessor<T extends DataSubmissionTask<T>> implements Runnable
   protected final TaskInjector<T> taskInjector;
   protected final EntityProperties runtimeProperties;
   protected final RecyclableRateLimiter rateLimiter;
+  @Nullable
+  protected final ExecutorService replayExecutor;
   private volatile long headTaskTimestamp = Long.MAX_VALUE;
   private volatile double schedulerTimingFactor = 1.0d;
   private final AtomicBoolean isRunning = new AtomicBoolean(false);
   private int backoffExponent = 1;
-  private Supplier<T> storedTask;
+  private Supplier<Batch<T>> storedTask;
+  private final Counter tasksMerged;
+  private final Counter mergedTasks;
 
   /**
    * @param handlerKey         pipeline handler key
@@ -54,6 +70,26 @@ public class QueueProcessor<T extends DataSubmissionTask<T>> implements Runnable
                         final ScheduledExecutorService scheduler,
                         final EntityProperties entityProps,
                         final GlobalProperties globalProps) {
+    this(handlerKey, taskQueue, taskInjector, scheduler, entityProps, globalProps, null);
+  }
+
+  /**
+   * @param handlerKey         pipeline handler key
+   * @param taskQueue          backing queue
+   * @param taskInjector       injects members into task objects after deserialization
+   * @param entityProps        container for mutable proxy settings.
+   * @param globalProps        container for mutable global proxy settings.
+   * @param replayExecutor     executor for replaying up to
+   *                           {@link EntityProperties#getMaxInFlightReplayTasks()} tasks
+   *                           concurrently. null to replay tasks one at a time.
+   */
+  public QueueProcessor(final HandlerKey handlerKey,
+                        @Nonnull final TaskQueue<T> taskQueue,
+                        final TaskInjector<T> taskInjector,
+                        final ScheduledExecutorService scheduler,
+                        final EntityProperties entityProps,
+                        final GlobalProperties globalProps,
+                        @Nullable final ExecutorService replayExecutor) {
     this.handlerKey = handlerKey;
     this.taskQueue = taskQueue;
     this.taskInjector = taskInjector;
@@ -61,6 +97,12 @@ public class QueueProcessor<T extends DataSubmissionTask<T>> implements Runnable
     this.rateLimiter = entityProps.getRateLimiter();
     this.scheduler = scheduler;
     this.globalProps = globalProps;
+    this.replayExecutor = replayExecutor;
+    String entityName = handlerKey.getEntityType().toString();
+    this.tasksMerged = Metrics.newCounter(new TaggedMetricName("buffer",
+        entityName + "-tasks-merged", "port", handlerKey.getHandle()));
+    this.mergedTasks = Metrics.newCounter(new TaggedMetricName("buffer",
+        entityName + "-merged-tasks-sent", "port", handlerKey.getHandle()));
   }
 
   @Override
@@ -72,10 +114,93 @@ public class QueueProcessor<T extends DataSubmissionTask<T>> implements Runnable
     try {
       while (taskQueue.size() > 0 && taskQueue.size() > failures) {
         if (!isRunning.get() || Thread.currentThread().isInterrupted()) return;
+        int maxInFlight = replayExecutor == null ? 1 :
+            runtimeProperties.getMaxInFlightReplayTasks();
+        if (maxInFlight > 1) {
+          // replay a window of tasks concurrently
+          List<Batch<T>> window = compact(runtimeProperties.isBacklogCompactionEnabled() ?
+              peekForCompaction(maxInFlight) : taskQueue.peek(maxInFlight), maxInFlight);
+          this.headTaskTimestamp = window.isEmpty() ? Long.MAX_VALUE :
+              window.get(0).task.getEnqueuedMillis();
+          List<CompletableFuture<TaskResult>> results = new ArrayList<>(window.size());
+          for (Batch<T> batch : window) {
+            T task = batch.task;
+            int permitsNeeded = Math.min((int) rateLimiter.getRate(), task.weight());
+            if (!rateLimiter.immediatelyAvailable(permitsNeeded)) break;
+            if (task.weight() > 0) {
+              rateLimiter.acquire(task.weight());
+            }
+            taskInjector.inject(task);
+            results.add(CompletableFuture.supplyAsync(task::execute, replayExecutor));
+          }
+          if (results.isEmpty()) {
+            // if there's less than 1 second worth of accumulated credits,
+            // don't process the backlog queue
+            rateLimiting = true;
+            break;
+          }
+          boolean persisted = false;
+          // tasks may complete out of order. tasks that have to be retried are moved to the tail
+          // of the queue, so that the whole window can be removed from the head: tasks after
+          // them may have already written themselves (or their split pieces) back to the tail,
+          // and must not stay at the head as well.
+          boolean retrying = false;
+          boolean headBlocked = false;
+          for (int i = 0; i < results.size(); i++) {
+            Batch<T> batch = window.get(i);
+            T task = batch.task;
+            TaskResult result;
+            try {
+              result = results.get(i).join();
+            } catch (Exception e) {
+              logger.log(Level.WARNING, "Unexpected exception", e);
+              result = TaskResult.RETRY_LATER;
+            }
+            switch (result) {
+              case DELIVERED:
+                successes++;
+                break;
+              case PERSISTED:
+                rateLimiter.recyclePermits(task.weight());
+                failures++;
+                persisted = true;
+                break;
+              case PERSISTED_RETRY:
+                rateLimiter.recyclePermits(task.weight());
+                failures++;
+                break;
+              case RETRY_LATER:
+                rateLimiter.recyclePermits(task.weight());
+                failures++;
+                retrying = true;
+                if (!headBlocked) {
+                  try {
+                    taskQueue.add(task);
+                  } catch (IOException e) {
+                    // the task stays at the head, so the rest of the window has to stay as well
+                    logger.warning("[" + handlerKey.getHandle() + "] Unable to move task to " +
+                        "the tail of the queue: " + e);
+                    headBlocked = true;
+                  }
+                }
+            }
+            if (!headBlocked) {
+              removeBatch(batch);
+            }
+          }
+          if (taskQueue.size() == 0) schedulerTimingFactor = 1.0d;
+          storedTask = null;
+          if (persisted || retrying || failures >= 10) {
+            break;
+          }
+          continue;
+        }
         if (storedTask == null) {
-          storedTask = Suppliers.memoizeWithExpiration(taskQueue::peek, 500, TimeUnit.MILLISECONDS);
+          storedTask = Suppliers.memoizeWithExpiration(this::nextBatch, 500,
+              TimeUnit.MILLISECONDS);
         }
-        T task = storedTask.get();
+        Batch<T> batch = storedTask.get();
+        T task = batch == null ? null : batch.task;
         int taskSize = task == null ? 0 : task.weight();
         this.headTaskTimestamp = task == null ? Long.MAX_VALUE : task.getEnqueuedMillis();
         int permitsNeeded = Math.min((int) rateLimiter.getRate(), taskSize);
@@ -116,7 +241,11 @@ public class QueueProcessor<T extends DataSubmissionTask<T>> implements Runnable
           }
         } finally {
           if (removeTask) {
-            taskQueue.remove();
+            if (batch == null) {
+              taskQueue.remove();
+            } else {
+              removeBatch(batch);
+            }
             if (taskQueue.size() == 0) schedulerTimingFactor = 1.0d;
             storedTask = null;
           }
@@ -151,6 +280,102 @@ public class QueueProcessor<T extends DataSubmissionTask<T>> implements Runnable
     }
   }
 
+  /**
+   * Peeks the task to send next. When backlog compaction is enabled, adjacent small tasks at the
+   * head of the queue are merged into a single full-size task.
+   *
+   * @return next task to send or null if the queue is empty
+   */
+  @Nullable
+  private Batch<T> nextBatch() {
+    T head = taskQueue.peek();
+    if (head == null) return null;
+    if (!runtimeProperties.isBacklogCompactionEnabled() ||
+        !(head instanceof LineDelimitedDataSubmissionTask) ||
+        head.weight() >= runtimeProperties.getItemsPerBatch()) {
+      return new Batch<>(head, 1);
+    }
+    List<Batch<T>> batches = compact(peekForCompaction(1), 1);
+    return batches.isEmpty() ? null : batches.get(0);
+  }
+
+  /**
+   * Peeks just enough tasks from the head of the queue to fill {@code maxBatches} full-size
+   * tasks, starting with an estimate based on the size of the head task and doubling it until
+   * either enough items are peeked, the queue runs out of tasks or the compaction window is
+   * full.
+   *
+   * @param maxBatches max number of tasks to fill.
+   * @return tasks from the head of the queue, in queue order.
+   */
+  private List<T> peekForCompaction(int maxBatches) {
+    int maxCount = Math.max(maxBatches, MAX_COMPACTION_WINDOW);
+    long maxItems = (long) runtimeProperties.getItemsPerBatch() * maxBatches;
+    T head = taskQueue.peek();
+    if (head == null) return new ArrayList<>();
+    int count = (int) Math.min(maxCount,
+        Math.max(maxBatches, maxItems / Math.max(1, head.weight()) + 1));
+    while (true) {
+      List<T> tasks = taskQueue.peek(count);
+      if (tasks.size() < count || count >= maxCount) return tasks;
+      long items = 0;
+      for (T task : tasks) {
+        items += task.weight();
+      }
+      if (items >= maxItems) return tasks;
+      count = Math.min(maxCount, count * 2);
+    }
+  }
+
+  /**
+   * Groups tasks from the head of the queue into up to {@code maxBatches} tasks to send. When
+   * backlog compaction is enabled, runs of adjacent compatible tasks are merged into a single
+   * task with up to {@link EntityProperties#getItemsPerBatch()} items.
+   *
+   * @param tasks      tasks from the head of the queue, in queue order.
+   * @param maxBatches max number of tasks to return.
+   * @return tasks to send
+   */
+  @SuppressWarnings("unchecked")
+  private List<Batch<T>> compact(List<T> tasks, int maxBatches) {
+    boolean compactionEnabled = runtimeProperties.isBacklogCompactionEnabled();
+    int maxItems = runtimeProperties.getItemsPerBatch();
+    List<Batch<T>> batches = new ArrayList<>(Math.min(tasks.size(), maxBatches));
+    int start = 0;
+    while (start < tasks.size() && batches.size() < maxBatches) {
+      T head = tasks.get(start);
+      int end = start + 1;
+      if (compactionEnabled && head instanceof LineDelimitedDataSubmissionTask) {
+        int items = head.weight();
+        while (end < tasks.size() && tasks.get(end) instanceof LineDelimitedDataSubmissionTask &&
+            ((LineDelimitedDataSubmissionTask) head).isMergeableWith(
+                (LineDelimitedDataSubmissionTask) tasks.get(end)) &&
+            items + tasks.get(end).weight() <= maxItems) {
+          items += tasks.get(end).weight();
+          end++;
+        }
+      }
+      if (end - start > 1) {
+        batches.add(new Batch<>((T) LineDelimitedDataSubmissionTask.merge(
+            (List<LineDelimitedDataSubmissionTask>) tasks.subList(start, end)), end - start));
+      } else {
+        batches.add(new Batch<>(head, 1));
+      }
+      start = end;
+    }
+    return batches;
+  }
+
+  private void removeBatch(Batch<T> batch) throws IOException {
+    for (int i = 0; i < batch.tasks; i++) {
+      taskQueue.remove();
+    }
+    if (batch.tasks > 1) {
+      tasksMerged.inc(batch.tasks);
+      mergedTasks.inc();
+    }
+  }
+
   @Override
   public void start() {
     if (isRunning.compareAndSet(false, true)) {
@@ -188,4 +413,17 @@ public class QueueProcessor<T extends DataSubmissionTask<T>> implements Runnable
   void setTimingFactor(double timingFactor) {
     this.schedulerTimingFactor = timingFactor;
   }
+
+  /**
+   * A task to send, along with the number of queued tasks it was merged from.
+   */
+  private static final class Batch<T> {
+    final T task;
+    final int tasks;
+
+    Batch(T task, int tasks) {
+      this.task = task;
+      this.tasks = tasks;
+    }
+  }
 }
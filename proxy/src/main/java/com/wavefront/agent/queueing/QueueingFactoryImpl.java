@@ -18,6 +18,7 @@ import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.Collectors;
@@ -31,6 +32,7 @@ import java.util.stream.IntStream;
 public class QueueingFactoryImpl implements QueueingFactory {
 
   private final Map<HandlerKey, ScheduledExecutorService> executors = new ConcurrentHashMap<>();
+  private final Map<HandlerKey, ExecutorService> replayExecutors = new ConcurrentHashMap<>();
   private final Map<HandlerKey, Map<Integer, QueueProcessor<?>>> queueProcessors =
       new ConcurrentHashMap<>();
   private final Map<HandlerKey, QueueController<?>> queueControllers = new ConcurrentHashMap<>();
@@ -67,12 +69,17 @@ public class QueueingFactoryImpl implements QueueingFactory {
   <T extends DataSubmissionTask<T>> QueueProcessor<T> getQueueProcessor(
       @Nonnull HandlerKey handlerKey, ScheduledExecutorService executorService, int threadNum) {
     TaskQueue<T> taskQueue = taskQueueFactory.getTaskQueue(handlerKey, threadNum);
+    ExecutorService replayExecutor =
+        entityPropsFactory.get(handlerKey.getEntityType()).getMaxInFlightReplayTasks() <= 1 ? null :
+            replayExecutors.computeIfAbsent(handlerKey, x -> Executors.newCachedThreadPool(
+                new NamedThreadFactory("queueProcessor-async-" + handlerKey.getEntityType() +
+                    "-" + handlerKey.getHandle())));
     //noinspection unchecked
     return (QueueProcessor<T>) queueProcessors.computeIfAbsent(handlerKey, x -> new TreeMap<>()).
         computeIfAbsent(threadNum, x -> new QueueProcessor<>(handlerKey, taskQueue,
             getTaskInjector(handlerKey, taskQueue), executorService,
             entityPropsFactory.get(handlerKey.getEntityType()),
-            entityPropsFactory.getGlobalProperties()));
+            entityPropsFactory.getGlobalProperties(), replayExecutor));
   }
 
   @SuppressWarnings("unchecked")
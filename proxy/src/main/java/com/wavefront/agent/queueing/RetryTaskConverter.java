@@ -3,6 +3,7 @@ package com.wavefront.agent.queueing;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.wavefront.agent.data.BinaryTaskCodec;
 import com.wavefront.agent.data.DataSubmissionTask;
 import com.wavefront.common.TaggedMetricName;
 import com.yammer.metrics.Metrics;
@@ -26,6 +27,10 @@ import java.util.zip.GZIPOutputStream;
 
 /**
  * A serializer + deserializer of {@link DataSubmissionTask} objects for storage.
+ * Tasks are stored as JSON by default. Optionally, tasks can be stored in {@link BinaryTaskCodec}
+ * format when supported (falling back to JSON otherwise), and line-delimited tasks can be stored
+ * as ready-to-send gzip-compressed request bodies, which always use the binary format.
+ * Both formats are always readable, regardless of the settings.
  *
  * @param <T> task type
  * @author vasily@wavefront.com
@@ -39,12 +44,16 @@ public class RetryTaskConverter<T extends DataSubmissionTask<T>> implements Task
   static final byte FORMAT_GZIP = 2; // 'W' 'F' 0x01 0x02 <payload>
   static final byte FORMAT_LZ4 = 3; // 'W' 'F' 0x01 0x03 <payload>
   static final byte WRAPPED = 4; // 'W' 'F' 0x06 0x04 0x01 <weight> <payload>
+  static final byte WRAPPED_BINARY = 5; // 'W' 'F' 0x06 0x05 0x01 <weight> <binary payload>
   static final byte[] PREFIX = { 'W', 'F', 6, 4 };
+  static final byte[] PREFIX_BINARY = { 'W', 'F', 6, 5 };
 
   private final ObjectMapper objectMapper = JsonMapper.builder().
       activateDefaultTyping(LaissezFaireSubTypeValidator.instance).build();
 
   private final CompressionType compressionType;
+  private final boolean binaryEncoding;
+  private final boolean precompressPayloads;
   private final Counter errorCounter;
 
   /**
@@ -52,7 +61,23 @@ public class RetryTaskConverter<T extends DataSubmissionTask<T>> implements Task
    * @param compressionType compression type to use for storing tasks.
    */
   public RetryTaskConverter(String handle, CompressionType compressionType) {
+    this(handle, compressionType, false, false);
+  }
+
+  /**
+   * @param handle              Handle (usually port number) of the pipeline where the data came
+   *                            from.
+   * @param compressionType     compression type to use for storing tasks.
+   * @param binaryEncoding      store tasks in {@link BinaryTaskCodec} format instead of JSON
+   *                            when supported by the task type.
+   * @param precompressPayloads store payloads as ready-to-send gzip-compressed request bodies
+   *                            when supported by the task type.
+   */
+  public RetryTaskConverter(String handle, CompressionType compressionType,
+                            boolean binaryEncoding, boolean precompressPayloads) {
     this.compressionType = compressionType;
+    this.binaryEncoding = binaryEncoding;
+    this.precompressPayloads = precompressPayloads;
     this.errorCounter = Metrics.newCounter(new TaggedMetricName("buffer", "read-errors",
         "port", handle));
   }
@@ -70,7 +95,8 @@ public class RetryTaskConverter<T extends DataSubmissionTask<T>> implements Task
         byte[] header = new byte[bytesToRead];
         if (input.read(header, 0, bytesToRead) == bytesToRead) {
           InputStream stream = null;
-          byte compression = header[0] == WRAPPED && bytesToRead > 1 ? header[1] : header[0];
+          boolean wrapped = header[0] == WRAPPED || header[0] == WRAPPED_BINARY;
+          byte compression = wrapped && bytesToRead > 1 ? header[1] : header[0];
           try {
             switch (compression) {
               case FORMAT_LZ4:
@@ -87,6 +113,9 @@ public class RetryTaskConverter<T extends DataSubmissionTask<T>> implements Task
                     "header detected: " + Arrays.toString(header));
                 return null;
             }
+            if (header[0] == WRAPPED_BINARY) {
+              return (T) BinaryTaskCodec.decode(stream);
+            }
             return (T) objectMapper.readValue(stream, DataSubmissionTask.class);
           } catch (Throwable t) {
             logger.warning("Unable to restore persisted task: " + t);
@@ -108,36 +137,50 @@ public class RetryTaskConverter<T extends DataSubmissionTask<T>> implements Task
 
   @Override
   public void serializeToStream(@Nonnull T t, @Nonnull OutputStream bytes) throws IOException {
+    boolean precompressed = precompressPayloads && BinaryTaskCodec.isPrecompressible(t);
+    boolean binary = precompressed || (binaryEncoding && BinaryTaskCodec.isSupported(t));
     bytes.write(TASK_HEADER);
     // 6 bytes: 1 for WRAPPED, 1 for compression method, 4 for task weight (integer)
     bytes.write(6);
-    bytes.write(WRAPPED);
-    switch (compressionType) {
+    bytes.write(binary ? WRAPPED_BINARY : WRAPPED);
+    // payload is already compressed, no need to compress the task again
+    switch (precompressed ? CompressionType.NONE : compressionType) {
       case LZ4:
         bytes.write(FORMAT_LZ4);
         bytes.write(ByteBuffer.allocate(4).putInt(t.weight()).array());
         LZ4BlockOutputStream lz4BlockOutputStream = new LZ4BlockOutputStream(bytes);
-        objectMapper.writeValue(lz4BlockOutputStream, t);
+        writeTask(t, lz4BlockOutputStream, binary, false);
         lz4BlockOutputStream.close();
         return;
       case GZIP:
         bytes.write(FORMAT_GZIP);
         bytes.write(ByteBuffer.allocate(4).putInt(t.weight()).array());
         GZIPOutputStream gzipOutputStream = new GZIPOutputStream(bytes);
-        objectMapper.writeValue(gzipOutputStream, t);
+        writeTask(t, gzipOutputStream, binary, false);
         gzipOutputStream.close();
         return;
       case NONE:
         bytes.write(FORMAT_RAW);
         bytes.write(ByteBuffer.allocate(4).putInt(t.weight()).array());
-        objectMapper.writeValue(bytes, t);
+        writeTask(t, bytes, binary, precompressed);
+    }
+  }
+
+  private void writeTask(T t, OutputStream out, boolean binary, boolean precompressed)
+      throws IOException {
+    if (binary) {
+      BinaryTaskCodec.encode(t, out, precompressed);
+    } else {
+      objectMapper.writeValue(out, t);
     }
   }
 
   @Nullable
   @Override
   public Integer getWeight(@Nonnull byte[] bytes) {
-    if (bytes.length > 8 && Arrays.equals(Arrays.copyOf(bytes, PREFIX.length), PREFIX)) {
+    byte[] prefix = Arrays.copyOf(bytes, PREFIX.length);
+    if (bytes.length > 8 && (Arrays.equals(prefix, PREFIX) ||
+        Arrays.equals(prefix, PREFIX_BINARY))) {
       // take a shortcut - reconstruct an integer from bytes 5 thru 7
       return bytes[5] << 24 | (bytes[6] & 0xFF) << 16 | (bytes[7] & 0xFF) << 8 | (bytes[8] & 0xFF);
     } else {
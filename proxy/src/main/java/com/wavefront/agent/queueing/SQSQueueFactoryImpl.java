@@ -17,6 +17,7 @@ import com.wavefront.data.ReportableEntityType;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
@@ -88,6 +89,19 @@ public class SQSQueueFactoryImpl implements TaskQueueFactory {
     return new TaskQueueStub<>();
   }
 
+  /**
+   * Sends all tasks staged for delivery and closes all queues.
+   */
+  public void shutdown() {
+    taskQueues.values().stream().flatMap(x -> x.values().stream()).forEach(taskQueue -> {
+      try {
+        taskQueue.close();
+      } catch (IOException e) {
+        logger.severe("CRITICAL (Losing data): WF-1: Error flushing buffer queue: " + e);
+      }
+    });
+  }
+
   @VisibleForTesting
   public String getQueueName(HandlerKey handlerKey) {
     String queueName = queueNameTemplate.
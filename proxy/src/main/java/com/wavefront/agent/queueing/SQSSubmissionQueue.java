@@ -2,7 +2,12 @@ package com.wavefront.agent.queueing;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
 import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
 import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
 import com.amazonaws.services.sqs.model.Message;
@@ -10,20 +15,30 @@ import com.amazonaws.services.sqs.model.PurgeQueueRequest;
 import com.amazonaws.services.sqs.model.QueueAttributeName;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
-import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
 import com.google.common.annotations.VisibleForTesting;
 import com.wavefront.agent.data.DataSubmissionTask;
+import com.wavefront.common.NamedThreadFactory;
 import com.wavefront.common.Utils;
 
-import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,7 +46,19 @@ import static javax.xml.bind.DatatypeConverter.parseBase64Binary;
 import static javax.xml.bind.DatatypeConverter.printBase64Binary;
 
 /**
- * Implements proxy-specific queue interface as a wrapper over {@link AmazonSQS}
+ * Implements proxy-specific queue interface as a wrapper over {@link AmazonSQS}.
+ *
+ * To minimize the number of SQS round trips per task, all queue operations are batched:
+ * added tasks are staged locally and sent with SendMessageBatch (up to 10 messages, flushed
+ * when the batch is full, after {@code sendLingerMillis} or when the queue is closed, and kept
+ * staged until they are sent successfully), up to 10 messages are received at a time into a
+ * local prefetch buffer, and removed messages are deleted with DeleteMessageBatch. Visibility
+ * timeout of prefetched messages is extended while they're waiting to be processed, so they
+ * don't get re-delivered to another consumer.
+ *
+ * Staged tasks that linger are sent on a dedicated thread pool, as sending blocks on a network
+ * round trip. Tasks are sent without holding the lock on staged tasks, so that adding tasks
+ * isn't blocked by sends in progress.
  *
  * @param <T> type of objects stored.
  *
@@ -40,12 +67,38 @@ import static javax.xml.bind.DatatypeConverter.printBase64Binary;
 public class SQSSubmissionQueue<T extends DataSubmissionTask<T>> implements TaskQueue<T> {
   private static final Logger log = Logger.getLogger(SQSSubmissionQueue.class.getCanonicalName());
 
+  // SQS limits for batch operations
+  static final int MAX_BATCH_SIZE = 10;
+  static final int MAX_BATCH_PAYLOAD_BYTES = 256 * 1024;
+
+  static final int DEFAULT_VISIBILITY_TIMEOUT_SECONDS = 60;
+  static final long DEFAULT_SEND_LINGER_MILLIS = 100;
+
+  private static final ScheduledExecutorService sender = Executors.newScheduledThreadPool(
+      Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+      new NamedThreadFactory("sqs-sender"));
+
   private final String queueUrl;
   private final TaskConverter<T> converter;
 
   private final AmazonSQS sqsClient;
+  private final int visibilityTimeoutSeconds;
+  private final Supplier<Long> timeProvider;
+  @Nullable
+  private final ScheduledFuture<?> sendTask;
+
+  // staged messages not sent yet. guarded by itself
+  private final List<String> pendingSends = new ArrayList<>();
+  private int pendingSendBytes = 0;
+  // held while sending staged messages, so that only one batch is in flight at a time
+  private final Object sendLock = new Object();
+  // received messages not handed out yet
+  private final Deque<Message> prefetched = new ArrayDeque<>();
+  // receipt handles of removed messages not deleted yet
+  private final List<String> pendingDeletes = new ArrayList<>();
+  private long receivedMillis = 0;
 
-  private volatile String messageHandle = null;
+  private volatile Message headMessage = null;
   private volatile T head = null;
 
   /**
@@ -56,26 +109,65 @@ public class SQSSubmissionQueue<T extends DataSubmissionTask<T>> implements Task
   public SQSSubmissionQueue(String queueUrl,
                             AmazonSQS sqsClient,
                             TaskConverter<T> converter) {
+    this(queueUrl, sqsClient, converter, DEFAULT_VISIBILITY_TIMEOUT_SECONDS,
+        DEFAULT_SEND_LINGER_MILLIS, null);
+  }
+
+  /**
+   * @param queueUrl                 The FQDN of the SQS Queue
+   * @param sqsClient                The {@link AmazonSQS} client.
+   * @param converter                The {@link TaskQueue<T>} for converting tasks into and
+   *                                 from the Queue
+   * @param visibilityTimeoutSeconds visibility timeout for received messages.
+   * @param sendLingerMillis         max time added tasks are staged locally before they are
+   *                                 sent. 0 to only send full batches or on {@link #flush()}.
+   * @param timeProvider             time provider (in millis).
+   */
+  public SQSSubmissionQueue(String queueUrl,
+                            AmazonSQS sqsClient,
+                            TaskConverter<T> converter,
+                            int visibilityTimeoutSeconds,
+                            long sendLingerMillis,
+                            @Nullable Supplier<Long> timeProvider) {
     this.queueUrl = queueUrl;
     this.converter = converter;
     this.sqsClient = sqsClient;
+    this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+    this.timeProvider = timeProvider == null ? System::currentTimeMillis : timeProvider;
+    this.sendTask = sendLingerMillis > 0 ?
+        sender.scheduleWithFixedDelay(this::flushSendsQuietly, sendLingerMillis,
+            sendLingerMillis, TimeUnit.MILLISECONDS) :
+        null;
   }
 
   @Override
-  public T peek() {
+  public synchronized T peek() {
     try {
-      if (this.head != null) return head;
-      ReceiveMessageRequest receiveRequest = new ReceiveMessageRequest(this.queueUrl);
-      receiveRequest.setMaxNumberOfMessages(1);
-      receiveRequest.setWaitTimeSeconds(1);
-      ReceiveMessageResult result = sqsClient.receiveMessage(receiveRequest);
-      List<Message> messages = result.getMessages();
-      if (messages.size() <= 0) {
-        return null;
+      if (this.head != null) {
+        extendVisibilityIfNeeded();
+        return head;
       }
-      Message message = messages.get(0);
+      if (prefetched.isEmpty()) {
+        // delete removed messages before receiving the next batch, so the number of delete
+        // calls stays at 1 per batch received
+        flushDeletes();
+        ReceiveMessageRequest receiveRequest = new ReceiveMessageRequest(this.queueUrl);
+        receiveRequest.setMaxNumberOfMessages(MAX_BATCH_SIZE);
+        receiveRequest.setWaitTimeSeconds(1);
+        receiveRequest.setVisibilityTimeout(visibilityTimeoutSeconds);
+        ReceiveMessageResult result = sqsClient.receiveMessage(receiveRequest);
+        List<Message> messages = result.getMessages();
+        if (messages.size() <= 0) {
+          return null;
+        }
+        prefetched.addAll(messages);
+        receivedMillis = timeProvider.get();
+      } else {
+        extendVisibilityIfNeeded();
+      }
+      Message message = prefetched.poll();
       byte[] messageBytes = parseBase64Binary(message.getBody());
-      messageHandle = message.getReceiptHandle();
+      headMessage = message;
       head = converter.fromBytes(messageBytes);
       return head;
     } catch (IOException e) {
@@ -88,14 +180,24 @@ public class SQSSubmissionQueue<T extends DataSubmissionTask<T>> implements Task
 
   @Override
   public void add(@Nonnull T t) throws IOException {
-    try {
-      SendMessageRequest request = new SendMessageRequest();
-      String contents = encodeMessageForDelivery(t);
-      request.setMessageBody(contents);
-      request.setQueueUrl(queueUrl);
-      sqsClient.sendMessage(request);
-    } catch (AmazonClientException e) {
-      throw new IOException("AmazonClientException adding messages onto the queue", e);
+    String contents = encodeMessageForDelivery(t);
+    boolean batchFull;
+    while (true) {
+      synchronized (pendingSends) {
+        if (pendingSends.isEmpty() || (pendingSends.size() < MAX_BATCH_SIZE &&
+            pendingSendBytes + contents.length() <= MAX_BATCH_PAYLOAD_BYTES)) {
+          pendingSends.add(contents);
+          pendingSendBytes += contents.length();
+          batchFull = pendingSends.size() >= MAX_BATCH_SIZE;
+          break;
+        }
+      }
+      // make room for the task: if staged tasks can't be sent, they stay staged and
+      // this task is rejected, so the number of staged tasks stays bounded
+      flushSends();
+    }
+    if (batchFull) {
+      flushSendsQuietly();
     }
   }
 
@@ -109,26 +211,159 @@ public class SQSSubmissionQueue<T extends DataSubmissionTask<T>> implements Task
   }
 
   @Override
-  public void remove() throws IOException {
+  public synchronized void remove() throws IOException {
     try {
       // We have no head, do not remove
-      if (StringUtils.isBlank(messageHandle) || head == null) {
+      if (headMessage == null || head == null) {
         return;
       }
-      int taskSize = head.weight();
-      DeleteMessageRequest deleteRequest = new DeleteMessageRequest(this.queueUrl,
-          this.messageHandle);
-      sqsClient.deleteMessage(deleteRequest);
+      pendingDeletes.add(headMessage.getReceiptHandle());
       this.head = null;
-      this.messageHandle = null;
+      this.headMessage = null;
+      if (pendingDeletes.size() >= MAX_BATCH_SIZE) {
+        flushDeletes();
+      }
     } catch (AmazonClientException e) {
       throw new IOException("AmazonClientException removing from the queue", e);
     }
   }
 
+  /**
+   * Sends all staged tasks and deletes all removed messages.
+   *
+   * @throws IOException if unable to send or delete messages.
+   */
+  public void flush() throws IOException {
+    flushSends();
+    synchronized (this) {
+      try {
+        flushDeletes();
+      } catch (AmazonClientException e) {
+        throw new IOException("AmazonClientException removing from the queue", e);
+      }
+    }
+  }
+
+  private void flushSendsQuietly() {
+    try {
+      flushSends();
+    } catch (IOException | RuntimeException e) {
+      log.warning("Error adding tasks to the queue, will retry: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Sends staged tasks in batches of up to {@link #MAX_BATCH_SIZE} messages, until there are
+   * no staged tasks left or some of them have to be retried.
+   *
+   * @throws IOException if unable to send messages. Staged tasks are kept to be retried.
+   */
+  private void flushSends() throws IOException {
+    synchronized (sendLock) {
+      while (true) {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(MAX_BATCH_SIZE);
+        int batchBytes = 0;
+        synchronized (pendingSends) {
+          for (String contents : pendingSends) {
+            if (entries.size() >= MAX_BATCH_SIZE || (!entries.isEmpty() &&
+                batchBytes + contents.length() > MAX_BATCH_PAYLOAD_BYTES)) {
+              break;
+            }
+            entries.add(new SendMessageBatchRequestEntry(Integer.toString(entries.size()),
+                contents));
+            batchBytes += contents.length();
+          }
+        }
+        if (entries.isEmpty()) return;
+        SendMessageBatchResult result;
+        try {
+          result = sqsClient.sendMessageBatch(new SendMessageBatchRequest(queueUrl, entries));
+        } catch (AmazonClientException e) {
+          // staged messages are kept to be retried with the next batch
+          throw new IOException("AmazonClientException adding messages onto the queue", e);
+        }
+        boolean retry = false;
+        synchronized (pendingSends) {
+          // tasks are only ever added at the end, so the batch is still at the start
+          pendingSends.subList(0, entries.size()).clear();
+          pendingSendBytes -= batchBytes;
+          if (result != null && !result.getFailed().isEmpty()) {
+            // re-stage messages that failed due to a transient error, to be retried with the
+            // next batch
+            for (BatchResultErrorEntry failed : result.getFailed()) {
+              String contents = entries.get(Integer.parseInt(failed.getId())).getMessageBody();
+              if (failed.isSenderFault()) {
+                log.severe("CRITICAL (Losing data): WF-1: Error adding task to the queue: " +
+                    failed.getCode() + " " + failed.getMessage());
+              } else {
+                pendingSends.add(contents);
+                pendingSendBytes += contents.length();
+                retry = true;
+              }
+            }
+          }
+        }
+        if (retry) return;
+      }
+    }
+  }
+
+  // must be called while holding the monitor
+  private void flushDeletes() {
+    if (pendingDeletes.isEmpty()) return;
+    List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(pendingDeletes.size());
+    for (int i = 0; i < pendingDeletes.size(); i++) {
+      entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(i), pendingDeletes.get(i)));
+    }
+    pendingDeletes.clear();
+    DeleteMessageBatchResult result =
+        sqsClient.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, entries));
+    if (result != null && !result.getFailed().isEmpty()) {
+      // messages that can't be deleted will be re-delivered once their visibility times out
+      log.warning("Unable to delete " + result.getFailed().size() + " messages from the " +
+          "queue: " + result.getFailed().get(0).getMessage());
+    }
+  }
+
+  // must be called while holding the monitor
+  private void extendVisibilityIfNeeded() {
+    if (timeProvider.get() - receivedMillis < visibilityTimeoutSeconds * 1000L / 2) return;
+    // messages that are still waiting to be processed are about to become visible to other
+    // consumers again: delete whatever's been processed and extend visibility for the rest
+    flushDeletes();
+    List<Message> messages = new ArrayList<>(prefetched.size() + 1);
+    if (headMessage != null) {
+      messages.add(headMessage);
+    }
+    messages.addAll(prefetched);
+    for (int start = 0; start < messages.size(); start += MAX_BATCH_SIZE) {
+      List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+      for (int i = start; i < Math.min(messages.size(), start + MAX_BATCH_SIZE); i++) {
+        entries.add(new ChangeMessageVisibilityBatchRequestEntry(Integer.toString(i),
+            messages.get(i).getReceiptHandle()).withVisibilityTimeout(visibilityTimeoutSeconds));
+      }
+      sqsClient.changeMessageVisibilityBatch(
+          new ChangeMessageVisibilityBatchRequest(queueUrl, entries));
+    }
+    receivedMillis = timeProvider.get();
+  }
+
   @Override
   public void clear() throws IOException {
     try {
+      // wait for a send in progress, as it removes the sent batch from staged tasks
+      synchronized (sendLock) {
+        synchronized (pendingSends) {
+          pendingSends.clear();
+          pendingSendBytes = 0;
+        }
+      }
+      synchronized (this) {
+        prefetched.clear();
+        pendingDeletes.clear();
+        head = null;
+        headMessage = null;
+      }
       sqsClient.purgeQueue(new PurgeQueueRequest(this.queueUrl));
     } catch (AmazonClientException e) {
       throw new IOException("AmazonClientException clearing the queue", e);
@@ -150,12 +385,22 @@ public class SQSSubmissionQueue<T extends DataSubmissionTask<T>> implements Task
       log.log(Level.SEVERE, "Value returned for approximate number of messages is not a " +
           "valid number", e);
     }
+    // prefetched messages are in flight, so they are not included in the approximate number
+    synchronized (pendingSends) {
+      queueSize += pendingSends.size();
+    }
+    synchronized (this) {
+      queueSize += prefetched.size() + (head == null ? 0 : 1);
+    }
     return queueSize;
   }
 
   @Override
-  public void close() {
-    // Nothing to close
+  public void close() throws IOException {
+    if (sendTask != null) {
+      sendTask.cancel(false);
+    }
+    flush();
   }
 
   @Nullable
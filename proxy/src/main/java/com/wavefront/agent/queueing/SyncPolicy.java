@@ -0,0 +1,19 @@
+package com.wavefront.agent.queueing;
+
+/**
+ * Controls when changes written to the disk buffer are flushed to durable storage.
+ */
+public enum SyncPolicy {
+  NONE,     // never flush explicitly, leave it to the OS (changes are still flushed on close)
+  INTERVAL, // flush changes periodically
+  BYTES;    // flush changes every time a certain number of bytes has been written
+
+  public static SyncPolicy fromString(String name) {
+    for (SyncPolicy policy : SyncPolicy.values()) {
+      if (policy.toString().equalsIgnoreCase(name)) {
+        return policy;
+      }
+    }
+    return null;
+  }
+}
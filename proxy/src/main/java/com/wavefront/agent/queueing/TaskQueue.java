@@ -5,6 +5,8 @@ import com.wavefront.agent.data.DataSubmissionTask;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Proxy-specific queue interface, which is basically a wrapper for a Tape queue. This allows us to
@@ -24,6 +26,20 @@ public interface TaskQueue<T extends DataSubmissionTask<T>> extends Iterable<T>
   @Nullable
   T peek();
 
+  /**
+   * Retrieve up to {@code count} tasks from the head of the queue, in queue order, without
+   * removing them. The first task returned is the same task {@link #peek()} would return.
+   * Implementations that can't look past the head of the queue return the head task only.
+   *
+   * @param count maximum number of tasks to retrieve.
+   * @return list of tasks (empty if the queue is empty)
+   */
+  @Nonnull
+  default List<T> peek(int count) {
+    T head = peek();
+    return head == null ? Collections.emptyList() : Collections.singletonList(head);
+  }
+
   /**
    * Add a task to the end of the queue
    *
@@ -73,4 +89,29 @@ public interface TaskQueue<T extends DataSubmissionTask<T>> extends Iterable<T>
    */
   @Nullable
   Long getAvailableBytes();
+
+  /**
+   * Returns the storage size of the queue (on-disk file size) in bytes.
+   * May return null if not applicable.
+   *
+   * @return storage size in bytes or null
+   */
+  @Nullable
+  default Long getStorageBytes() {
+    return null;
+  }
+
+  /**
+   * Drop the oldest tasks that can be discarded cheaply (i.e. a whole shard of the backing file
+   * that is not currently being read from or written to), to reclaim space when the buffer is
+   * over quota. The task at the head of the queue and tasks returned by {@link #peek(int)} that
+   * haven't been removed yet are never dropped.
+   *
+   * @return total weight of dropped tasks, or null if nothing could be dropped
+   * @throws IOException IO exceptions caught by the storage engine
+   */
+  @Nullable
+  default Long dropOldestTasks() throws IOException {
+    return null;
+  }
 }
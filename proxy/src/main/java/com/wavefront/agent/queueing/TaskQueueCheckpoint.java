@@ -0,0 +1,120 @@
+package com.wavefront.agent.queueing;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshot of a task queue's state (total weight, task count, used bytes and head task checksum),
+ * persisted in a small sidecar file next to the queue file, so that the queue's weight
+ * can be restored on startup without enumerating every task in the queue. A checkpoint is only
+ * valid if the queue file still has the same number of tasks, the same size and the same
+ * head task.
+ */
+final class TaskQueueCheckpoint {
+  private static final int MAGIC = 0x57464350; // 'WFCP'
+  private static final byte VERSION = 1;
+
+  final long weight;
+  final int size;
+  final long usedBytes;
+  final long headChecksum;
+
+  TaskQueueCheckpoint(long weight, int size, long usedBytes, long headChecksum) {
+    this.weight = weight;
+    this.size = size;
+    this.usedBytes = usedBytes;
+    this.headChecksum = headChecksum;
+  }
+
+  /**
+   * Capture the current state of a queue file.
+   *
+   * @param queueFile queue file.
+   * @param weight    total weight of all tasks in the queue.
+   * @return checkpoint
+   * @throws IOException if unable to read the head of the queue.
+   */
+  static TaskQueueCheckpoint of(QueueFile queueFile, long weight) throws IOException {
+    return new TaskQueueCheckpoint(weight, queueFile.size(), queueFile.usedBytes(),
+        checksum(queueFile.peek()));
+  }
+
+  /**
+   * Check whether the checkpoint matches the current state of a queue file.
+   *
+   * @param queueFile queue file to validate against.
+   * @return true if the checkpoint is valid for this queue file.
+   * @throws IOException if unable to read the head of the queue.
+   */
+  boolean matches(QueueFile queueFile) throws IOException {
+    return size == queueFile.size() && usedBytes == queueFile.usedBytes() &&
+        headChecksum == checksum(queueFile.peek());
+  }
+
+  /**
+   * Read a checkpoint from a file.
+   *
+   * @param file checkpoint file.
+   * @return checkpoint, or null if the file doesn't exist or is corrupted.
+   */
+  @Nullable
+  static TaskQueueCheckpoint read(File file) {
+    if (!file.exists()) return null;
+    try {
+      byte[] bytes = Files.readAllBytes(file.toPath());
+      if (bytes.length < 8) return null;
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length - 8);
+      if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) return null;
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (in.readInt() != MAGIC || in.readByte() != VERSION) return null;
+      return new TaskQueueCheckpoint(in.readLong(), in.readInt(), in.readLong(), in.readLong());
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Atomically write the checkpoint to a file.
+   *
+   * @param file checkpoint file.
+   * @throws IOException if unable to write the file.
+   */
+  void write(File file) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.writeLong(weight);
+    out.writeInt(size);
+    out.writeLong(usedBytes);
+    out.writeLong(headChecksum);
+    CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray());
+    out.writeLong(crc.getValue());
+    File tmpFile = new File(file.getPath() + ".tmp");
+    Files.write(tmpFile.toPath(), bytes.toByteArray());
+    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @param task serialized task, null if the queue is empty.
+   * @return checksum of the task.
+   */
+  static long checksum(@Nullable byte[] task) {
+    if (task == null) return 0;
+    CRC32 crc = new CRC32();
+    crc.update(task);
+    return crc.getValue();
+  }
+}
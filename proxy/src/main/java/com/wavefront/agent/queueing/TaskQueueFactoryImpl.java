@@ -1,30 +1,59 @@
 package com.wavefront.agent.queueing;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
 import com.squareup.tape2.QueueFile;
+import com.wavefront.agent.SharedScheduler;
 import com.wavefront.agent.data.DataSubmissionTask;
+import com.wavefront.agent.data.EntityPropertiesFactory;
 import com.wavefront.agent.handlers.HandlerKey;
+import com.wavefront.common.NamedThreadFactory;
 import com.wavefront.common.TaggedMetricName;
+import com.wavefront.data.ReportableEntityType;
 import com.wavefront.metrics.ExpectedAgentMetric;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Meter;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.TreeMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A caching implementation of a {@link TaskQueueFactory}.
  *
+ * Buffer files can be striped across multiple locations (e.g. one per device) by specifying
+ * a comma-separated list of file name prefixes. Each queue is placed in a single location:
+ * queues that already have files in one of the locations stay there, new queues are assigned
+ * round-robin, skipping locations that don't have enough space left for a shard.
+ *
  * @author vasily@wavefront.com.
  */
 public class TaskQueueFactoryImpl implements TaskQueueFactory {
@@ -32,18 +61,39 @@ public class TaskQueueFactoryImpl implements TaskQueueFactory {
       Logger.getLogger(TaskQueueFactoryImpl.class.getCanonicalName());
   private final Map<HandlerKey, Map<Integer, TaskQueue<?>>> taskQueues = new ConcurrentHashMap<>();
 
-  private final String bufferFile;
+  private final List<String> bufferFiles;
+  private final AtomicInteger nextBufferFile = new AtomicInteger();
   private final boolean purgeBuffer;
   private final boolean disableSharding;
   private final int shardSize;
+  private final boolean memoryMapped;
+  private final boolean binaryEncoding;
+  private final boolean precompressPayloads;
+  private final boolean groupCommit;
+  private final SyncPolicy syncPolicy;
+  private final long syncThreshold;
+  private final long memoryTierBytes;
+  private final int readAheadTasks;
+  private final List<TieredQueueFile> memoryTiers = new CopyOnWriteArrayList<>();
+  @Nullable
+  private ScheduledFuture<?> quotaEnforcement = null;
+  @Nullable
+  private volatile BufferQuotaManager quotaManager = null;
 
   private static final Counter bytesWritten = Metrics.newCounter(new TaggedMetricName("buffer",
       "bytes-written"));
   private static final Counter ioTimeWrites = Metrics.newCounter(new TaggedMetricName("buffer",
       "io-time-writes"));
 
+  // changes to memory-mapped buffers within this interval are flushed to disk together
+  private static final long MMAP_COMMIT_INTERVAL_MILLIS = 1000;
+  // with group commit, writers block once this many bytes are waiting to be written to disk
+  private static final long GROUP_COMMIT_MAX_PENDING_BYTES = 16 * 1024 * 1024;
+  private static final long QUOTA_CHECK_INTERVAL_MILLIS = 1000;
+
   /**
-   * @param bufferFile      File name prefix for queue file names.
+   * @param bufferFile      File name prefix for queue file names, or a comma-separated list
+   *                        of prefixes to stripe queues across.
    * @param purgeBuffer     Whether buffer files should be nuked before starting (this may cause
    *                        data loss if queue files are not empty).
    * @param disableSharding disable buffer sharding (use single file)
@@ -51,10 +101,34 @@ public class TaskQueueFactoryImpl implements TaskQueueFactory {
    */
   public TaskQueueFactoryImpl(String bufferFile, boolean purgeBuffer,
                               boolean disableSharding, int shardSize) {
-    this.bufferFile = bufferFile;
+    this(bufferFile, purgeBuffer, disableSharding, shardSize, new Options());
+  }
+
+  /**
+   * @param bufferFile      File name prefix for queue file names, or a comma-separated list
+   *                        of prefixes to stripe queues across.
+   * @param purgeBuffer     Whether buffer files should be nuked before starting (this may cause
+   *                        data loss if queue files are not empty).
+   * @param disableSharding disable buffer sharding (use single file)
+   * @param shardSize       target shard size (in MBytes)
+   * @param options         optional queue file features.
+   */
+  public TaskQueueFactoryImpl(String bufferFile, boolean purgeBuffer,
+                              boolean disableSharding, int shardSize, Options options) {
+    this.bufferFiles = Splitter.on(',').trimResults().omitEmptyStrings().
+        splitToList(bufferFile);
+    Preconditions.checkArgument(!bufferFiles.isEmpty(), "No buffer location specified");
     this.purgeBuffer = purgeBuffer;
     this.disableSharding = disableSharding;
     this.shardSize = shardSize;
+    this.memoryMapped = options.memoryMapped;
+    this.binaryEncoding = options.binaryEncoding;
+    this.precompressPayloads = options.precompressPayloads;
+    this.groupCommit = options.groupCommit;
+    this.syncPolicy = options.syncPolicy;
+    this.syncThreshold = options.syncThreshold;
+    this.memoryTierBytes = options.memoryTierBytes;
+    this.readAheadTasks = options.readAheadTasks;
 
     Metrics.newGauge(ExpectedAgentMetric.BUFFER_BYTES_LEFT.metricName,
         new Gauge<Long>() {
@@ -66,12 +140,20 @@ public class TaskQueueFactoryImpl implements TaskQueueFactory {
                   map(TaskQueue::getAvailableBytes).
                   filter(Objects::nonNull).mapToLong(x -> x).sum();
 
-              File bufferDirectory = new File(bufferFile).getAbsoluteFile();
-              while (bufferDirectory != null && bufferDirectory.getUsableSpace() == 0) {
-                bufferDirectory = bufferDirectory.getParentFile();
+              // count each device only once, even if it hosts multiple buffer locations
+              Set<FileStore> fileStores = new HashSet<>();
+              long usableSpace = 0;
+              boolean found = false;
+              for (String bufferFile : bufferFiles) {
+                File bufferDirectory = getBufferDirectory(bufferFile);
+                if (bufferDirectory == null) continue;
+                found = true;
+                if (fileStores.add(Files.getFileStore(bufferDirectory.toPath()))) {
+                  usableSpace += bufferDirectory.getUsableSpace();
+                }
               }
-              if (bufferDirectory != null) {
-                return bufferDirectory.getUsableSpace() + availableBytes;
+              if (found) {
+                return usableSpace + availableBytes;
               }
             } catch (Throwable t) {
               logger.warning("cannot compute remaining space in buffer file partition: " + t);
@@ -80,12 +162,21 @@ public class TaskQueueFactoryImpl implements TaskQueueFactory {
           }
         }
     );
+    if (memoryTierBytes > 0) {
+      Metrics.newGauge(new TaggedMetricName("buffer", "memory-tier-bytes"), new Gauge<Long>() {
+        @Override
+        public Long value() {
+          return memoryTiers.stream().mapToLong(TieredQueueFile::memoryBytes).sum();
+        }
+      });
+    }
   }
 
   public <T extends DataSubmissionTask<T>> TaskQueue<T> getTaskQueue(@Nonnull HandlerKey key,
                                                                      int threadNum) {
     //noinspection unchecked
-    TaskQueue<T> taskQueue = (TaskQueue<T>) taskQueues.computeIfAbsent(key, x -> new TreeMap<>()).
+    TaskQueue<T> taskQueue = (TaskQueue<T>) taskQueues.
+        computeIfAbsent(key, x -> new ConcurrentHashMap<>()).
         computeIfAbsent(threadNum, x -> createTaskQueue(key, threadNum));
     try {
       // check if queue is closed and re-create if it is.
@@ -97,12 +188,117 @@ public class TaskQueueFactoryImpl implements TaskQueueFactory {
     return taskQueue;
   }
 
+  /**
+   * Open queues for all existing buffer files in parallel, so that backlogs left over from
+   * the previous run are loaded concurrently at startup, instead of one queue at a time as
+   * pipelines are started. Only queues that are going to be used (i.e. thread number is lower
+   * than the number of flush threads for the entity type) are opened.
+   *
+   * @param entityPropsFactory entity-specific wrappers for runtime properties.
+   */
+  public void openExistingQueues(EntityPropertiesFactory entityPropsFactory) {
+    Set<String> queueNames = new HashSet<>();
+    List<Runnable> openTasks = new ArrayList<>();
+    for (String bufferFile : bufferFiles) {
+      File bufferPath = new File(bufferFile).getAbsoluteFile();
+      File[] files = bufferPath.getParentFile() == null ? null :
+          bufferPath.getParentFile().listFiles();
+      if (files == null) continue;
+      Pattern pattern = Pattern.compile("^" + Pattern.quote(bufferPath.getName()) +
+          "\\.(\\w+)\\.(\\w+)\\.(\\d+)\\.(spool|spool_[0-9a-f]+|segment_[0-9a-f]+)$");
+      for (File file : files) {
+        Matcher matcher = pattern.matcher(file.getName());
+        if (!matcher.matches()) continue;
+        ReportableEntityType entityType = ReportableEntityType.fromString(matcher.group(1));
+        int threadNum = Integer.parseInt(matcher.group(3));
+        if (entityType == null ||
+            threadNum >= entityPropsFactory.get(entityType).getFlushThreads() ||
+            !queueNames.add(entityType + "." + matcher.group(2) + "." + threadNum)) {
+          continue;
+        }
+        HandlerKey key = HandlerKey.of(entityType, matcher.group(2));
+        openTasks.add(() -> getTaskQueue(key, threadNum));
+      }
+    }
+    if (openTasks.isEmpty()) return;
+    long startTime = System.currentTimeMillis();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(openTasks.size(),
+        Runtime.getRuntime().availableProcessors()), new NamedThreadFactory("queue-loader"));
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      openTasks.forEach(task -> futures.add(executor.submit(task)));
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Error opening buffer files", e);
+    } finally {
+      executor.shutdown();
+    }
+    logger.info("Opened " + openTasks.size() + " buffer queues in " +
+        (System.currentTimeMillis() - startTime) + "ms");
+  }
+
+  /**
+   * Move all tasks kept in memory tiers to disk, e.g. when the heap usage is getting too high.
+   */
+  public void spillMemoryTiers() {
+    for (TieredQueueFile memoryTier : memoryTiers) {
+      try {
+        memoryTier.spill();
+      } catch (IOException | IllegalStateException e) {
+        logger.warning("Error spilling buffered tasks to disk: " + e);
+      }
+    }
+  }
+
+  /**
+   * Start enforcing disk quotas for buffer queues: once a quota is exceeded, the oldest data
+   * is dropped (see {@link BufferQuotaManager}).
+   *
+   * @param totalQuotaBytes max total storage size of all queues. 0 means unlimited.
+   * @param portQuotaBytes  max total storage size of queues for each entity type/port.
+   *                        0 means unlimited.
+   * @param evictionOrder   entity types in the order they are dropped in when over the total
+   *                        quota, lowest priority first.
+   */
+  public void enforceQuotas(long totalQuotaBytes, long portQuotaBytes,
+                            List<ReportableEntityType> evictionOrder) {
+    if (totalQuotaBytes <= 0 && portQuotaBytes <= 0) return;
+    // quotas are enforced by dropping whole shards, so there's no point checking more often
+    // than every time a shard's worth of data has been written
+    quotaManager = new BufferQuotaManager(taskQueues, totalQuotaBytes, portQuotaBytes,
+        evictionOrder, shardSize * 1024L * 1024L);
+    quotaEnforcement = SharedScheduler.getIoInstance().scheduleWithFixedDelay("buffer-quota",
+        quotaManager, QUOTA_CHECK_INTERVAL_MILLIS, QUOTA_CHECK_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Close all open queues.
+   */
+  public void shutdown() {
+    if (quotaEnforcement != null) {
+      quotaEnforcement.cancel(false);
+    }
+    quotaManager = null;
+    taskQueues.values().stream().flatMap(x -> x.values().stream()).forEach(taskQueue -> {
+      try {
+        taskQueue.close();
+      } catch (IOException e) {
+        logger.warning("Error closing buffer queue: " + e);
+      }
+    });
+  }
+
   private <T extends DataSubmissionTask<T>> TaskQueue<T> createTaskQueue(
       @Nonnull HandlerKey handlerKey, int threadNum) {
-    String fileName = bufferFile + "." + handlerKey.getEntityType().toString() + "." +
-        handlerKey.getHandle() + "." + threadNum;
+    String queueName = handlerKey.getEntityType().toString() + "." + handlerKey.getHandle() +
+        "." + threadNum;
+    String fileName = selectBufferFile(queueName) + "." + queueName;
     String lockFileName = fileName + ".lck";
     String spoolFileName = fileName + ".spool";
+    String checkpointFileName = fileName + ".checkpoint";
     // Having two proxy processes write to the same buffer file simultaneously causes buffer
     // file corruption. To prevent concurrent access from another process, we try to obtain
     // exclusive access to a .lck file. trylock() is platform-specific so there is no
@@ -127,19 +323,76 @@ public class TaskQueueFactoryImpl implements TaskQueueFactory {
         if (buffer.delete()) {
           logger.warning("Retry buffer has been purged: " + spoolFileName);
         }
+        //noinspection ResultOfMethodCallIgnored
+        new File(checkpointFileName).delete();
       }
       BiConsumer<Integer, Long> statsUpdater = (bytes, millis) -> {
         bytesWritten.inc(bytes);
         ioTimeWrites.inc(millis);
       };
-      com.wavefront.agent.queueing.QueueFile queueFile = disableSharding ?
-          new ConcurrentQueueFile(new TapeQueueFile(new QueueFile.Builder(
-              new File(spoolFileName)).build(), statsUpdater)) :
-          new ConcurrentShardedQueueFile(spoolFileName, ".spool", shardSize * 1024 * 1024,
-              s -> new TapeQueueFile(new QueueFile.Builder(new File(s)).build(), statsUpdater));
+      com.wavefront.agent.queueing.QueueFile queueFile;
+      if (memoryMapped) {
+        // with group commit, changes are flushed according to the sync policy instead
+        queueFile = new MappedSegmentQueueFile(fileName, shardSize * 1024 * 1024,
+            groupCommit ? -1 : MMAP_COMMIT_INTERVAL_MILLIS, statsUpdater, null);
+        if (purgeBuffer) {
+          queueFile.clear();
+          logger.warning("Retry buffer has been purged: " + fileName);
+        }
+      } else {
+        queueFile = disableSharding ?
+            new ConcurrentQueueFile(new TapeQueueFile(new QueueFile.Builder(
+                new File(spoolFileName)).build(), statsUpdater)) :
+            new ConcurrentShardedQueueFile(spoolFileName, ".spool", shardSize * 1024 * 1024,
+                s -> new TapeQueueFile(new QueueFile.Builder(new File(s)).build(), statsUpdater));
+      }
+      if (groupCommit) {
+        Histogram commitLatency = Metrics.newHistogram(new TaggedMetricName("buffer",
+            "commit-latency-millis", "port", handlerKey.getHandle()));
+        Histogram commitBatchSize = Metrics.newHistogram(new TaggedMetricName("buffer",
+            "commit-batch-size", "port", handlerKey.getHandle()));
+        queueFile = new GroupCommitQueueFile(queueFile, syncPolicy, syncThreshold,
+            GROUP_COMMIT_MAX_PENDING_BYTES, (tasks, millis) -> {
+              commitBatchSize.update(tasks);
+              commitLatency.update(millis);
+            });
+      }
+      if (memoryTierBytes > 0) {
+        TieredQueueFile memoryTier = new TieredQueueFile(queueFile, memoryTierBytes);
+        memoryTiers.add(memoryTier);
+        queueFile = memoryTier;
+      }
+      // report backlog drain throughput as items/s and bytes/s
+      String entityName = handlerKey.getEntityType().toString();
+      Meter itemsDrained = Metrics.newMeter(new TaggedMetricName("buffer",
+          entityName + "-drained", "port", handlerKey.getHandle()), "items", TimeUnit.SECONDS);
+      Meter bytesDrained = Metrics.newMeter(new TaggedMetricName("buffer",
+          entityName + "-bytes-drained", "port", handlerKey.getHandle()), "bytes",
+          TimeUnit.SECONDS);
+      // report how often the head task has already been decoded by read-ahead
+      Counter readAheadHits = Metrics.newCounter(new TaggedMetricName("buffer",
+          "read-ahead-hits", "port", handlerKey.getHandle()));
+      Counter readAheadMisses = Metrics.newCounter(new TaggedMetricName("buffer",
+          "read-ahead-misses", "port", handlerKey.getHandle()));
+      Histogram decodeTime = Metrics.newHistogram(new TaggedMetricName("buffer",
+          "decode-time-micros", "port", handlerKey.getHandle()));
       // TODO: allow configurable compression types and levels
       return new InstrumentedTaskQueueDelegate<>(new FileBasedTaskQueue<>(queueFile,
-          new RetryTaskConverter<T>(handlerKey.getHandle(), TaskConverter.CompressionType.LZ4)),
+          new RetryTaskConverter<T>(handlerKey.getHandle(), TaskConverter.CompressionType.LZ4,
+              binaryEncoding, precompressPayloads), checkpointFileName, (weight, taskBytes) -> {
+            itemsDrained.mark(weight);
+            bytesDrained.mark(taskBytes);
+          }, readAheadTasks, (prefetched, decodeMicros) -> {
+            if (readAheadTasks > 0) {
+              (prefetched ? readAheadHits : readAheadMisses).inc();
+            }
+            decodeTime.update(decodeMicros);
+          }, (weight, taskBytes) -> {
+            BufferQuotaManager quotaManager = this.quotaManager;
+            if (quotaManager != null) {
+              quotaManager.onTaskAdded(taskBytes);
+            }
+          }),
           "buffer", ImmutableMap.of("port", handlerKey.getHandle()), handlerKey.getEntityType());
     } catch (Exception e) {
       logger.severe("WF-006: Unable to open or create queue file " + spoolFileName + ": " +
@@ -147,4 +400,131 @@ public class TaskQueueFactoryImpl implements TaskQueueFactory {
       return new TaskQueueStub<>();
     }
   }
+
+  /**
+   * Picks the location for a queue: the one that already has this queue's files, if any,
+   * otherwise the next location (round-robin) that has enough usable space for a shard.
+   *
+   * @param queueName queue name ({@code <entity>.<handle>.<threadNum>}).
+   * @return buffer file name prefix
+   */
+  private String selectBufferFile(String queueName) {
+    if (bufferFiles.size() == 1) return bufferFiles.get(0);
+    for (String bufferFile : bufferFiles) {
+      if (hasQueueFiles(bufferFile, queueName)) return bufferFile;
+    }
+    long minUsableSpace = shardSize * 1024L * 1024L;
+    for (int i = 0; i < bufferFiles.size(); i++) {
+      String bufferFile = bufferFiles.get(Math.floorMod(nextBufferFile.getAndIncrement(),
+          bufferFiles.size()));
+      File bufferDirectory = getBufferDirectory(bufferFile);
+      if (bufferDirectory != null && bufferDirectory.getUsableSpace() >= minUsableSpace) {
+        return bufferFile;
+      }
+    }
+    return bufferFiles.get(Math.floorMod(nextBufferFile.getAndIncrement(), bufferFiles.size()));
+  }
+
+  private static boolean hasQueueFiles(String bufferFile, String queueName) {
+    File bufferPath = new File(bufferFile).getAbsoluteFile();
+    String queueFilePrefix = bufferPath.getName() + "." + queueName + ".";
+    File[] files = bufferPath.getParentFile() == null ? null :
+        bufferPath.getParentFile().listFiles((dir, fileName) ->
+            fileName.startsWith(queueFilePrefix) && !fileName.endsWith(".lck"));
+    return files != null && files.length > 0;
+  }
+
+  /**
+   * Returns the closest existing directory for a buffer location.
+   *
+   * @param bufferFile buffer file name prefix.
+   * @return directory or null if it can't be determined
+   */
+  private static File getBufferDirectory(String bufferFile) {
+    File bufferDirectory = new File(bufferFile).getAbsoluteFile().getParentFile();
+    while (bufferDirectory != null && bufferDirectory.getUsableSpace() == 0) {
+      bufferDirectory = bufferDirectory.getParentFile();
+    }
+    return bufferDirectory;
+  }
+
+  /**
+   * Optional queue file features for {@link TaskQueueFactoryImpl}. All features are disabled
+   * by default.
+   */
+  public static class Options {
+    private boolean memoryMapped = false;
+    private boolean binaryEncoding = false;
+    private boolean precompressPayloads = false;
+    private boolean groupCommit = false;
+    private SyncPolicy syncPolicy = SyncPolicy.INTERVAL;
+    private long syncThreshold = MMAP_COMMIT_INTERVAL_MILLIS;
+    private long memoryTierBytes = 0;
+    private int readAheadTasks = 0;
+
+    /**
+     * @param memoryMapped use memory-mapped segment files ({@link MappedSegmentQueueFile})
+     *                     instead of Tape queue files. Segment size is the shard size.
+     * @return this
+     */
+    public Options memoryMapped(boolean memoryMapped) {
+      this.memoryMapped = memoryMapped;
+      return this;
+    }
+
+    /**
+     * @param binaryEncoding store tasks in compact binary format instead of JSON when supported
+     *                       ({@link com.wavefront.agent.data.BinaryTaskCodec}).
+     * @return this
+     */
+    public Options binaryEncoding(boolean binaryEncoding) {
+      this.binaryEncoding = binaryEncoding;
+      return this;
+    }
+
+    /**
+     * @param precompressPayloads store line-delimited payloads as ready-to-send
+     *                            gzip-compressed request bodies.
+     * @return this
+     */
+    public Options precompressPayloads(boolean precompressPayloads) {
+      this.precompressPayloads = precompressPayloads;
+      return this;
+    }
+
+    /**
+     * @param groupCommit   stage tasks in memory and write them to disk in batches on a
+     *                      background thread ({@link GroupCommitQueueFile}).
+     * @param syncPolicy    when to flush group-committed changes to durable storage.
+     * @param syncThreshold flush interval in milliseconds for {@link SyncPolicy#INTERVAL},
+     *                      number of bytes between flushes for {@link SyncPolicy#BYTES}.
+     * @return this
+     */
+    public Options groupCommit(boolean groupCommit, SyncPolicy syncPolicy, long syncThreshold) {
+      this.groupCommit = groupCommit;
+      this.syncPolicy = syncPolicy;
+      this.syncThreshold = syncThreshold;
+      return this;
+    }
+
+    /**
+     * @param memoryTierBytes keep up to this many bytes of tasks per queue in memory before
+     *                        spilling them to disk ({@link TieredQueueFile}). 0 to disable.
+     * @return this
+     */
+    public Options memoryTierBytes(long memoryTierBytes) {
+      this.memoryTierBytes = memoryTierBytes;
+      return this;
+    }
+
+    /**
+     * @param readAheadTasks number of tasks to decode ahead of the consumer on a background
+     *                       thread. 0 to disable.
+     * @return this
+     */
+    public Options readAheadTasks(int readAheadTasks) {
+      this.readAheadTasks = readAheadTasks;
+      return this;
+    }
+  }
 }
@@ -0,0 +1,177 @@
+package com.wavefront.agent.queueing;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link QueueFile} that keeps up to {@code memoryLimitBytes} of tasks in memory and only
+ * spills them to the underlying file-backed queue once the limit is exceeded, on
+ * {@link #flush()} or on shutdown, so that transient backlogs don't cost a disk round trip
+ * per task. Tasks are kept in their serialized (compressed) form.
+ *
+ * The queue stays strictly FIFO: the oldest tasks in memory are the ones spilled to disk, so the
+ * file-backed queue always holds tasks older than the ones in memory. As long as the backlog fits
+ * into memory, it's replayed straight from memory.
+ */
+public class TieredQueueFile implements QueueFile {
+  private final QueueFile delegate;
+  private final long memoryLimitBytes;
+  private final Deque<byte[]> memory = new ArrayDeque<>();
+  private final AtomicLong memoryBytes = new AtomicLong();
+
+  /**
+   * @param delegate         file-backed queue to spill tasks to.
+   * @param memoryLimitBytes max total size of tasks kept in memory.
+   */
+  public TieredQueueFile(QueueFile delegate, long memoryLimitBytes) {
+    this.delegate = delegate;
+    this.memoryLimitBytes = memoryLimitBytes;
+  }
+
+  @Override
+  public synchronized void add(byte[] data, int offset, int count) throws IOException {
+    memory.addLast(Arrays.copyOfRange(data, offset, offset + count));
+    memoryBytes.addAndGet(count);
+    while (memoryBytes.get() > memoryLimitBytes && !memory.isEmpty()) {
+      spillOldest();
+    }
+  }
+
+  @Nullable
+  @Override
+  public synchronized byte[] peek() throws IOException {
+    return delegate.isEmpty() ? memory.peekFirst() : delegate.peek();
+  }
+
+  @Override
+  public synchronized void remove() throws IOException {
+    if (delegate.isEmpty() && !memory.isEmpty()) {
+      memoryBytes.addAndGet(-memory.removeFirst().length);
+    } else {
+      delegate.remove();
+    }
+  }
+
+  /**
+   * Moves all tasks from memory to the file-backed queue, then flushes it to durable storage.
+   *
+   * @throws IOException if unable to write tasks.
+   */
+  @Override
+  public synchronized void flush() throws IOException {
+    spill();
+    delegate.flush();
+  }
+
+  /**
+   * Moves all tasks from memory to the file-backed queue.
+   *
+   * @throws IOException if unable to write tasks.
+   */
+  public synchronized void spill() throws IOException {
+    while (!memory.isEmpty()) {
+      spillOldest();
+    }
+  }
+
+  private void spillOldest() throws IOException {
+    byte[] task = memory.peekFirst();
+    delegate.add(task);
+    memory.removeFirst();
+    memoryBytes.addAndGet(-task.length);
+  }
+
+  /**
+   * Returns the total size of tasks currently kept in memory.
+   *
+   * @return size in bytes
+   */
+  public long memoryBytes() {
+    return memoryBytes.get();
+  }
+
+  @Override
+  public int dropOldestShard(int headTasks) throws IOException {
+    // the oldest tasks are always on disk
+    return delegate.dropOldestShard(headTasks);
+  }
+
+  @Override
+  public synchronized void clear() throws IOException {
+    memory.clear();
+    memoryBytes.set(0);
+    delegate.clear();
+  }
+
+  @Override
+  public synchronized int size() {
+    return delegate.size() + memory.size();
+  }
+
+  @Override
+  public long storageBytes() {
+    return delegate.storageBytes();
+  }
+
+  @Override
+  public long usedBytes() {
+    return delegate.usedBytes();
+  }
+
+  @Override
+  public long availableBytes() {
+    return delegate.availableBytes();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    spill();
+    delegate.close();
+  }
+
+  @Nonnull
+  @Override
+  public synchronized Iterator<byte[]> iterator() {
+    Iterator<byte[]> diskIterator = delegate.iterator();
+    Iterator<byte[]> memoryIterator = new ArrayList<>(memory).iterator();
+    return new Iterator<byte[]>() {
+      @Nullable
+      private byte[] lastMemoryTask = null;
+
+      @Override
+      public boolean hasNext() {
+        return diskIterator.hasNext() || memoryIterator.hasNext();
+      }
+
+      @Override
+      public byte[] next() {
+        if (diskIterator.hasNext()) {
+          return diskIterator.next();
+        }
+        lastMemoryTask = memoryIterator.next();
+        return lastMemoryTask;
+      }
+
+      @Override
+      public void remove() {
+        if (lastMemoryTask == null) {
+          diskIterator.remove();
+          return;
+        }
+        synchronized (TieredQueueFile.this) {
+          if (memory.peekFirst() != lastMemoryTask || !delegate.isEmpty()) {
+            throw new UnsupportedOperationException("Removal is only permitted from the head.");
+          }
+          memoryBytes.addAndGet(-memory.removeFirst().length);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,38 @@
+package com.wavefront.agent;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SharedSchedulerTest {
+
+  @Test
+  public void testPeriodicTaskSurvivesExceptions() throws Exception {
+    AtomicInteger runs = new AtomicInteger();
+    CountDownLatch latch = new CountDownLatch(3);
+    ScheduledFuture<?> future = SharedScheduler.getInstance().scheduleAtFixedRate("test", () -> {
+      runs.incrementAndGet();
+      latch.countDown();
+      throw new RuntimeException("expected");
+    }, 0, 10, TimeUnit.MILLISECONDS);
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    future.cancel(false);
+    assertTrue(future.isCancelled());
+    int runsAfterCancel = runs.get();
+    TimeUnit.MILLISECONDS.sleep(50);
+    assertEquals(runsAfterCancel, runs.get());
+  }
+
+  @Test
+  public void testExecute() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    SharedScheduler.getInstance().execute("test", latch::countDown);
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+  }
+}
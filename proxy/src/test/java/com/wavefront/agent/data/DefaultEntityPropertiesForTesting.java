@@ -40,6 +40,26 @@ public class DefaultEntityPropertiesForTesting implements EntityProperties {
     return 2;
   }
 
+  @Override
+  public int getMaxInFlightBatches() {
+    return DEFAULT_MAX_IN_FLIGHT_BATCHES;
+  }
+
+  @Override
+  public int getMaxInFlightReplayTasks() {
+    return DEFAULT_MAX_IN_FLIGHT_REPLAY_TASKS;
+  }
+
+  @Override
+  public boolean isBacklogCompactionEnabled() {
+    return DEFAULT_BACKLOG_COMPACTION;
+  }
+
+  @Override
+  public int getAdaptiveBatchLatencyTarget() {
+    return DEFAULT_ADAPTIVE_BATCH_LATENCY_TARGET_MILLIS;
+  }
+
   @Override
   public int getPushFlushInterval() {
     return 100000;
@@ -8,7 +8,9 @@ import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author vasily@wavefront.com
@@ -69,4 +71,29 @@ public class LineDelimitedDataSubmissionTaskTest {
     assertArrayEquals(new String[] {"I", "J"}, split.get(4).payload.toArray());
     assertArrayEquals(new String[] {"K"}, split.get(5).payload.toArray());
   }
+
+  @Test
+  public void testMergeTasks() {
+    LineDelimitedDataSubmissionTask first = new LineDelimitedDataSubmissionTask(null, null, null,
+        null, "wavefront", ReportableEntityType.POINT, "2878", ImmutableList.of("A", "B"), null);
+    first.enqueuedTimeMillis = 1000L;
+    LineDelimitedDataSubmissionTask second = new LineDelimitedDataSubmissionTask(null, null, null,
+        null, "wavefront", ReportableEntityType.POINT, "2878", ImmutableList.of("C"), null);
+    second.enqueuedTimeMillis = 2000L;
+    second.attempts = 3;
+    LineDelimitedDataSubmissionTask otherFormat = new LineDelimitedDataSubmissionTask(null, null,
+        null, null, "histogram", ReportableEntityType.POINT, "2878", ImmutableList.of("D"), null);
+    LineDelimitedDataSubmissionTask otherPort = new LineDelimitedDataSubmissionTask(null, null,
+        null, null, "wavefront", ReportableEntityType.POINT, "2879", ImmutableList.of("E"), null);
+    assertTrue(first.isMergeableWith(second));
+    assertFalse(first.isMergeableWith(otherFormat));
+    assertFalse(first.isMergeableWith(otherPort));
+
+    LineDelimitedDataSubmissionTask merged =
+        LineDelimitedDataSubmissionTask.merge(ImmutableList.of(first, second));
+    assertArrayEquals(new String[] {"A", "B", "C"}, merged.payload.toArray());
+    assertEquals(3, merged.weight());
+    assertEquals(1000L, merged.getEnqueuedMillis());
+    assertEquals(3, merged.attempts);
+  }
 }
@@ -0,0 +1,143 @@
+package com.wavefront.agent.handlers;
+
+import com.wavefront.agent.data.QueueingReason;
+import com.wavefront.data.ReportableEntityType;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the cost of {@link AbstractReportableEntityHandler#getTask()} to the original round
+ * robin task selection. Not part of the regular test run, use the {@code benchmarks} profile.
+ */
+public class AbstractReportableEntityHandlerBenchmark {
+
+  @Test
+  public void benchmarkGetTask() throws Exception {
+    int callerThreads = 8;
+    int callsPerThread = 500_000;
+    for (int flushThreads : new int[] {4, 16, 32, 64}) {
+      List<SenderTask<String>> tasks = new ArrayList<>();
+      for (int i = 0; i < flushThreads; i++) {
+        tasks.add(new ScoredSenderTask(i % 3));
+      }
+      TestHandler handler = new TestHandler(tasks);
+      LegacyTaskSelector<String> legacy = new LegacyTaskSelector<>(tasks);
+      try {
+        long p2c = measure(callerThreads, callsPerThread, handler::getTask);
+        long roundRobin = measure(callerThreads, callsPerThread, legacy::getTask);
+        System.out.println("Flush threads: " + flushThreads + ", ns/point: " +
+            "power of two choices = " + p2c + ", round robin with full scan = " + roundRobin);
+      } finally {
+        handler.shutdown();
+      }
+    }
+  }
+
+  private static long measure(int threads, int callsPerThread,
+                              Supplier<SenderTask<String>> getTask) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch startLatch = new CountDownLatch(1);
+    List<Future<Long>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      futures.add(executor.submit(() -> {
+        startLatch.await();
+        long start = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < callsPerThread; i++) {
+          checksum += getTask.get().getTaskRelativeScore();
+        }
+        assertTrue(checksum >= 0);
+        return System.nanoTime() - start;
+      }));
+    }
+    startLatch.countDown();
+    long totalNanos = 0;
+    for (Future<Long> future : futures) {
+      totalNanos += future.get();
+    }
+    executor.shutdown();
+    return totalNanos / ((long) threads * callsPerThread);
+  }
+
+  private static class TestHandler extends AbstractReportableEntityHandler<Integer, String> {
+    TestHandler(List<SenderTask<String>> senderTasks) {
+      super(HandlerKey.of(ReportableEntityType.POINT, "test"), 0, String::valueOf, senderTasks,
+          false, null, null);
+    }
+
+    @Override
+    void reportInternal(Integer item) {
+      getTask().add(String.valueOf(item));
+    }
+  }
+
+  private static class ScoredSenderTask implements SenderTask<String> {
+    final AtomicLong score;
+
+    ScoredSenderTask(long score) {
+      this.score = new AtomicLong(score);
+    }
+
+    @Override
+    public void add(String item) {
+    }
+
+    @Override
+    public long getTaskRelativeScore() {
+      return score.get();
+    }
+
+    @Override
+    public void drainBuffersToQueue(@Nullable QueueingReason reason) {
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+    }
+  }
+
+  /**
+   * Replicates the original task selection logic: round robin over a shared counter, skipping
+   * the task with the highest score after scanning all tasks.
+   */
+  private static class LegacyTaskSelector<U> {
+    private final List<SenderTask<U>> senderTasks;
+    private final AtomicLong roundRobinCounter = new AtomicLong();
+
+    LegacyTaskSelector(List<SenderTask<U>> senderTasks) {
+      this.senderTasks = senderTasks;
+    }
+
+    SenderTask<U> getTask() {
+      int nextTaskId = (int)(roundRobinCounter.getAndIncrement() % senderTasks.size());
+      long worstScore = 0L;
+      int worstTaskId = 0;
+      for (int i = 0; i < senderTasks.size(); i++) {
+        long score = senderTasks.get(i).getTaskRelativeScore();
+        if (score > worstScore) {
+          worstScore = score;
+          worstTaskId = i;
+        }
+      }
+      if (nextTaskId == worstTaskId) {
+        nextTaskId = (int)(roundRobinCounter.getAndIncrement() % senderTasks.size());
+      }
+      return senderTasks.get(nextTaskId);
+    }
+  }
+}
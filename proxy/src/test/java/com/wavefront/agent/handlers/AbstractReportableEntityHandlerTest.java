@@ -0,0 +1,81 @@
+package com.wavefront.agent.handlers;
+
+import com.wavefront.agent.data.QueueingReason;
+import com.wavefront.data.ReportableEntityType;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AbstractReportableEntityHandlerTest {
+
+  @Test
+  public void testGetTaskAvoidsBusiestTask() {
+    List<SenderTask<String>> tasks = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      tasks.add(new ScoredSenderTask(0));
+    }
+    ((ScoredSenderTask) tasks.get(2)).score.set(1_000_000);
+    TestHandler handler = new TestHandler(tasks);
+    try {
+      for (int i = 0; i < 30_000; i++) {
+        handler.getTask().add("item");
+      }
+    } finally {
+      handler.shutdown();
+    }
+    assertEquals(0, ((ScoredSenderTask) tasks.get(2)).added.get());
+    for (int i : new int[] {0, 1, 3}) {
+      long added = ((ScoredSenderTask) tasks.get(i)).added.get();
+      assertTrue("Task " + i + " got " + added + " items", added > 7_000 && added < 13_000);
+    }
+  }
+
+  private static class TestHandler extends AbstractReportableEntityHandler<Integer, String> {
+    TestHandler(List<SenderTask<String>> senderTasks) {
+      super(HandlerKey.of(ReportableEntityType.POINT, "test"), 0, String::valueOf, senderTasks,
+          false, null, null);
+    }
+
+    @Override
+    void reportInternal(Integer item) {
+      getTask().add(String.valueOf(item));
+    }
+  }
+
+  private static class ScoredSenderTask implements SenderTask<String> {
+    final AtomicLong score;
+    final AtomicLong added = new AtomicLong();
+
+    ScoredSenderTask(long score) {
+      this.score = new AtomicLong(score);
+    }
+
+    @Override
+    public void add(String item) {
+      added.incrementAndGet();
+    }
+
+    @Override
+    public long getTaskRelativeScore() {
+      return score.get();
+    }
+
+    @Override
+    public void drainBuffersToQueue(@Nullable QueueingReason reason) {
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+    }
+  }
+}
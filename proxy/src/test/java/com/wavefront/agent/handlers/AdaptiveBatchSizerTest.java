@@ -0,0 +1,75 @@
+package com.wavefront.agent.handlers;
+
+import com.wavefront.agent.data.DefaultEntityPropertiesForTesting;
+import com.wavefront.agent.data.EntityProperties;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveBatchSizerTest {
+
+  @Test
+  public void testDisabledByDefault() {
+    AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(new DefaultEntityPropertiesForTesting(),
+        System::currentTimeMillis);
+    sizer.onSubmission(100, true);
+    assertEquals(EntityProperties.DEFAULT_BATCH_SIZE, sizer.getBatchSize());
+  }
+
+  @Test
+  public void testAdditiveIncreaseMultiplicativeDecrease() {
+    AtomicLong time = new AtomicLong(10_000);
+    AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(new DefaultEntityPropertiesForTesting() {
+      @Override
+      public int getItemsPerBatch() {
+        return 1000;
+      }
+
+      @Override
+      public int getAdaptiveBatchLatencyTarget() {
+        return 500;
+      }
+    }, time::get);
+    assertEquals(1000, sizer.getBatchSize());
+
+    sizer.onSubmission(100, true);
+    assertEquals(500, sizer.getBatchSize());
+    // pushback for batches that were in flight at the same time is counted once
+    sizer.onSubmission(100, true);
+    assertEquals(500, sizer.getBatchSize());
+    time.addAndGet(1000);
+    sizer.onSubmission(100, true);
+    assertEquals(250, sizer.getBatchSize());
+    time.addAndGet(1000);
+    sizer.onSubmission(100, true);
+    assertEquals(125, sizer.getBatchSize());
+    time.addAndGet(1000);
+    sizer.onSubmission(100, true);
+    // never goes below min split size
+    assertEquals(EntityProperties.DEFAULT_MIN_SPLIT_BATCH_SIZE, sizer.getBatchSize());
+
+    // grows by 2% of max batch size while p99 latency is under target
+    sizer.onSubmission(100, false);
+    assertEquals(120, sizer.getBatchSize());
+    sizer.onSubmission(100, false);
+    assertEquals(140, sizer.getBatchSize());
+    // stops growing when p99 latency exceeds target
+    sizer.onSubmission(1000, false);
+    sizer.onSubmission(1000, false);
+    assertEquals(140, sizer.getBatchSize());
+    for (int i = 0; i < 98; i++) {
+      sizer.onSubmission(100, false);
+    }
+    assertEquals(140, sizer.getBatchSize());
+    // one of the slow submissions has been evicted from the latency window
+    sizer.onSubmission(100, false);
+    assertEquals(160, sizer.getBatchSize());
+    for (int i = 0; i < 100; i++) {
+      sizer.onSubmission(100, false);
+    }
+    // never exceeds max batch size
+    assertEquals(1000, sizer.getBatchSize());
+  }
+}
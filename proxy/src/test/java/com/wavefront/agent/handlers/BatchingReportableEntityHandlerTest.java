@@ -0,0 +1,55 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.wavefront.api.agent.ValidationConfiguration;
+import com.wavefront.data.ReportableEntityType;
+import com.wavefront.ingester.ReportPointSerializer;
+import org.easymock.EasyMock;
+import org.junit.Test;
+import wavefront.report.ReportPoint;
+
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+public class BatchingReportableEntityHandlerTest {
+
+  @Test
+  public void testBatchIsHandedOverToSingleSenderTask() {
+    @SuppressWarnings("unchecked")
+    SenderTask<String> mockSenderTask = EasyMock.createMock(SenderTask.class);
+    ReportPointHandlerImpl pointHandler = new ReportPointHandlerImpl(
+        HandlerKey.of(ReportableEntityType.POINT, "batch"), 0, ImmutableList.of(mockSenderTask),
+        new ValidationConfiguration().setMetricLengthLimit(100), false, null, null, null, null);
+    BatchingReportableEntityHandler<ReportPoint, String> batch =
+        new BatchingReportableEntityHandler<>(pointHandler);
+    long timestamp = System.currentTimeMillis();
+    ReportPoint point1 = point("metric.test", "host1", timestamp, 1.0d);
+    ReportPoint point2 = point("metric.test", "host2", timestamp, 2.0d);
+    ReportPoint invalidPoint = point(Strings.repeat("x", 300), "host3", timestamp, 3.0d);
+    ReportPointSerializer serializer = new ReportPointSerializer();
+
+    replay(mockSenderTask);
+    batch.report(point1);
+    batch.report(invalidPoint);
+    batch.report(point2);
+    // nothing is handed over to sender tasks until the batch is flushed
+    verify(mockSenderTask);
+
+    EasyMock.reset(mockSenderTask);
+    mockSenderTask.addAll(ImmutableList.of(serializer.apply(point1), serializer.apply(point2)));
+    expectLastCall().once();
+    replay(mockSenderTask);
+    batch.flush();
+    // second flush is a no-op
+    batch.flush();
+    verify(mockSenderTask);
+    pointHandler.shutdown();
+  }
+
+  private static ReportPoint point(String metric, String host, long timestamp, double value) {
+    return ReportPoint.newBuilder().setTable("dummy").setMetric(metric).setHost(host).
+        setTimestamp(timestamp).setValue(value).build();
+  }
+}
@@ -0,0 +1,93 @@
+package com.wavefront.agent.handlers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link ConcurrentChunkedBuffer} throughput to a synchronized list. Not part of the
+ * regular test run, use the {@code benchmarks} profile.
+ */
+public class ConcurrentChunkedBufferBenchmark {
+
+  @Test
+  public void benchmarkThroughput() throws Exception {
+    for (int producers : new int[] {8, 16, 32}) {
+      ConcurrentChunkedBuffer<String> buffer = new ConcurrentChunkedBuffer<>();
+      long chunked = measure(producers, buffer::add, buffer::drain);
+      SynchronizedListBuffer<String> baseline = new SynchronizedListBuffer<>();
+      long synchronizedList = measure(producers, baseline::add, baseline::drain);
+      System.out.println("Producers: " + producers + ", adds/s: chunked buffer = " + chunked +
+          ", synchronized list = " + synchronizedList);
+    }
+  }
+
+  private static long measure(int producers, Consumer<String> add, IntFunction<List<String>> drain)
+      throws Exception {
+    int itemsPerProducer = 100_000;
+    ExecutorService executor = Executors.newFixedThreadPool(producers + 1);
+    CountDownLatch startLatch = new CountDownLatch(1);
+    AtomicBoolean done = new AtomicBoolean(false);
+    AtomicLong drained = new AtomicLong();
+    List<Future<?>> futures = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      futures.add(executor.submit(() -> {
+        startLatch.await();
+        for (int i = 0; i < itemsPerProducer; i++) {
+          add.accept("metric.name 1.0 source=localhost");
+        }
+        return null;
+      }));
+    }
+    Future<?> consumer = executor.submit(() -> {
+      while (!done.get() || drained.get() < (long) producers * itemsPerProducer) {
+        drained.addAndGet(drain.apply(40_000).size());
+      }
+    });
+    long start = System.nanoTime();
+    startLatch.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    long elapsedNanos = System.nanoTime() - start;
+    done.set(true);
+    consumer.get();
+    executor.shutdown();
+    assertEquals((long) producers * itemsPerProducer, drained.get());
+    return (long) producers * itemsPerProducer * 1_000_000_000L / Math.max(1, elapsedNanos);
+  }
+
+  /**
+   * Replicates the original synchronized ArrayList-based memory buffer.
+   */
+  private static class SynchronizedListBuffer<T> {
+    private List<T> datum = new ArrayList<>();
+    private final Object mutex = new Object();
+
+    void add(T item) {
+      synchronized (mutex) {
+        datum.add(item);
+      }
+    }
+
+    List<T> drain(int maxItems) {
+      synchronized (mutex) {
+        int blockSize = Math.min(datum.size(), maxItems);
+        List<T> current = datum.subList(0, blockSize);
+        datum = new ArrayList<>(datum.subList(blockSize, datum.size()));
+        return current;
+      }
+    }
+  }
+}
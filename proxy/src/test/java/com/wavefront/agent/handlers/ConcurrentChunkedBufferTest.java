@@ -0,0 +1,86 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrentChunkedBufferTest {
+
+  @Test
+  public void testDrainAndUndo() {
+    ConcurrentChunkedBuffer<String> buffer = new ConcurrentChunkedBuffer<>(4);
+    for (int i = 0; i < 10; i++) {
+      buffer.add("item" + i);
+    }
+    assertEquals(10, buffer.size());
+    List<String> batch = buffer.drain(6);
+    assertEquals(ImmutableList.of("item0", "item1", "item2", "item3", "item4", "item5"), batch);
+    assertEquals(4, buffer.size());
+    buffer.undo(batch.subList(3, 6));
+    assertEquals(7, buffer.size());
+    assertEquals(ImmutableList.of("item3", "item4"), buffer.drain(2));
+    buffer.add("item10");
+    assertEquals(ImmutableList.of("item5", "item6", "item7", "item8", "item9", "item10"),
+        buffer.drain(100));
+    assertEquals(0, buffer.size());
+    assertEquals(0, buffer.drain(100).size());
+  }
+
+  @Test
+  public void testAddAll() {
+    ConcurrentChunkedBuffer<String> buffer = new ConcurrentChunkedBuffer<>(4);
+    buffer.add("item0");
+    // block crosses two chunk boundaries
+    buffer.addAll(ImmutableList.of("item1", "item2", "item3", "item4", "item5", "item6", "item7",
+        "item8", "item9"));
+    buffer.addAll(ImmutableList.of());
+    buffer.add("item10");
+    assertEquals(11, buffer.size());
+    assertEquals(ImmutableList.of("item0", "item1", "item2", "item3", "item4", "item5", "item6",
+        "item7", "item8", "item9", "item10"), buffer.drain(100));
+    assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    ConcurrentChunkedBuffer<long[]> buffer = new ConcurrentChunkedBuffer<>(64);
+    int producers = 8;
+    int itemsPerProducer = 50_000;
+    ExecutorService executor = Executors.newFixedThreadPool(producers);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      final long producerId = p;
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < itemsPerProducer; i++) {
+          buffer.add(new long[] {producerId, i});
+        }
+      }));
+    }
+    long[] lastSeen = new long[producers];
+    Arrays.fill(lastSeen, -1);
+    int received = 0;
+    while (received < producers * itemsPerProducer) {
+      List<long[]> batch = buffer.drain(1000);
+      for (long[] item : batch) {
+        // items from the same producer must come out in the same order they were added
+        assertEquals(lastSeen[(int) item[0]] + 1, item[1]);
+        lastSeen[(int) item[0]] = item[1];
+      }
+      received += batch.size();
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    assertEquals(0, buffer.size());
+    assertEquals(0, buffer.drain(1000).size());
+  }
+}
@@ -0,0 +1,82 @@
+package com.wavefront.agent.handlers;
+
+import com.wavefront.agent.api.NoopProxyV2API;
+import com.wavefront.agent.data.DefaultEntityPropertiesForTesting;
+import com.wavefront.agent.queueing.TaskQueueStub;
+import com.wavefront.data.ReportableEntityType;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.wavefront.api.agent.Constants.PUSH_FORMAT_WAVEFRONT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LineDelimitedSenderTaskTest {
+
+  @Test
+  public void testAsyncSubmissionKeepsMultipleBatchesInFlight() throws Exception {
+    CountDownLatch started = new CountDownLatch(4);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(4);
+    AtomicInteger delivered = new AtomicInteger();
+    NoopProxyV2API blockingApi = new NoopProxyV2API(null) {
+      @Override
+      public Response proxyReportStream(UUID uuid, String format, StreamingOutput pushData) {
+        started.countDown();
+        try {
+          release.await();
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          pushData.write(out);
+          delivered.addAndGet(out.toString().split("\n").length);
+        } catch (InterruptedException | IOException e) {
+          throw new RuntimeException(e);
+        } finally {
+          finished.countDown();
+        }
+        return Response.ok().build();
+      }
+    };
+    DefaultEntityPropertiesForTesting properties = new DefaultEntityPropertiesForTesting() {
+      @Override
+      public int getItemsPerBatch() {
+        return 10;
+      }
+
+      @Override
+      public int getMaxInFlightBatches() {
+        return 4;
+      }
+    };
+    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    ExecutorService submissionExecutor = Executors.newFixedThreadPool(4);
+    LineDelimitedSenderTask task = new LineDelimitedSenderTask(
+        HandlerKey.of(ReportableEntityType.POINT, "2878"), PUSH_FORMAT_WAVEFRONT, blockingApi,
+        UUID.randomUUID(), properties, scheduler, 0, null, new TaskQueueStub<>(),
+        submissionExecutor, null);
+    for (int i = 0; i < 100; i++) {
+      task.add("metric.name " + i + " source=test");
+    }
+    task.start();
+    // a single flush dispatches a full window of batches without waiting for responses
+    task.run();
+    assertEquals(60, task.datum.size());
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    release.countDown();
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertEquals(40, delivered.get());
+    task.stop();
+    scheduler.shutdownNow();
+    submissionExecutor.shutdown();
+  }
+}
@@ -0,0 +1,40 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class LineDelimitedUtilsTest {
+
+  @Test
+  public void testWritePushDataMatchesJoinPushData() throws Exception {
+    assertWriteMatchesJoin(ImmutableList.of());
+    assertWriteMatchesJoin(ImmutableList.of("metric.name 1.0 source=localhost"));
+    assertWriteMatchesJoin(ImmutableList.of("a", "", "b"));
+    assertWriteMatchesJoin(ImmutableList.of("metric.name 1.0 source=\"höst\" tag=\"中文\"",
+        "emoji 😀 point", "plain"));
+
+    // payloads that don't fit into the write buffer
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      lines.add("metric.name." + i + " " + i + " source=localhost" + (i % 7 == 0 ? " t=é" : ""));
+    }
+    assertWriteMatchesJoin(lines);
+    assertWriteMatchesJoin(ImmutableList.of(Strings.repeat("x", 64 * 1024 - 1), "y",
+        Strings.repeat("z", 200_000)));
+  }
+
+  private static void assertWriteMatchesJoin(List<String> lines) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LineDelimitedUtils.writePushData(lines, out);
+    assertArrayEquals(LineDelimitedUtils.joinPushData(lines).getBytes(StandardCharsets.UTF_8),
+        out.toByteArray());
+  }
+}
@@ -11,6 +11,7 @@ import wavefront.report.Span;
 import wavefront.report.SpanLogs;
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
 
 /**
  * Mock factory for testing
@@ -19,30 +20,47 @@ import javax.annotation.Nonnull;
  */
 public class MockReportableEntityHandlerFactory {
 
-  public static ReportPointHandlerImpl getMockReportPointHandler() {
-    return EasyMock.createMock(ReportPointHandlerImpl.class);
+  public static ReportableEntityHandler<ReportPoint, String> getMockReportPointHandler() {
+    return createMockHandler();
   }
 
-  public static ReportSourceTagHandlerImpl getMockSourceTagHandler() {
-    return EasyMock.createMock(ReportSourceTagHandlerImpl.class);
+  public static ReportableEntityHandler<ReportSourceTag, SourceTag> getMockSourceTagHandler() {
+    return createMockHandler();
   }
 
-  public static ReportPointHandlerImpl getMockHistogramHandler() {
-    return EasyMock.createMock(ReportPointHandlerImpl.class);
+  public static ReportableEntityHandler<ReportPoint, String> getMockHistogramHandler() {
+    return createMockHandler();
   }
 
-  public static SpanHandlerImpl getMockTraceHandler() {
-    return EasyMock.createMock(SpanHandlerImpl.class);
+  public static ReportableEntityHandler<Span, String> getMockTraceHandler() {
+    return createMockHandler();
   }
 
-  public static SpanLogsHandlerImpl getMockTraceSpanLogsHandler() {
-    return EasyMock.createMock(SpanLogsHandlerImpl.class);
+  public static ReportableEntityHandler<SpanLogs, String> getMockTraceSpanLogsHandler() {
+    return createMockHandler();
   }
 
-  public static EventHandlerImpl getMockEventHandlerImpl() {
-    return EasyMock.createMock(EventHandlerImpl.class);
+  public static ReportableEntityHandler<ReportEvent, Event> getMockEventHandlerImpl() {
+    return createMockHandler();
   }
 
+  @SuppressWarnings("unchecked")
+  private static <T, U> ReportableEntityHandler<T, U> createMockHandler() {
+    return EasyMock.createMock(ForwardingReportableEntityHandler.class);
+  }
+
+  /**
+   * Mocks created from this class treat a batch as a series of individual
+   * {@link ReportableEntityHandler#report} calls (final methods are not intercepted by EasyMock),
+   * so expectations can be set per object, regardless of how the objects were batched.
+   */
+  abstract static class ForwardingReportableEntityHandler<T, U>
+      implements ReportableEntityHandler<T, U> {
+    @Override
+    public final void reportAll(Collection<T> items) {
+      items.forEach(this::report);
+    }
+  }
 
   public static ReportableEntityHandlerFactory createMockHandlerFactory(
       ReportableEntityHandler<ReportPoint, String> mockReportPointHandler,
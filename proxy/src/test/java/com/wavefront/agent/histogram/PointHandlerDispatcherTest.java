@@ -5,13 +5,19 @@ import com.wavefront.agent.handlers.ReportableEntityHandler;
 import com.wavefront.agent.histogram.accumulator.AccumulationCache;
 
 import com.wavefront.agent.histogram.accumulator.AgentDigestFactory;
+import com.wavefront.common.TimeProvider;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
@@ -33,6 +39,7 @@ public class PointHandlerDispatcherTest {
   private List<String> debugLineOut;
   private List<ReportPoint> blockedOut;
   private AtomicLong timeMillis;
+  private ReportableEntityHandler<ReportPoint, String> handler;
   private PointHandlerDispatcher subject;
 
   private HistogramKey keyA = TestUtils.makeKey("keyA");
@@ -48,12 +55,12 @@ public class PointHandlerDispatcherTest {
     AgentDigestFactory agentDigestFactory = new AgentDigestFactory(() -> COMPRESSION, 100L,
         timeMillis::get);
     in = new AccumulationCache(backingStore, agentDigestFactory, 0, "", timeMillis::get);
-    pointOut = new LinkedList<>();
+    pointOut = Collections.synchronizedList(new LinkedList<>());
     debugLineOut = new LinkedList<>();
     blockedOut = new LinkedList<>();
     digestA = new AgentDigest(COMPRESSION, 100L);
     digestB = new AgentDigest(COMPRESSION, 1000L);
-    subject = new PointHandlerDispatcher(in, new ReportableEntityHandler<ReportPoint, String>() {
+    handler = new ReportableEntityHandler<ReportPoint, String>() {
 
       @Override
       public void report(ReportPoint reportPoint) {
@@ -82,7 +89,8 @@ public class PointHandlerDispatcherTest {
       @Override
       public void shutdown() {
       }
-    }, timeMillis::get, () -> false, null, null);
+    };
+    subject = new PointHandlerDispatcher(in, handler, timeMillis::get, () -> false, null, null);
   }
 
   @Test
@@ -120,4 +128,101 @@ public class PointHandlerDispatcherTest {
 
     TestUtils.testKeyPointMatch(keyA, point);
   }
+
+  @Test
+  public void testPartitionedDispatchWithLimit() {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    PointHandlerDispatcher dispatcher = new PointHandlerDispatcher(in, handler, timeMillis::get,
+        () -> false, 30, null, 4, executor);
+    for (int i = 0; i < 100; i++) {
+      in.put(TestUtils.makeKey("key" + i), new AgentDigest(COMPRESSION, 100L));
+    }
+    in.flush();
+
+    timeMillis.set(101L);
+    dispatcher.run();
+    assertThat(pointOut).hasSize(30);
+    assertThat(backingStore).hasSize(70);
+
+    dispatcher.run();
+    dispatcher.run();
+    dispatcher.run();
+    assertThat(pointOut).hasSize(100);
+    assertThat(backingStore).isEmpty();
+    executor.shutdown();
+  }
+
+  @Test
+  public void testPartitionedDispatchVisitsEachRipeKeyOnce() {
+    AtomicInteger keysVisited = new AtomicInteger(0);
+    AccumulationCache counting = new AccumulationCache(backingStore, new AgentDigestFactory(
+        () -> COMPRESSION, 100L, timeMillis::get), 0, "", timeMillis::get) {
+      @Override
+      public Iterator<HistogramKey> getRipeDigestsIterator(TimeProvider clock) {
+        Iterator<HistogramKey> iterator = super.getRipeDigestsIterator(clock);
+        return new Iterator<HistogramKey>() {
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public HistogramKey next() {
+            keysVisited.incrementAndGet();
+            return iterator.next();
+          }
+
+          @Override
+          public void remove() {
+            iterator.remove();
+          }
+        };
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    PointHandlerDispatcher dispatcher = new PointHandlerDispatcher(counting, handler,
+        timeMillis::get, () -> false, null, null, 4, executor);
+    for (int i = 0; i < 100; i++) {
+      counting.put(TestUtils.makeKey("key" + i), new AgentDigest(COMPRESSION, 100L));
+    }
+    counting.flush();
+
+    timeMillis.set(101L);
+    dispatcher.run();
+    assertThat(pointOut).hasSize(100);
+    assertThat(keysVisited.get()).isEqualTo(100);
+    assertThat(backingStore).isEmpty();
+    executor.shutdown();
+  }
+
+  @Test
+  public void testRollUp() {
+    ConcurrentMap<HistogramKey, AgentDigest> hourStore = new ConcurrentHashMap<>();
+    AccumulationCache hour = new AccumulationCache(hourStore, new AgentDigestFactory(
+        () -> COMPRESSION, 3_600_000L, timeMillis::get), 0, "", timeMillis::get);
+    PointHandlerDispatcher dispatcher = new PointHandlerDispatcher(in, handler, timeMillis::get,
+        () -> false, null, Granularity.MINUTE, 1, null, hour, Granularity.HOUR);
+    long hourMillis = 3_600_000L * 400_000;
+    HistogramKey minuteKeyA = makeKey(hourMillis + 60_000, Granularity.MINUTE);
+    HistogramKey minuteKeyB = makeKey(hourMillis + 120_000, Granularity.MINUTE);
+    in.put(minuteKeyA, 1D);
+    in.put(minuteKeyA, 2D);
+    in.put(minuteKeyB, 3D);
+    in.flush();
+
+    timeMillis.set(101L);
+    dispatcher.run();
+    hour.flush();
+    assertThat(pointOut).hasSize(2);
+    HistogramKey hourKey = makeKey(hourMillis, Granularity.HOUR);
+    assertThat(HistogramUtils.rollUpKey(minuteKeyB, Granularity.HOUR)).isEqualTo(hourKey);
+    assertThat(hourStore.keySet()).containsExactly(hourKey);
+    assertThat(hourStore.get(hourKey).size()).isEqualTo(3L);
+    assertThat(hourStore.get(hourKey).getDispatchTimeMillis()).isEqualTo(3_600_101L);
+  }
+
+  private static HistogramKey makeKey(long timestamp, Granularity granularity) {
+    return HistogramUtils.makeKey(ReportPoint.newBuilder().setMetric("metric").setHost("host").
+        setTimestamp(timestamp).setValue(1D).build(), granularity);
+  }
 }
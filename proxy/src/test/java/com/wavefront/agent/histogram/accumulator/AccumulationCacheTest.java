@@ -1,16 +1,23 @@
 package com.wavefront.agent.histogram.accumulator;
 
 import com.github.benmanes.caffeine.cache.Cache;
+import com.google.common.collect.ImmutableList;
 import com.tdunning.math.stats.AgentDigest;
 import com.wavefront.agent.histogram.TestUtils;
 import com.wavefront.agent.histogram.HistogramUtils.HistogramKeyMarshaller;
 import com.wavefront.agent.histogram.HistogramKey;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricName;
+
 import net.openhft.chronicle.map.ChronicleMap;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
@@ -84,6 +91,79 @@ public class AccumulationCacheTest {
     assertThat(backingStore.get(keyA).size()).isEqualTo(2L);
   }
 
+  @Test
+  public void testResolveWritesOnlyModifiedEntries() {
+    ac = new AccumulationCache(backingStore, new AgentDigestFactory(() -> COMPRESSION, 100,
+        tickerTime::get), CAPACITY, "resolve", tickerTime::get);
+    com.yammer.metrics.core.Histogram bytesMarshalled = Metrics.newHistogram(
+        new MetricName("resolve.cache", "", "bytes_marshalled"));
+    ac.put(keyA, 1D);
+    ac.put(keyB, 1D);
+    ac.resolve(1000);
+    assertThat(backingStore.get(keyA).size()).isEqualTo(1L);
+    assertThat(backingStore.get(keyB).size()).isEqualTo(1L);
+    // entries stay in the cache
+    assertThat(ac.getCache().getIfPresent(keyA)).isNotNull();
+    assertThat(bytesMarshalled.count()).isEqualTo(1L);
+    assertThat((long) bytesMarshalled.sum()).isEqualTo(backingStore.get(keyA).encodedSize() +
+        backingStore.get(keyB).encodedSize());
+
+    // only keyA is written on the next resolve or flush
+    backingStore.put(keyB, digestB);
+    ac.put(keyA, 2D);
+    ac.resolve(1000);
+    assertThat(backingStore.get(keyA).size()).isEqualTo(2L);
+    assertThat(backingStore.get(keyB)).isEqualTo(digestB);
+    ac.flush();
+    assertThat(ac.getCache().getIfPresent(keyA)).isNull();
+    assertThat(backingStore.get(keyA).size()).isEqualTo(2L);
+    assertThat(backingStore.get(keyB)).isEqualTo(digestB);
+
+    // nothing is written without time budget
+    ac.put(keyC, 1D);
+    ac.resolve(0);
+    assertThat(backingStore.get(keyC)).isNull();
+    ac.resolve(1000);
+    assertThat(backingStore.get(keyC).size()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testComputeWritesBackCachedEntry() {
+    ac.put(keyA, 1D);
+    ac.resolve(1000);
+    ac.put(keyA, 2D);
+    AtomicLong dispatched = new AtomicLong();
+    ac.compute(keyA, (k, v) -> {
+      dispatched.set(v.size());
+      return null;
+    });
+    assertThat(dispatched.get()).isEqualTo(2L);
+    assertThat(cache.getIfPresent(keyA)).isNull();
+    ac.flush();
+    assertThat(backingStore.get(keyA)).isNull();
+  }
+
+  @Test
+  public void testResolveToChronicleMap() {
+    ConcurrentMap<HistogramKey, AgentDigest> chronicleMap = ChronicleMap.of(HistogramKey.class, AgentDigest.class).
+        keyMarshaller(HistogramKeyMarshaller.get()).
+        valueMarshaller(AgentDigest.AgentDigestMarshaller.get()).
+        entries(10)
+        .averageKeySize(20)
+        .averageValueSize(100)
+        .create();
+    chronicleMap.put(keyB, digestB);
+    AccumulationCache ac = new AccumulationCache(chronicleMap,
+        new AgentDigestFactory(() -> COMPRESSION, 100L, tickerTime::get), 10, "", tickerTime::get);
+    for (int i = 0; i < 3; i++) {
+      ac.put(keyA, i);
+      ac.put(keyB, i);
+      ac.resolve(1000);
+    }
+    assertThat(chronicleMap.get(keyA).size()).isEqualTo(3L);
+    assertThat(chronicleMap.get(keyB).size()).isEqualTo(3L);
+  }
+
   @Test
   public void testEvictsOnCapacityExceeded() throws ExecutionException {
     // Note: Capacity is 2
@@ -97,6 +177,46 @@ public class AccumulationCacheTest {
     assertThat(backingStore.size()).isAtLeast(1);
   }
 
+  @Test
+  public void testRipeDigestsIterator() {
+    AtomicLong clock = new AtomicLong(10_000L);
+    AccumulationCache ac = new AccumulationCache(backingStore,
+        new AgentDigestFactory(() -> COMPRESSION, 5_000L, clock::get), 0, "", tickerTime::get);
+    ac.put(keyA, 1D); // dispatched at 15000
+    clock.set(12_000L);
+    ac.put(keyB, 1D); // dispatched at 17000
+    ac.put(keyA, 2D); // earliest dispatch time wins
+    clock.set(30_000L);
+    ac.put(keyC, 1D); // dispatched at 35000
+
+    assertThat(ImmutableList.copyOf(ac.getRipeDigestsIterator(() -> 15_000L))).isEmpty();
+    assertThat(ImmutableList.copyOf(ac.getRipeDigestsIterator(() -> 16_000L))).
+        containsExactly(keyA);
+    Iterator<HistogramKey> iterator = ac.getRipeDigestsIterator(() -> 20_000L);
+    List<HistogramKey> ripe = new ArrayList<>();
+    while (iterator.hasNext()) {
+      HistogramKey key = iterator.next();
+      ripe.add(key);
+      if (key.equals(keyA)) {
+        iterator.remove();
+      }
+    }
+    assertThat(ripe).containsExactly(keyA, keyB);
+    assertThat(ImmutableList.copyOf(ac.getRipeDigestsIterator(() -> 20_000L))).
+        containsExactly(keyB);
+    assertThat(ImmutableList.copyOf(ac.getRipeDigestsIterator(() -> 40_000L))).
+        containsExactly(keyB, keyC);
+
+    // a key that is re-added after being dispatched gets a new dispatch time
+    ac.flush();
+    clock.set(40_000L);
+    ac.put(keyA, 3D);
+    assertThat(ImmutableList.copyOf(ac.getRipeDigestsIterator(() -> 40_000L))).
+        containsExactly(keyB, keyC);
+    assertThat(ImmutableList.copyOf(ac.getRipeDigestsIterator(() -> 46_000L))).
+        containsExactly(keyA, keyB, keyC);
+  }
+
   @Test
   public void testChronicleMapOverflow() {
     ConcurrentMap<HistogramKey, AgentDigest> chronicleMap = ChronicleMap.of(HistogramKey.class, AgentDigest.class).
@@ -0,0 +1,106 @@
+package com.wavefront.agent.histogram.accumulator;
+
+import com.tdunning.math.stats.AgentDigest;
+import com.wavefront.agent.histogram.HistogramKey;
+import com.wavefront.agent.histogram.TestUtils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Compares throughput of merging samples with a Zipfian key distribution directly into the
+ * {@link AccumulationCache} and through a {@link StagingAccumulator}. Not part of the regular
+ * test run, use the {@code benchmarks} profile.
+ */
+public class StagingAccumulatorBenchmark {
+  private final static short COMPRESSION = 100;
+
+  private final AtomicLong clock = new AtomicLong(10_000L);
+
+  @Test
+  public void benchmarkZipfianThroughput() throws Exception {
+    int threads = 4;
+    int samplesPerThread = 200_000;
+    List<HistogramKey> keys = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      keys.add(TestUtils.makeKey("key" + i));
+    }
+    int[][] samples = new int[threads][];
+    for (int i = 0; i < threads; i++) {
+      samples[i] = zipfian(keys.size(), 1.1, samplesPerThread, new Random(i));
+    }
+    // warm up
+    for (int i = 0; i < 2; i++) {
+      measure(newCache(new ConcurrentHashMap<>()), keys, samples);
+      measure(new StagingAccumulator(newCache(new ConcurrentHashMap<>()), 256, 10, "",
+          clock::get), keys, samples);
+    }
+    ConcurrentMap<HistogramKey, AgentDigest> direct = new ConcurrentHashMap<>();
+    long directNanos = measure(newCache(direct), keys, samples);
+    ConcurrentMap<HistogramKey, AgentDigest> staged = new ConcurrentHashMap<>();
+    long stagedNanos = measure(new StagingAccumulator(newCache(staged), 256, 10, "",
+        clock::get), keys, samples);
+    long totalSamples = (long) threads * samplesPerThread;
+    System.out.println("Zipfian (s=1.1, " + keys.size() + " keys, " + threads + " threads): " +
+        "direct " + totalSamples * 1_000_000_000L / directNanos + " samples/s, staged " +
+        totalSamples * 1_000_000_000L / stagedNanos + " samples/s");
+    assertThat(direct.values().stream().mapToLong(AgentDigest::size).sum()).
+        isEqualTo(totalSamples);
+    assertThat(staged.values().stream().mapToLong(AgentDigest::size).sum()).
+        isEqualTo(totalSamples);
+    assertThat(staged.keySet()).isEqualTo(direct.keySet());
+  }
+
+  private AccumulationCache newCache(ConcurrentMap<HistogramKey, AgentDigest> backingStore) {
+    return new AccumulationCache(backingStore,
+        new AgentDigestFactory(() -> COMPRESSION, 60_000L, clock::get), 10_000, "", clock::get);
+  }
+
+  private static long measure(Accumulator accumulator, List<HistogramKey> keys,
+                              int[][] samples) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(samples.length);
+    long start = System.nanoTime();
+    List<Future<?>> futures = new ArrayList<>();
+    for (int[] threadSamples : samples) {
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < threadSamples.length; i++) {
+          accumulator.put(keys.get(threadSamples[i]), i % 100);
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    accumulator.flush();
+    long nanos = System.nanoTime() - start;
+    executor.shutdown();
+    return nanos;
+  }
+
+  private static int[] zipfian(int numKeys, double exponent, int count, Random random) {
+    double[] cdf = new double[numKeys];
+    double sum = 0;
+    for (int i = 0; i < numKeys; i++) {
+      sum += 1 / Math.pow(i + 1, exponent);
+      cdf[i] = sum;
+    }
+    int[] result = new int[count];
+    for (int i = 0; i < count; i++) {
+      int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+      result[i] = Math.min(index < 0 ? -index - 1 : index, numKeys - 1);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,101 @@
+package com.wavefront.agent.histogram.accumulator;
+
+import com.tdunning.math.stats.AgentDigest;
+import com.wavefront.agent.histogram.HistogramKey;
+import com.wavefront.agent.histogram.TestUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Unit tests around {@link StagingAccumulator}
+ */
+public class StagingAccumulatorTest {
+  private final static short COMPRESSION = 100;
+
+  private ConcurrentMap<HistogramKey, AgentDigest> backingStore;
+  private AccumulationCache cache;
+  private AtomicLong clock;
+
+  private HistogramKey keyA = TestUtils.makeKey("keyA");
+  private HistogramKey keyB = TestUtils.makeKey("keyB");
+
+  @Before
+  public void setup() {
+    backingStore = new ConcurrentHashMap<>();
+    clock = new AtomicLong(10_000L);
+    cache = new AccumulationCache(backingStore,
+        new AgentDigestFactory(() -> COMPRESSION, 60_000L, clock::get), 100, "", clock::get);
+  }
+
+  @Test
+  public void testSamplesAreMergedInBulk() {
+    StagingAccumulator accumulator = new StagingAccumulator(cache, 10, 100, "", clock::get);
+    for (int i = 0; i < 9; i++) {
+      accumulator.put(i % 3 == 0 ? keyA : keyB, i);
+    }
+    assertThat(accumulator.getStagedSamples()).isEqualTo(9);
+    cache.flush();
+    assertThat(backingStore).isEmpty();
+
+    accumulator.put(keyA, 9);
+    assertThat(accumulator.getStagedSamples()).isEqualTo(0);
+    cache.flush();
+    assertThat(backingStore.get(keyA).size()).isEqualTo(4L);
+    assertThat(backingStore.get(keyB).size()).isEqualTo(6L);
+
+    // flush() merges staged samples too
+    accumulator.put(keyB, 10);
+    accumulator.flush();
+    assertThat(accumulator.getStagedSamples()).isEqualTo(0);
+    assertThat(backingStore.get(keyB).size()).isEqualTo(7L);
+  }
+
+  @Test
+  public void testStagedSamplesExpire() {
+    StagingAccumulator accumulator = new StagingAccumulator(cache, 1000, 100, "", clock::get);
+    accumulator.put(keyA, 1);
+    clock.addAndGet(50);
+    accumulator.put(keyA, 2);
+    accumulator.flushStaged();
+    assertThat(accumulator.getStagedSamples()).isEqualTo(2);
+    clock.addAndGet(50);
+    accumulator.flushStaged();
+    assertThat(accumulator.getStagedSamples()).isEqualTo(0);
+    cache.flush();
+    assertThat(backingStore.get(keyA).size()).isEqualTo(2L);
+    assertThat(accumulator.getRipeDigestsIterator(() -> 100_000L).next()).isEqualTo(keyA);
+  }
+
+  @Test
+  public void testConcurrentPutsAreNotLost() throws Exception {
+    StagingAccumulator accumulator = new StagingAccumulator(cache, 256, 10, "", clock::get);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int thread = 0; thread < 4; thread++) {
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          accumulator.put(i % 3 == 0 ? keyA : keyB, i % 100);
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    accumulator.flush();
+    assertThat(backingStore.get(keyA).size() + backingStore.get(keyB).size()).
+        isEqualTo(40_000L);
+  }
+}
@@ -0,0 +1,130 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.wavefront.agent.data.DefaultEntityPropertiesForTesting;
+import com.wavefront.agent.data.LineDelimitedDataSubmissionTask;
+import com.wavefront.agent.handlers.HandlerKey;
+import com.wavefront.common.TaggedMetricName;
+import com.wavefront.data.ReportableEntityType;
+import com.yammer.metrics.Metrics;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BufferQuotaManagerTest {
+  private static final HandlerKey POINTS = HandlerKey.of(ReportableEntityType.POINT, "2878");
+  // a separate port, so that dropped tasks are not counted for POINTS
+  private static final HandlerKey OTHER_POINTS = HandlerKey.of(ReportableEntityType.POINT, "2879");
+  private static final HandlerKey SPAN_LOGS =
+      HandlerKey.of(ReportableEntityType.TRACE_SPAN_LOGS, "30001");
+
+  @Test
+  public void testPortQuotaDropsOldestShards() throws Exception {
+    TaskQueue<LineDelimitedDataSubmissionTask> queue = newQueue("points.2878.0");
+    for (int i = 0; i < 300; i++) {
+      queue.add(FileBasedTaskQueueTest.task(1));
+    }
+    long storageBytes = queue.getStorageBytes();
+    assertTrue(storageBytes > 20_000);
+    new BufferQuotaManager(ImmutableMap.of(POINTS, ImmutableMap.of(0, queue)), 0, 10_000,
+        ImmutableList.of()).run();
+    assertTrue(queue.getStorageBytes() <= 10_000);
+    int dropped = 300 - queue.size();
+    assertTrue(dropped > 0);
+    assertEquals(Long.valueOf(queue.size()), queue.weight());
+    assertEquals(dropped, Metrics.newCounter(new TaggedMetricName("buffer", "points-dropped",
+        "port", "2878")).count());
+    assertEquals(storageBytes - queue.getStorageBytes(), Metrics.newCounter(
+        new TaggedMetricName("buffer", "points-bytes-dropped", "port", "2878")).count());
+    // the head of the queue is never dropped
+    assertEquals(1, queue.peek().weight());
+    queue.close();
+  }
+
+  @Test
+  public void testEvictionOrder() throws Exception {
+    TaskQueue<LineDelimitedDataSubmissionTask> points = newQueue("points.2878.0");
+    TaskQueue<LineDelimitedDataSubmissionTask> spanLogs = newQueue("spanLogs.30001.0");
+    for (int i = 0; i < 300; i++) {
+      points.add(FileBasedTaskQueueTest.task(1));
+      spanLogs.add(FileBasedTaskQueueTest.task(1));
+    }
+    long pointsBytes = points.getStorageBytes();
+    long spanLogsBytes = spanLogs.getStorageBytes();
+    Map<HandlerKey, Map<Integer, TaskQueue<?>>> queues = ImmutableMap.of(
+        POINTS, ImmutableMap.of(0, points), SPAN_LOGS, ImmutableMap.of(0, spanLogs));
+    BufferQuotaManager manager = new BufferQuotaManager(queues, pointsBytes + 10_000, 0,
+        ImmutableList.of(ReportableEntityType.TRACE_SPAN_LOGS, ReportableEntityType.POINT));
+    manager.run();
+    assertEquals(pointsBytes, points.getStorageBytes().longValue());
+    assertEquals(300, points.size());
+    assertTrue(spanLogs.getStorageBytes() < spanLogsBytes);
+    assertTrue(points.getStorageBytes() + spanLogs.getStorageBytes() <= pointsBytes + 10_000);
+
+    // once span logs are down to the shards in use, points are dropped too
+    new BufferQuotaManager(queues, 10_000, 0, ImmutableList.of(
+        ReportableEntityType.TRACE_SPAN_LOGS, ReportableEntityType.POINT)).run();
+    assertTrue(points.size() < 300);
+    points.close();
+    spanLogs.close();
+  }
+
+  @Test
+  public void testPeekedTasksAreNotDropped() throws Exception {
+    TaskQueue<LineDelimitedDataSubmissionTask> queue = newQueue("points.2879.0");
+    for (int i = 0; i < 300; i++) {
+      queue.add(task("item" + i));
+    }
+    // the consumer is replaying a window of tasks that spans several shards
+    List<LineDelimitedDataSubmissionTask> window = queue.peek(100);
+    new BufferQuotaManager(ImmutableMap.of(OTHER_POINTS, ImmutableMap.of(0, queue)), 0, 10_000,
+        ImmutableList.of()).run();
+    assertTrue(queue.size() < 300);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(window.get(i).payload(), queue.peek().payload());
+      queue.remove();
+    }
+    queue.close();
+  }
+
+  @Test
+  public void testQuotaIsEnforcedOnAdd() throws Exception {
+    Map<HandlerKey, Map<Integer, TaskQueue<?>>> queues = new HashMap<>();
+    BufferQuotaManager manager = new BufferQuotaManager(queues, 0, 10_000, ImmutableList.of(),
+        1000);
+    TaskQueue<LineDelimitedDataSubmissionTask> queue = new FileBasedTaskQueue<>(
+        new MappedSegmentQueueFile(Files.createTempDir().getAbsolutePath() + "/points.2879.0",
+            4096, 0, null, null), FileBasedTaskQueueTest.countingConverter(new AtomicInteger()),
+        null, null, 0, null, (weight, taskBytes) -> manager.onTaskAdded(taskBytes));
+    queues.put(OTHER_POINTS, ImmutableMap.of(0, queue));
+    for (int i = 0; i < 300; i++) {
+      queue.add(FileBasedTaskQueueTest.task(1));
+    }
+    assertTrue(queue.size() < 300);
+    // quotas are checked every 1000 bytes, so they can be exceeded by at most one segment
+    assertTrue(queue.getStorageBytes() <= 10_000 + 4096);
+    queue.close();
+  }
+
+  private static LineDelimitedDataSubmissionTask task(String item) {
+    return new LineDelimitedDataSubmissionTask(null, UUID.randomUUID(),
+        new DefaultEntityPropertiesForTesting(), null, "wavefront", ReportableEntityType.POINT,
+        "2878", ImmutableList.of(item), () -> 12345L);
+  }
+
+  private static TaskQueue<LineDelimitedDataSubmissionTask> newQueue(String name)
+      throws Exception {
+    return new FileBasedTaskQueue<>(new MappedSegmentQueueFile(
+        Files.createTempDir().getAbsolutePath() + "/" + name, 4096, 0, null, null),
+        FileBasedTaskQueueTest.countingConverter(new AtomicInteger()));
+  }
+}
@@ -9,6 +9,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
@@ -19,6 +20,7 @@ import com.wavefront.common.Pair;
 import static com.wavefront.agent.queueing.ConcurrentShardedQueueFile.incrementFileName;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author vasily@wavefront.com
@@ -118,6 +120,56 @@ public class ConcurrentShardedQueueFileTest {
     System.out.println("Remove time (ms) = " + nanosGet.get() / 1_000_000);
   }
 
+  @Test
+  public void testStatsAreTrackedWithoutOpeningFiles() throws Exception {
+    String fileName = new File(File.createTempFile("proxyStatsTest", null).getPath() +
+        ".spool").getCanonicalPath();
+    AtomicInteger filesOpened = new AtomicInteger();
+    ConcurrentShardedQueueFile queueFile = new ConcurrentShardedQueueFile(fileName, ".spool",
+        16 * 1024, s -> {
+          filesOpened.incrementAndGet();
+          return new TapeQueueFile(new QueueFile.Builder(new File(s)).build());
+        });
+    for (int i = 0; i < 100; i++) {
+      queueFile.add(new byte[1000]);
+    }
+    assertTrue(queueFile.shards.size() > 4);
+    assertStats(queueFile, fileName, 100);
+
+    int opened = filesOpened.get();
+    for (int i = 0; i < 1000; i++) {
+      queueFile.size();
+      queueFile.storageBytes();
+      queueFile.usedBytes();
+    }
+    assertEquals(opened, filesOpened.get());
+
+    for (int i = 0; i < 30; i++) {
+      queueFile.peek();
+      queueFile.remove();
+    }
+    assertStats(queueFile, fileName, 70);
+    int dropped = queueFile.dropOldestShard(1);
+    assertTrue(dropped > 0);
+    assertStats(queueFile, fileName, 70 - dropped);
+    queueFile.clear();
+    assertEquals(0, queueFile.size());
+    assertStats(queueFile, fileName, 0);
+    queueFile.close();
+  }
+
+  private static void assertStats(ConcurrentShardedQueueFile queueFile, String fileName,
+                                  int expectedSize) throws Exception {
+    assertEquals(expectedSize, queueFile.size());
+    // stats for a freshly opened queue are read from the shard files
+    ConcurrentShardedQueueFile reopened = new ConcurrentShardedQueueFile(fileName, ".spool",
+        16 * 1024, s -> new TapeQueueFile(new QueueFile.Builder(new File(s)).build()));
+    assertEquals(reopened.size(), queueFile.size());
+    assertEquals(reopened.storageBytes(), queueFile.storageBytes());
+    assertEquals(reopened.usedBytes(), queueFile.usedBytes());
+    reopened.close();
+  }
+
   private byte[] randomTask() {
     int size = RANDOM.nextInt(32 * 1024) + 1;
     byte[] result = new byte[size];
@@ -0,0 +1,300 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.wavefront.agent.data.DefaultEntityPropertiesFactoryForTesting;
+import com.wavefront.agent.data.DefaultEntityPropertiesForTesting;
+import com.wavefront.agent.data.LineDelimitedDataSubmissionTask;
+import com.wavefront.agent.handlers.HandlerKey;
+import com.wavefront.data.ReportableEntityType;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileBasedTaskQueueTest {
+
+  @Test
+  public void testWeightRestoredFromCheckpoint() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    String checkpointFile = prefix + ".checkpoint";
+    AtomicInteger scanned = new AtomicInteger();
+
+    FileBasedTaskQueue<LineDelimitedDataSubmissionTask> queue = new FileBasedTaskQueue<>(
+        new MappedSegmentQueueFile(prefix, 4096, 0, null, null), countingConverter(scanned),
+        checkpointFile);
+    for (int i = 0; i < 10; i++) {
+      queue.add(task(i + 1));
+    }
+    queue.peek();
+    queue.remove(); // weight 1
+    assertEquals(Long.valueOf(54), queue.weight());
+    queue.close();
+    assertTrue(new File(checkpointFile).exists());
+    assertEquals(0, scanned.get());
+
+    queue = new FileBasedTaskQueue<>(new MappedSegmentQueueFile(prefix, 4096, 0, null, null),
+        countingConverter(scanned), checkpointFile);
+    assertEquals(0, scanned.get());
+    assertEquals(Long.valueOf(54), queue.weight());
+    assertEquals(9, queue.size());
+    queue.peek();
+    queue.remove(); // weight 2
+    queue.add(task(3));
+    queue.close();
+
+    queue = new FileBasedTaskQueue<>(new MappedSegmentQueueFile(prefix, 4096, 0, null, null),
+        countingConverter(scanned), checkpointFile);
+    assertEquals(0, scanned.get());
+    assertEquals(Long.valueOf(55), queue.weight());
+    queue.close();
+  }
+
+  @Test
+  public void testPeriodicCheckpointUsesDecodedHead() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    File checkpointFile = new File(prefix + ".checkpoint");
+    AtomicInteger scanned = new AtomicInteger();
+
+    FileBasedTaskQueue<LineDelimitedDataSubmissionTask> queue = new FileBasedTaskQueue<>(
+        new MappedSegmentQueueFile(prefix, 4096, 0, null, null), countingConverter(scanned),
+        checkpointFile.getPath());
+    queue.add(task(2));
+    queue.add(task(3));
+    // the head hasn't been decoded yet, so the checkpoint is postponed
+    queue.checkpoint();
+    assertFalse(checkpointFile.exists());
+    queue.peek();
+    queue.checkpoint();
+    assertTrue(checkpointFile.exists());
+
+    // restored from the checkpoint, same as if the proxy crashed after it had been written
+    FileBasedTaskQueue<LineDelimitedDataSubmissionTask> restored = new FileBasedTaskQueue<>(
+        new MappedSegmentQueueFile(prefix, 4096, 0, null, null), countingConverter(scanned),
+        checkpointFile.getPath());
+    assertEquals(0, scanned.get());
+    assertEquals(Long.valueOf(5), restored.weight());
+    restored.close();
+    queue.close();
+  }
+
+  @Test
+  public void testStaleCheckpointTriggersScan() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    String checkpointFile = prefix + ".checkpoint";
+    AtomicInteger scanned = new AtomicInteger();
+
+    FileBasedTaskQueue<LineDelimitedDataSubmissionTask> queue = new FileBasedTaskQueue<>(
+        new MappedSegmentQueueFile(prefix, 4096, 0, null, null), countingConverter(scanned),
+        checkpointFile);
+    queue.add(task(5));
+    queue.add(task(7));
+    queue.close();
+
+    // modify the queue behind the checkpoint's back, same as if the proxy crashed after
+    // the last checkpoint had been written
+    QueueFile queueFile = new MappedSegmentQueueFile(prefix, 4096, 0, null, null);
+    RetryTaskConverter<LineDelimitedDataSubmissionTask> converter = new RetryTaskConverter<>(
+        "2878", RetryTaskConverter.CompressionType.LZ4);
+    queueFile.remove();
+    DirectByteArrayOutputStream bytes = new DirectByteArrayOutputStream();
+    converter.serializeToStream(task(11), bytes);
+    queueFile.add(bytes.getArray(), 0, bytes.size());
+    queueFile.close();
+
+    queue = new FileBasedTaskQueue<>(new MappedSegmentQueueFile(prefix, 4096, 0, null, null),
+        countingConverter(scanned), checkpointFile);
+    assertEquals(2, scanned.get());
+    assertEquals(Long.valueOf(18), queue.weight());
+    queue.close();
+  }
+
+  @Test
+  public void testCorruptedCheckpointTriggersScan() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    String checkpointFile = prefix + ".checkpoint";
+    AtomicInteger scanned = new AtomicInteger();
+
+    FileBasedTaskQueue<LineDelimitedDataSubmissionTask> queue = new FileBasedTaskQueue<>(
+        new MappedSegmentQueueFile(prefix, 4096, 0, null, null), countingConverter(scanned),
+        checkpointFile);
+    queue.add(task(5));
+    queue.close();
+    byte[] checkpoint = Files.toByteArray(new File(checkpointFile));
+    checkpoint[10] ^= 0xFF;
+    Files.write(checkpoint, new File(checkpointFile));
+
+    queue = new FileBasedTaskQueue<>(new MappedSegmentQueueFile(prefix, 4096, 0, null, null),
+        countingConverter(scanned), checkpointFile);
+    assertEquals(1, scanned.get());
+    assertEquals(Long.valueOf(5), queue.weight());
+    queue.close();
+  }
+
+  @Test
+  public void testReadAhead() throws Exception {
+    File file = new File(Files.createTempDir(), "points.2878.0.spool");
+    AtomicInteger hits = new AtomicInteger();
+    AtomicInteger misses = new AtomicInteger();
+    FileBasedTaskQueue<LineDelimitedDataSubmissionTask> queue = new FileBasedTaskQueue<>(
+        new ConcurrentShardedQueueFile(file.getCanonicalPath(), ".spool", 1024,
+            s -> new TapeQueueFile(new com.squareup.tape2.QueueFile.Builder(new File(s)).build())),
+        countingConverter(new AtomicInteger()), null, null, 4,
+        (prefetched, micros) -> (prefetched ? hits : misses).incrementAndGet());
+    for (int i = 0; i < 50; i++) {
+      queue.add(task(i + 1));
+    }
+    for (int i = 0; i < 50; i++) {
+      LineDelimitedDataSubmissionTask task = queue.peek();
+      assertNotNull(task);
+      assertEquals(i + 1, task.weight());
+      if (i == 20) {
+        // tasks already decoded by read-ahead are returned in order as well
+        assertEquals(ImmutableList.of(21, 22, 23), queue.peek(3).stream().
+            map(LineDelimitedDataSubmissionTask::weight).collect(Collectors.toList()));
+      }
+      Thread.sleep(5); // let read-ahead catch up, same as when waiting for a response
+      queue.remove();
+      if (i == 40) {
+        queue.add(task(51));
+      }
+    }
+    assertEquals(51, queue.peek().weight());
+    queue.remove();
+    assertNull(queue.peek());
+    assertEquals(Long.valueOf(0), queue.weight());
+    assertEquals(51, hits.get() + misses.get());
+    assertTrue(hits.get() > 40);
+    queue.close();
+  }
+
+  @Test
+  public void testReadAheadReadsEachTaskOnce() throws Exception {
+    AtomicInteger reads = new AtomicInteger();
+    MappedSegmentQueueFile queueFile = new MappedSegmentQueueFile(
+        Files.createTempDir().getAbsolutePath() + "/points.2878.0", 4096, 0, null, null) {
+      @Override
+      public Iterator<byte[]> iterator() {
+        Iterator<byte[]> iterator = super.iterator();
+        return new Iterator<byte[]>() {
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public byte[] next() {
+            reads.incrementAndGet();
+            return iterator.next();
+          }
+        };
+      }
+    };
+    AtomicInteger hits = new AtomicInteger();
+    FileBasedTaskQueue<LineDelimitedDataSubmissionTask> queue = new FileBasedTaskQueue<>(
+        queueFile, countingConverter(new AtomicInteger()), null, null, 4,
+        (prefetched, micros) -> {
+          if (prefetched) hits.incrementAndGet();
+        });
+    for (int i = 0; i < 100; i++) {
+      queue.add(task(i + 1));
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i + 1, queue.peek().weight());
+      Thread.sleep(5); // let read-ahead catch up, same as when waiting for a response
+      queue.remove();
+    }
+    assertNull(queue.peek());
+    assertTrue(hits.get() > 90);
+    // tasks that are already in the read-ahead window are not read again on every run
+    assertTrue("reads: " + reads.get(), reads.get() < 150);
+    queue.close();
+  }
+
+  @Test
+  public void testReadAheadIsDiscardedOnClear() throws Exception {
+    FileBasedTaskQueue<LineDelimitedDataSubmissionTask> queue = new FileBasedTaskQueue<>(
+        new MappedSegmentQueueFile(Files.createTempDir().getAbsolutePath() + "/points.2878.0",
+            4096, 0, null, null), countingConverter(new AtomicInteger()), null, null, 4, null);
+    for (int i = 0; i < 10; i++) {
+      queue.add(task(i + 1));
+    }
+    assertEquals(1, queue.peek().weight());
+    Thread.sleep(50);
+    queue.clear();
+    queue.add(task(100));
+    assertEquals(100, queue.peek().weight());
+    queue.remove();
+    assertNull(queue.peek());
+    assertEquals(0, queue.size());
+    queue.close();
+  }
+
+  @Test
+  public void testOpenExistingQueues() throws Exception {
+    String bufferFile = Files.createTempDir().getAbsolutePath() + "/buffer";
+    TaskQueueFactoryImpl factory = new TaskQueueFactoryImpl(bufferFile, false, false, 128);
+    HandlerKey key = HandlerKey.of(ReportableEntityType.POINT, "2878");
+    TaskQueue<LineDelimitedDataSubmissionTask> queue = factory.getTaskQueue(key, 0);
+    queue.add(task(3));
+    factory.shutdown();
+
+    File lockFile = new File(bufferFile + ".points.2878.0.lck");
+    assertTrue(lockFile.delete());
+    factory = new TaskQueueFactoryImpl(bufferFile, false, false, 128);
+    factory.openExistingQueues(new DefaultEntityPropertiesFactoryForTesting());
+    // lock file is re-created when the queue is opened
+    assertTrue(lockFile.exists());
+    assertFalse(new File(bufferFile + ".points.2878.1.lck").exists());
+    TaskQueue<LineDelimitedDataSubmissionTask> restored = factory.getTaskQueue(key, 0);
+    assertEquals(Long.valueOf(3), restored.weight());
+    assertNotNull(restored.peek());
+    factory.shutdown();
+  }
+
+  static LineDelimitedDataSubmissionTask task(int weight) {
+    ImmutableList.Builder<String> payload = ImmutableList.builder();
+    for (int i = 0; i < weight; i++) {
+      payload.add("item" + i);
+    }
+    return new LineDelimitedDataSubmissionTask(null, UUID.randomUUID(),
+        new DefaultEntityPropertiesForTesting(), null, "wavefront", ReportableEntityType.POINT,
+        "2878", payload.build(), () -> 12345L);
+  }
+
+  static TaskConverter<LineDelimitedDataSubmissionTask> countingConverter(
+      AtomicInteger scanned) {
+    RetryTaskConverter<LineDelimitedDataSubmissionTask> delegate = new RetryTaskConverter<>(
+        "2878", RetryTaskConverter.CompressionType.LZ4);
+    return new TaskConverter<LineDelimitedDataSubmissionTask>() {
+      @Override
+      public LineDelimitedDataSubmissionTask fromBytes(@Nonnull byte[] bytes) {
+        return delegate.fromBytes(bytes);
+      }
+
+      @Override
+      public void serializeToStream(@Nonnull LineDelimitedDataSubmissionTask value,
+                                    @Nonnull OutputStream bytes) throws IOException {
+        delegate.serializeToStream(value, bytes);
+      }
+
+      @Override
+      public Integer getWeight(@Nonnull byte[] bytes) {
+        scanned.incrementAndGet();
+        return delegate.getWeight(bytes);
+      }
+    };
+  }
+}
@@ -0,0 +1,137 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.io.Files;
+import com.wavefront.agent.data.LineDelimitedDataSubmissionTask;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GroupCommitQueueFileTest {
+
+  @Test
+  public void testConcurrentWritesAreCoalesced() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    AtomicInteger commits = new AtomicInteger();
+    AtomicInteger committedTasks = new AtomicInteger();
+    QueueFile queueFile = new GroupCommitQueueFile(
+        new MappedSegmentQueueFile(prefix, 1024 * 1024, -1, null, null), SyncPolicy.NONE, 0,
+        Long.MAX_VALUE, (tasks, millis) -> {
+          commits.incrementAndGet();
+          committedTasks.addAndGet(tasks);
+        });
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int thread = 0; thread < 8; thread++) {
+      int threadNum = thread;
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 1000; i++) {
+          queueFile.add(("task-" + threadNum + "-" + i).getBytes());
+        }
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    // staged tasks are visible to the consumer right away
+    assertEquals(8000, queueFile.size());
+    Set<String> tasks = new HashSet<>();
+    byte[] task;
+    while ((task = queueFile.peek()) != null) {
+      tasks.add(new String(task));
+      queueFile.remove();
+    }
+    assertEquals(8000, tasks.size());
+    assertEquals(8000, committedTasks.get());
+    assertTrue(commits.get() < 8000);
+    queueFile.close();
+  }
+
+  @Test
+  public void testOrderIsPreserved() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    QueueFile queueFile = new GroupCommitQueueFile(
+        new MappedSegmentQueueFile(prefix, 1024 * 1024, -1, null, null), SyncPolicy.NONE, 0,
+        Long.MAX_VALUE, null);
+    for (int i = 0; i < 100; i++) {
+      queueFile.add(new byte[] {(byte) i});
+    }
+    for (int i = 0; i < 100; i++) {
+      assertArrayEquals(new byte[] {(byte) i}, queueFile.peek());
+      queueFile.remove();
+    }
+    assertNull(queueFile.peek());
+    queueFile.close();
+  }
+
+  @Test
+  public void testSyncEveryNBytes() throws Exception {
+    AtomicInteger flushes = new AtomicInteger();
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    QueueFile delegate = new MappedSegmentQueueFile(prefix, 1024 * 1024, -1, null, null) {
+      @Override
+      public void flush() {
+        flushes.incrementAndGet();
+        super.flush();
+      }
+    };
+    GroupCommitQueueFile queueFile = new GroupCommitQueueFile(delegate, SyncPolicy.BYTES, 1000,
+        Long.MAX_VALUE, null);
+    for (int i = 0; i < 10; i++) {
+      queueFile.add(new byte[250]);
+      queueFile.commit();
+    }
+    assertEquals(2, flushes.get());
+    queueFile.close();
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    AtomicInteger commits = new AtomicInteger();
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    QueueFile queueFile = new GroupCommitQueueFile(
+        new MappedSegmentQueueFile(prefix, 1024 * 1024, -1, null, null), SyncPolicy.NONE, 0,
+        100, (tasks, millis) -> commits.incrementAndGet());
+    // exceeding maxPendingBytes writes the batch on the calling thread
+    queueFile.add(new byte[200]);
+    assertEquals(1, commits.get());
+    assertEquals(1, queueFile.size());
+    queueFile.close();
+  }
+
+  @Test
+  public void testTaskQueueCheckpointWithGroupCommit() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    String checkpointFile = prefix + ".checkpoint";
+    FileBasedTaskQueue<LineDelimitedDataSubmissionTask> queue = new FileBasedTaskQueue<>(
+        new GroupCommitQueueFile(new MappedSegmentQueueFile(prefix, 4096, -1, null, null),
+            SyncPolicy.INTERVAL, 1000, Long.MAX_VALUE, null),
+        FileBasedTaskQueueTest.countingConverter(new AtomicInteger()), checkpointFile);
+    for (int i = 0; i < 10; i++) {
+      queue.add(FileBasedTaskQueueTest.task(i + 1));
+    }
+    queue.close();
+    AtomicInteger scanned = new AtomicInteger();
+    FileBasedTaskQueue<LineDelimitedDataSubmissionTask> restored = new FileBasedTaskQueue<>(
+        new GroupCommitQueueFile(new MappedSegmentQueueFile(prefix, 4096, -1, null, null),
+            SyncPolicy.NONE, 0, Long.MAX_VALUE, null),
+        FileBasedTaskQueueTest.countingConverter(scanned), checkpointFile);
+    assertEquals(0, scanned.get());
+    assertEquals(Long.valueOf(55), restored.weight());
+    assertEquals(10, restored.size());
+    restored.close();
+  }
+}
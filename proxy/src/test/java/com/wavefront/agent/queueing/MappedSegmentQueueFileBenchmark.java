@@ -0,0 +1,68 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.io.Files;
+import com.squareup.tape2.QueueFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link MappedSegmentQueueFile} read and write throughput to Tape queue files. Not part
+ * of the regular test run, use the {@code benchmarks} profile.
+ */
+public class MappedSegmentQueueFileBenchmark {
+  private static final Random RANDOM = new Random();
+
+  @Test
+  public void benchmarkThroughputVsTape() throws Exception {
+    int taskSize = 16 * 1024;
+    int numTasks = 1000;
+    for (int run = 0; run < 2; run++) {
+      String mmapPrefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+      long[] mmap = measure(new MappedSegmentQueueFile(mmapPrefix, 4 * 1024 * 1024, 1000, null,
+          null), taskSize, numTasks);
+      String tapePrefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0.spool";
+      long[] tape = measure(new ConcurrentShardedQueueFile(tapePrefix, ".spool",
+          4 * 1024 * 1024, s -> new TapeQueueFile(new QueueFile.Builder(new File(s)).build())),
+          taskSize, numTasks);
+      System.out.println("Write MB/s: memory-mapped segments = " + mmap[0] + ", tape = " +
+          tape[0] + "; read MB/s: memory-mapped segments = " + mmap[1] + ", tape = " + tape[1]);
+    }
+  }
+
+  private static long[] measure(com.wavefront.agent.queueing.QueueFile queueFile, int taskSize,
+                                int numTasks) throws Exception {
+    List<byte[]> tasks = new ArrayList<>();
+    for (int i = 0; i < numTasks; i++) {
+      tasks.add(randomTask(taskSize));
+    }
+    long totalBytes = (long) taskSize * numTasks;
+    long start = System.nanoTime();
+    for (byte[] task : tasks) {
+      queueFile.add(task);
+    }
+    long writeNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (byte[] task : tasks) {
+      assertEquals(task.length, queueFile.peek().length);
+      queueFile.remove();
+    }
+    long readNanos = System.nanoTime() - start;
+    assertTrue(queueFile.isEmpty());
+    queueFile.close();
+    return new long[] {totalBytes * 1000 / Math.max(1, writeNanos),
+        totalBytes * 1000 / Math.max(1, readNanos)};
+  }
+
+  private static byte[] randomTask(int size) {
+    byte[] task = new byte[size];
+    RANDOM.nextBytes(task);
+    return task;
+  }
+}
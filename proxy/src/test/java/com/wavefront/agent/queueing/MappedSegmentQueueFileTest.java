@@ -0,0 +1,160 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedSegmentQueueFileTest {
+  private static final Random RANDOM = new Random();
+
+  @Test
+  public void testAddPeekRemoveAcrossSegments() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    MappedSegmentQueueFile queueFile = new MappedSegmentQueueFile(prefix, 1024, 0, null, null);
+    assertTrue(queueFile.isEmpty());
+    assertNull(queueFile.peek());
+    List<byte[]> tasks = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      byte[] task = randomTask(100);
+      tasks.add(task);
+      queueFile.add(task);
+    }
+    assertEquals(50, queueFile.size());
+    assertEquals(50 * 104, queueFile.usedBytes());
+    assertTrue(queueFile.segments.size() > 4);
+    assertEquals(queueFile.segments.size(),
+        MappedSegmentQueueFile.listSegments(prefix).size());
+    for (byte[] task : tasks) {
+      assertArrayEquals(task, queueFile.peek());
+      queueFile.remove();
+    }
+    assertTrue(queueFile.isEmpty());
+    assertNull(queueFile.peek());
+    assertEquals(0, queueFile.usedBytes());
+    // fully consumed segments are deleted
+    assertEquals(1, queueFile.segments.size());
+    assertEquals(1, MappedSegmentQueueFile.listSegments(prefix).size());
+    queueFile.close();
+  }
+
+  @Test
+  public void testOversizedTask() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    MappedSegmentQueueFile queueFile = new MappedSegmentQueueFile(prefix, 1024, 0, null, null);
+    byte[] small = randomTask(10);
+    byte[] large = randomTask(5000);
+    queueFile.add(small);
+    queueFile.add(large);
+    queueFile.add(small);
+    assertEquals(3, queueFile.size());
+    assertArrayEquals(small, queueFile.peek());
+    queueFile.remove();
+    assertArrayEquals(large, queueFile.peek());
+    queueFile.remove();
+    assertArrayEquals(small, queueFile.peek());
+    queueFile.remove();
+    assertTrue(queueFile.isEmpty());
+    queueFile.close();
+  }
+
+  @Test
+  public void testReopen() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    MappedSegmentQueueFile queueFile = new MappedSegmentQueueFile(prefix, 1024, 1000, null,
+        null);
+    List<byte[]> tasks = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      byte[] task = randomTask(RANDOM.nextInt(200));
+      tasks.add(task);
+      queueFile.add(task);
+    }
+    for (int i = 0; i < 12; i++) {
+      queueFile.remove();
+    }
+    long usedBytes = queueFile.usedBytes();
+    queueFile.close();
+
+    queueFile = new MappedSegmentQueueFile(prefix, 1024, 1000, null, null);
+    assertEquals(18, queueFile.size());
+    assertEquals(usedBytes, queueFile.usedBytes());
+    Iterator<byte[]> iterator = queueFile.iterator();
+    for (byte[] task : tasks.subList(12, 30)) {
+      assertTrue(iterator.hasNext());
+      assertArrayEquals(task, iterator.next());
+    }
+    assertFalse(iterator.hasNext());
+    byte[] task = randomTask(50);
+    queueFile.add(task);
+    for (byte[] expected : tasks.subList(12, 30)) {
+      assertArrayEquals(expected, queueFile.peek());
+      queueFile.remove();
+    }
+    assertArrayEquals(task, queueFile.peek());
+    queueFile.clear();
+    assertTrue(queueFile.isEmpty());
+    queueFile.add(task);
+    queueFile.close();
+
+    queueFile = new MappedSegmentQueueFile(prefix, 1024, 1000, null, null);
+    assertEquals(1, queueFile.size());
+    assertArrayEquals(task, queueFile.peek());
+    queueFile.close();
+  }
+
+  @Test
+  public void testIteratorRemove() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    MappedSegmentQueueFile queueFile = new MappedSegmentQueueFile(prefix, 1024, 0, null, null);
+    for (int i = 0; i < 3; i++) {
+      queueFile.add(new byte[] {(byte) i});
+    }
+    Iterator<byte[]> iterator = queueFile.iterator();
+    assertArrayEquals(new byte[] {0}, iterator.next());
+    iterator.remove();
+    assertEquals(2, queueFile.size());
+    assertArrayEquals(new byte[] {1}, queueFile.peek());
+    queueFile.close();
+  }
+
+  @Test
+  public void testIteratorOverDeletedSegment() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    MappedSegmentQueueFile queueFile = new MappedSegmentQueueFile(prefix, 1024, 0, null, null);
+    for (int i = 0; i < 20; i++) {
+      queueFile.add(randomTask(100));
+    }
+    Iterator<byte[]> iterator = queueFile.iterator();
+    iterator.next();
+    // consume the first segment, which deletes and unmaps it
+    for (int i = 0; i < 9; i++) {
+      queueFile.remove();
+    }
+    assertEquals(MappedSegmentQueueFile.listSegments(prefix).size(), queueFile.segments.size());
+    try {
+      iterator.next();
+      fail();
+    } catch (ConcurrentModificationException e) {
+      // expected
+    }
+    assertEquals(11, queueFile.size());
+    queueFile.close();
+  }
+
+  private static byte[] randomTask(int size) {
+    byte[] task = new byte[size];
+    RANDOM.nextBytes(task);
+    return task;
+  }
+}
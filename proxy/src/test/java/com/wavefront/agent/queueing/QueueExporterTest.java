@@ -166,6 +166,22 @@ public class QueueExporterTest {
     assertTrue(hk.contains(k2));
   }
 
+  @Test
+  public void testGetValidHandlerKeysForMemoryMappedQueues() throws Exception {
+    String bufferFile = Files.createTempDir().getAbsolutePath() + "/buffer";
+    TaskQueueFactoryImpl taskQueueFactory = new TaskQueueFactoryImpl(bufferFile, false, false, 1,
+        new TaskQueueFactoryImpl.Options().memoryMapped(true));
+    taskQueueFactory.getTaskQueue(HandlerKey.of(ReportableEntityType.POINT, "2878"), 0);
+    taskQueueFactory.getTaskQueue(HandlerKey.of(ReportableEntityType.EVENT, "2888"), 0);
+    taskQueueFactory.shutdown();
+    List<String> files = MappedSegmentQueueFile.listFiles(bufferFile);
+    assertEquals(2, files.size());
+    Set<HandlerKey> hk = QueueExporter.getValidHandlerKeys(files, "all");
+    assertEquals(2, hk.size());
+    assertTrue(hk.contains(HandlerKey.of(ReportableEntityType.POINT, "2878")));
+    assertTrue(hk.contains(HandlerKey.of(ReportableEntityType.EVENT, "2888")));
+  }
+
   @Test
   public void testQueueExporterWithRetainData() throws Exception {
     File file = new File(File.createTempFile("proxyTestConverter", null).getPath() + ".queue");
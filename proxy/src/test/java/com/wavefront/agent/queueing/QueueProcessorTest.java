@@ -0,0 +1,329 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.wavefront.agent.api.NoopProxyV2API;
+import com.wavefront.agent.data.DefaultEntityPropertiesForTesting;
+import com.wavefront.agent.data.DefaultGlobalPropertiesForTesting;
+import com.wavefront.agent.data.EntityProperties;
+import com.wavefront.agent.data.LineDelimitedDataSubmissionTask;
+import com.wavefront.agent.handlers.HandlerKey;
+import com.wavefront.data.ReportableEntityType;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueueProcessorTest {
+  private static final HandlerKey HANDLER_KEY = HandlerKey.of(ReportableEntityType.POINT, "2878");
+
+  @Test
+  public void testParallelReplay() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+    NoopProxyV2API api = new NoopProxyV2API(null) {
+      @Override
+      public Response proxyReportStream(UUID uuid, String format, StreamingOutput pushData) {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        inFlight.decrementAndGet();
+        delivered.add(read(pushData));
+        return Response.ok().build();
+      }
+    };
+    TaskQueue<LineDelimitedDataSubmissionTask> queue = newQueue();
+    for (int i = 0; i < 20; i++) {
+      enqueue(queue, "item" + i);
+    }
+    ExecutorService replayExecutor = Executors.newCachedThreadPool();
+    drain(queue, api, properties(5), replayExecutor);
+    assertEquals(5, maxInFlight.get());
+    assertEquals(20, delivered.size());
+    assertEquals(0, queue.size());
+    assertEquals(Long.valueOf(0), queue.weight());
+    replayExecutor.shutdown();
+  }
+
+  @Test
+  public void testRetryLaterMovesTaskToTail() throws Exception {
+    AtomicInteger item2Attempts = new AtomicInteger();
+    List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+    NoopProxyV2API api = new NoopProxyV2API(null) {
+      @Override
+      public Response proxyReportStream(UUID uuid, String format, StreamingOutput pushData) {
+        String data = read(pushData);
+        if (data.equals("item2") && item2Attempts.getAndIncrement() == 0) {
+          return Response.status(429).build();
+        }
+        delivered.add(data);
+        return Response.ok().build();
+      }
+    };
+    TaskQueue<LineDelimitedDataSubmissionTask> queue = newQueue();
+    for (int i = 0; i < 5; i++) {
+      enqueue(queue, "item" + i);
+    }
+    ExecutorService replayExecutor = Executors.newCachedThreadPool();
+    drain(queue, api, properties(5), replayExecutor);
+    assertEquals(2, item2Attempts.get());
+    // the failed task is moved to the tail, tasks after it are not re-sent
+    assertEquals(ImmutableList.of("item0", "item1", "item2", "item3", "item4"),
+        sorted(delivered));
+    assertEquals(0, queue.size());
+    replayExecutor.shutdown();
+  }
+
+  @Test
+  public void testRetryLaterDoesNotDuplicatePersistedTasks() throws Exception {
+    // "a" has to be retried, "b" and "c" are split and written back to the queue
+    NoopProxyV2API api = new NoopProxyV2API(null) {
+      @Override
+      public Response proxyReportStream(UUID uuid, String format, StreamingOutput pushData) {
+        return Response.status(429).build();
+      }
+    };
+    TaskQueue<LineDelimitedDataSubmissionTask> queue = newQueue();
+    enqueue(queue, "a");
+    enqueue(queue, "b", "c");
+    EntityProperties properties = new DefaultEntityPropertiesForTesting() {
+      @Override
+      public int getMaxInFlightReplayTasks() {
+        return 2;
+      }
+
+      @Override
+      public boolean isSplitPushWhenRateLimited() {
+        return true;
+      }
+
+      @Override
+      public int getMinBatchSplitSize() {
+        return 1;
+      }
+    };
+    ExecutorService replayExecutor = Executors.newCachedThreadPool();
+    QueueProcessor<LineDelimitedDataSubmissionTask> processor = newProcessor(queue, api,
+        properties, replayExecutor);
+    processor.run();
+    // "a" is moved to the tail, "b,c" is replaced by its split pieces (in either order, as
+    // tasks complete concurrently)
+    List<String> contents = new ArrayList<>();
+    queue.iterator().forEachRemaining(task -> contents.add(String.join(",", task.payload())));
+    assertEquals(ImmutableList.of("a", "b", "c"), sorted(contents));
+    assertEquals(Long.valueOf(3), queue.weight());
+    processor.stop();
+    replayExecutor.shutdown();
+  }
+
+  @Test
+  public void testSequentialReplayWithoutExecutor() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    NoopProxyV2API api = new NoopProxyV2API(null) {
+      @Override
+      public Response proxyReportStream(UUID uuid, String format, StreamingOutput pushData) {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        inFlight.decrementAndGet();
+        return Response.ok().build();
+      }
+    };
+    TaskQueue<LineDelimitedDataSubmissionTask> queue = newQueue();
+    for (int i = 0; i < 10; i++) {
+      enqueue(queue, "item" + i);
+    }
+    drain(queue, api, properties(5), null);
+    assertEquals(1, maxInFlight.get());
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void testBacklogCompaction() throws Exception {
+    List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    NoopProxyV2API api = new NoopProxyV2API(null) {
+      @Override
+      public Response proxyReportStream(UUID uuid, String format, StreamingOutput pushData) {
+        requests.add(read(pushData));
+        return Response.ok().build();
+      }
+    };
+    TaskQueue<LineDelimitedDataSubmissionTask> queue = newQueue();
+    for (int i = 0; i < 25; i++) {
+      enqueue(queue, "item" + i);
+    }
+    drain(queue, api, properties(1, true, 10), null);
+    assertEquals(3, requests.size());
+    assertEquals(10, requests.get(0).split("\n").length);
+    assertEquals(5, requests.get(2).split("\n").length);
+    assertTrue(requests.get(0).startsWith("item0\n"));
+    assertTrue(requests.get(2).endsWith("item24"));
+    assertEquals(0, queue.size());
+    assertEquals(Long.valueOf(0), queue.weight());
+  }
+
+  @Test
+  public void testBacklogCompactionPeeksOnlyTasksItNeeds() throws Exception {
+    NoopProxyV2API api = new NoopProxyV2API(null) {
+      @Override
+      public Response proxyReportStream(UUID uuid, String format, StreamingOutput pushData) {
+        return Response.ok().build();
+      }
+    };
+    AtomicInteger maxPeeked = new AtomicInteger();
+    TaskQueue<LineDelimitedDataSubmissionTask> queue =
+        new InstrumentedTaskQueueDelegate<LineDelimitedDataSubmissionTask>(newQueue(), null, null,
+            null) {
+      @Override
+      public List<LineDelimitedDataSubmissionTask> peek(int count) {
+        maxPeeked.accumulateAndGet(count, Math::max);
+        return super.peek(count);
+      }
+    };
+    for (int i = 0; i < 200; i++) {
+      enqueue(queue, "item" + i);
+    }
+    drain(queue, api, properties(1, true, 10), null);
+    assertEquals(0, queue.size());
+    // 10 single-item tasks fill a batch, there's no need to decode the entire window
+    assertEquals(11, maxPeeked.get());
+  }
+
+  @Test
+  public void testBacklogCompactionWithParallelReplay() throws Exception {
+    List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    NoopProxyV2API api = new NoopProxyV2API(null) {
+      @Override
+      public Response proxyReportStream(UUID uuid, String format, StreamingOutput pushData) {
+        requests.add(read(pushData));
+        return Response.ok().build();
+      }
+    };
+    TaskQueue<LineDelimitedDataSubmissionTask> queue = newQueue();
+    for (int i = 0; i < 40; i++) {
+      enqueue(queue, "item" + i);
+    }
+    // a task of a different format can't be merged with its neighbours
+    new LineDelimitedDataSubmissionTask(null, UUID.randomUUID(),
+        new DefaultEntityPropertiesForTesting(), queue, "histogram", ReportableEntityType.POINT,
+        "2878", ImmutableList.of("histogram"), System::currentTimeMillis).enqueue(null);
+    enqueue(queue, "item40");
+    ExecutorService replayExecutor = Executors.newCachedThreadPool();
+    drain(queue, api, properties(2, true, 20), replayExecutor);
+    assertEquals(4, requests.size());
+    assertTrue(requests.contains("histogram"));
+    assertTrue(requests.contains("item40"));
+    assertEquals(0, queue.size());
+    replayExecutor.shutdown();
+  }
+
+  /**
+   * Runs the processor on the calling thread until the queue is empty, so that all its changes
+   * to the queue are complete when this method returns.
+   */
+  private static void drain(TaskQueue<LineDelimitedDataSubmissionTask> queue,
+                            NoopProxyV2API api, EntityProperties properties,
+                            ExecutorService replayExecutor) {
+    QueueProcessor<LineDelimitedDataSubmissionTask> processor = newProcessor(queue, api,
+        properties, replayExecutor);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (queue.size() > 0 && System.currentTimeMillis() < deadline) {
+      processor.run();
+    }
+    processor.stop();
+  }
+
+  /**
+   * Creates a started processor that is only run when {@link QueueProcessor#run()} is called.
+   */
+  private static QueueProcessor<LineDelimitedDataSubmissionTask> newProcessor(
+      TaskQueue<LineDelimitedDataSubmissionTask> queue, NoopProxyV2API api,
+      EntityProperties properties, ExecutorService replayExecutor) {
+    ScheduledExecutorService scheduler = EasyMock.createNiceMock(ScheduledExecutorService.class);
+    EasyMock.replay(scheduler);
+    UUID proxyId = UUID.randomUUID();
+    QueueProcessor<LineDelimitedDataSubmissionTask> processor = new QueueProcessor<>(HANDLER_KEY,
+        queue, task -> task.injectMembers(api, proxyId, properties, queue), scheduler,
+        properties, new DefaultGlobalPropertiesForTesting(), replayExecutor);
+    processor.start();
+    return processor;
+  }
+
+  private static TaskQueue<LineDelimitedDataSubmissionTask> newQueue() throws IOException {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    return new InstrumentedTaskQueueDelegate<>(new FileBasedTaskQueue<>(
+        new MappedSegmentQueueFile(prefix, 4096, 0, null, null),
+        new RetryTaskConverter<LineDelimitedDataSubmissionTask>("2878",
+            TaskConverter.CompressionType.LZ4)), null, null, null);
+  }
+
+  private static void enqueue(TaskQueue<LineDelimitedDataSubmissionTask> queue,
+                              String... items) {
+    new LineDelimitedDataSubmissionTask(null, UUID.randomUUID(),
+        new DefaultEntityPropertiesForTesting(), queue, "wavefront", ReportableEntityType.POINT,
+        "2878", ImmutableList.copyOf(items), System::currentTimeMillis).enqueue(null);
+  }
+
+  private static EntityProperties properties(int maxInFlightReplayTasks) {
+    return properties(maxInFlightReplayTasks, false, EntityProperties.DEFAULT_BATCH_SIZE);
+  }
+
+  private static EntityProperties properties(int maxInFlightReplayTasks, boolean compaction,
+                                             int itemsPerBatch) {
+    return new DefaultEntityPropertiesForTesting() {
+      @Override
+      public int getMaxInFlightReplayTasks() {
+        return maxInFlightReplayTasks;
+      }
+
+      @Override
+      public boolean isBacklogCompactionEnabled() {
+        return compaction;
+      }
+
+      @Override
+      public int getItemsPerBatch() {
+        return itemsPerBatch;
+      }
+
+      @Override
+      public int getPushFlushInterval() {
+        return 10;
+      }
+    };
+  }
+
+  private static List<String> sorted(List<String> items) {
+    List<String> result = new ArrayList<>(items);
+    Collections.sort(result);
+    return result;
+  }
+
+  private static String read(StreamingOutput pushData) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      pushData.write(out);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return out.toString().trim();
+  }
+}
@@ -0,0 +1,159 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.collect.ImmutableList;
+import com.wavefront.agent.api.NoopProxyV2API;
+import com.wavefront.agent.api.PrecompressedPayload;
+import com.wavefront.agent.api.ProxyV2StreamingAPI;
+import com.wavefront.agent.data.DataSubmissionTask;
+import com.wavefront.agent.data.DefaultEntityPropertiesForTesting;
+import com.wavefront.agent.data.LineDelimitedDataSubmissionTask;
+import com.wavefront.agent.data.TaskResult;
+import com.wavefront.data.ReportableEntityType;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares serialization throughput and size of tasks stored as JSON and in binary format, and
+ * replay throughput of tasks stored with and without precompressed payloads. Not part of the
+ * regular test run, use the {@code benchmarks} profile.
+ */
+public class RetryTaskConverterBenchmark {
+
+  @Test
+  public void benchmarkSerialization() throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      lines.add("metric.name.number." + i + " " + (i * 1.5) + " 1600000000 source=host" + i +
+          " env=prod region=us-west-2");
+    }
+    LineDelimitedDataSubmissionTask task = new LineDelimitedDataSubmissionTask(null,
+        UUID.randomUUID(), new DefaultEntityPropertiesForTesting(), null, "wavefront",
+        ReportableEntityType.POINT, "2878", ImmutableList.copyOf(lines), () -> 12345L);
+    for (RetryTaskConverter.CompressionType compressionType :
+        RetryTaskConverter.CompressionType.values()) {
+      RetryTaskConverter<LineDelimitedDataSubmissionTask> json = new RetryTaskConverter<>(
+          "2878", compressionType);
+      RetryTaskConverter<LineDelimitedDataSubmissionTask> binary = new RetryTaskConverter<>(
+          "2878", compressionType, true, false);
+      int iterations = 20000;
+      for (int run = 0; run < 3; run++) {
+        long jsonSerializeNanos = serialize(json, task, iterations);
+        long binarySerializeNanos = serialize(binary, task, iterations);
+        byte[] jsonBytes = serialize(json, task);
+        byte[] binaryBytes = serialize(binary, task);
+        long jsonDeserializeNanos = deserialize(json, jsonBytes, iterations);
+        long binaryDeserializeNanos = deserialize(binary, binaryBytes, iterations);
+        System.out.println(compressionType + " tasks/s serialize: json = " +
+            perSecond(iterations, jsonSerializeNanos) + ", binary = " +
+            perSecond(iterations, binarySerializeNanos) + "; deserialize: json = " +
+            perSecond(iterations, jsonDeserializeNanos) + ", binary = " +
+            perSecond(iterations, binaryDeserializeNanos) + "; size: json = " +
+            jsonBytes.length + ", binary = " + binaryBytes.length);
+      }
+    }
+  }
+
+  @Test
+  public void benchmarkReplay() throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      lines.add("metric.name.number." + i + " " + (i * 1.5) + " 1600000000 source=host" + i +
+          " env=prod region=us-west-2");
+    }
+    LineDelimitedDataSubmissionTask task = new LineDelimitedDataSubmissionTask(null,
+        UUID.randomUUID(), new DefaultEntityPropertiesForTesting(), null, "wavefront",
+        ReportableEntityType.POINT, "2878", lines, () -> 12345L);
+    RetryTaskConverter<LineDelimitedDataSubmissionTask> regular = new RetryTaskConverter<>(
+        "2878", RetryTaskConverter.CompressionType.LZ4);
+    RetryTaskConverter<LineDelimitedDataSubmissionTask> precompressed = new RetryTaskConverter<>(
+        "2878", RetryTaskConverter.CompressionType.LZ4, false, true);
+    byte[] regularBytes = serialize(regular, task);
+    byte[] precompressedBytes = serialize(precompressed, task);
+    int iterations = 1000;
+    for (int run = 0; run < 2; run++) {
+      long regularNanos = replay(regular, regularBytes, iterations);
+      long precompressedNanos = replay(precompressed, precompressedBytes, iterations);
+      System.out.println("Replayed tasks/s: regular = " + perSecond(iterations, regularNanos) +
+          ", precompressed = " + perSecond(iterations, precompressedNanos) + "; size: " +
+          "regular = " + regularBytes.length + ", precompressed = " + precompressedBytes.length);
+    }
+  }
+
+  /** Restores and sends tasks from serialized bytes. */
+  private static long replay(RetryTaskConverter<LineDelimitedDataSubmissionTask> converter,
+                             byte[] bytes, int iterations) throws Exception {
+    ProxyV2StreamingAPI api = streamingApi();
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      LineDelimitedDataSubmissionTask task = converter.fromBytes(bytes);
+      task.injectMembers(api, UUID.randomUUID(), new DefaultEntityPropertiesForTesting(), null);
+      assertEquals(TaskResult.DELIVERED, task.execute());
+    }
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * API stub that compresses request bodies the same way the HTTP client does.
+   */
+  private static ProxyV2StreamingAPI streamingApi() {
+    return new NoopProxyV2API(null) {
+      @Override
+      public Response proxyReportStream(UUID proxyId, String format, StreamingOutput pushData) {
+        try {
+          if (pushData instanceof PrecompressedPayload) {
+            pushData.write(NullOutputStream.NULL_OUTPUT_STREAM);
+          } else {
+            OutputStream out = new GZIPOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+            pushData.write(out);
+            out.close();
+          }
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        return Response.ok().build();
+      }
+    };
+  }
+
+  private static long serialize(RetryTaskConverter<LineDelimitedDataSubmissionTask> converter,
+                                LineDelimitedDataSubmissionTask task, int iterations)
+      throws IOException {
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      serialize(converter, task);
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static long deserialize(RetryTaskConverter<LineDelimitedDataSubmissionTask> converter,
+                                  byte[] bytes, int iterations) {
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      assertEquals(100, converter.fromBytes(bytes).weight());
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static long perSecond(int iterations, long nanos) {
+    return iterations * 1_000_000_000L / Math.max(1, nanos);
+  }
+
+  private static <T extends DataSubmissionTask<T>> byte[] serialize(
+      RetryTaskConverter<T> converter, T task) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    converter.serializeToStream(task, out);
+    return out.toByteArray();
+  }
+}
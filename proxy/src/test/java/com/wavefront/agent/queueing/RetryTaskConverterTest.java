@@ -1,16 +1,50 @@
 package com.wavefront.agent.queueing;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.wavefront.agent.api.NoopProxyV2API;
+import com.wavefront.agent.api.PrecompressedPayload;
+import com.wavefront.agent.api.ProxyV2StreamingAPI;
+import com.wavefront.agent.data.DataSubmissionTask;
 import com.wavefront.agent.data.DefaultEntityPropertiesForTesting;
+import com.wavefront.agent.data.EventDataSubmissionTask;
 import com.wavefront.agent.data.LineDelimitedDataSubmissionTask;
+import com.wavefront.agent.data.SourceTagSubmissionTask;
+import com.wavefront.agent.data.TaskResult;
+import com.wavefront.agent.handlers.LineDelimitedUtils;
 import com.wavefront.data.ReportableEntityType;
+import com.wavefront.dto.Event;
+import com.wavefront.dto.SourceTag;
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
+import wavefront.report.ReportEvent;
+import wavefront.report.ReportSourceTag;
+import wavefront.report.SourceOperationType;
+import wavefront.report.SourceTagAction;
 
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class RetryTaskConverterTest {
+  private static final ObjectMapper JSON = JsonMapper.builder().
+      activateDefaultTyping(LaissezFaireSubTypeValidator.instance).build();
 
   @Test
   public void testTaskSerialize() {
@@ -26,4 +60,195 @@ public class RetryTaskConverterTest {
     assertNull(converter.fromBytes(new byte[] {'W', 'F', 1}));
     assertNull(converter.fromBytes(new byte[] {'W', 'F', 1, 0}));
   }
+
+  @Test
+  public void testLineDelimitedBinaryRoundTrip() throws Exception {
+    LineDelimitedDataSubmissionTask task = new LineDelimitedDataSubmissionTask(null,
+        UUID.randomUUID(), new DefaultEntityPropertiesForTesting(), null, "wavefront",
+        ReportableEntityType.POINT, "2878", ImmutableList.of("item1", "item2 é中", ""),
+        () -> 12345L);
+    for (RetryTaskConverter.CompressionType compressionType :
+        RetryTaskConverter.CompressionType.values()) {
+      RetryTaskConverter<LineDelimitedDataSubmissionTask> converter = new RetryTaskConverter<>(
+          "2878", compressionType, true, false);
+      byte[] bytes = serialize(converter, task);
+      assertEquals(RetryTaskConverter.WRAPPED_BINARY, bytes[3]);
+      assertEquals(Integer.valueOf(3), converter.getWeight(bytes));
+      LineDelimitedDataSubmissionTask restored = converter.fromBytes(bytes);
+      assertNotNull(restored);
+      assertEquals(task.payload(), restored.payload());
+      assertEquals(ReportableEntityType.POINT, restored.getEntityType());
+      assertEquals(task.getEnqueuedMillis(), restored.getEnqueuedMillis());
+      assertEquals(3, restored.weight());
+      assertEquals(JSON.writeValueAsString(task), JSON.writeValueAsString(restored));
+    }
+  }
+
+  @Test
+  public void testEventBinaryRoundTrip() throws Exception {
+    Event event = new Event(ReportEvent.newBuilder().setName("event").setStartTime(1000L).
+        setEndTime(2000L).setAnnotations(ImmutableMap.of("severity", "warn")).
+        setHosts(ImmutableList.of("host1", "host2")).setTags(ImmutableList.of("tag1")).
+        setDimensions(ImmutableMap.of("dim", ImmutableList.of("a", "b"))).build());
+    Event eventNoTags = new Event(ReportEvent.newBuilder().setName("event2").setStartTime(3000L).
+        setEndTime(3001L).setAnnotations(ImmutableMap.of()).
+        setHosts(ImmutableList.of("host1")).build());
+    EventDataSubmissionTask task = new EventDataSubmissionTask(null, UUID.randomUUID(),
+        new DefaultEntityPropertiesForTesting(), null, "2878",
+        ImmutableList.of(event, eventNoTags), () -> 12345L);
+    RetryTaskConverter<EventDataSubmissionTask> converter = new RetryTaskConverter<>(
+        "2878", RetryTaskConverter.CompressionType.LZ4, true, false);
+    byte[] bytes = serialize(converter, task);
+    assertEquals(RetryTaskConverter.WRAPPED_BINARY, bytes[3]);
+    EventDataSubmissionTask restored = converter.fromBytes(bytes);
+    assertNotNull(restored);
+    assertEquals(ReportableEntityType.EVENT, restored.getEntityType());
+    assertEquals(task.payload(), restored.payload());
+    assertEquals(JSON.writeValueAsString(task), JSON.writeValueAsString(restored));
+  }
+
+  @Test
+  public void testSourceTagBinaryRoundTrip() throws Exception {
+    SourceTag sourceTag = new SourceTag(ReportSourceTag.newBuilder().
+        setOperation(SourceOperationType.SOURCE_TAG).setAction(SourceTagAction.SAVE).
+        setSource("source").setAnnotations(ImmutableList.of("tag1", "tag2")).build());
+    SourceTagSubmissionTask task = new SourceTagSubmissionTask(null,
+        new DefaultEntityPropertiesForTesting(), null, "2878", sourceTag, () -> 12345L);
+    RetryTaskConverter<SourceTagSubmissionTask> converter = new RetryTaskConverter<>(
+        "2878", RetryTaskConverter.CompressionType.GZIP, true, false);
+    byte[] bytes = serialize(converter, task);
+    assertEquals(RetryTaskConverter.WRAPPED_BINARY, bytes[3]);
+    SourceTagSubmissionTask restored = converter.fromBytes(bytes);
+    assertNotNull(restored);
+    assertEquals(ReportableEntityType.SOURCE_TAG, restored.getEntityType());
+    assertEquals(sourceTag, restored.payload());
+    assertEquals(JSON.writeValueAsString(task), JSON.writeValueAsString(restored));
+  }
+
+  @Test
+  public void testJsonByDefault() throws Exception {
+    LineDelimitedDataSubmissionTask task = new LineDelimitedDataSubmissionTask(null,
+        UUID.randomUUID(), new DefaultEntityPropertiesForTesting(), null, "wavefront",
+        ReportableEntityType.POINT, "2878", ImmutableList.of("item1", "item2"), () -> 12345L);
+    RetryTaskConverter<LineDelimitedDataSubmissionTask> converter = new RetryTaskConverter<>(
+        "2878", RetryTaskConverter.CompressionType.LZ4);
+    byte[] bytes = serialize(converter, task);
+    assertEquals(RetryTaskConverter.WRAPPED, bytes[3]);
+    assertEquals(task.payload(), converter.fromBytes(bytes).payload());
+    // binary tasks are readable when binary encoding is disabled
+    RetryTaskConverter<LineDelimitedDataSubmissionTask> binaryConverter =
+        new RetryTaskConverter<>("2878", RetryTaskConverter.CompressionType.LZ4, true, false);
+    assertEquals(task.payload(),
+        converter.fromBytes(serialize(binaryConverter, task)).payload());
+  }
+
+  @Test
+  public void testReadsJsonTasks() throws Exception {
+    LineDelimitedDataSubmissionTask task = new LineDelimitedDataSubmissionTask(null,
+        UUID.randomUUID(), new DefaultEntityPropertiesForTesting(), null, "wavefront",
+        ReportableEntityType.POINT, "2878", ImmutableList.of("item1", "item2"), () -> 12345L);
+    RetryTaskConverter<LineDelimitedDataSubmissionTask> converter = new RetryTaskConverter<>(
+        "2878", RetryTaskConverter.CompressionType.LZ4);
+    byte[] bytes = serializeJson(task);
+    assertEquals(Integer.valueOf(2), converter.getWeight(bytes));
+    LineDelimitedDataSubmissionTask restored = converter.fromBytes(bytes);
+    assertNotNull(restored);
+    assertEquals(task.payload(), restored.payload());
+  }
+
+  @Test
+  public void testPrecompressedPayload() throws Exception {
+    List<String> lines = ImmutableList.of("item1", "", "item3 é中", "item4");
+    LineDelimitedDataSubmissionTask task = new LineDelimitedDataSubmissionTask(null,
+        UUID.randomUUID(), new DefaultEntityPropertiesForTesting(), null, "wavefront",
+        ReportableEntityType.POINT, "2878", lines, () -> 12345L);
+    RetryTaskConverter<LineDelimitedDataSubmissionTask> converter = new RetryTaskConverter<>(
+        "2878", RetryTaskConverter.CompressionType.LZ4, false, true);
+    byte[] bytes = serialize(converter, task);
+    assertEquals(RetryTaskConverter.WRAPPED_BINARY, bytes[3]);
+    assertEquals(RetryTaskConverter.FORMAT_RAW, bytes[4]);
+    assertEquals(Integer.valueOf(4), converter.getWeight(bytes));
+
+    LineDelimitedDataSubmissionTask restored = converter.fromBytes(bytes);
+    assertNotNull(restored);
+    assertEquals(4, restored.weight());
+    List<StreamingOutput> sent = new ArrayList<>();
+    restored.injectMembers(streamingApi(sent), UUID.randomUUID(),
+        new DefaultEntityPropertiesForTesting(), null);
+    assertEquals(TaskResult.DELIVERED, restored.execute());
+    assertEquals(1, sent.size());
+    assertTrue(sent.get(0) instanceof PrecompressedPayload);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    sent.get(0).write(body);
+    assertEquals(LineDelimitedUtils.joinPushData(lines), new String(IOUtils.toByteArray(
+        new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))),
+        StandardCharsets.UTF_8));
+
+    // re-serializing a restored task keeps the compressed body as-is
+    assertEquals(bytes.length, serialize(converter, restored).length);
+    // payload is decoded when needed, i.e. for splitting
+    assertEquals(lines, restored.payload());
+    List<LineDelimitedDataSubmissionTask> split = restored.splitTask(1, 2);
+    assertEquals(2, split.size());
+    assertEquals(lines.subList(0, 2), split.get(0).payload());
+    assertEquals(lines.subList(2, 4), split.get(1).payload());
+    // readable by a converter that doesn't store precompressed payloads
+    RetryTaskConverter<LineDelimitedDataSubmissionTask> regularConverter =
+        new RetryTaskConverter<>("2878", RetryTaskConverter.CompressionType.LZ4);
+    assertEquals(lines, regularConverter.fromBytes(bytes).payload());
+  }
+
+  @Test
+  public void testPrecompressedTaskRoundTripWithPrecompressionDisabled() throws Exception {
+    List<String> lines = ImmutableList.of("item1", "item2", "item3");
+    LineDelimitedDataSubmissionTask task = new LineDelimitedDataSubmissionTask(null,
+        UUID.randomUUID(), new DefaultEntityPropertiesForTesting(), null, "wavefront",
+        ReportableEntityType.POINT, "2878", lines, () -> 12345L);
+    RetryTaskConverter<LineDelimitedDataSubmissionTask> precompressingConverter =
+        new RetryTaskConverter<>("2878", RetryTaskConverter.CompressionType.LZ4, false, true);
+    LineDelimitedDataSubmissionTask restored = precompressingConverter.fromBytes(
+        serialize(precompressingConverter, task));
+    assertNotNull(restored);
+
+    // re-enqueued after the option has been switched off: stored as JSON
+    RetryTaskConverter<LineDelimitedDataSubmissionTask> converter = new RetryTaskConverter<>(
+        "2878", RetryTaskConverter.CompressionType.LZ4, false, false);
+    byte[] bytes = serialize(converter, restored);
+    assertEquals(RetryTaskConverter.WRAPPED, bytes[3]);
+    assertEquals(Integer.valueOf(3), converter.getWeight(bytes));
+    LineDelimitedDataSubmissionTask reRestored = converter.fromBytes(bytes);
+    assertNotNull(reRestored);
+    assertEquals(lines, reRestored.payload());
+    assertEquals(3, reRestored.weight());
+  }
+
+  /**
+   * API stub that captures request bodies.
+   */
+  private static ProxyV2StreamingAPI streamingApi(List<StreamingOutput> sent) {
+    return new NoopProxyV2API(null) {
+      @Override
+      public Response proxyReportStream(UUID proxyId, String format, StreamingOutput pushData) {
+        sent.add(pushData);
+        return Response.ok().build();
+      }
+    };
+  }
+
+  private static <T extends DataSubmissionTask<T>> byte[] serialize(
+      RetryTaskConverter<T> converter, T task) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    converter.serializeToStream(task, out);
+    return out.toByteArray();
+  }
+
+  /** Serializes a task in the JSON format used before binary encoding was introduced. */
+  private static byte[] serializeJson(DataSubmissionTask<?> task) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(RetryTaskConverter.PREFIX);
+    out.write(RetryTaskConverter.FORMAT_RAW);
+    out.write(ByteBuffer.allocate(4).putInt(task.weight()).array());
+    JSON.writeValue(out, task);
+    return out.toByteArray();
+  }
 }
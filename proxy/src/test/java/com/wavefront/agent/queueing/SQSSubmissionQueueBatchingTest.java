@@ -0,0 +1,255 @@
+package com.wavefront.agent.queueing;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.wavefront.agent.data.DefaultEntityPropertiesForTesting;
+import com.wavefront.agent.data.LineDelimitedDataSubmissionTask;
+import com.wavefront.data.ReportableEntityType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SQSSubmissionQueueBatchingTest {
+  private static final String QUEUE_URL = "https://amazonsqs.some.queue";
+
+  @Test
+  public void testCallsPerTask() throws Exception {
+    FakeSQS sqs = new FakeSQS();
+    SQSSubmissionQueue<LineDelimitedDataSubmissionTask> queue =
+        newQueue(sqs, System::currentTimeMillis);
+    for (int i = 0; i < 95; i++) {
+      enqueue(queue, "item" + i);
+    }
+    // staged tasks are counted right away
+    assertEquals(95, queue.size());
+    queue.flush();
+    assertEquals(95, sqs.visible.size());
+    List<String> items = new ArrayList<>();
+    LineDelimitedDataSubmissionTask task;
+    while ((task = queue.peek()) != null) {
+      items.addAll(task.payload());
+      queue.remove();
+    }
+    queue.close();
+    assertEquals(95, items.size());
+    assertEquals("item0", items.get(0));
+    assertEquals("item94", items.get(94));
+    assertTrue(sqs.inFlight.isEmpty());
+    assertEquals(10, sqs.sendCalls.get());
+    // one extra receive to find out that the queue is empty
+    assertEquals(11, sqs.receiveCalls.get());
+    assertEquals(10, sqs.deleteCalls.get());
+  }
+
+  @Test
+  public void testVisibilityTimeoutIsExtendedForPrefetchedMessages() throws Exception {
+    FakeSQS sqs = new FakeSQS();
+    AtomicLong time = new AtomicLong(100_000L);
+    SQSSubmissionQueue<LineDelimitedDataSubmissionTask> queue = newQueue(sqs, time::get);
+    for (int i = 0; i < 10; i++) {
+      enqueue(queue, "item" + i);
+    }
+    queue.flush();
+    for (int i = 0; i < 3; i++) {
+      queue.peek();
+      queue.remove();
+    }
+    assertEquals(0, sqs.visibilityChanges.get());
+    time.addAndGet(31_000L);
+    assertEquals(ImmutableList.of("item3"), queue.peek().payload());
+    // removed messages are deleted, the rest stay invisible to other consumers
+    assertEquals(1, sqs.deleteCalls.get());
+    assertEquals(3, sqs.deleted.get());
+    assertEquals(7, sqs.visibilityChanges.get());
+    assertEquals(7, sqs.inFlight.size());
+    queue.close();
+  }
+
+  @Test
+  public void testFailedSendIsRetried() throws Exception {
+    FakeSQS sqs = new FakeSQS();
+    sqs.failNextSend = true;
+    SQSSubmissionQueue<LineDelimitedDataSubmissionTask> queue =
+        newQueue(sqs, System::currentTimeMillis);
+    enqueue(queue, "item0");
+    enqueue(queue, "item1");
+    queue.flush();
+    assertEquals(1, sqs.visible.size());
+    queue.flush();
+    assertEquals(2, sqs.visible.size());
+    assertEquals(ImmutableList.of("item0"), queue.peek().payload());
+    queue.remove();
+    assertEquals(ImmutableList.of("item1"), queue.peek().payload());
+    queue.remove();
+    assertNull(queue.peek());
+    queue.close();
+  }
+
+  @Test
+  public void testSendIsRetriedAfterClientException() throws Exception {
+    FakeSQS sqs = new FakeSQS();
+    SQSSubmissionQueue<LineDelimitedDataSubmissionTask> queue =
+        newQueue(sqs, System::currentTimeMillis);
+    enqueue(queue, "item0");
+    enqueue(queue, "item1");
+    sqs.throwOnNextSend = true;
+    try {
+      queue.flush();
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(0, sqs.visible.size());
+    assertEquals(2, queue.size());
+    queue.close();
+    assertEquals(2, sqs.visible.size());
+    assertEquals(ImmutableList.of("item0"), queue.peek().payload());
+  }
+
+  @Test
+  public void testAddRejectsTaskWhenStagedTasksCannotBeSent() throws Exception {
+    FakeSQS sqs = new FakeSQS();
+    SQSSubmissionQueue<LineDelimitedDataSubmissionTask> queue =
+        newQueue(sqs, System::currentTimeMillis);
+    sqs.throwOnNextSend = true;
+    // the 10th task fills up the batch, it stays staged when it can't be sent
+    for (int i = 0; i < 10; i++) {
+      enqueue(queue, "item" + i);
+    }
+    assertEquals(10, queue.size());
+    sqs.throwOnNextSend = true;
+    try {
+      queue.add(new LineDelimitedDataSubmissionTask(null, UUID.randomUUID(),
+          new DefaultEntityPropertiesForTesting(), queue, "wavefront", ReportableEntityType.POINT,
+          "2878", ImmutableList.of("item10"), System::currentTimeMillis));
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(10, queue.size());
+    queue.flush();
+    assertEquals(10, sqs.visible.size());
+    queue.close();
+  }
+
+  static SQSSubmissionQueue<LineDelimitedDataSubmissionTask> newQueue(
+      FakeSQS sqs, Supplier<Long> timeProvider) {
+    return new SQSSubmissionQueue<>(QUEUE_URL, sqs,
+        new RetryTaskConverter<LineDelimitedDataSubmissionTask>("2878",
+            TaskConverter.CompressionType.LZ4), 60, 0, timeProvider);
+  }
+
+  static void enqueue(TaskQueue<LineDelimitedDataSubmissionTask> queue, String item) {
+    new LineDelimitedDataSubmissionTask(null, UUID.randomUUID(),
+        new DefaultEntityPropertiesForTesting(), queue, "wavefront", ReportableEntityType.POINT,
+        "2878", ImmutableList.of(item), System::currentTimeMillis).enqueue(null);
+  }
+
+  /**
+   * In-process SQS stand-in that keeps messages in memory and counts calls.
+   */
+  static class FakeSQS extends AbstractAmazonSQS {
+    final Deque<Message> visible = new ArrayDeque<>();
+    final Map<String, Message> inFlight = new HashMap<>();
+    final AtomicInteger sendCalls = new AtomicInteger();
+    final AtomicInteger receiveCalls = new AtomicInteger();
+    final AtomicInteger deleteCalls = new AtomicInteger();
+    final AtomicInteger deleted = new AtomicInteger();
+    final AtomicInteger visibilityChanges = new AtomicInteger();
+    boolean failNextSend = false;
+    boolean throwOnNextSend = false;
+    private int receiptHandles = 0;
+
+    @Override
+    public SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+      sendCalls.incrementAndGet();
+      assertTrue(request.getEntries().size() <= 10);
+      if (throwOnNextSend) {
+        throwOnNextSend = false;
+        throw new AmazonClientException("Service unavailable");
+      }
+      SendMessageBatchResult result = new SendMessageBatchResult();
+      for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+        if (failNextSend && entry.getId().equals("1")) {
+          failNextSend = false;
+          result.withFailed(new BatchResultErrorEntry().
+              withId(entry.getId()).withSenderFault(false).withCode("ServiceUnavailable"));
+          continue;
+        }
+        visible.add(new Message().withBody(entry.getMessageBody()));
+      }
+      return result;
+    }
+
+    @Override
+    public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+      receiveCalls.incrementAndGet();
+      List<Message> messages = new ArrayList<>();
+      while (messages.size() < request.getMaxNumberOfMessages() && !visible.isEmpty()) {
+        Message message = visible.poll().clone().
+            withReceiptHandle("handle" + receiptHandles++);
+        inFlight.put(message.getReceiptHandle(), message);
+        messages.add(message);
+      }
+      return new ReceiveMessageResult().withMessages(messages);
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+      deleteCalls.incrementAndGet();
+      assertTrue(request.getEntries().size() <= 10);
+      for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+        if (inFlight.remove(entry.getReceiptHandle()) != null) {
+          deleted.incrementAndGet();
+        }
+      }
+      return new DeleteMessageBatchResult();
+    }
+
+    @Override
+    public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(
+        ChangeMessageVisibilityBatchRequest request) {
+      visibilityChanges.addAndGet(request.getEntries().size());
+      return new ChangeMessageVisibilityBatchResult();
+    }
+
+    @Override
+    public GetQueueAttributesResult getQueueAttributes(GetQueueAttributesRequest request) {
+      return new GetQueueAttributesResult().withAttributes(ImmutableMap.of(
+          QueueAttributeName.ApproximateNumberOfMessages.toString(),
+          Integer.toString(visible.size())));
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package com.wavefront.agent.queueing;
+
+import com.wavefront.agent.data.LineDelimitedDataSubmissionTask;
+import com.wavefront.agent.queueing.SQSSubmissionQueueBatchingTest.FakeSQS;
+import org.junit.Test;
+
+import static com.wavefront.agent.queueing.SQSSubmissionQueueBatchingTest.enqueue;
+import static com.wavefront.agent.queueing.SQSSubmissionQueueBatchingTest.newQueue;
+
+/**
+ * Compares the number of SQS calls per task made by batched queue operations with
+ * single-message operations (one send, one receive and one delete per task). Not part of the
+ * regular test run, use the {@code benchmarks} profile.
+ */
+public class SQSSubmissionQueueBenchmark {
+
+  @Test
+  public void benchmarkCallsPerTask() throws Exception {
+    for (int tasks : new int[] {10, 95, 1000, 10000}) {
+      FakeSQS sqs = new FakeSQS();
+      SQSSubmissionQueue<LineDelimitedDataSubmissionTask> queue =
+          newQueue(sqs, System::currentTimeMillis);
+      long start = System.nanoTime();
+      for (int i = 0; i < tasks; i++) {
+        enqueue(queue, "item" + i);
+      }
+      queue.flush();
+      while (queue.peek() != null) {
+        queue.remove();
+      }
+      queue.close();
+      long nanos = System.nanoTime() - start;
+      int calls = sqs.sendCalls.get() + sqs.receiveCalls.get() + sqs.deleteCalls.get();
+      System.out.println(tasks + " tasks: SQS calls per task = " + (double) calls / tasks +
+          " (3.0 with single-message operations), " + nanos / 1000 / tasks + "us per task");
+    }
+  }
+}
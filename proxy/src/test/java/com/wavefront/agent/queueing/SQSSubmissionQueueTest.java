@@ -4,7 +4,8 @@ import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
-import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.wavefront.agent.data.DataSubmissionTask;
@@ -90,18 +91,21 @@ public class SQSSubmissionQueueTest<T extends DataSubmissionTask<T>> {
     } else {
       task = null;
     }
-    expect(client.sendMessage(
-        new SendMessageRequest(
+    expect(client.sendMessageBatch(
+        new SendMessageBatchRequest(
             queueUrl,
-            queue.encodeMessageForDelivery(this.expectedTask)))).
+            ImmutableList.of(new SendMessageBatchRequestEntry("0",
+                queue.encodeMessageForDelivery(this.expectedTask)))))).
         andReturn(null);
     replay(client);
     task.enqueue(QueueingReason.RETRY);
+    queue.flush();
 
     reset(client);
     ReceiveMessageRequest msgRequest = new ReceiveMessageRequest().
-        withMaxNumberOfMessages(1).
+        withMaxNumberOfMessages(10).
         withWaitTimeSeconds(1).
+        withVisibilityTimeout(60).
         withQueueUrl(queueUrl);
     ReceiveMessageResult msgResult = new ReceiveMessageResult().
         withMessages(new Message().withBody(queue.encodeMessageForDelivery(task)).withReceiptHandle("handle1"));
@@ -123,6 +127,6 @@ public class SQSSubmissionQueueTest<T extends DataSubmissionTask<T>> {
   }
 
   private SQSSubmissionQueue<? extends T> getTaskQueue() {
-    return new SQSSubmissionQueue<>(queueUrl, client, converter);
+    return new SQSSubmissionQueue<>(queueUrl, client, converter, 60, 0, null);
   }
 }
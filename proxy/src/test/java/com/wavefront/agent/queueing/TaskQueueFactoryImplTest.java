@@ -0,0 +1,48 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.io.Files;
+import com.wavefront.agent.data.LineDelimitedDataSubmissionTask;
+import com.wavefront.agent.handlers.HandlerKey;
+import com.wavefront.data.ReportableEntityType;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class TaskQueueFactoryImplTest {
+  private static final HandlerKey HANDLER_KEY = HandlerKey.of(ReportableEntityType.POINT, "2878");
+
+  @Test
+  public void testQueuesAreStripedAcrossLocations() throws Exception {
+    File dir1 = Files.createTempDir();
+    File dir2 = Files.createTempDir();
+    String buffer1 = dir1.getAbsolutePath() + "/buffer";
+    String buffer2 = dir2.getAbsolutePath() + "/buffer";
+    TaskQueueFactoryImpl factory = new TaskQueueFactoryImpl(buffer1 + "," + buffer2, false,
+        false, 1);
+    for (int i = 0; i < 4; i++) {
+      TaskQueue<LineDelimitedDataSubmissionTask> queue = factory.getTaskQueue(HANDLER_KEY, i);
+      queue.add(FileBasedTaskQueueTest.task(i + 1));
+    }
+    factory.shutdown();
+    assertEquals(2, countQueues(dir1));
+    assertEquals(2, countQueues(dir2));
+
+    // queues with existing files are re-opened where they are, regardless of the order
+    factory = new TaskQueueFactoryImpl(buffer2 + "," + buffer1, false, false, 1);
+    for (int i = 0; i < 4; i++) {
+      TaskQueue<LineDelimitedDataSubmissionTask> queue = factory.getTaskQueue(HANDLER_KEY, i);
+      assertEquals(1, queue.size());
+      assertEquals(Long.valueOf(i + 1), queue.weight());
+    }
+    factory.shutdown();
+    assertEquals(2, countQueues(dir1));
+    assertEquals(2, countQueues(dir2));
+  }
+
+  private static int countQueues(File dir) {
+    File[] lockFiles = dir.listFiles((d, name) -> name.endsWith(".lck"));
+    return lockFiles == null ? 0 : lockFiles.length;
+  }
+}
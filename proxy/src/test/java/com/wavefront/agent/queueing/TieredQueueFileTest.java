@@ -0,0 +1,123 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.io.Files;
+import com.wavefront.agent.data.LineDelimitedDataSubmissionTask;
+import com.wavefront.agent.handlers.HandlerKey;
+import com.wavefront.common.TaggedMetricName;
+import com.wavefront.data.ReportableEntityType;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TieredQueueFileTest {
+
+  @Test
+  public void testSmallBacklogStaysInMemory() throws Exception {
+    QueueFile disk = newDiskQueue();
+    TieredQueueFile queueFile = new TieredQueueFile(disk, 1000);
+    for (int i = 0; i < 10; i++) {
+      queueFile.add(task(i, 50));
+    }
+    assertEquals(10, queueFile.size());
+    assertEquals(500, queueFile.memoryBytes());
+    assertEquals(0, disk.size());
+    for (int i = 0; i < 10; i++) {
+      assertArrayEquals(task(i, 50), queueFile.peek());
+      queueFile.remove();
+    }
+    assertNull(queueFile.peek());
+    assertEquals(0, queueFile.memoryBytes());
+    queueFile.close();
+  }
+
+  @Test
+  public void testOldestTasksSpillToDisk() throws Exception {
+    QueueFile disk = newDiskQueue();
+    TieredQueueFile queueFile = new TieredQueueFile(disk, 1000);
+    for (int i = 0; i < 30; i++) {
+      queueFile.add(task(i, 100));
+    }
+    assertEquals(30, queueFile.size());
+    assertEquals(20, disk.size());
+    assertEquals(1000, queueFile.memoryBytes());
+    // queue order is preserved across tiers
+    for (int i = 0; i < 30; i++) {
+      assertArrayEquals(task(i, 100), queueFile.peek());
+      queueFile.remove();
+      if (i == 5) {
+        queueFile.add(task(30, 100));
+      }
+    }
+    assertArrayEquals(task(30, 100), queueFile.peek());
+    queueFile.close();
+  }
+
+  @Test
+  public void testSpillOnClose() throws Exception {
+    String prefix = Files.createTempDir().getAbsolutePath() + "/points.2878.0";
+    TieredQueueFile queueFile = new TieredQueueFile(
+        new MappedSegmentQueueFile(prefix, 4096, 0, null, null), 1000);
+    queueFile.add(task(1, 10));
+    queueFile.add(task(2, 10));
+    queueFile.close();
+    QueueFile disk = new MappedSegmentQueueFile(prefix, 4096, 0, null, null);
+    assertEquals(2, disk.size());
+    assertArrayEquals(task(1, 10), disk.peek());
+    disk.close();
+  }
+
+  @Test
+  public void testIterator() throws Exception {
+    TieredQueueFile queueFile = new TieredQueueFile(newDiskQueue(), 250);
+    for (int i = 0; i < 5; i++) {
+      queueFile.add(task(i, 100));
+    }
+    Iterator<byte[]> iterator = queueFile.iterator();
+    for (int i = 0; i < 5; i++) {
+      assertArrayEquals(task(i, 100), iterator.next());
+      iterator.remove();
+    }
+    assertFalse(iterator.hasNext());
+    assertEquals(0, queueFile.size());
+    assertEquals(0, queueFile.memoryBytes());
+    queueFile.close();
+  }
+
+  @Test
+  public void testSpillMemoryTiers() throws Exception {
+    String bufferFile = Files.createTempDir().getAbsolutePath() + "/buffer";
+    TaskQueueFactoryImpl factory = new TaskQueueFactoryImpl(bufferFile, false, false, 1,
+        new TaskQueueFactoryImpl.Options().memoryMapped(true).memoryTierBytes(1024 * 1024));
+    TaskQueue<LineDelimitedDataSubmissionTask> queue = factory.getTaskQueue(
+        HandlerKey.of(ReportableEntityType.POINT, "2878"), 0);
+    queue.add(FileBasedTaskQueueTest.task(10));
+    //noinspection unchecked
+    Gauge<Long> memoryTierBytes = (Gauge<Long>) Metrics.defaultRegistry().allMetrics().
+        get(new TaggedMetricName("buffer", "memory-tier-bytes"));
+    assertTrue(memoryTierBytes.value() > 0);
+    factory.spillMemoryTiers();
+    assertEquals(Long.valueOf(0), memoryTierBytes.value());
+    assertEquals(1, queue.size());
+    assertEquals(Long.valueOf(10), queue.weight());
+    factory.shutdown();
+  }
+
+  private static QueueFile newDiskQueue() throws Exception {
+    return new MappedSegmentQueueFile(Files.createTempDir().getAbsolutePath() + "/points.2878.0",
+        4096, -1, null, null);
+  }
+
+  private static byte[] task(int id, int size) {
+    byte[] task = new byte[size];
+    task[0] = (byte) id;
+    return task;
+  }
+}